@@ -9,18 +9,94 @@
  *  Bug notices in the code indicate unsolved problems
  */
 
-import java.util.LinkedList;
-import java.util.Scanner;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.util.Random;
-import java.util.regex.Pattern;
 import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.lang.management.ManagementFactory;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import jdk.jfr.Category;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
 
 class Errors {
     // error messages are counted.
     private static int errorCount = 0;
 
+    // the line of input being processed, or 0 when not reading input
+    private static int line = 0;
+
+    // where each thread's messages go instead of System.err, if anywhere
+    private static final ThreadLocal <List <String>> captured
+            = new ThreadLocal <List <String>> ();
+
+    /** Thrown by fatal instead of exiting while messages are captured
+     */
+    public static class Fatal extends RuntimeException {
+        Fatal( String message ) {
+            super( message );
+        }
+    }
+
+    /** Send this thread's messages to a list instead of System.err, and
+     *  make fatal errors throw {@link Fatal} instead of exiting.  This is
+     *  for programs that embed the simulator; errors captured are not counted.
+     * @param messages the list, or null to go back to System.err
+     */
+    public static void capture( List <String> messages ) {
+        captured.set( messages );
+    }
+
+    /** Set the line number that prefixes messages about the input
+     * @param n the line number, or 0 to stop giving line numbers
+     */
+    public static void setLine( int n ) {
+        line = n;
+    }
+
     /** Allow public read-only access to the count of error messages
      * @return the count
      */
@@ -32,15 +108,23 @@ class Errors {
      * @param message the message to output
      */
     public static void warn( String message ) {
+        if (line > 0) message = "line " + line + ": " + message;
+        List <String> messages = captured.get();
+        if (messages != null) {
+            messages.add( message );
+            return;
+        }
         System.err.println( "Logic: " + message );
         errorCount = errorCount + 1;
     }
 
     /** Report fatal errors, output a message and exit, never to return
+     *  unless messages are being captured
      * @param message the message to output
      */
     public static void fatal( String message ) {
         warn( message );
+        if (captured.get() != null) throw new Fatal( message );
         System.exit( 1 );
     }
 }
@@ -58,8 +142,13 @@ class Errors {
  *  @see Wire
  *  @see AndGate
  *  @see OrGate
+ *  @see NandGate
+ *  @see NorGate
+ *  @see XorGate
+ *  @see XnorGate
  *  @see NotGate
  *  @see ConstGate
+ *  @see BusGate
  */
 
 abstract class Gate {
@@ -69,6 +158,8 @@ abstract class Gate {
     // fields of a gate
     public final String name;            // textual name of gate, never null!
     protected final float delay;         // the delay of this gate, in seconds
+    int id = -1;                         // index in the circuit, trace signal
+    boolean dirty = false;               // waiting in a time slice, see Simulator
 
     // information about gate connections and logic values is all in subclasses
 
@@ -86,8 +177,9 @@ abstract class Gate {
      *  @return the newly constructed gate
      *  @throws ConstructorFailure when a new gate cannot be constructed
      */
-    public final static Gate factory( Scanner sc ) throws ConstructorFailure {
+    public final static Gate factory( ScanSupport sc ) throws ConstructorFailure {
         // tempraries used while constructing a gate
+        final int nameId;
         final String name;
         final String kind;
         final float delay;
@@ -95,23 +187,18 @@ abstract class Gate {
 
         // scan basic fields of input line
         try {
-            name = ScanSupport.nextName(
-                    sc, ()->"gate ???"
-            );
-            kind = ScanSupport.nextName(
-                    sc, ()->"gate " + name + " ???"
-            );
-            delay = ScanSupport.nextFloat(
-                    sc, ()->"gate " + name + " " + kind + " ???"
-            );
+            nameId = sc.nextName();
+            name = sc.name( nameId );
+            kind = sc.name( sc.nextName() );
+            delay = sc.nextFloat();
         } catch (ScanSupport.NotFound e) {
             throw new ConstructorFailure();
         }
 
         // check the fields
-        if (Logic.findGate( name ) != null) {
+        if (Logic.findGate( nameId ) != null) {
             Errors.warn( "Redefinition: gate " + name + " " + kind );
-            sc.nextLine();
+            sc.skipLine();
             throw new ConstructorFailure();
         }
 
@@ -120,34 +207,136 @@ abstract class Gate {
                 // don't throw a failure here, we can build a gate with this error
         );
 
+        // gates of the kinds with several inputs may say how many
+        int inputs = 2;
+        if (isMultiInput( kind ) && sc.hasInt()) {
+            try {
+                inputs = sc.nextInt();
+            } catch (ScanSupport.NotFound e) {
+                throw new ConstructorFailure();
+            }
+            if ((inputs < 1) || (inputs > MultiInputGate.MAX_INPUTS)) {
+                Errors.warn( "Inputs out of range: gate " + name + " " + kind
+                        + " " + delay + " " + inputs
+                );
+                sc.skipLine();
+                throw new ConstructorFailure();
+            }
+        }
+
+        // any gate may be on a bus
+        int bits = 1;
+        if (sc.skipWord( "bus" )) {
+            try {
+                bits = sc.nextInt();
+            } catch (ScanSupport.NotFound e) {
+                throw new ConstructorFailure();
+            }
+            if ((bits < 1) || (bits > BusGate.MAX_BITS)) {
+                Errors.warn( "Bus width out of range: gate " + name + " " + kind
+                        + " " + delay + " bus " + bits
+                );
+                sc.skipLine();
+                throw new ConstructorFailure();
+            }
+        }
+
         // now construct the right kind of gate
-        if ("and".equals( kind )) {
-            newGate = new AndGate( name, delay );
-        } else if ("or".equals( kind )) {
-            newGate = new OrGate( name, delay );
-        } else if ("not".equals( kind )) {
-            newGate = new NotGate( name, delay );
-        } else if ("const".equals( kind )) {
-            newGate = new ConstGate( name, delay );
-        } else {
+        newGate = (bits == 1) ? make( kind, name, delay, inputs )
+                              : makeBus( kind, name, delay, inputs, bits );
+        if (newGate == null) {
             Errors.warn( "Unknown gate kind: gate " + name + " " + kind );
-            sc.nextLine();
+            sc.skipLine();
             throw new ConstructorFailure();
         }
 
-        ScanSupport.lineEnd( sc, ()->newGate.toString() );
+        sc.lineEnd( newGate );
         return newGate;
     }
 
+    /** @param kind the kind, as in the textual description
+     *  @return true if gates of that kind may have any number of inputs
+     */
+    public final static boolean isMultiInput( String kind ) {
+        return "and".equals( kind ) || "or".equals( kind )
+            || "nand".equals( kind ) || "nor".equals( kind )
+            || "xor".equals( kind ) || "xnor".equals( kind );
+    }
+
+    /** construct a gate of the named kind
+     *  @param kind the kind, as in the textual description
+     *  @param name the gate's name
+     *  @param delay the gate's delay
+     *  @param inputs the number of inputs, if the kind allows any number
+     *  @return the new gate, or null if the kind is unknown
+     */
+    public final static Gate make( String kind, String name, float delay, int inputs ) {
+        if ("and".equals( kind )) return new AndGate( name, delay, inputs );
+        if ("or".equals( kind )) return new OrGate( name, delay, inputs );
+        if ("nand".equals( kind )) return new NandGate( name, delay, inputs );
+        if ("nor".equals( kind )) return new NorGate( name, delay, inputs );
+        if ("xor".equals( kind )) return new XorGate( name, delay, inputs );
+        if ("xnor".equals( kind )) return new XnorGate( name, delay, inputs );
+        if ("not".equals( kind )) return new NotGate( name, delay );
+        if ("const".equals( kind )) return new ConstGate( name, delay );
+        return null;
+    }
+
+    /** construct a gate of the named kind on a bus
+     *  @param kind the kind, as in the textual description
+     *  @param name the gate's name
+     *  @param delay the gate's delay
+     *  @param inputs the number of inputs, if the kind allows any number
+     *  @param bits the number of bits of the bus
+     *  @return the new gate, or null if the kind is unknown
+     */
+    public final static Gate makeBus(
+            String kind, String name, float delay, int inputs, int bits
+    ) {
+        if ("const".equals( kind )) return new BusConstGate( name, delay, bits );
+        if ("not".equals( kind )) {
+            return new BusLogicGate( name, delay, Netlist.NOT, 1, bits );
+        }
+        if (isMultiInput( kind )) {
+            return new BusLogicGate( name, delay, Netlist.kindCode( kind ), inputs, bits );
+        }
+        return null;
+    }
+
+    /** get the kind of this gate
+     *  @return the kind, as in the textual description
+     */
+    public abstract String kind();
+
+    /** @return the number of gates this stands for in a flattened circuit
+     */
+    public int size() {
+        return 1;
+    }
+
+    /** @return the number of input pins, numbered from 1 except for not
+     *  gates, whose one pin is 0
+     */
+    public int inputCount() {
+        return 0;
+    }
+
+    /** @return the number of bits of the inputs and output, 1 unless the
+     *  gate is on a bus
+     */
+    public int bits() {
+        return 1;
+    }
+
     /** tell the gate that one of its input pins is in use
-     *  @param w the wire that is connected
+     *  @param w the wire that is connected, or null for a module port
      *  @param pinName the text of a pin name
      *  @return a pin number usable as a parameter to inPinName
      */
     public abstract int registerInput( Wire w, String pinName );
 
     /** tell the gate that one of its output pins is in use
-     *  @param w the wire that is connected
+     *  @param w the wire that is connected, or null for a module port
      *  @param pinName the text of a pin name
      *  @return a pin number usable as a parameter to outPinName
      */
@@ -169,27 +358,87 @@ abstract class Gate {
      */
     public abstract void checkSanity();
 
+    /** schedule whatever events start the simulation; most gates do nothing
+     *  until an input changes
+     */
+    public void launch() {}
+
+    /** get the name of the output pin whose changes are traced
+     *  @return the pin name
+     */
+    public String tracedPinName() {
+        return outPinName( 0 );
+    }
+
     // Simulation methods
 
     /** simulate the change of one of this gate's inputs
-     *  @param time the time when the input changes
+     *  @param time the time when the input changes, in ticks
      *  @param dstPin the pin that changes
      *  @param v the new logic value
+     *  @see Simulator#ticks(double)
+     */
+    public abstract void inputChangeEvent( long time, int dstPin, boolean v );
+
+    /** simulate the change of one of the inputs of a gate on a bus
+     *  @param time the time when the input changes, in ticks
+     *  @param dstPin the pin that changes
+     *  @param v the new value of the bus
+     */
+    public void busInputChangeEvent( long time, int dstPin, long v ) {
+        Errors.fatal( "Bus input to a gate: " + toString() );
+    }
+
+    /** simulate the change of this gate's output
+     *  @param time the time when the output changes, in ticks
+     */
+    protected abstract void outputChangeEvent( long time );
+
+    /** evaluate the gate once every input change of a time slice is in,
+     *  scheduling the change of its output if its value changed; only
+     *  gates that asked {@link Simulator#evaluateLater(Gate)} are called
+     *  @param time the time of the slice, in ticks
+     */
+    void evaluate( long time ) {}
+
+    // Checkpoint methods
+
+    /** @return the number of bytes {@link #saveState(ByteBuffer)} puts
+     */
+    int stateSize() {
+        return 1;
+    }
+
+    /** put the logic values this gate holds in a checkpoint
+     *  @param b where they go, packed as bits; gates without state put 0
+     */
+    void saveState( ByteBuffer b ) {
+        b.put( (byte)0 );
+    }
+
+    /** put back the logic values saved by {@link #saveState(ByteBuffer)}
+     *  @param b where they come from
+     */
+    void restoreState( ByteBuffer b ) {
+        b.get();
+    }
+
+    /** put back the pending output change of a gate using inertial delay
+     *  @param e the event, already scheduled again
      */
-    public abstract void inputChangeEvent( float time, int dstPin, boolean v );
+    void restorePending( Simulator.Event e ) {}
 
 } // abstract class Gate
 
 /** Gathers all of the properties common to single-output gates
  *  Specifically, all LogicGates drive a single list of output wires
  *  with a single output value when an OutputChangeEvent occurs.
- *  @see AndGate
- *  @see OrGate
+ *  @see MultiInputGate
  *  @see NotGate
  */
 abstract class LogicGate extends Gate {
     // set of all wires out of this gate
-    private LinkedList <Wire> outgoing = new LinkedList <Wire> ();
+    private final Fanout outgoing = new Fanout();
 
     // this gate's value, computed by input change events
     protected boolean value = false;
@@ -197,6 +446,13 @@ abstract class LogicGate extends Gate {
     // this gate's most recent actual output value
     private boolean outValue = false;
 
+    // the pending output change, used only with inertial delay
+    private Simulator.Event pending = null;
+
+    // bits of the state saved in checkpoints
+    protected static final int VALUE = 1;
+    protected static final int OUT = 2;
+
     /** The constructor used only from subclasses of LogicGate
      *  @param name used to initialize the final field
      *  @param delay used to initialize the final field
@@ -212,7 +468,7 @@ abstract class LogicGate extends Gate {
      */
     public final int registerOutput( Wire w, String pinName ) {
         if ("out".equals( pinName )) {
-            outgoing.add( w );
+            if (w != null) outgoing.add( w );
             return 0;
         } else {
             Errors.warn( "Illegal output pin: " + name + " " + pinName );
@@ -231,50 +487,132 @@ abstract class LogicGate extends Gate {
 
     // Simulation methods
 
+    /** schedule the output change that follows a change of value.
+     *  With transport delay, every change of value is scheduled and those
+     *  that turn out to change nothing are dropped when they happen.
+     *  With inertial delay, a change of value cancels the pending output
+     *  change, so a pulse shorter than the gate delay never comes out.
+     *  @param time the time the value changed
+     */
+    protected final void valueChanged( long time ) {
+        if (!Simulator.inertialDelay()) {
+            Simulator.scheduleOutput(
+                    time + Simulator.ticks( (delay * 0.95f) + PRNG.randomFloat( delay * 0.1f ) ),
+                    this
+            );
+            return;
+        }
+        if (pending != null) {
+            Simulator.cancel( pending );
+            pending = null;
+        }
+        if (value != outValue) {
+            pending = Simulator.scheduleOutput(
+                    time + Simulator.ticks( (delay * 0.95f) + PRNG.randomFloat( delay * 0.1f ) ),
+                    this
+            );
+        }
+    }
+
+    /** schedule the first output change, at the gate's delay
+     */
+    protected final void launchOutput() {
+        pending = Simulator.scheduleOutput( Simulator.delayTicks( delay ), this );
+    }
+
     /** Simulate an output change on this wire
      *  @param time tells when this wire's input changes
      *  Passes the new value to the input of the gate to which this wire goes.
      *  Uses the this.value field to determine the new output value.
      *  Output change events are scheduled (directly or indirectly) by the
      *  input change event of the actual gate object.
-     *  @see #inputChangeEvent(float, int, boolean)
+     *  @see #inputChangeEvent(long, int, boolean)
      */
-    protected final void outputChangeEvent( float time ) {
+    protected final void outputChangeEvent( long time ) {
+        pending = null;
         if (value != outValue) { // only if the output actually changes
             outValue = value;
-            System.out.println(
-                    "At " + time + " " + toString() +
-                            " out " + " changes to " + value
-            );
-            for (Wire w: outgoing) {
-                w.inputChangeEvent( time, value );
-            }
+            Trace.current.change( time, id, value );
+            if (Metrics.ENABLED) Metrics.fanout( outgoing.size() );
+            outgoing.send( time, value );
         }
     }
 
+    // Checkpoint methods
+
+    void saveState( ByteBuffer b ) {
+        b.put( (byte)stateBits() );
+    }
+
+    void restoreState( ByteBuffer b ) {
+        restoreStateBits( b.get() );
+    }
+
+    /** @return the value and output value, packed as bits
+     */
+    protected final int stateBits() {
+        return (value ? VALUE : 0) | (outValue ? OUT : 0);
+    }
+
+    /** @param bits the value and output value, packed as by stateBits
+     */
+    protected final void restoreStateBits( int bits ) {
+        value = (bits & VALUE) != 0;
+        outValue = (bits & OUT) != 0;
+    }
+
+    void restorePending( Simulator.Event e ) {
+        pending = e;
+    }
+
 } // abstract class LogicGate
 
-/** Handles the properties common to logic gates with two inputs
- *  Specifically, all two-input gates have two input wires, in1 an in2.
+/** Handles the properties common to logic gates with several inputs
+ *  Specifically, a gate with n inputs has input wires in1 up to in<i>n</i>,
+ *  two unless the description says otherwise.  The inputs are kept as a
+ *  bitset with a count of those that are true, so a change of one input
+ *  updates the value in constant time, however many inputs there are.
  *  @see AndGate
  *  @see OrGate
+ *  @see NandGate
+ *  @see NorGate
+ *  @see XorGate
+ *  @see XnorGate
  *  @see LogicGate
  */
-abstract class TwoInputGate extends LogicGate {
-    // usage records for inputs
-    protected boolean in1used = false;
-    protected boolean in2used = false;
+abstract class MultiInputGate extends LogicGate {
+    // the most inputs a gate may have, one bit of the bitsets each
+    public static final int MAX_INPUTS = 64;
 
-    // Boolean values of inputs
-    protected boolean in1 = false;
-    protected boolean in2 = false;
+    // the number of inputs
+    protected final int inputs;
 
-    /** The constructor used only from subclasses of TwoInputGate
+    // usage records for inputs, bit i - 1 for pin in<i>i</i>
+    private long used = 0;
+
+    // Boolean values of inputs, as for used, and how many of them are true
+    private long in = 0;
+    protected int ones = 0;
+
+    // bits of the state saved in checkpoints, after those of LogicGate,
+    // for gates with at most two inputs; wider gates save the bitset
+    private static final int IN1 = 4;
+    private static final int IN2 = 8;
+
+    /** The constructor used only from subclasses of MultiInputGate
      *  @param name used to initialize the final field
      *  @param delay used to initialize the final field
+     *  @param inputs used to initialize the final field
      */
-    protected TwoInputGate( String name, float delay ) {
+    protected MultiInputGate( String name, float delay, int inputs ) {
         super( name, delay );
+        this.inputs = inputs;
+    }
+
+    /** @return the number of input pins
+     */
+    public final int inputCount() {
+        return inputs;
     }
 
     /** tell the gate that one of its input pins is in use
@@ -283,22 +621,34 @@ abstract class TwoInputGate extends LogicGate {
      *  @return corresponding pin number, else return -1
      */
     public final int registerInput( Wire w, String pinName ) {
-        if ("in1".equals( pinName )) {
-            if (in1used) Errors.warn(
-                    "Multiple uses of input pin: " + name + " in1"
-            );
-            in1used = true;
-            return 1;
-        } else if ("in2".equals( pinName )) {
-            if (in2used) Errors.warn(
-                    "Multiple uses of input pin: " + name + " in2"
-            );
-            in2used = true;
-            return 2;
-        } else {
+        int pin = pinNumber( pinName, inputs );
+        if (pin < 0) {
             Errors.warn( "Illegal input pin: " + name + " " + pinName );
             return -1;
         }
+        long bit = 1L << (pin - 1);
+        if ((used & bit) != 0) Errors.warn(
+                "Multiple uses of input pin: " + name + " " + pinName
+        );
+        used = used | bit;
+        return pin;
+    }
+
+    /** @param pinName the text of a pin name
+     *  @param inputs the number of inputs of the gate
+     *  @return the number of the input pin of that name, in1 up to
+     *  in<i>inputs</i>, or -1 if none
+     */
+    static int pinNumber( String pinName, int inputs ) {
+        if (!pinName.startsWith( "in" ) || (pinName.length() < 3)) return -1;
+        if (pinName.charAt( 2 ) == '0') return -1; // no leading zeros
+        int pin = 0;
+        for (int i = 2; i < pinName.length(); i++) {
+            char c = pinName.charAt( i );
+            if ((c < '0') || (c > '9') || (pin > inputs)) return -1;
+            pin = (10 * pin) + (c - '0');
+        }
+        return (pin <= inputs) ? pin : -1;
     }
 
     /** get the name of the input pin, given its number
@@ -306,136 +656,306 @@ abstract class TwoInputGate extends LogicGate {
      * @return corresponding pin name, else return '???'
      */
     public final String inPinName( int pinNumber ) {
-        if (pinNumber == 1) return "in1";
-        if (pinNumber == 2) return "in2";
+        if ((pinNumber >= 1) && (pinNumber <= inputs)) return "in" + pinNumber;
         return "???";
     }
 
     /** check the sanity of this gate's connections
      */
     public final void checkSanity() {
-        if (!in1used) Errors.warn( "Unused input pin: " + name + " in1" );
-        if (!in2used) Errors.warn( "Unused input pin: " + name + " in2" );
+        for (int pin = 1; pin <= inputs; pin++) {
+            if ((used & (1L << (pin - 1))) == 0) Errors.warn(
+                    "Unused input pin: " + name + " in" + pin
+            );
+        }
+    }
+
+    /** reconstruct the textual description of this gate
+     *  @return the textual description, giving the number of inputs
+     *  only if it isn't two
+     */
+    public final String toString() {
+        String s = "gate " + name + " " + kind() + " " + delay;
+        return (inputs == 2) ? s : (s + " " + inputs);
+    }
+
+    /** launch the simulation from here - if the value with every input
+     *  false is true, schedule a {@link #outputChangeEvent(long)} with the
+     *  output true, as not gates do
+     */
+    public final void launch() {
+        value = computeValue();
+        if (value) launchOutput();
     }
 
     // Simulation methods
 
-    /** update the output value of a gate based on its input values
-     *  This is called from inputChangeEvent to delegate the response of the
-     *  logic gate to the input change to the actual gate instead of this
-     *  abstract class.
-     *  @param time the value is updated
+    /** compute the value of the gate from its input values
+     *  This is called from inputChangeEvent to delegate the logic function
+     *  to the actual gate instead of this abstract class.
+     *  @return the value, given the count of true inputs in ones
      */
-    public abstract void updateValue( float time );
+    protected abstract boolean computeValue();
 
     /** simulate the change of one of this gate's inputs
      *  @param time the time when the input changes
      *  @param dstPin the pin that changes
      *  @param v the new logic value
      */
-    public void inputChangeEvent( float time, int dstPin, boolean v ) {
-        if (dstPin == 1) {
-            in1 = v;
-        } else if (dstPin == 2) {
-            in2 = v;
+    public final void inputChangeEvent( long time, int dstPin, boolean v ) {
+        long bit = 1L << (dstPin - 1);
+        if (((in & bit) != 0) != v) {
+            in = in ^ bit;
+            ones = v ? (ones + 1) : (ones - 1);
+        }
+        if (Simulator.timeSlices()) {
+            Simulator.evaluateLater( this );
+        } else {
+            evaluate( time );
+        }
+    }
+
+    final void evaluate( long time ) {
+        boolean newVal = computeValue();
+        if (newVal != value) {
+            value = newVal;
+            valueChanged( time );
+        }
+    }
+
+    // Checkpoint methods
+
+    int stateSize() {
+        return (inputs <= 2) ? 1 : (1 + 8);
+    }
+
+    void saveState( ByteBuffer b ) {
+        if (inputs <= 2) {
+            b.put( (byte)(stateBits() | ((int)in << 2)) );
+        } else {
+            b.put( (byte)stateBits() ).putLong( in );
         }
-        updateValue( time );
     }
 
-} // abstract class TwoInputGate
+    void restoreState( ByteBuffer b ) {
+        int bits = b.get();
+        restoreStateBits( bits );
+        in = (inputs <= 2) ? ((bits & (IN1 | IN2)) >>> 2) : b.getLong();
+        ones = Long.bitCount( in );
+    }
+
+} // abstract class MultiInputGate
 
 /** Handles the properties specific to and gates.
- *  @see TwoInputGate
+ *  @see MultiInputGate
  *  @see LogicGate
  */
-final class AndGate extends TwoInputGate {
+final class AndGate extends MultiInputGate {
 
     /** The constructor used only from within class Gate
      *  @param name used to initialize the final field
      *  @param delay used to initialize the final field
+     *  @param inputs used to initialize the final field
      */
-    public AndGate( String name, float delay ) {
-        super( name, delay );
+    public AndGate( String name, float delay, int inputs ) {
+        super( name, delay, inputs );
     }
 
-    /** reconstruct the textual description of this gate
-     *  @return the textual description
+    /** get the kind of this gate
+     *  @return "and"
      */
-    public String toString() {
-        return "gate " + name + " and " + delay;
+    public String kind() {
+        return "and";
     }
 
     // Simulation methods
 
-    /** update the output value of a gate based on its input values.
-     *  update to false if at least one input is now false.
-     *  update to true if both inputs are now true.
-     *  if the value has changed, schedule a {@link #outputChangeEvent(float)}
-     *  @param time the value is updated
+    /** compute the value of the gate from its input values.
+     *  false if at least one input is false.
+     *  true if all inputs are true.
+     *  @return the value
      */
-    public void updateValue( float time ) {
-        boolean newVal = in1 & in2;
-        if (newVal != value) {
-            value = newVal;
-            Simulator.schedule(
-                    new Simulator.Event( time + (delay * 0.95f) +
-                                         PRNG.randomFloat( delay * 0.1f )) {
-                        void trigger() {
-                            outputChangeEvent( time );
-                        }
-                    }
-            );
-        }
+    protected boolean computeValue() {
+        return ones == inputs;
     }
 
 } // class AndGate
 
 /** Handles the properties specific to or gates.
- *  @see TwoInputGate
+ *  @see MultiInputGate
  *  @see LogicGate
  */
-final class OrGate extends TwoInputGate {
+final class OrGate extends MultiInputGate {
 
     /** The constructor used only from within class Gate
      *  @param name used to initialize the final field
      *  @param delay used to initialize the final field
+     *  @param inputs used to initialize the final field
      */
-    public OrGate( String name, float delay ) {
-        super( name, delay );
+    public OrGate( String name, float delay, int inputs ) {
+        super( name, delay, inputs );
     }
 
-    /** reconstruct the textual description of this gate
-     *  @return the textual description
+    /** get the kind of this gate
+     *  @return "or"
      */
-    public String toString() {
-        return "gate " + name + " or " + delay;
+    public String kind() {
+        return "or";
     }
 
     // Simulation methods
 
-    /** update the output value of a gate based on its input values.
-     *  update to false if both inputs are now false.
-     *  update to true if both inputs are now true.
-     *  if the value has changed, schedule a {@link #outputChangeEvent(float)}
-     *  @param time the value is updated
+    /** compute the value of the gate from its input values.
+     *  false if all inputs are false.
+     *  true if at least one input is true.
+     *  @return the value
      */
-    public void updateValue( float time ) {
-        boolean newVal = in1 | in2;
-        if (newVal != value) {
-            value = newVal;
-            Simulator.schedule(
-                    new Simulator.Event( time + (delay * 0.95f) +
-                                         PRNG.randomFloat( delay * 0.1f )) {
-                        void trigger() {
-                            outputChangeEvent( time );
-                        }
-                    }
-            );
-        }
+    protected boolean computeValue() {
+        return ones != 0;
     }
 
 } // class OrGate
 
+/** Handles the properties specific to nand gates.
+ *  @see MultiInputGate
+ *  @see LogicGate
+ */
+final class NandGate extends MultiInputGate {
+
+    /** The constructor used only from within class Gate
+     *  @param name used to initialize the final field
+     *  @param delay used to initialize the final field
+     *  @param inputs used to initialize the final field
+     */
+    public NandGate( String name, float delay, int inputs ) {
+        super( name, delay, inputs );
+    }
+
+    /** get the kind of this gate
+     *  @return "nand"
+     */
+    public String kind() {
+        return "nand";
+    }
+
+    // Simulation methods
+
+    /** compute the value of the gate from its input values.
+     *  false if all inputs are true.
+     *  true if at least one input is false.
+     *  @return the value
+     */
+    protected boolean computeValue() {
+        return ones != inputs;
+    }
+
+} // class NandGate
+
+/** Handles the properties specific to nor gates.
+ *  @see MultiInputGate
+ *  @see LogicGate
+ */
+final class NorGate extends MultiInputGate {
+
+    /** The constructor used only from within class Gate
+     *  @param name used to initialize the final field
+     *  @param delay used to initialize the final field
+     *  @param inputs used to initialize the final field
+     */
+    public NorGate( String name, float delay, int inputs ) {
+        super( name, delay, inputs );
+    }
+
+    /** get the kind of this gate
+     *  @return "nor"
+     */
+    public String kind() {
+        return "nor";
+    }
+
+    // Simulation methods
+
+    /** compute the value of the gate from its input values.
+     *  false if at least one input is true.
+     *  true if all inputs are false.
+     *  @return the value
+     */
+    protected boolean computeValue() {
+        return ones == 0;
+    }
+
+} // class NorGate
+
+/** Handles the properties specific to xor gates.
+ *  @see MultiInputGate
+ *  @see LogicGate
+ */
+final class XorGate extends MultiInputGate {
+
+    /** The constructor used only from within class Gate
+     *  @param name used to initialize the final field
+     *  @param delay used to initialize the final field
+     *  @param inputs used to initialize the final field
+     */
+    public XorGate( String name, float delay, int inputs ) {
+        super( name, delay, inputs );
+    }
+
+    /** get the kind of this gate
+     *  @return "xor"
+     */
+    public String kind() {
+        return "xor";
+    }
+
+    // Simulation methods
+
+    /** compute the value of the gate from its input values.
+     *  false if an even number of inputs are true.
+     *  true if an odd number of inputs are true.
+     *  @return the value
+     */
+    protected boolean computeValue() {
+        return (ones & 1) != 0;
+    }
+
+} // class XorGate
+
+/** Handles the properties specific to xnor gates.
+ *  @see MultiInputGate
+ *  @see LogicGate
+ */
+final class XnorGate extends MultiInputGate {
+
+    /** The constructor used only from within class Gate
+     *  @param name used to initialize the final field
+     *  @param delay used to initialize the final field
+     *  @param inputs used to initialize the final field
+     */
+    public XnorGate( String name, float delay, int inputs ) {
+        super( name, delay, inputs );
+    }
+
+    /** get the kind of this gate
+     *  @return "xnor"
+     */
+    public String kind() {
+        return "xnor";
+    }
+
+    // Simulation methods
+
+    /** compute the value of the gate from its input values.
+     *  false if an odd number of inputs are true.
+     *  true if an even number of inputs are true.
+     *  @return the value
+     */
+    protected boolean computeValue() {
+        return (ones & 1) == 0;
+    }
+
+} // class XnorGate
+
 /** Handles the properties specific to not gates.
  *  @see LogicGate
  */
@@ -443,6 +963,9 @@ final class NotGate extends LogicGate {
     // usage records for inputs
     private boolean inUsed = false;
 
+    // the value called for by the last input change of a time slice
+    private boolean next = false;
+
     /** The constructor used only from within class Gate
      *  @param name used to initialize the final field
      *  @param delay used to initialize the final field
@@ -451,6 +974,12 @@ final class NotGate extends LogicGate {
         super( name, delay );
     }
 
+    /** @return 1, the number of input pins
+     */
+    public int inputCount() {
+        return 1;
+    }
+
     /** tell the gate that one of its input pins is in use
      *  @param w the wire that is connected
      *  @param pinName name of input pin being registered
@@ -479,20 +1008,24 @@ final class NotGate extends LogicGate {
     }
 
     /** check the sanity of this gate's connections.
-     *  launch the simulation from here - schedule a {@link #outputChangeEvent(float)}
      */
     public void checkSanity() {
         if (!inUsed) Errors.warn( "Unused input pin: " + name + " in" );
+    }
 
-        // this is a good time to launch the simulation
+    /** launch the simulation from here - schedule a {@link #outputChangeEvent(long)}
+     *  with the output true, as it is when the input is false
+     */
+    public void launch() {
         value = true;
-        Simulator.schedule(
-                new Simulator.Event( delay ) {
-                    void trigger() {
-                        outputChangeEvent( time );
-                    }
-                }
-        );
+        launchOutput();
+    }
+
+    /** get the kind of this gate
+     *  @return "not"
+     */
+    public String kind() {
+        return "not";
     }
 
     /** reconstruct the textual description of this gate
@@ -505,31 +1038,36 @@ final class NotGate extends LogicGate {
     // Simulation methods
 
     /** simulate the change of one of this gate's inputs
-     *  if the inputs have changed, schedule a {@link #outputChangeEvent(float)}
+     *  if the inputs have changed, schedule a {@link #outputChangeEvent(long)}
      *  @param t the time when the input changes
      *  @param dstPin the pin that changes
      *  @param v the new logic value
      */
-    public void inputChangeEvent( float t, int dstPin, boolean v ) {
+    public void inputChangeEvent( long t, int dstPin, boolean v ) {
+        if (Simulator.timeSlices()) {
+            next = !v;
+            Simulator.evaluateLater( this );
+            return;
+        }
         value = !v;
-        Simulator.schedule(
-                new Simulator.Event( t + (delay * 0.95f) +
-                                     PRNG.randomFloat( delay * 0.1f ) ) {
-                    void trigger() {
-                        outputChangeEvent( time );
-                    }
-                }
-        );
+        valueChanged( t );
     }
 
-} // class NotGate
-
+    void evaluate( long time ) {
+        if (next != value) {
+            value = next;
+            valueChanged( time );
+        }
+    }
+
+} // class NotGate
+
 /** Handles the properties specific to const gates.
  */
 final class ConstGate extends Gate {
     // set of all wires out of this gate
-    private LinkedList <Wire> outgoingTrue = new LinkedList <Wire> ();
-    private LinkedList <Wire> outgoingFalse = new LinkedList <Wire> ();
+    private final Fanout outgoingTrue = new Fanout();
+    private ArrayList <Wire> outgoingFalse = new ArrayList <Wire> ();
 
     /** The constructor used only from within class Gate
      *  @param name used to initialize the final field
@@ -557,10 +1095,10 @@ final class ConstGate extends Gate {
      */
     public int registerOutput( Wire w, String pinName ) {
         if ("true".equals( pinName )) {
-            outgoingTrue.add( w );
+            if (w != null) outgoingTrue.add( w );
             return 1;
         } else if ("false".equals( pinName )) {
-            outgoingFalse.add( w );
+            if (w != null) outgoingFalse.add( w );
             return 0;
         } else {
             Errors.warn( "Illegal output pin: " + name + " " + pinName );
@@ -586,20 +1124,30 @@ final class ConstGate extends Gate {
         return "???";
     }
 
+    /** get the name of the output pin whose changes are traced
+     *  @return "true", the false output never changes
+     */
+    public String tracedPinName() {
+        return "true";
+    }
+
     /** check the sanity of this gate's connections.
-     *  launch the simulation from here - schedule a {@link #outputChangeEvent(float)}
      */
     public void checkSanity() {
         // no sanity check; there are no input pins to check
+    }
 
-        // this is a good time to launch the simulation
-        Simulator.schedule(
-                new Simulator.Event( delay ) {
-                    void trigger() {
-                        outputChangeEvent( time );
-                    }
-                }
-        );
+    /** launch the simulation from here - schedule a {@link #outputChangeEvent(long)}
+     */
+    public void launch() {
+        Simulator.scheduleOutput( Simulator.delayTicks( delay ), this );
+    }
+
+    /** get the kind of this gate
+     *  @return "const"
+     */
+    public String kind() {
+        return "const";
     }
 
     /** reconstruct the textual description of this gate
@@ -617,459 +1165,8205 @@ final class ConstGate extends Gate {
      *  @param dstPin the pin that changes
      *  @param v the new logic value
      */
-    public void inputChangeEvent( float time, int dstPin, boolean v ) {
+    public void inputChangeEvent( long time, int dstPin, boolean v ) {
         Errors.fatal( "Input should never change: " + toString() );
     }
 
     /** simulate the change of this gate's output, then change the value of
      *  all wires connected to the output of this gate by calling
-     *  {@link Wire#inputChangeEvent(float, boolean)}
+     *  {@link Fanout#send(long, boolean)}
      * @param time the time when the output changes
      */
-    public void outputChangeEvent( float time ) {
-        System.out.println(
-                "At " + time + " " + toString() + " true " + " changes to true"
-        );
-        for (Wire w: outgoingTrue) {
-            w.inputChangeEvent( time, true );
-        }
+    public void outputChangeEvent( long time ) {
+        Trace.current.change( time, id, true );
+        if (Metrics.ENABLED) Metrics.fanout( outgoingTrue.size() );
+        outgoingTrue.send( time, true );
     }
 
 } // class ConstGate
 
-/** Logic.java
- * Main class for a program to process description of a logic circuit
- * author Douglas W. Jones
- * version 2017-11-15 (MP5 solution)
- * Adapted from Logic.java Version 2017-10-20 (the MP4 solution),
+/** BusGate.java
+ * Gates whose inputs and output are buses of up to 64 bits
  *
  * Bug notices in the code indicate unsolved problems
  */
 
-/** The main class, orchestrates the building and simulation of a logic circuit.
- *  Logic circuits consist of a collection of gates connected by wires.
- *  Logic circuits are built using tools in class ScanSupport, with
- *  error reporting using class Errors.
- *  The actual simulation is done by Simulator.run()
- *  @see Simulator
- *  @see Wire
- *  @see Gate
- *  @see ScanSupport
- *  @see Errors
+/** Handles the properties common to gates on buses.  A bus of n bits
+ *  carries a long, of which the low n bits are used, and a change of any
+ *  number of its bits is one event.  Wires join gates of the same width.
+ *  @see BusLogicGate
+ *  @see BusConstGate
  */
-public class Logic {
+abstract class BusGate extends Gate {
+    // the most bits a bus may have, those of a long
+    public static final int MAX_BITS = 64;
 
-    // the sets of all wires and all gates
-    private static LinkedList <Wire> wires
-            = new LinkedList <Wire> ();
-    private static LinkedList <Gate> gates
-            = new LinkedList <Gate> ();
+    // the width of the bus, and the bits of a long that it uses
+    protected final int bits;
+    protected final long mask;
 
-    /** Find a gate by textual name in the set gates
-     *  @param s name of a gate
-     *  @return the gate named s or null if none
+    /** The constructor used only from subclasses of BusGate
+     *  @param name used to initialize the final field
+     *  @param delay used to initialize the final field
+     *  @param bits used to initialize the final field
      */
-    public static Gate findGate( String s ) {
-        // quick and dirty implementation
-        for (Gate i: gates) {
-            if (i.name.equals( s )) {
-                return i;
-            }
-        }
-        return null;
+    protected BusGate( String name, float delay, int bits ) {
+        super( name, delay );
+        this.bits = bits;
+        mask = -1L >>> (MAX_BITS - bits);
     }
 
-    /** Initialize this logic circuit by scanning its description
-     * @param sc the scanner from which end of line is scanned
+    /** @return the number of bits of the bus
      */
-    private static void readCircuit( Scanner sc ) {
-        while (sc.hasNext()) {
-            String command = sc.next();
-            if ("gate".equals( command )) {
-                try {
-                    gates.add( Gate.factory( sc ) );
-                } catch (Gate.ConstructorFailure e) {
-                    // do nothing, the constructor already reported the error
-                }
-            } else if ("wire".equals( command )) {
-                try {
-                    wires.add( new Wire( sc ) );
-                } catch (Wire.ConstructorFailure e) {
-                    // do nothing, the constructor already reported the error
-                }
-            } else if ("--".equals( command )) {
-                sc.nextLine();
-            } else {
-                Errors.warn( "unknown command: " + command );
-                sc.nextLine();
-            }
-        }
+    public final int bits() {
+        return bits;
     }
 
-    /** Check that a circuit is properly constructed
+    /** simulate the change of one of this gate's inputs; buses change
+     *  through {@link #busInputChangeEvent(long, int, long)} instead
+     *  @param time the time when the input changes
+     *  @param dstPin the pin that changes
+     *  @param v the new logic value
      */
-    private static void sanityCheck() {
-        for (Gate i: gates) i.checkSanity();
-        // Bug: Are there any sensible sanity checks on wires?
+    public final void inputChangeEvent( long time, int dstPin, boolean v ) {
+        Errors.fatal( "Bit input to a bus: " + toString() );
     }
 
-    /** Print out the wire network to system.out
+} // abstract class BusGate
+
+/** Handles the properties of and, or, nand, nor, xor, xnor and not gates
+ *  on buses, which apply their logic function to each bit of the bus.
+ *  @see BusGate
+ */
+final class BusLogicGate extends BusGate {
+    // the kind of gate, as in Netlist
+    private final byte kind;
+
+    // set of all wires out of this gate
+    private final Fanout outgoing = new Fanout();
+
+    // the values of the inputs, and the usage records for them, indexed
+    // by pin number - 1, or 0 for the one input of a not gate
+    private final long[] in;
+    private final boolean[] used;
+
+    // this gate's value and most recent actual output value
+    private long value = 0;
+    private long outValue = 0;
+
+    // the pending output change, used only with inertial delay
+    private Simulator.Event pending = null;
+
+    /** The constructor used only from within class Gate
+     *  @param name used to initialize the final field
+     *  @param delay used to initialize the final field
+     *  @param kind the kind code of the gate, as in Netlist
+     *  @param inputs the number of inputs, 1 for not gates
+     *  @param bits the number of bits of the bus
      */
-    private static void printCircuit() {
-        for (Gate i: gates) {
-            System.out.println( i.toString() );
-        }
-        for (Wire r: wires) {
-            System.out.println( r.toString() );
-        }
+    public BusLogicGate( String name, float delay, byte kind, int inputs, int bits ) {
+        super( name, delay, bits );
+        this.kind = kind;
+        in = new long[inputs];
+        used = new boolean[inputs];
     }
 
-    /** Main program
-     * @param args file input names
+    /** @return the number of input pins
      */
-    public static void main( String[] args ) {
-        if (args.length < 1) {
-            Errors.fatal( "Missing file name argument" );
-        } else if (args.length > 1) {
-            Errors.fatal( "Too many arguments" );
-        } else try {
-            readCircuit( new Scanner( new File( args[0] ) ) );
-            sanityCheck();
-            if (Errors.count() == 0) Simulator.run();
-            // note that writeCircuit is no longer called anywhere
-        } catch (FileNotFoundException e) {
-            Errors.fatal( "Can't open the file" );
+    public int inputCount() {
+        return in.length;
+    }
+
+    /** tell the gate that one of its input pins is in use
+     *  @param w the wire that is connected
+     *  @param pinName name of input pin being registered
+     *  @return corresponding pin number, else return -1
+     */
+    public int registerInput( Wire w, String pinName ) {
+        int pin = (kind == Netlist.NOT)
+                ? ("in".equals( pinName ) ? 0 : -1)
+                : MultiInputGate.pinNumber( pinName, in.length );
+        if (pin < 0) {
+            Errors.warn( "Illegal input pin: " + name + " " + pinName );
+            return -1;
         }
+        if (used[slot( pin )]) Errors.warn(
+                "Multiple uses of input pin: " + name + " " + pinName
+        );
+        used[slot( pin )] = true;
+        return pin;
     }
-}
 
-/** PRNG.java
- * support class for pseudo-random number generation
- * author Douglas W. Jones
- * version 2017-11-15 (MP5 solution)
- * Adapted from Logic.java Version 2017-10-30 (the MP4 solution).
- *
- * Bug notices in the code indicate unsolved problems
- */
+    /** tell the gate that one of its output pins is in use
+     *  @param w the wire that is connected
+     *  @param pinName name of output pin being registered
+     *  @return corresponding pin number
+     */
+    public int registerOutput( Wire w, String pinName ) {
+        if ("out".equals( pinName )) {
+            if (w != null) outgoing.add( w );
+            return 0;
+        } else {
+            Errors.warn( "Illegal output pin: " + name + " " + pinName );
+            return -1;
+        }
+    }
 
-/** Pseudo Random Number Generator
- *  needed to make a single global stream of numbers, hiding Java's failures
- */
-class PRNG {
-    private static Random stream = new Random( 29 );
-    // Bug:  For debugging, use a known seed so errors are reproducable
+    /** @param pin an input pin number
+     *  @return its index in the input arrays
+     */
+    private int slot( int pin ) {
+        return (kind == Netlist.NOT) ? 0 : (pin - 1);
+    }
 
-    /** get a number n where 0 less than or equal to n  and less than bound
-     *  @param bound the boundery between it and zero from which to generate
-     *               a random integer
-     *  @return n
+    /** get the name of the input pin, given its number
+     * @param pinNumber number of input pin corresponding to its name
+     * @return corresponding pin name, else return '???'
      */
-    public static int fromZeroTo( int bound ) {
-        return stream.nextInt( bound );
+    public String inPinName( int pinNumber ) {
+        if (kind == Netlist.NOT) return (pinNumber == 0) ? "in" : "???";
+        if ((pinNumber >= 1) && (pinNumber <= in.length)) return "in" + pinNumber;
+        return "???";
     }
 
-    /** get a floating point number x such that 0 less than or equal to
-     *  n and less than bound
-     *  @param f the percentage you would like from the random float generated
-     *  @return x
+    /** get the name of the output pin, given its number
+     *  @param pinNumber number of output pin corresponding to its name
+     *  @return pinName
      */
-    public static float randomFloat( float f ) {
-        return stream.nextFloat() * f;
+    public String outPinName( int pinNumber ) {
+        if (pinNumber == 0) return "out";
+        return "???";
     }
-}
 
-/** ScanSupport.java
- * A support class for scanning input files
- * author Douglas W. Jones
- * version 2017-11-15 (MP5 solution)
- * Adapted from Logic.java Version 2017-10-30 (the MP4 solution).
- *
- * Class ScanSupport taken from RoadNetwork.java Version 2017-10-25
- *
- * Bug notices in the code indicate unsolved problems
- */
+    /** check the sanity of this gate's connections
+     */
+    public void checkSanity() {
+        for (int i = 0; i < in.length; i++) {
+            if (!used[i]) Errors.warn( "Unused input pin: " + name + " "
+                    + inPinName( (kind == Netlist.NOT) ? 0 : (i + 1) )
+            );
+        }
+    }
 
-/** Support methods for scanning
- * @see Errors
- */
-class ScanSupport {
-    // exception thrown to indicate failure
-    public static class NotFound extends Exception {}
+    /** launch the simulation from here - schedule a {@link #outputChangeEvent(long)}
+     *  if any bit of the value with every input false is true
+     */
+    public void launch() {
+        value = computeValue();
+        if (value != 0) pending = Simulator.scheduleOutput( Simulator.delayTicks( delay ), this );
+    }
 
-    // patterns needed for scanning
-    private static final Pattern name
-            = Pattern.compile( "[a-zA-Z0-9_]*" );
-    private static final Pattern intPattern
-            = Pattern.compile( "-?[0-9][0-9]*|");
-    private static final Pattern floatPattern
-            = Pattern.compile( "-?[0-9][0-9]*\\.?[0-9]*|\\.[0-9][0-9]*|");
-    private static final Pattern whitespace
-            = Pattern.compile( "[ \t]*" ); // no newlines
+    /** get the kind of this gate
+     *  @return the kind, as in the textual description
+     */
+    public String kind() {
+        return Netlist.KINDS[kind];
+    }
 
-    // interface for passing error messages
-    public static interface Message {
-        public String myString();
+    /** reconstruct the textual description of this gate
+     *  @return the textual description
+     */
+    public String toString() {
+        String s = "gate " + name + " " + kind() + " " + delay;
+        if ((kind != Netlist.NOT) && (in.length != 2)) s = s + " " + in.length;
+        return s + " bus " + bits;
     }
 
-    /** Get next name without skipping to next line (unlike sc.Next())
-     *  @param sc the scanner from which end of line is scanned
-     *  @param m the context part of the missing name error message
-     *  @return the name if there was one.
-     *  @throws NotFound if there wasn't one
+    // Simulation methods
+
+    /** compute the value of the gate, bit by bit, from its input values
+     *  @return the value
      */
-    public static String nextName( Scanner sc, Message m ) throws NotFound {
-        sc.skip( whitespace );
-        sc.skip( name );
-        String s = sc.match().group();
-        if ("".equals( s )) {
-            Errors.warn( "name expected: " + m.myString() );
-            sc.nextLine();
-            throw new NotFound();
+    private long computeValue() {
+        long v;
+        switch (kind) {
+        case Netlist.AND:
+        case Netlist.NAND:
+            v = -1L;
+            for (long i: in) v = v & i;
+            break;
+        case Netlist.OR:
+        case Netlist.NOR:
+            v = 0;
+            for (long i: in) v = v | i;
+            break;
+        case Netlist.XOR:
+        case Netlist.XNOR:
+            v = 0;
+            for (long i: in) v = v ^ i;
+            break;
+        default: // Netlist.NOT
+            v = in[0];
         }
-        return s;
+        if ((kind == Netlist.NAND) || (kind == Netlist.NOR)
+        ||  (kind == Netlist.XNOR) || (kind == Netlist.NOT)) v = ~v;
+        return v & mask;
     }
 
-    /** Get next int without skipping to next line (unlike sc.nextInt())
-     *  @param sc the scanner from which end of line is scanned
-     *  @param m the message to output if there was no int
-     *  @return the value if there was one
-     *  @throws NotFound if there wasn't one
+    /** simulate the change of one of this gate's inputs, as a LogicGate does
+     *  @param time the time when the input changes
+     *  @param dstPin the pin that changes
+     *  @param v the new value of the bus
      */
-    public static int nextInt( Scanner sc, Message m ) throws NotFound {
-        sc.skip( whitespace );
-        sc.skip( intPattern );
-        String s = sc.match().group();
-        if ("".equals( s )) {
-            Errors.warn( "Float expected: " + m.myString() );
-            sc.nextLine();
-            throw new NotFound();
+    public void busInputChangeEvent( long time, int dstPin, long v ) {
+        in[slot( dstPin )] = v;
+        if (Simulator.timeSlices()) {
+            Simulator.evaluateLater( this );
+        } else {
+            evaluate( time );
         }
-        // now, s is guaranteed to hold a legal int
-        return Integer.parseInt( s );
     }
 
-    /** Get next float without skipping to next line (unlike sc.nextFloat())
-     *  @param sc the scanner from which end of line is scanned
-     *  @param m the message to output if there was no float
-     *  @return the value if there was one
-     *  @throws NotFound if there wasn't one
-     */
-    public static float nextFloat( Scanner sc, Message m ) throws NotFound {
-        sc.skip( whitespace );
-        sc.skip( floatPattern );
-        String s = sc.match().group();
-        if ("".equals( s )) {
-            Errors.warn( "Float expected: " + m.myString() );
-            sc.nextLine();
-            throw new NotFound();
+    void evaluate( long time ) {
+        long newVal = computeValue();
+        if (newVal == value) return;
+        value = newVal;
+        if (!Simulator.inertialDelay()) {
+            Simulator.scheduleOutput(
+                    time + Simulator.ticks( (delay * 0.95f) + PRNG.randomFloat( delay * 0.1f ) ),
+                    this
+            );
+            return;
+        }
+        if (pending != null) {
+            Simulator.cancel( pending );
+            pending = null;
+        }
+        if (value != outValue) {
+            pending = Simulator.scheduleOutput(
+                    time + Simulator.ticks( (delay * 0.95f) + PRNG.randomFloat( delay * 0.1f ) ),
+                    this
+            );
         }
-        // now, s is guaranteed to hold a legal float
-        return Float.parseFloat( s );
     }
 
-    /** Advance to next line and complain if is junk at the line end
-     *  @see Errors
-     *  @param sc the scanner from which end of line is scanned
-     *  @param message gives a prefix to give context to error messages
-     *  This version supports comments starting with --
+    /** Simulate an output change, passing the whole bus on to every wire
+     *  @param time when the output changes
      */
-    public static void lineEnd( Scanner sc, Message message ) {
-        sc.skip( whitespace );
-        String lineEnd = sc.nextLine();
-        if ( (!lineEnd.equals( "" ))
-                &&   (!lineEnd.startsWith( "--" )) ) {
-            Errors.warn(
-                    message.myString() +
-                            " followed unexpected by '" + lineEnd + "'"
-            );
+    protected void outputChangeEvent( long time ) {
+        pending = null;
+        if (value != outValue) { // only if the output actually changes
+            outValue = value;
+            Trace.current.changeBus( time, id, value );
+            if (Metrics.ENABLED) Metrics.fanout( outgoing.size() );
+            outgoing.sendBus( time, value );
         }
     }
-} // class ScanSupport
 
-/** Simulator.java
- * Support package for discfrete-event simulation
- * author Douglas W. Jones
- * version 2017-11-15 (MP5 solution)
- * Adapted from Logic.java Version 2017-10-30 (the MP4 solution),
- *
- * Class Simulator taken from RoadNetwork.java Version 2017-10-25
- *
- * Bug notices in the code indicate unsolved problems
- */
+    // Checkpoint methods
 
-/** Framework for discrete event simulation
- *  @author Douglas Jones
- *  @version 4/18/2016
- */
-class Simulator {
+    int stateSize() {
+        return 8 * (2 + in.length);
+    }
 
-    /** Users create subclasses of event to schedule anything
-     */
-    public static abstract class Event {
-        protected final float time; // the time of this event
+    void saveState( ByteBuffer b ) {
+        b.putLong( value ).putLong( outValue );
+        for (long i: in) b.putLong( i );
+    }
 
-        public Event( float t ) {
-            time = t;               // initializer
-        }
+    void restoreState( ByteBuffer b ) {
+        value = b.getLong();
+        outValue = b.getLong();
+        for (int i = 0; i < in.length; i++) in[i] = b.getLong();
+    }
 
-        abstract void trigger();    // what to do at that time
+    void restorePending( Simulator.Event e ) {
+        pending = e;
     }
 
-    private static PriorityQueue <Event> eventSet
-            = new PriorityQueue <Event> (
-            (Event e1, Event e2) -> Float.compare( e1.time, e2.time )
-    );
+} // class BusLogicGate
 
-    /** Call schedule to make act happen at time.
-     * @param e the event being scheduled
+/** Handles the properties specific to const gates on buses, whose true
+ *  output has every bit of the bus true and whose false output has none.
+ *  @see BusGate
+ */
+final class BusConstGate extends BusGate {
+    // set of all wires out of this gate; those from false never change
+    private final Fanout outgoingTrue = new Fanout();
+
+    /** The constructor used only from within class Gate
+     *  @param name used to initialize the final field
+     *  @param delay used to initialize the final field
+     *  @param bits the number of bits of the bus
      */
-    public static void schedule( Event e ) {
-        eventSet.add( e );
+    public BusConstGate( String name, float delay, int bits ) {
+        super( name, delay, bits );
     }
 
-    /** Call run() after scheduling some initial events
-     *  to run the simulation.
+    /** tell the gate that one of its input pins is in use.
+     *  Const gates don't have input pins so warn of illegal input
+     *  @param w the wire that is connected
+     *  @param pinName name of input pin being registered
+     *  @return -1, otherwise warn of illegal input
      */
-    public static void run() {
-        while (!eventSet.isEmpty()) {
-            Event e = eventSet.remove();
-            e.trigger();
-        }
+    public int registerInput( Wire w, String pinName ) {
+        Errors.warn( "Illegal input pin: " + name + " " + pinName );
+        return -1;
     }
-}
 
-/** Wire.java
- * Class representing wires in description and simulation of a logic circuit.
- * author Douglas W. Jones
- * version 2017-11-15 (MP5 solution)
- * Adapted from Logic.java Version 2017-10-30 (the MP4 solution),
+    /** tell the gate that one of its output pins is in use
+     *  @param w the wire that is connected
+     *  @param pinName name of output pin being registered
+     *  @return corresponding pin number, else return -1
+     */
+    public int registerOutput( Wire w, String pinName ) {
+        if ("true".equals( pinName )) {
+            if (w != null) outgoingTrue.add( w );
+            return 1;
+        } else if ("false".equals( pinName )) {
+            return 0;
+        } else {
+            Errors.warn( "Illegal output pin: " + name + " " + pinName );
+            return -1;
+        }
+    }
+
+    /** get the name of the input pin, given its number
+     * @param pinNumber number of input pin corresponding to its name
+     * @return '???', because Const gates should not have input pins
+     */
+    public String inPinName( int pinNumber ) {
+        return "???";
+    }
+
+    /** get the name of the output pin, given its number
+     * @param pinNumber number of output pin corresponding to its name
+     * @return corresponding output pin name, else return '???'
+     */
+    public String outPinName( int pinNumber ) {
+        if (pinNumber == 0) return "false";
+        if (pinNumber == 1) return "true";
+        return "???";
+    }
+
+    /** get the name of the output pin whose changes are traced
+     *  @return "true", the false output never changes
+     */
+    public String tracedPinName() {
+        return "true";
+    }
+
+    /** check the sanity of this gate's connections.
+     */
+    public void checkSanity() {
+        // no sanity check; there are no input pins to check
+    }
+
+    /** launch the simulation from here - schedule a {@link #outputChangeEvent(long)}
+     */
+    public void launch() {
+        Simulator.scheduleOutput( Simulator.delayTicks( delay ), this );
+    }
+
+    /** get the kind of this gate
+     *  @return "const"
+     */
+    public String kind() {
+        return "const";
+    }
+
+    /** reconstruct the textual description of this gate
+     *  @return the textual description
+     */
+    public String toString() {
+        return "gate " + name + " const " + delay + " bus " + bits;
+    }
+
+    // Simulation methods
+
+    /** simulate the change of this gate's output, setting every bit of
+     *  all wires connected to the true output
+     * @param time the time when the output changes
+     */
+    protected void outputChangeEvent( long time ) {
+        Trace.current.changeBus( time, id, mask );
+        if (Metrics.ENABLED) Metrics.fanout( outgoingTrue.size() );
+        outgoingTrue.sendBus( time, mask );
+    }
+
+} // class BusConstGate
+
+/** Instance.java
+ * A use of a module in a circuit or in another module
  *
  * Bug notices in the code indicate unsolved problems
  */
 
-/** Wires join Gates
- *  @see Gate
+/** Stands for all the gates of a module where it is used, while a circuit
+ *  is read and checked.  Wires connect to its pins, which are the ports of
+ *  the module.  An instance is never simulated: Netlist flattens it into
+ *  the gates of its module, numbered from the instance's id up, and gives
+ *  those gates hierarchical names such as add0.carry.
+ *  @see Module
+ *  @see Netlist
  */
-class Wire {
-    // constructors may throw this when an error prevents construction
-    public static class ConstructorFailure extends Exception {}
+final class Instance extends Gate {
+    public final Module module;
 
-    // fields of a gate
-    private final float delay;        // measured in seconds
-    private final Gate source;        // where this wire comes from, never null
-    private final int srcPin;         // what pin number of source
-    private final Gate destination;   // where this wire goes, never null
-    private final int dstPin;         // what pin number of destination
-    // note, wires don't understand pin numbers, only gates do.
-    // note, by convention -1 is an illegal pin number.
+    // usage records for input ports
+    private final boolean[] used;
 
-    /** construct a new wire by scanning its description from the source file
-     *  @param sc the scanner from which the wire description is scanned
-     *  @see ScanSupport for the tools used to access the scanner
-     *  @throws ConstructorFailure when a new wire cannot be constructed
+    /** The constructor used only from within Instance
+     *  @param name the instance name
+     *  @param module the module it is an instance of
      */
-    public Wire( Scanner sc ) throws ConstructorFailure {
-        // temporaries used during construction
-        final String sourceName;
-        final String srcPinName;
-        final String dstName;
-        final String dstPinName;
+    private Instance( String name, Module module ) {
+        super( name, 0.0F );
+        this.module = module;
+        used = new boolean[module.inputs()];
+    }
 
-        // pick off the text fields of the source line
+    /** construct an instance by scanning its description
+     *  @param sc the scanner from which the textual description is read
+     *  @return the newly constructed instance
+     *  @throws ConstructorFailure when a new instance cannot be constructed
+     */
+    public static Instance scan( ScanSupport sc ) throws ConstructorFailure {
+        final int nameId;
+        final int moduleId;
         try {
-            sourceName = ScanSupport.nextName(
-                    sc, ()-> "wire ???"
-            );
-            srcPinName = ScanSupport.nextName(
-                    sc, ()->"wire " + sourceName + " ???"
-            );
-            dstName = ScanSupport.nextName(
-                    sc, ()->"wire " + " " + srcPinName + " ???"
-            );
-            dstPinName = ScanSupport.nextName(
-                    sc, ()->"wire " + " " + srcPinName + " " + dstName + " ???"
-            );
+            nameId = sc.nextName();
+            moduleId = sc.nextName();
         } catch (ScanSupport.NotFound e) {
             throw new ConstructorFailure();
         }
-
-        source = Logic.findGate( sourceName );
-        destination = Logic.findGate( dstName );
-        if (source == null) {
-            Errors.warn( "No such source gate: wire "
-                    + sourceName + " " + srcPinName + " "
-                    + dstName + " " + dstPinName
-            );
-            sc.nextLine();
+        String name = sc.name( nameId );
+        if (Logic.findGate( nameId ) != null) {
+            Errors.warn( "Redefinition: instance " + name + " " + sc.name( moduleId ) );
+            sc.skipLine();
             throw new ConstructorFailure();
         }
-        if (destination == null) {
-            Errors.warn( "No such destination gate: wire "
-                    + sourceName + " " + srcPinName + " "
-                    + dstName + " " + dstPinName
-            );
-            sc.nextLine();
+        Module m = Logic.findModule( moduleId );
+        if (m == null) {
+            Errors.warn( "Unknown module: instance " + name + " " + sc.name( moduleId ) );
+            sc.skipLine();
             throw new ConstructorFailure();
         }
+        Instance i = new Instance( name, m );
+        sc.lineEnd( i );
+        return i;
+    }
 
-        // take care of source and destination pins
-        // Bug:  This is a start, but in the long run, it might not be right
-        srcPin = source.registerOutput( this, srcPinName );
-        dstPin = destination.registerInput( this, dstPinName );
+    /** @return the number of gates of the module
+     */
+    public int size() {
+        return module.size();
+    }
 
-        // pick off the numeric field of the source line
-        try {
-            delay = ScanSupport.nextFloat(
-                    sc, ()->"wire "
-                            + sourceName + " " + srcPinName + " "
-                            + dstName + " " + dstPinName + " ???"
+    /** get the kind of this gate
+     *  @return the module name
+     */
+    public String kind() {
+        return module.name;
+    }
+
+    /** reconstruct the textual description of this instance
+     *  @return the textual description
+     */
+    public String toString() {
+        return "instance " + name + " " + module.name;
+    }
+
+    /** tell the instance that one of its input ports is in use
+     *  @param w the wire that is connected
+     *  @param pinName the port name
+     *  @return the port number, else -1
+     */
+    public int registerInput( Wire w, String pinName ) {
+        int p = module.input( pinName );
+        if (p < 0) {
+            Errors.warn( "Illegal input pin: " + name + " " + pinName );
+        } else {
+            if (used[p]) Errors.warn(
+                    "Multiple uses of input pin: " + name + " " + pinName
             );
-        } catch (ScanSupport.NotFound e) {
-            throw new ConstructorFailure();
+            used[p] = true;
         }
-        if (delay < 0.0F) Errors.warn( "Negative delay: " + this.toString() );
+        return p;
+    }
 
-        ScanSupport.lineEnd( sc, ()->this.toString() );
+    /** tell the instance that one of its output ports is in use
+     *  @param w the wire that is connected
+     *  @param pinName the port name
+     *  @return the port number, else -1
+     */
+    public int registerOutput( Wire w, String pinName ) {
+        int p = module.output( pinName );
+        if (p < 0) Errors.warn( "Illegal output pin: " + name + " " + pinName );
+        return p;
     }
 
-    /** get textual description of a wire in a form like that used for input
-     * @return the textual form
+    /** @param pinNumber an input port number
+     *  @return its name, else '???'
      */
-    public String toString() {
-        return  "wire "
-                + source.name + " "
-                + source.outPinName( srcPin ) + " "
-                + destination.name + " "
-                + destination.inPinName( dstPin ) + " "
-                + delay;
+    public String inPinName( int pinNumber ) {
+        if ((pinNumber < 0) || (pinNumber >= module.inputs())) return "???";
+        return module.inputName( pinNumber );
     }
 
-    // Simulation methods
+    /** @param pinNumber an output port number
+     *  @return its name, else '???'
+     */
+    public String outPinName( int pinNumber ) {
+        if ((pinNumber < 0) || (pinNumber >= module.outputs())) return "???";
+        return module.outputName( pinNumber );
+    }
 
-    /** Simulate an input change on this wire
-     *  @param t tells when this wire's input changes
-     *  @param v gives the new value on this wire
-     *  schedules an output change event after the wire's delay.
-     *  @see #outputChangeEvent(float, boolean)
-     */
-    public void inputChangeEvent( float t, boolean v ) {
-        Simulator.schedule(
-                new Simulator.Event( t + delay ) {
-                    void trigger() {
-                        outputChangeEvent( time, v );
-                    }
+    /** check that every input port is connected
+     */
+    public void checkSanity() {
+        for (int p = 0; p < used.length; p++) {
+            if (!used[p]) Errors.warn(
+                    "Unused input pin: " + name + " " + module.inputName( p )
+            );
+        }
+    }
+
+    // Simulation methods, never used since instances are flattened first
+
+    public void inputChangeEvent( long time, int dstPin, boolean v ) {
+        Errors.fatal( "Instance simulated without flattening: " + toString() );
+    }
+
+    protected void outputChangeEvent( long time ) {
+        Errors.fatal( "Instance simulated without flattening: " + toString() );
+    }
+
+} // class Instance
+
+/** Module.java
+ * The shared structure of all the instances of a module
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** A module, as defined between module and end in a circuit description,
+ *  reduced to the flyweight that all its instances share.  Its gates are
+ *  numbered from zero in the order declared, each instance of another
+ *  module taking as many numbers as that module has gates, so that the
+ *  gates of an instance at id b are numbered b up to b + size() when the
+ *  circuit is flattened.  It holds the kind and delay of each of its own
+ *  gates, its own wires, and its ports, with the wires and ports already
+ *  traced through the ports of the instances it uses to the gate pins
+ *  they reach.  Nothing is kept per instance of a module except where
+ *  it is, and nothing is kept per gate of an instance but its entries in
+ *  the netlist, since names are made from the module when asked for.
+ *  Modules are immutable once read.
+ *  @see Instance
+ *  @see Netlist
+ */
+final class Module {
+    public final String name;      // null for the top level of a circuit
+
+    // the gates and instances used in this module, in the order declared
+    private final String[] itemName;
+    private final int[] itemStart; // the number of the first gate of each
+    private final Module[] itemModule; // null for a gate
+    private final byte[] kinds;        // of each gate, as in Netlist
+    private final byte[] gateInputs;   // the number of inputs of each gate
+    private final float[] delays;
+    private final int size;            // the number of gates, flattened
+    private final boolean hierarchical; // true if there are instances
+    private final HashMap <String, Integer> index = new HashMap <String, Integer> ();
+
+    // the wires of this module, between gate numbers of this module
+    private final int[] wireSrc;
+    private final byte[] wireSrcPin;
+    private final int[] wireDst;
+    private final byte[] wireDstPin;
+    private final float[] wireDelay;
+    private final int flatWires;       // the number of wires, flattened
+
+    // the ports, each input reaching some gate pins, each output one
+    private final String[] inputNames;
+    private final int[][] inputGate;
+    private final byte[][] inputPin;
+    private final String[] outputNames;
+    private final int[] outputGate;
+    private final byte[] outputPin;
+
+    /** One port of a module, as declared, before the module is built
+     */
+    static final class Port {
+        final String name;
+        final Gate gate;           // a gate or instance of the module
+        final int pin;             // its pin number
+
+        Port( String name, Gate gate, int pin ) {
+            this.name = name;
+            this.gate = gate;
+            this.pin = pin;
+        }
+    }
+
+    /** build a module from the gates, instances, wires and ports read for
+     *  it, which it does not keep
+     *  @param name the module name, or null for the top level
+     *  @param gates the gates and instances, with their ids set
+     *  @param wires the wires between them
+     *  @param inputs the input ports; a name given more than once reaches
+     *                more than one pin
+     *  @param outputs the output ports
+     */
+    Module( String name, List <Gate> gates, List <Wire> wires,
+            List <Port> inputs, List <Port> outputs ) {
+        this.name = name;
+        int items = gates.size();
+        itemName = new String[items];
+        itemStart = new int[items];
+        itemModule = new Module[items];
+        kinds = new byte[items];
+        gateInputs = new byte[items];
+        delays = new float[items];
+        int gateCount = 0;
+        int nested = 0;
+        boolean instances = false;
+        for (int i = 0; i < items; i++) {
+            Gate g = gates.get( i );
+            itemName[i] = g.name;
+            itemStart[i] = g.id;
+            index.put( g.name, i );
+            if (g instanceof Instance) {
+                itemModule[i] = ((Instance)g).module;
+                nested = nested + itemModule[i].flatWires;
+                instances = true;
+            } else {
+                if (g.bits() != 1) Errors.fatal(
+                        "Buses work only in flat circuits simulated as objects: " + g
+                );
+                kinds[i] = Netlist.kindCode( g.kind() );
+                gateInputs[i] = (byte)g.inputCount();
+                delays[i] = g.delay;
+            }
+            gateCount = g.id + g.size();
+        }
+        size = gateCount;
+        hierarchical = instances;
+
+        // trace each wire to the gate pins it connects
+        int count = 0;
+        for (Wire w: wires) {
+            if ((w.srcPin >= 0) && (w.dstPin >= 0)) count = count + reach( w.destination, w.dstPin );
+        }
+        wireSrc = new int[count];
+        wireSrcPin = new byte[count];
+        wireDst = new int[count];
+        wireDstPin = new byte[count];
+        wireDelay = new float[count];
+        int at = 0;
+        for (Wire w: wires) {
+            if ((w.srcPin < 0) || (w.dstPin < 0)) continue; // already reported
+            int src = sourceGate( w.source, w.srcPin );
+            byte srcPin = sourcePin( w.source, w.srcPin );
+            int n = reach( w.destination, w.dstPin );
+            for (int k = 0; k < n; k++) {
+                wireSrc[at] = src;
+                wireSrcPin[at] = srcPin;
+                wireDst[at] = reachedGate( w.destination, w.dstPin, k );
+                wireDstPin[at] = reachedPin( w.destination, w.dstPin, k );
+                wireDelay[at] = w.delay;
+                at++;
+            }
+        }
+        flatWires = count + nested;
+
+        // group the input ports by name
+        ArrayList <String> names = new ArrayList <String> ();
+        for (Port p: inputs) if (!names.contains( p.name )) names.add( p.name );
+        inputNames = names.toArray( new String[0] );
+        inputGate = new int[inputNames.length][];
+        inputPin = new byte[inputNames.length][];
+        for (int i = 0; i < inputNames.length; i++) {
+            int n = 0;
+            for (Port p: inputs) if (p.name.equals( inputNames[i] )) n += reach( p.gate, p.pin );
+            inputGate[i] = new int[n];
+            inputPin[i] = new byte[n];
+            n = 0;
+            for (Port p: inputs) if (p.name.equals( inputNames[i] )) {
+                for (int k = 0; k < reach( p.gate, p.pin ); k++) {
+                    inputGate[i][n] = reachedGate( p.gate, p.pin, k );
+                    inputPin[i][n] = reachedPin( p.gate, p.pin, k );
+                    n++;
                 }
-        );
+            }
+        }
+        outputNames = new String[outputs.size()];
+        outputGate = new int[outputs.size()];
+        outputPin = new byte[outputs.size()];
+        for (int i = 0; i < outputs.size(); i++) {
+            Port p = outputs.get( i );
+            outputNames[i] = p.name;
+            outputGate[i] = sourceGate( p.gate, p.pin );
+            outputPin[i] = sourcePin( p.gate, p.pin );
+        }
     }
 
-    /** Simulate an output change on this wire
-     *  @param time tells when this wire's input changes
-     *  @param v gives the new value on this wire
-     *  Passes the new value to the input of the gate to which this wire goes.
-     *  @see #inputChangeEvent(float, boolean)
+    /** @param g a gate or instance of this module
+     *  @param pin an input pin of it
+     *  @return the number of gate pins a change of that pin reaches
      */
-    private void outputChangeEvent( float time, boolean v ) {
-        destination.inputChangeEvent( time, dstPin, v );
+    private static int reach( Gate g, int pin ) {
+        if (pin < 0) return 0; // already reported
+        if (!(g instanceof Instance)) return 1;
+        return ((Instance)g).module.inputGate[pin].length;
     }
 
-} // class Wire
+    /** @return the gate number of the k'th pin reached from an input pin
+     */
+    private static int reachedGate( Gate g, int pin, int k ) {
+        if (!(g instanceof Instance)) return g.id;
+        return g.id + ((Instance)g).module.inputGate[pin][k];
+    }
+
+    /** @return the pin number of the k'th pin reached from an input pin
+     */
+    private static byte reachedPin( Gate g, int pin, int k ) {
+        if (!(g instanceof Instance)) return (byte)pin;
+        return ((Instance)g).module.inputPin[pin][k];
+    }
+
+    /** @return the gate number of the gate driving an output pin
+     */
+    private static int sourceGate( Gate g, int pin ) {
+        if (!(g instanceof Instance)) return g.id;
+        return g.id + ((Instance)g).module.outputGate[pin];
+    }
+
+    /** @return the pin number of the gate pin driving an output pin
+     */
+    private static byte sourcePin( Gate g, int pin ) {
+        if (!(g instanceof Instance)) return (byte)pin;
+        return ((Instance)g).module.outputPin[pin];
+    }
+
+    /** @return the number of gates in this module, flattened
+     */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of wires in this module, flattened
+     */
+    public int wires() {
+        return flatWires;
+    }
+
+    /** @return true if this module uses instances of others
+     */
+    public boolean hierarchical() {
+        return hierarchical;
+    }
+
+    /** @return the number of input ports
+     */
+    public int inputs() {
+        return inputNames.length;
+    }
+
+    /** @return the number of output ports
+     */
+    public int outputs() {
+        return outputNames.length;
+    }
+
+    /** @param p an input port number
+     *  @return its name
+     */
+    public String inputName( int p ) {
+        return inputNames[p];
+    }
+
+    /** @param p an output port number
+     *  @return its name
+     */
+    public String outputName( int p ) {
+        return outputNames[p];
+    }
+
+    /** @param name a port name
+     *  @return its number as an input port, or -1 if it is not one
+     */
+    public int input( String name ) {
+        for (int p = 0; p < inputNames.length; p++) if (inputNames[p].equals( name )) return p;
+        return -1;
+    }
+
+    /** @param name a port name
+     *  @return its number as an output port, or -1 if it is not one
+     */
+    public int output( String name ) {
+        for (int p = 0; p < outputNames.length; p++) if (outputNames[p].equals( name )) return p;
+        return -1;
+    }
+
+    /** @param g a gate number of this module
+     *  @return the name of that gate, qualified by the names of the
+     *          instances that hold it, as in add0.carry
+     */
+    public String name( int g ) {
+        int i = item( g );
+        if (itemModule[i] == null) return itemName[i];
+        return itemName[i] + "." + itemModule[i].name( g - itemStart[i] );
+    }
+
+    /** @param g a gate number of this module
+     *  @return the gate or instance holding it
+     */
+    private int item( int g ) {
+        int i = Arrays.binarySearch( itemStart, g );
+        return (i >= 0) ? i : -i - 2;
+    }
+
+    /** @param name a gate name, qualified by the names of the instances
+     *              that hold it, as in add0.carry
+     *  @return the number of the gate in this module, or -1 if none
+     */
+    public int find( String name ) {
+        int dot = name.indexOf( '.' );
+        Integer i = index.get( (dot < 0) ? name : name.substring( 0, dot ) );
+        if (i == null) return -1;
+        if (dot < 0) return (itemModule[i] == null) ? itemStart[i] : -1;
+        if (itemModule[i] == null) return -1;
+        int g = itemModule[i].find( name.substring( dot + 1 ) );
+        return (g < 0) ? -1 : itemStart[i] + g;
+    }
+
+    /** copy the gates and wires of an instance of this module into a netlist
+     *  @param n the netlist
+     *  @param base the gate number of the first gate of the instance
+     *  @param wire the number of the next wire of the netlist
+     *  @return the number of the wire after those of the instance
+     */
+    int flatten( Netlist n, int base, int wire ) {
+        for (int i = 0; i < itemStart.length; i++) {
+            if (itemModule[i] == null) {
+                n.kinds[base + itemStart[i]] = kinds[i];
+                n.inputs[base + itemStart[i]] = gateInputs[i];
+                n.delays[base + itemStart[i]] = delays[i];
+            } else {
+                wire = itemModule[i].flatten( n, base + itemStart[i], wire );
+            }
+        }
+        for (int i = 0; i < wireSrc.length; i++) {
+            n.wireSrc[wire] = base + wireSrc[i];
+            n.wireSrcPin[wire] = wireSrcPin[i];
+            n.wireDst[wire] = base + wireDst[i];
+            n.wireDstPin[wire] = wireDstPin[i];
+            n.wireDelay[wire] = wireDelay[i];
+            wire++;
+        }
+        return wire;
+    }
+} // class Module
+
+/** Logic.java
+ * Main class for a program to process description of a logic circuit
+ * author Douglas W. Jones
+ * version 2017-11-15 (MP5 solution)
+ * Adapted from Logic.java Version 2017-10-20 (the MP4 solution),
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** The main class, orchestrates the building and simulation of a logic circuit.
+ *  Logic circuits consist of a collection of gates connected by wires.
+ *  Logic circuits are built using tools in class ScanSupport, with
+ *  error reporting using class Errors.
+ *  The actual simulation is done by Simulator.run()
+ *  @see Simulator
+ *  @see Wire
+ *  @see Gate
+ *  @see ScanSupport
+ *  @see Errors
+ */
+public class Logic {
+
+    // the sets of all wires and all gates, gates indexed by id unless
+    // there are instances, each of which takes the ids of its gates
+    private static ArrayList <Wire> wires
+            = new ArrayList <Wire> ();
+    private static ArrayList <Gate> gates
+            = new ArrayList <Gate> ();
+    private static int gateCount = 0; // counting the gates of instances
+
+    // the symbol table, all names and the gates they name, indexed by id
+    private static NameTable names = commandNames();
+    private static Gate[] namedGates = new Gate[1024];
+    private static Module[] namedModules = new Module[64];
+
+    // ids of the commands
+    private static final int GATE = names.find( "gate" );
+    private static final int WIRE = names.find( "wire" );
+    private static final int COMMENT = names.find( "--" );
+    private static final int MODULE = names.find( "module" );
+    private static final int END = names.find( "end" );
+    private static final int INSTANCE = names.find( "instance" );
+    private static final int INPUT = names.find( "input" );
+    private static final int OUTPUT = names.find( "output" );
+
+    /** @return a new symbol table holding only the command names,
+     *  always with the same ids
+     */
+    private static NameTable commandNames() {
+        NameTable t = new NameTable();
+        t.intern( "gate" );
+        t.intern( "wire" );
+        t.intern( "--" );
+        t.intern( "module" );
+        t.intern( "end" );
+        t.intern( "instance" );
+        t.intern( "input" );
+        t.intern( "output" );
+        return t;
+    }
+
+    /** Forget the circuit, so another can be read
+     */
+    private static void clear() {
+        wires.clear();
+        gates.clear();
+        gateCount = 0;
+        names = commandNames();
+        Arrays.fill( namedGates, null );
+        Arrays.fill( namedModules, null );
+    }
+
+    /** Read and check a circuit, text or compiled, into a netlist without
+     *  simulating it.  This is for programs that embed the simulator, and
+     *  it leaves no circuit behind in this class.
+     *  Errors are reported through class Errors.
+     * @param f the file
+     * @return the netlist
+     * @throws IOException if the file can't be read
+     */
+    static synchronized Netlist read( File f ) throws IOException {
+        Metrics.Timer t = Metrics.start( Metrics.Phase.PARSE );
+        if (Netlist.isCompiled( f )) {
+            Netlist n = Netlist.load( f );
+            t.end();
+            return n;
+        }
+        clear();
+        try {
+            readCircuit( new ScanSupport( f, names ) );
+            t.end();
+            t = Metrics.start( Metrics.Phase.CHECK );
+            sanityCheck();
+            t.end();
+            t = Metrics.start( Metrics.Phase.LOWER );
+            Netlist n = Netlist.from( gates, wires );
+            t.end();
+            return n;
+        } finally {
+            Errors.setLine( 0 );
+            clear();
+        }
+    }
+
+    /** Find a gate by textual name in the set gates
+     *  @param s name of a gate
+     *  @return the gate named s or null if none
+     */
+    public static Gate findGate( String s ) {
+        int id = names.find( s );
+        if (id < 0) return null;
+        return findGate( id );
+    }
+
+    /** Find a gate by the id of its name
+     *  @param id the id of a name in the symbol table
+     *  @return the gate with that name or null if none
+     */
+    public static Gate findGate( int id ) {
+        if (id >= namedGates.length) return null;
+        return namedGates[id];
+    }
+
+    /** Find a module by the id of its name
+     *  @param id the id of a name in the symbol table
+     *  @return the module with that name or null if none
+     */
+    public static Module findModule( int id ) {
+        if (id >= namedModules.length) return null;
+        return namedModules[id];
+    }
+
+    /** Initialize this logic circuit by scanning its description
+     * @param sc the scanner from which end of line is scanned
+     */
+    private static void readCircuit( ScanSupport sc ) {
+        while (sc.hasNext()) {
+            Errors.setLine( sc.line() );
+            int command = sc.next();
+            if (command == MODULE) {
+                readModule( sc );
+            } else if (command == END) {
+                Errors.warn( "end without module" );
+                sc.skipLine();
+            } else {
+                readCommand( sc, command );
+            }
+        }
+        Errors.setLine( 0 );
+        sc.close();
+    }
+
+    /** Read one command that may come in a circuit or in a module
+     * @param sc the scanner, just after the command
+     * @param command the id of the command
+     */
+    private static void readCommand( ScanSupport sc, int command ) {
+        if (command == GATE) {
+            try {
+                add( Gate.factory( sc ) );
+            } catch (Gate.ConstructorFailure e) {
+                // do nothing, the constructor already reported the error
+            }
+        } else if (command == INSTANCE) {
+            try {
+                add( Instance.scan( sc ) );
+            } catch (Gate.ConstructorFailure e) {
+                // do nothing, the factory already reported the error
+            }
+        } else if (command == WIRE) {
+            try {
+                wires.add( new Wire( sc ) );
+            } catch (Wire.ConstructorFailure e) {
+                // do nothing, the constructor already reported the error
+            }
+        } else if (command == COMMENT) {
+            sc.skipLine();
+        } else {
+            Errors.warn( "unknown command: " + sc.name( command ) );
+            sc.skipLine();
+        }
+    }
+
+    /** Add a gate or instance to the circuit or module being read
+     * @param g the gate or instance
+     */
+    private static void add( Gate g ) {
+        g.id = gateCount;
+        gateCount = gateCount + g.size();
+        gates.add( g );
+        int id = names.find( g.name );
+        if (id >= namedGates.length) {
+            namedGates = Arrays.copyOf( namedGates, 2 * id + 1 );
+        }
+        namedGates[id] = g;
+    }
+
+    /** Read a module definition, up to its end, with names of its own
+     * @param sc the scanner, just after the module command
+     */
+    private static void readModule( ScanSupport sc ) {
+        final int nameId;
+        try {
+            nameId = sc.nextName();
+        } catch (ScanSupport.NotFound e) {
+            return; // the lines of the module will be reported as errors
+        }
+        String name = sc.name( nameId );
+        sc.lineEnd( "module " + name );
+        if (findModule( nameId ) != null) Errors.warn( "Redefinition: module " + name );
+
+        ArrayList <Wire> outerWires = wires;
+        ArrayList <Gate> outerGates = gates;
+        int outerCount = gateCount;
+        Gate[] outerNamed = namedGates;
+        wires = new ArrayList <Wire> ();
+        gates = new ArrayList <Gate> ();
+        gateCount = 0;
+        namedGates = new Gate[outerNamed.length];
+        ArrayList <Module.Port> inputs = new ArrayList <Module.Port> ();
+        ArrayList <Module.Port> outputs = new ArrayList <Module.Port> ();
+        try {
+            boolean ended = false;
+            while (!ended && sc.hasNext()) {
+                Errors.setLine( sc.line() );
+                int command = sc.next();
+                if (command == END) {
+                    sc.lineEnd( "end" );
+                    ended = true;
+                } else if (command == INPUT) {
+                    readPort( sc, inputs, true );
+                } else if (command == OUTPUT) {
+                    readPort( sc, outputs, false );
+                } else if (command == MODULE) {
+                    Errors.warn( "Module inside module: " + name );
+                    sc.skipLine();
+                } else {
+                    readCommand( sc, command );
+                }
+            }
+            if (!ended) Errors.warn( "Missing end: module " + name );
+            sanityCheck();
+            Module m = new Module( name, gates, wires, inputs, outputs );
+            if (findModule( nameId ) == null) {
+                if (nameId >= namedModules.length) {
+                    namedModules = Arrays.copyOf( namedModules, 2 * nameId + 1 );
+                }
+                namedModules[nameId] = m;
+            }
+        } finally {
+            wires = outerWires;
+            gates = outerGates;
+            gateCount = outerCount;
+            namedGates = outerNamed;
+        }
+    }
+
+    /** Read a port of a module, naming a pin of one of its gates or instances
+     * @param sc the scanner, just after the input or output command
+     * @param ports the ports read so far, to which this one is added
+     * @param input true for an input port, false for an output
+     */
+    private static void readPort( ScanSupport sc, List <Module.Port> ports, boolean input ) {
+        final int portId;
+        final int gateId;
+        final int pinId;
+        try {
+            portId = sc.nextName();
+            gateId = sc.nextName();
+            pinId = sc.nextName();
+        } catch (ScanSupport.NotFound e) {
+            return;
+        }
+        String port = sc.name( portId );
+        String text = (input ? "input " : "output ") + port + " "
+                    + sc.name( gateId ) + " " + sc.name( pinId );
+        Gate g = findGate( gateId );
+        if (g == null) {
+            Errors.warn( "No such gate: " + text );
+            sc.skipLine();
+            return;
+        }
+        if (!input) for (Module.Port p: ports) if (p.name.equals( port )) {
+            Errors.warn( "Redefinition: " + text );
+            sc.skipLine();
+            return;
+        }
+        int pin = input ? g.registerInput( null, sc.name( pinId ) )
+                        : g.registerOutput( null, sc.name( pinId ) );
+        sc.lineEnd( text );
+        if (pin >= 0) ports.add( new Module.Port( port, g, pin ) );
+    }
+
+    /** Initialize this logic circuit from a compiled netlist
+     * @param n the netlist, already known to be sane
+     */
+    private static void buildCircuit( Netlist n ) {
+        for (int i = 0; i < n.gates(); i++) {
+            Gate g = Gate.make(
+                    Netlist.KINDS[n.kinds[i]], n.name( i ), n.delays[i], n.inputs[i]
+            );
+            g.id = i;
+            gates.add( g );
+        }
+        for (int i = 0; i < n.wires(); i++) {
+            wires.add( new Wire(
+                    gates.get( n.wireSrc[i] ), n.wireSrcPin[i],
+                    gates.get( n.wireDst[i] ), n.wireDstPin[i],
+                    n.wireDelay[i]
+            ) );
+        }
+    }
+
+    /** Check that a circuit is properly constructed
+     */
+    private static void sanityCheck() {
+        for (Gate i: gates) i.checkSanity();
+        // Bug: Are there any sensible sanity checks on wires?
+    }
+
+    /** Schedule the events that start the simulation of the circuit
+     */
+    private static void launch() {
+        for (Gate i: gates) i.launch();
+    }
+
+    /** Declare every gate's output to the trace
+     *  @param t the trace
+     */
+    private static void declareSignals( Trace t ) {
+        for (Gate i: gates) {
+            t.declare( i.id, i.name,
+                    i.toString() + " " + i.tracedPinName() + " ", i.bits()
+            );
+        }
+        t.begin();
+    }
+
+    /** Print out the wire network to system.out
+     */
+    private static void printCircuit() {
+        for (Gate i: gates) {
+            System.out.println( i.toString() );
+        }
+        for (Wire r: wires) {
+            System.out.println( r.toString() );
+        }
+    }
+
+    /** get the value of a command line option
+     * @param args the command line
+     * @param i the index of the option's value in args
+     * @return the value
+     */
+    private static String optionValue( String[] args, int i ) {
+        if (i >= args.length) Errors.fatal( "Missing value: " + args[i - 1] );
+        return args[i];
+    }
+
+    /** get the numeric value of a command line option
+     * @param args the command line
+     * @param i the index of the option's value in args
+     * @return the value
+     */
+    private static double numericOption( String[] args, int i ) {
+        String s = optionValue( args, i );
+        try {
+            return Double.parseDouble( s );
+        } catch (NumberFormatException e) {
+            Errors.fatal( "Number expected: " + args[i - 1] + " " + s );
+            return 0.0; // never reached
+        }
+    }
+
+    /** Simulate a circuit in zero-delay mode for each vector in a file
+     * @param n the circuit
+     * @param vectorFile the file of input vectors
+     * @param outFile the file the results go to, or null for standard output
+     */
+    private static void simulateVectors( Netlist n, String vectorFile, String outFile ) {
+        BitParallel b = new BitParallel( n );
+        FileChannel in = null;
+        try {
+            in = FileChannel.open( Paths.get( vectorFile ), StandardOpenOption.READ );
+        } catch (IOException e) {
+            Errors.fatal( "Can't open the vector file: " + vectorFile );
+        }
+        WritableByteChannel out = null;
+        if (outFile == null) {
+            out = Trace.standardOutput();
+        } else try {
+            out = FileChannel.open( Paths.get( outFile ),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING
+            );
+        } catch (IOException e) {
+            Errors.fatal( "Can't open the output file: " + outFile );
+        }
+        try {
+            b.run( in, out );
+            in.close();
+            if (outFile != null) out.close();
+        } catch (IOException e) {
+            Errors.fatal( "Can't simulate the vectors: " + e.getMessage() );
+        }
+    }
+
+    /** Simulate a circuit without feedback, simulating again only what
+     *  differs from the run whose waveforms were saved in a file, if any,
+     *  then save the waveforms of this run there for the next
+     * @param n the circuit
+     * @param e the engine
+     * @param limits the limits on the run
+     * @param f the waveform file
+     * @return a summary of the run
+     */
+    private static Simulator.Summary runIncremental(
+            Netlist n, LevelizedEngine e, Simulator.Limits limits, File f ) {
+        LevelizedEngine.Waveforms previous = null;
+        if (f.exists()) try {
+            previous = LevelizedEngine.Waveforms.load( f );
+        } catch (IOException x) {
+            Errors.fatal( "Can't read the waveform file: " + f );
+        }
+        Simulator.Summary s = e.run( limits, previous );
+        System.err.println( "Logic: simulated " + e.resimulated()
+                          + " of " + n.gates() + " gates" );
+        try {
+            e.waveforms().write( f );
+        } catch (IOException x) {
+            Errors.warn( "Can't write the waveform file: " + f );
+        }
+        return s;
+    }
+
+    /** Main program
+     * @param args options followed by the file input name
+     */
+    public static void main( String[] args ) {
+        Simulator.Limits limits = new Simulator.Limits();
+        boolean limited = false;
+        String traceFormat = "text";
+        String traceFile = null;
+        String compiledFile = null;
+        boolean compiledEngine = false;
+        boolean parallelEngine = false;
+        boolean levelizedEngine = false;
+        boolean inertial = false;
+        boolean timeSlices = false;
+        String vectorFile = null;
+        int runs = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean metrics = false;
+        String checkpointFile = null;
+        double every = 0.0;
+        String restoreFile = null;
+        String waveformFile = null;
+        double resolution = 0.0;
+        String resolutionText = null;
+        String fileName = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("-until".equals( arg )) {
+                limits.endTime = numericOption( args, ++i );
+                limited = true;
+            } else if ("-events".equals( arg )) {
+                limits.maxEvents = (long)numericOption( args, ++i );
+                limited = true;
+            } else if ("-seconds".equals( arg )) {
+                limits.wallTime = numericOption( args, ++i );
+                limited = true;
+            } else if ("-trace".equals( arg )) {
+                traceFormat = optionValue( args, ++i );
+            } else if ("-o".equals( arg )) {
+                traceFile = optionValue( args, ++i );
+            } else if ("-compile".equals( arg )) {
+                compiledFile = optionValue( args, ++i );
+            } else if ("-engine".equals( arg )) {
+                String engine = optionValue( args, ++i );
+                if ("compiled".equals( engine )) {
+                    compiledEngine = true;
+                } else if ("parallel".equals( engine )) {
+                    compiledEngine = true;
+                    parallelEngine = true;
+                } else if ("levelized".equals( engine )) {
+                    compiledEngine = true;
+                    levelizedEngine = true;
+                } else if (!"objects".equals( engine )) {
+                    Errors.fatal( "Unknown engine: " + engine );
+                }
+            } else if ("-delay".equals( arg )) {
+                String delay = optionValue( args, ++i );
+                if ("inertial".equals( delay )) {
+                    inertial = true;
+                } else if (!"transport".equals( delay )) {
+                    Errors.fatal( "Unknown delay: " + delay );
+                }
+            } else if ("-timeslice".equals( arg )) {
+                timeSlices = true;
+            } else if ("-resolution".equals( arg )) {
+                resolution = numericOption( args, ++i );
+                resolutionText = args[i];
+            } else if ("-vectors".equals( arg )) {
+                vectorFile = optionValue( args, ++i );
+            } else if ("-runs".equals( arg )) {
+                runs = (int)numericOption( args, ++i );
+                if (runs < 1) Errors.fatal( "Too few runs: " + runs );
+            } else if ("-threads".equals( arg )) {
+                threads = (int)numericOption( args, ++i );
+                if (threads < 1) Errors.fatal( "Too few threads: " + threads );
+            } else if ("-metrics".equals( arg )) {
+                // before anything uses class Metrics, which reads it once
+                System.setProperty( "logic.metrics", "true" );
+                metrics = true;
+            } else if ("-checkpoint".equals( arg )) {
+                checkpointFile = optionValue( args, ++i );
+            } else if ("-every".equals( arg )) {
+                every = numericOption( args, ++i );
+                if (!(every > 0.0)) Errors.fatal( "Interval must be positive: " + every );
+            } else if ("-restore".equals( arg )) {
+                restoreFile = optionValue( args, ++i );
+            } else if ("-incremental".equals( arg )) {
+                waveformFile = optionValue( args, ++i );
+            } else if (arg.startsWith( "-" )) {
+                Errors.fatal( "Unknown option: " + arg );
+            } else if (fileName != null) {
+                Errors.fatal( "Too many arguments" );
+            } else {
+                fileName = arg;
+            }
+        }
+
+        // only now, since using Simulator fixes whether -metrics is on
+        if (resolutionText != null) try {
+            Simulator.useResolution( resolution );
+        } catch (IllegalArgumentException e) {
+            Errors.fatal( "Resolution must be a power of ten from 1e-"
+                        + Simulator.MAX_DIGITS + " to 1: " + resolutionText );
+        }
+        if ((every > 0.0) && (checkpointFile == null)) {
+            Errors.fatal( "-every needs -checkpoint" );
+        }
+        if ((waveformFile != null) && !levelizedEngine) {
+            Errors.fatal( "-incremental needs -engine levelized" );
+        }
+        boolean checkpoints = (checkpointFile != null) || (restoreFile != null);
+        if (checkpoints && (compiledEngine || (vectorFile != null) || (runs > 0))) {
+            Errors.fatal( "Checkpoints work only with the objects engine" );
+        }
+        if (timeSlices && (compiledEngine || (vectorFile != null) || (runs > 0))) {
+            Errors.fatal( "-timeslice works only with the objects engine" );
+        }
+
+        if (fileName == null) {
+            Errors.fatal( "Missing file name argument" );
+        } else try {
+            File f = new File( fileName );
+            Netlist netlist = null; // used unless simulating gate objects
+            boolean objects = !compiledEngine && (vectorFile == null) && (runs == 0);
+            Metrics.Timer t = Metrics.start( Metrics.Phase.PARSE );
+            if (Netlist.isCompiled( f )) {
+                netlist = Netlist.load( f ); // it was checked when compiled
+                t.end();
+                if (objects) {
+                    t = Metrics.start( Metrics.Phase.LOWER );
+                    buildCircuit( netlist );
+                    t.end();
+                }
+            } else {
+                readCircuit( new ScanSupport( f, names ) );
+                t.end();
+                t = Metrics.start( Metrics.Phase.CHECK );
+                sanityCheck();
+                t.end();
+                boolean hierarchical = false;
+                for (Gate g: gates) hierarchical = hierarchical || (g instanceof Instance);
+                if (!objects || (compiledFile != null) || hierarchical) {
+                    t = Metrics.start( Metrics.Phase.LOWER );
+                    netlist = Netlist.from( gates, wires );
+                    if (objects && hierarchical && (Errors.count() == 0)) {
+                        // the gate objects of the instances, one per gate
+                        gates.clear();
+                        wires.clear();
+                        buildCircuit( netlist );
+                    }
+                    t.end();
+                }
+            }
+
+            if ((compiledFile != null) && (Errors.count() == 0)) {
+                try {
+                    netlist.write( new File( compiledFile ), f );
+                } catch (IOException e) {
+                    Errors.fatal( "Can't write the compiled circuit: " + compiledFile );
+                }
+            } else if ((vectorFile != null) && (Errors.count() == 0)) {
+                simulateVectors( netlist, vectorFile, traceFile );
+            } else if ((runs > 0) && (Errors.count() == 0)) {
+                Ensemble e = new Ensemble( netlist, runs, inertial );
+                e.run( threads, limits );
+                PrintStream out = System.out;
+                if (traceFile != null) try {
+                    out = new PrintStream( traceFile );
+                } catch (IOException x) {
+                    Errors.fatal( "Can't open the output file: " + traceFile );
+                }
+                e.report( out );
+                out.close();
+            } else if (Errors.count() == 0) {
+                Trace.current = Trace.open( traceFormat, traceFile );
+                Simulator.Summary s;
+                if (parallelEngine) {
+                    netlist.declareSignals( Trace.current );
+                    ParallelEngine e = new ParallelEngine(
+                            netlist, Trace.current, PRNG.SEED, threads, inertial
+                    );
+                    e.launch();
+                    s = e.run( limits );
+                } else if (levelizedEngine) {
+                    netlist.declareSignals( Trace.current );
+                    LevelizedEngine e = new LevelizedEngine(
+                            netlist, Trace.current, PRNG.SEED
+                    );
+                    e.useInertialDelay( inertial );
+                    if (waveformFile == null) {
+                        s = e.run( limits );
+                    } else {
+                        s = runIncremental(
+                                netlist, e, limits, new File( waveformFile )
+                        );
+                    }
+                } else if (compiledEngine) {
+                    netlist.declareSignals( Trace.current );
+                    Engine e = new Engine( netlist, Trace.current, PRNG.SEED );
+                    e.useInertialDelay( inertial );
+                    e.launch();
+                    s = e.run( limits );
+                } else if (checkpoints) {
+                    declareSignals( Trace.current );
+                    Simulator.useInertialDelay( inertial );
+                    Simulator.useTimeSlices( timeSlices );
+                    Checkpoint c = new Checkpoint( gates, wires );
+                    if (restoreFile == null) {
+                        launch();
+                    } else try {
+                        c.restore( new File( restoreFile ) );
+                    } catch (IOException x) {
+                        Errors.fatal( "Can't read the checkpoint: " + restoreFile );
+                    }
+                    s = c.run( limits,
+                            (checkpointFile == null) ? null : new File( checkpointFile ),
+                            every
+                    );
+                } else {
+                    declareSignals( Trace.current );
+                    Simulator.useInertialDelay( inertial );
+                    Simulator.useTimeSlices( timeSlices );
+                    launch();
+                    s = Simulator.run( limits );
+                }
+                Trace.current.close();
+                if (limited) System.err.println( "Logic: " + s );
+            }
+            // note that writeCircuit is no longer called anywhere
+        } catch (IOException e) {
+            Errors.fatal( "Can't open the file" );
+        }
+        if (metrics) Metrics.report( System.err );
+    }
+}
+
+/** PRNG.java
+ * support class for pseudo-random number generation
+ * author Douglas W. Jones
+ * version 2017-11-15 (MP5 solution)
+ * Adapted from Logic.java Version 2017-10-30 (the MP4 solution).
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Pseudo Random Number Generator
+ *  needed to make a single global stream of numbers, hiding Java's failures
+ */
+class PRNG {
+    public static final long SEED = 29;
+    // Bug:  For debugging, use a known seed so errors are reproducable
+
+    // the linear congruential generator of java.util.Random, written out
+    // so its state can be saved in checkpoints
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+    private static long state = (SEED ^ MULTIPLIER) & MASK;
+
+    /** @param bits how many random bits are wanted, up to 32
+     *  @return the next random bits, as Random.next does
+     */
+    private static int next( int bits ) {
+        state = ((state * MULTIPLIER) + ADDEND) & MASK;
+        return (int)(state >>> (48 - bits));
+    }
+
+    /** get a number n where 0 less than or equal to n  and less than bound
+     *  @param bound the boundery between it and zero from which to generate
+     *               a random integer
+     *  @return n
+     */
+    public static int fromZeroTo( int bound ) {
+        int r = next( 31 );
+        int m = bound - 1;
+        if ((bound & m) == 0) return (int)((bound * (long)r) >> 31);
+        for (int u = r; u - (r = u % bound) + m < 0; u = next( 31 )) {}
+        return r;
+    }
+
+    /** get a floating point number x such that 0 less than or equal to
+     *  n and less than bound
+     *  @param f the percentage you would like from the random float generated
+     *  @return x
+     */
+    public static float randomFloat( float f ) {
+        return (next( 24 ) / ((float)(1 << 24))) * f;
+    }
+
+    /** @return the state of the stream, for a checkpoint
+     */
+    static long state() {
+        return state;
+    }
+
+    /** @param s a state returned by state(), to continue from
+     */
+    static void setState( long s ) {
+        state = s & MASK;
+    }
+}
+
+/** ScanSupport.java
+ * A support class for scanning input files
+ * author Douglas W. Jones
+ * version 2017-11-15 (MP5 solution)
+ * Adapted from Logic.java Version 2017-10-30 (the MP4 solution).
+ *
+ * Class ScanSupport taken from RoadNetwork.java Version 2017-10-25
+ * Rewritten to scan bytes from a memory mapped file instead of using
+ * java.util.Scanner, with names interned in a NameTable.
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Support methods for scanning.
+ *  The file is memory mapped a window at a time and scanned byte by byte;
+ *  names become ids in a {@link NameTable} and numbers are converted
+ *  directly from the bytes, so the scanner builds no strings except for
+ *  new names and error messages.  Error messages give the context of the
+ *  error by quoting the line scanned so far, and
+ *  {@link Errors} prefixes them with the line number.
+ * @see Errors
+ */
+class ScanSupport {
+    // exception thrown to indicate failure
+    public static class NotFound extends Exception {}
+
+    // the part of the file mapped at once; most files fit in one window
+    private static final long WINDOW = 1L << 28;
+
+    // exact float powers of ten, for exact conversion of short numbers
+    private static final float[] POWERS = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    private final FileChannel channel;
+    private final long size;          // size of the file
+    private final NameTable names;    // where names are interned
+
+    private ByteBuffer window;        // the mapped part of the file
+    private long base = 0;            // the file offset of window
+    private int pos = 0;              // the current position in window
+    private int limit = 0;            // the size of window
+
+    private int line = 1;             // the current line number
+    private long lineStart = 0;       // the file offset of that line
+    private byte[] token = new byte[64]; // the text of the current name
+
+    /** open a file for scanning
+     *  @param f the file
+     *  @param names the table where names are interned
+     *  @throws IOException if the file can't be opened
+     */
+    public ScanSupport( File f, NameTable names ) throws IOException {
+        channel = FileChannel.open( f.toPath(), StandardOpenOption.READ );
+        size = channel.size();
+        this.names = names;
+        map( 0 );
+    }
+
+    /** map the window of the file starting at the given offset
+     *  @param offset where the window starts
+     */
+    private void map( long offset ) {
+        base = offset;
+        pos = 0;
+        limit = (int)Math.min( WINDOW, size - offset );
+        try {
+            window = channel.map( FileChannel.MapMode.READ_ONLY, base, limit );
+        } catch (IOException e) {
+            Errors.fatal( "Can't read the file" );
+        }
+    }
+
+    /** look at the next byte without scanning it
+     *  @return the byte, or -1 at the end of the file
+     */
+    private int peek() {
+        if (pos >= limit) {
+            if (base + limit >= size) return -1;
+            map( base + limit );
+        }
+        return window.get( pos ) & 0xFF;
+    }
+
+    /** @param c a byte
+     *  @return true if it is a space or tab (not a newline)
+     */
+    private static boolean isBlank( int c ) {
+        return (c == ' ') || (c == '\t') || (c == '\r');
+    }
+
+    /** @param c a byte
+     *  @return true if it may be part of a name
+     */
+    private static boolean isNameChar( int c ) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))
+            || ((c >= '0') && (c <= '9')) || (c == '_');
+    }
+
+    /** @param c a byte
+     *  @return true if it is a decimal digit
+     */
+    private static boolean isDigit( int c ) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    /** skip spaces and tabs, but not newlines
+     */
+    private void skipBlanks() {
+        while (isBlank( peek() )) pos++;
+    }
+
+    /** @return the current line number
+     */
+    public int line() {
+        return line;
+    }
+
+    /** @param id a name id returned by the scanner
+     *  @return the text of the name
+     */
+    public String name( int id ) {
+        return names.name( id );
+    }
+
+    /** skip spaces and newlines to find the next token
+     *  @return true if there is another token in the file
+     */
+    public boolean hasNext() {
+        for (;;) {
+            int c = peek();
+            if (c == '\n') {
+                pos++;
+                line = line + 1;
+                lineStart = base + pos;
+            } else if (isBlank( c )) {
+                pos++;
+            } else {
+                return c >= 0;
+            }
+        }
+    }
+
+    /** Get the next token, as sc.next() would
+     *  @return the id of the token, interned as a name even if it isn't one
+     */
+    public int next() {
+        hasNext();
+        int length = 0;
+        for (int c = peek(); (c >= 0) && (c != '\n') && !isBlank( c ); c = peek()) {
+            length = append( length, c );
+            pos++;
+        }
+        return names.intern( token, length );
+    }
+
+    /** add a byte to the text of the current token
+     *  @param length the length of the token so far
+     *  @param c the byte
+     *  @return the new length
+     */
+    private int append( int length, int c ) {
+        if (length == token.length) token = Arrays.copyOf( token, 2 * length );
+        token[length] = (byte)c;
+        return length + 1;
+    }
+
+    /** Get next name without skipping to next line (unlike sc.Next())
+     *  @return the id of the name if there was one.
+     *  @throws NotFound if there wasn't one
+     */
+    public int nextName() throws NotFound {
+        skipBlanks();
+        int length = 0;
+        for (int c = peek(); isNameChar( c ); c = peek()) {
+            length = append( length, c );
+            pos++;
+        }
+        if (length == 0) {
+            Errors.warn( "name expected: " + context() );
+            skipLine();
+            throw new NotFound();
+        }
+        return names.intern( token, length );
+    }
+
+    /** scan a word if it comes next, without skipping to next line
+     *  @param word the word, made of characters that may be in names
+     *  @return true if the word was next, false if not, leaving it unscanned
+     */
+    public boolean skipWord( String word ) {
+        skipBlanks();
+        int n = word.length();
+        if (pos + n >= limit) { // rare, so remap the window here
+            if (base + pos + n > size) return false;
+            map( base + pos );
+        }
+        for (int i = 0; i < n; i++) {
+            if ((window.get( pos + i ) & 0xFF) != word.charAt( i )) return false;
+        }
+        if ((pos + n < limit) && isNameChar( window.get( pos + n ) & 0xFF )) return false;
+        pos = pos + n;
+        return true;
+    }
+
+    /** look for an int without skipping to next line or scanning it
+     *  @return true if the next thing on the line starts with a digit
+     */
+    public boolean hasInt() {
+        skipBlanks();
+        return isDigit( peek() );
+    }
+
+    /** Get next int without skipping to next line (unlike sc.nextInt())
+     *  @return the value if there was one
+     *  @throws NotFound if there wasn't one
+     */
+    public int nextInt() throws NotFound {
+        skipBlanks();
+        boolean negative = false;
+        if ((peek() == '-') && isDigit( peekAhead() )) {
+            negative = true;
+            pos++;
+        }
+        if (!isDigit( peek() )) {
+            Errors.warn( "Int expected: " + context() );
+            skipLine();
+            throw new NotFound();
+        }
+        long n = 0;
+        for (int c = peek(); isDigit( c ); c = peek()) {
+            n = Math.min( 10 * n + (c - '0'), 1L << 32 );
+            pos++;
+        }
+        if (negative) n = -n;
+        if ((n < Integer.MIN_VALUE) || (n > Integer.MAX_VALUE)) {
+            Errors.warn( "Int too big: " + context() );
+            skipLine();
+            throw new NotFound();
+        }
+        return (int)n;
+    }
+
+    /** look at the byte after the next byte without scanning either
+     *  @return the byte, or -1 at the end of the file
+     */
+    private int peekAhead() {
+        if (pos + 1 >= limit) { // rare, so remap the window here
+            if (base + pos + 1 >= size) return -1;
+            map( base + pos );
+        }
+        return window.get( pos + 1 ) & 0xFF;
+    }
+
+    /** Get next float without skipping to next line (unlike sc.nextFloat())
+     *  Accepts -?[0-9][0-9]*\.?[0-9]* or \.[0-9][0-9]* as before.
+     *  @return the value if there was one
+     *  @throws NotFound if there wasn't one
+     */
+    public float nextFloat() throws NotFound {
+        skipBlanks();
+        int length = 0;
+        int c = peek();
+        if ((c == '-') && isDigit( peekAhead() )) {
+            length = append( length, c );
+            pos++;
+            c = peek();
+        } else if ((c == '.') && !isDigit( peekAhead() )) {
+            c = -1; // a lone point is not a number
+        }
+        if (!isDigit( c ) && (c != '.')) {
+            Errors.warn( "Float expected: " + context() );
+            skipLine();
+            throw new NotFound();
+        }
+
+        // mantissa and scale, exact while the mantissa fits in a float
+        long mantissa = 0;
+        int scale = 0;
+        boolean point = false;
+        for (;;) {
+            if (isDigit( c )) {
+                mantissa = Math.min( 10 * mantissa + (c - '0'), 1L << 40 );
+                if (point) scale = scale + 1;
+            } else if ((c == '.') && !point) {
+                point = true;
+            } else {
+                break;
+            }
+            length = append( length, c );
+            pos++;
+            c = peek();
+        }
+
+        if ((mantissa <= (1 << 24)) && (scale < POWERS.length)) {
+            // both operands are exact, so the quotient is correctly rounded
+            float f = (float)mantissa / POWERS[scale];
+            return (token[0] == '-') ? -f : f;
+        }
+        return Float.parseFloat(
+                new String( token, 0, length, StandardCharsets.US_ASCII )
+        );
+    }
+
+    /** Skip the rest of the line, as sc.nextLine() would
+     */
+    public void skipLine() {
+        for (int c = peek(); c >= 0; c = peek()) {
+            pos++;
+            if (c == '\n') {
+                line = line + 1;
+                lineStart = base + pos;
+                return;
+            }
+        }
+    }
+
+    /** Advance to next line and complain if is junk at the line end
+     *  @see Errors
+     *  @param what the thing scanned, its toString gives context to messages
+     *  This version supports comments starting with --
+     */
+    public void lineEnd( Object what ) {
+        skipBlanks();
+        int c = peek();
+        if ((c == '\n') || (c < 0)) {
+            skipLine();
+        } else if ((c == '-') && (peekAhead() == '-')) {
+            skipLine();
+        } else {
+            long start = base + pos;
+            skipLine();
+            Errors.warn(
+                    what.toString() + " followed unexpected by '"
+                            + text( start, base + pos ).trim() + "'"
+            );
+        }
+    }
+
+    /** @return the current line as scanned so far, to give errors context
+     */
+    private String context() {
+        String[] words = text( lineStart, base + pos ).trim().split( "[ \t\r]+" );
+        return String.join( " ", words ) + " ???";
+    }
+
+    /** read text from the file, used only for error messages
+     *  @param from the offset of the first byte
+     *  @param to the offset after the last byte
+     *  @return the text
+     */
+    private String text( long from, long to ) {
+        ByteBuffer b = ByteBuffer.allocate( (int)Math.min( to - from, 1000 ) );
+        try {
+            while (b.hasRemaining() && (channel.read( b, from + b.position() ) > 0));
+        } catch (IOException e) {
+            Errors.fatal( "Can't read the file" );
+        }
+        return new String( b.array(), 0, b.position(), StandardCharsets.UTF_8 );
+    }
+
+    /** finish scanning
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing useful to do, we have finished reading
+        }
+    }
+} // class ScanSupport
+
+/** NameTable.java
+ * The symbol table of names used in a circuit description
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Interns names as small integer ids, assigned in order from zero.
+ *  Names are looked up by their bytes, using open addressing, so scanning
+ *  a name that was seen before allocates nothing.  Each slot holds the
+ *  hash beside the id, and the bytes of all names are kept together, so
+ *  a lookup in a large table touches few cache lines.
+ * @see ScanSupport
+ */
+final class NameTable {
+    private long[] slots = new long[1024];       // hash << 32 | id + 1, or 0
+    private String[] strings = new String[512];  // indexed by id
+    private int[] starts = new int[513];         // where each name's bytes start
+    private byte[] text = new byte[4096];        // the bytes of all names
+    private int count = 0;                       // the number of names
+
+    /** @return the number of names, 1 + the largest id
+     */
+    public int size() {
+        return count;
+    }
+
+    /** @param id an id
+     *  @return the name with that id
+     */
+    public String name( int id ) {
+        return strings[id];
+    }
+
+    /** find the id of a name, adding it if it is new
+     *  @param b the bytes of the name, all ASCII
+     *  @param length the number of bytes
+     *  @return the id
+     */
+    public int intern( byte[] b, int length ) {
+        int h = 0x811C9DC5; // FNV-1a
+        for (int i = 0; i < length; i++) h = (h ^ b[i]) * 0x01000193;
+        h = mix( h );
+
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            long slot = slots[i];
+            if (slot == 0) {
+                int id = add( b, length );
+                slots[i] = ((long)h << 32) | (id + 1);
+                if (2 * count > slots.length) rehash();
+                return id;
+            }
+            int id = (int)slot - 1;
+            if (((int)(slot >>> 32) == h) && equal( id, b, length )) return id;
+        }
+    }
+
+    /** find the id of a name, adding it if it is new
+     *  @param s the name
+     *  @return the id
+     */
+    public int intern( String s ) {
+        byte[] b = s.getBytes( StandardCharsets.US_ASCII );
+        return intern( b, b.length );
+    }
+
+    /** find the id of a name
+     *  @param s the name
+     *  @return the id, or -1 if s is not in the table
+     */
+    public int find( String s ) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < s.length(); i++) h = (h ^ (byte)s.charAt( i )) * 0x01000193;
+        h = mix( h );
+
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            long slot = slots[i];
+            if (slot == 0) return -1;
+            int id = (int)slot - 1;
+            if (((int)(slot >>> 32) == h) && strings[id].equals( s )) return id;
+        }
+    }
+
+    /** spread the high bits of a hash into the low bits used as an index;
+     *  FNV alone leaves the low bits depending only on the low bits of bytes
+     *  @param h the hash
+     *  @return the mixed hash
+     */
+    private static int mix( int h ) {
+        h = (h ^ (h >>> 16)) * 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+    /** @return true if the name with the given id has exactly the given bytes
+     */
+    private boolean equal( int id, byte[] b, int length ) {
+        int start = starts[id];
+        if (starts[id + 1] - start != length) return false;
+        for (int i = 0; i < length; i++) if (text[start + i] != b[i]) return false;
+        return true;
+    }
+
+    /** add a new name
+     *  @return its id
+     */
+    private int add( byte[] b, int length ) {
+        if (count == strings.length) {
+            strings = Arrays.copyOf( strings, 2 * count );
+            starts = Arrays.copyOf( starts, 2 * count + 1 );
+        }
+        int start = starts[count];
+        if (start + length > text.length) {
+            text = Arrays.copyOf( text, Math.max( 2 * text.length, start + length ) );
+        }
+        System.arraycopy( b, 0, text, start, length );
+        strings[count] = new String( b, 0, length, StandardCharsets.US_ASCII );
+        starts[count + 1] = start + length;
+        count = count + 1;
+        return count - 1;
+    }
+
+    /** double the number of slots
+     */
+    private void rehash() {
+        long[] old = slots;
+        slots = new long[2 * old.length];
+        int mask = slots.length - 1;
+        for (long slot: old) if (slot != 0) {
+            int i = (int)(slot >>> 32) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = slot;
+        }
+    }
+} // class NameTable
+
+/** Simulator.java
+ * Support package for discfrete-event simulation
+ * author Douglas W. Jones
+ * version 2017-11-15 (MP5 solution)
+ * Adapted from Logic.java Version 2017-10-30 (the MP4 solution),
+ *
+ * Class Simulator taken from RoadNetwork.java Version 2017-10-25
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Framework for discrete event simulation
+ *  @author Douglas Jones
+ *  @version 4/18/2016
+ *  @see CalendarQueue
+ */
+class Simulator {
+
+    /** What an event set holds: a time and the links the sets use, with
+     *  nothing to do when the time comes, so engines that dispatch their
+     *  own records can keep them in an event set.  Times are counted in
+     *  ticks, so they are exact however long a run goes, and entries with
+     *  equal times are ordered by seq, so their order never depends on
+     *  how an event set happens to store them.
+     */
+    public static class Entry {
+        protected long time;        // the time in ticks, final unless pooled
+        long seq;                   // set by the event set, breaks ties
+        Entry next;                 // links used by event sets that chain
+        Entry prev;
+        Entry same;                 // the next entry with an equal time
+        Entry last;                 // the last entry with an equal time
+        boolean unsorted;           // the entries with an equal time need sorting
+
+        public Entry( long t ) {
+            time = t;               // initializer
+        }
+
+        /** compare the times of two entries, ties go to the earlier scheduled
+         *  @param e the other entry
+         *  @return true if this entry must be taken before e
+         */
+        final boolean before( Entry e ) {
+            if (time != e.time) return time < e.time;
+            return seq < e.seq;
+        }
+    }
+
+    /** Users create subclasses of event to schedule anything.
+     */
+    public static abstract class Event extends Entry {
+        public Event( long t ) {
+            super( t );
+        }
+
+        abstract void trigger();    // what to do at that time
+
+        void recycle() {}           // called after trigger, for pooled events
+
+        /** @return the events this stands for, one per wire it delivers
+         *          a change over, counted toward the event limit
+         */
+        int count() {
+            return 1;
+        }
+
+        /** do the first n of the events this stands for, leaving it first
+         *  in the event set to do the rest; only for events of a count()
+         *  over n
+         * @param n how many to do
+         */
+        void triggerFirst( int n ) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /** The set of pending events, from which they are removed in time order.
+     *  Entries with equal times come out in the order they were added.
+     *  @see PriorityEventSet
+     *  @see CalendarQueue
+     */
+    public static interface EventSet {
+        /** add an event to the set
+         *  @param e the event
+         */
+        public void add( Entry e );
+
+        /** find the event that must be triggered first, leaving it in place
+         *  @return that event, or null if the set is empty
+         */
+        public Entry first();
+
+        /** remove the event that must be triggered first
+         *  @return that event, or null if the set is empty
+         */
+        public Entry removeFirst();
+
+        /** @return the number of pending events
+         */
+        public int size();
+
+        /** remove every pending event, so the set can be used again
+         *  @return the events, linked through next in no particular order
+         */
+        public Entry removeAll();
+
+        /** remove a pending event before its time comes
+         *  @param e the event, which must be in the set
+         */
+        public void remove( Entry e );
+    }
+
+    /** The classic event set, a binary heap ordered by time.
+     *  Insertion and removal cost O(log n).
+     */
+    public static final class PriorityEventSet implements EventSet {
+        private long sequence = 0; // count of events ever added
+        private final PriorityQueue <Entry> queue = new PriorityQueue <Entry> (
+                (Entry e1, Entry e2) -> e1.before( e2 ) ? -1 : 1
+        );
+
+        public void add( Entry e ) {
+            e.seq = sequence++;
+            queue.add( e );
+        }
+
+        public Entry first() {
+            return queue.peek();
+        }
+
+        public Entry removeFirst() {
+            return queue.poll();
+        }
+
+        public int size() {
+            return queue.size();
+        }
+
+        public Entry removeAll() {
+            Entry all = null;
+            for (Entry e: queue) {
+                e.next = all;
+                all = e;
+            }
+            queue.clear();
+            return all;
+        }
+
+        public void remove( Entry e ) {
+            queue.remove( e ); // Bug: O(n), the calendar queue does better
+        }
+    }
+
+    /** Events that deliver a value to a gate.  These are the events of
+     *  the simulation's inner loop, so they are recycled through a pool
+     *  instead of being allocated each time; once the pool holds as many
+     *  records as the largest number of pending events, scheduling
+     *  allocates nothing.
+     */
+    private static final class GateEvent extends Event {
+        static final int OUTPUT = -1; // pin number for output changes
+
+        private static GateEvent pool = null; // free records, linked by next
+
+        private Gate gate;            // the gate this event is delivered to
+        private int pin;              // an input pin, or OUTPUT
+        private boolean value;        // the new value of an input pin
+
+        private GateEvent() {
+            super( 0L );
+        }
+
+        /** get a record from the pool, or a new one if the pool is empty
+         *  @return the record, with its fields initialized
+         */
+        static GateEvent get( long t, Gate g, int p, boolean v ) {
+            GateEvent e = pool;
+            if (e == null) {
+                e = new GateEvent();
+                if (Metrics.ENABLED) Metrics.allocated();
+            } else {
+                pool = (GateEvent)e.next;
+                e.next = null;
+            }
+            e.time = t;
+            e.gate = g;
+            e.pin = p;
+            e.value = v;
+            return e;
+        }
+
+        void trigger() {
+            if (pin == OUTPUT) {
+                gate.outputChangeEvent( time );
+            } else {
+                gate.inputChangeEvent( time, pin, value );
+            }
+        }
+
+        void recycle() {
+            gate = null;
+            next = pool;
+            pool = this;
+        }
+    }
+
+    /** Events that deliver a new value to an input of a gate on a bus,
+     *  recycled through a pool as GateEvents are
+     */
+    private static final class BusEvent extends Event {
+        private static BusEvent pool = null; // free records, linked by next
+
+        private Gate gate;            // the gate this event is delivered to
+        private int pin;              // an input pin
+        private long value;           // the new value of the bus
+
+        private BusEvent() {
+            super( 0L );
+        }
+
+        /** get a record from the pool, or a new one if the pool is empty
+         *  @return the record, with its fields initialized
+         */
+        static BusEvent get( long t, Gate g, int p, long v ) {
+            BusEvent e = pool;
+            if (e == null) {
+                e = new BusEvent();
+                if (Metrics.ENABLED) Metrics.allocated();
+            } else {
+                pool = (BusEvent)e.next;
+                e.next = null;
+            }
+            e.time = t;
+            e.gate = g;
+            e.pin = p;
+            e.value = v;
+            return e;
+        }
+
+        void trigger() {
+            gate.busInputChangeEvent( time, pin, value );
+        }
+
+        void recycle() {
+            gate = null;
+            next = pool;
+            pool = this;
+        }
+    }
+
+    /** Events that deliver one value to an input of each of several gates,
+     *  those driven through wires of one delay by one output, recycled
+     *  through a pool as GateEvents are
+     *  @see Fanout
+     */
+    private static final class FanoutEvent extends Event {
+        private static FanoutEvent pool = null; // free records, linked by next
+
+        private Gate[] gates;         // the gates this event is delivered to
+        private int[] pins;           // the input pin of each
+        private long value;           // the new value, 0 or 1 unless a bus
+        private boolean bus;          // true if the gates are on a bus
+        private int done;             // gates delivered to already
+
+        private FanoutEvent() {
+            super( 0L );
+        }
+
+        /** get a record from the pool, or a new one if the pool is empty
+         *  @return the record, with its fields initialized
+         */
+        static FanoutEvent get( long t, Gate[] g, int[] p, long v, boolean b ) {
+            FanoutEvent e = pool;
+            if (e == null) {
+                e = new FanoutEvent();
+                if (Metrics.ENABLED) Metrics.allocated();
+            } else {
+                pool = (FanoutEvent)e.next;
+                e.next = null;
+            }
+            e.time = t;
+            e.gates = g;
+            e.pins = p;
+            e.value = v;
+            e.bus = b;
+            e.done = 0;
+            return e;
+        }
+
+        void trigger() {
+            triggerFirst( gates.length - done );
+        }
+
+        int count() {
+            return gates.length - done;
+        }
+
+        void triggerFirst( int n ) {
+            int end = done + n;
+            if (bus) {
+                for (int i = done; i < end; i++) {
+                    gates[i].busInputChangeEvent( time, pins[i], value );
+                }
+            } else {
+                boolean v = value != 0;
+                for (int i = done; i < end; i++) {
+                    gates[i].inputChangeEvent( time, pins[i], v );
+                }
+            }
+            done = end;
+        }
+
+        void recycle() {
+            gates = null;
+            pins = null;
+            next = pool;
+            pool = this;
+        }
+    }
+
+    // the most digits after the decimal point of the length of a tick
+    public static final int MAX_DIGITS = 15;
+
+    // the timebase: a tick is 10 to the -digits seconds, 1 ns by default;
+    // set before the event set, whose calendar starts with a second a bucket
+    private static int digits = 9;
+    private static long ticksPerSecond = 1_000_000_000L;
+
+    /** Choose the length of a tick, the unit in which simulated time is
+     *  counted; only legal before any circuit is built, since wires keep
+     *  their delays in ticks
+     * @param seconds the length of a tick, a power of ten from 1e-15 to 1
+     * @throws IllegalArgumentException if it is not such a power of ten
+     */
+    public static void useResolution( double seconds ) {
+        int d = (int)Math.round( -Math.log10( seconds ) );
+        if ((d < 0) || (d > MAX_DIGITS)
+        ||  (Math.abs( seconds * Math.pow( 10.0, d ) - 1.0 ) > 1e-9)) {
+            throw new IllegalArgumentException( "Not a power of ten from 1e-"
+                    + MAX_DIGITS + " to 1: " + seconds
+            );
+        }
+        long t = 1;
+        for (int i = 0; i < d; i++) t = t * 10;
+        digits = d;
+        ticksPerSecond = t;
+    }
+
+    /** @return the number of digits after the decimal point of the length
+     *  of a tick in seconds, 9 for nanoseconds
+     */
+    public static int resolutionDigits() {
+        return digits;
+    }
+
+    /** @return the number of ticks in a second, a power of ten
+     */
+    public static long ticksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    /** convert a time or a delay to ticks; every engine computes the
+     *  delays of gates in seconds and converts them here, so they all
+     *  find the same times
+     * @param seconds the time, not negative
+     * @return the nearest number of ticks, or Long.MAX_VALUE if infinite
+     */
+    public static long ticks( double seconds ) {
+        return Math.round( seconds * ticksPerSecond );
+    }
+
+    /** convert a delay written in a circuit to ticks; the float read for
+     *  a delay such as 1.16 is not quite 1.16, so it is taken as the
+     *  shortest decimal that reads back as the same float, as written
+     * @param delay the delay in seconds
+     * @return the nearest number of ticks to the delay as written
+     */
+    public static long delayTicks( float delay ) {
+        return ticks( Double.parseDouble( Float.toString( delay ) ) );
+    }
+
+    /** @param ticks a time in ticks
+     *  @return the same time in seconds, as near as a double comes
+     */
+    public static double seconds( long ticks ) {
+        return (double)ticks / ticksPerSecond;
+    }
+
+    /** @param ticks a time in ticks, not negative
+     *  @return the time in seconds in decimal, exactly, with no trailing
+     *  zeros after the first digit after the point
+     */
+    public static String format( long ticks ) {
+        if (ticks == Long.MAX_VALUE) return "Infinity";
+        if (ticksPerSecond == 1) return ticks + ".0";
+        StringBuilder s = new StringBuilder();
+        s.append( ticks / ticksPerSecond ).append( '.' );
+        String fraction = Long.toString( ticksPerSecond + (ticks % ticksPerSecond) );
+        int end = fraction.length();
+        while ((end > 2) && (fraction.charAt( end - 1 ) == '0')) end--;
+        return s.append( fraction, 1, Math.max( end, 2 ) ).toString();
+    }
+
+    private static EventSet eventSet = new CalendarQueue();
+
+    /** Replace the event set; only legal before anything is scheduled
+     * @param s the new, empty, event set
+     */
+    public static void useEventSet( EventSet s ) {
+        eventSet = s;
+    }
+
+    /** Call schedule to make act happen at time.
+     * @param e the event being scheduled
+     */
+    public static void schedule( Event e ) {
+        eventSet.add( e );
+        if (Metrics.ENABLED) Metrics.scheduled( eventSet.size() );
+    }
+
+    /** Schedule a change of one of a gate's inputs, without allocation
+     * @param t the time of the change, in ticks
+     * @param g the gate
+     * @param pin the number of the input pin that changes
+     * @param v the new value
+     * @see Gate#inputChangeEvent(long, int, boolean)
+     */
+    public static void scheduleInput( long t, Gate g, int pin, boolean v ) {
+        eventSet.add( GateEvent.get( t, g, pin, v ) );
+        if (Metrics.ENABLED) Metrics.scheduled( eventSet.size() );
+    }
+
+    /** Schedule a change of one of the inputs of a gate on a bus, as one
+     * event however many bits change, without allocation
+     * @param t the time of the change, in ticks
+     * @param g the gate
+     * @param pin the number of the input pin that changes
+     * @param v the new value of the bus
+     * @see Gate#busInputChangeEvent(long, int, long)
+     */
+    public static void scheduleBusInput( long t, Gate g, int pin, long v ) {
+        eventSet.add( BusEvent.get( t, g, pin, v ) );
+        if (Metrics.ENABLED) Metrics.scheduled( eventSet.size() );
+    }
+
+    /** Schedule one event that changes an input of each of several gates,
+     * in turn, without allocation
+     * @param t the time of the changes, in ticks
+     * @param g the gates
+     * @param pins the number of the input pin of each gate that changes
+     * @param v the new value
+     * @see Fanout
+     */
+    public static void scheduleInputs( long t, Gate[] g, int[] pins, boolean v ) {
+        eventSet.add( FanoutEvent.get( t, g, pins, v ? 1 : 0, false ) );
+        if (Metrics.ENABLED) Metrics.scheduled( eventSet.size() );
+    }
+
+    /** Schedule one event that changes an input of each of several gates
+     * on a bus, as scheduleInputs does
+     * @param t the time of the changes, in ticks
+     * @param g the gates
+     * @param pins the number of the input pin of each gate that changes
+     * @param v the new value of the bus
+     */
+    public static void scheduleBusInputs( long t, Gate[] g, int[] pins, long v ) {
+        eventSet.add( FanoutEvent.get( t, g, pins, v, true ) );
+        if (Metrics.ENABLED) Metrics.scheduled( eventSet.size() );
+    }
+
+    /** Schedule a change of a gate's output, without allocation
+     * @param t the time of the change, in ticks
+     * @param g the gate
+     * @return the event, which may be cancelled until it is triggered
+     * @see Gate#outputChangeEvent(long)
+     */
+    public static Event scheduleOutput( long t, Gate g ) {
+        Event e = GateEvent.get( t, g, GateEvent.OUTPUT, false );
+        eventSet.add( e );
+        if (Metrics.ENABLED) Metrics.scheduled( eventSet.size() );
+        return e;
+    }
+
+    /** Cancel an event that has not yet been triggered
+     * @param e the event
+     */
+    public static void cancel( Event e ) {
+        eventSet.remove( e );
+        e.recycle();
+    }
+
+    // the pin told of an event for several gates, see PendingVisitor
+    static final int FANOUT = -2;
+
+    /** What a checkpoint is told of each pending gate event
+     */
+    static interface PendingVisitor {
+        /** @param e the event
+         *  @param g the gate it is delivered to, or null for FANOUT
+         *  @param pin an input pin, -1 for an output change, or FANOUT
+         *           for an event delivered to several gates, each told
+         *           of next as an input change by the same event
+         *  @param v the new value of an input pin, 0 or 1 unless the
+         *           gate is on a bus, or the number of gates for FANOUT
+         */
+        void visit( Event e, Gate g, int pin, long v );
+    }
+
+    /** Visit every pending event in the order they will be triggered,
+     *  leaving them pending in that order, for a checkpoint.
+     *  Only gate, bus and fanout events can be saved; any other is a fatal
+     *  error.
+     * @param v what is told of each event
+     */
+    static void forEachPending( PendingVisitor v ) {
+        ArrayList <Event> all = new ArrayList <Event> ( eventSet.size() );
+        for (Event e = (Event)eventSet.removeAll(); e != null;) {
+            Event next = (Event)e.next;
+            e.next = null;
+            all.add( e );
+            e = next;
+        }
+        all.sort( (Event e1, Event e2) -> (e1 == e2) ? 0 : e1.before( e2 ) ? -1 : 1 );
+        for (Event e: all) eventSet.add( e ); // the same order, with new seqs
+        for (Event e: all) {
+            if (e instanceof GateEvent) {
+                GateEvent g = (GateEvent)e;
+                v.visit( g, g.gate, g.pin, g.value ? 1 : 0 );
+            } else if (e instanceof BusEvent) {
+                BusEvent b = (BusEvent)e;
+                v.visit( b, b.gate, b.pin, b.value );
+            } else if (e instanceof FanoutEvent) {
+                FanoutEvent f = (FanoutEvent)e;
+                v.visit( f, null, FANOUT, f.count() );
+                for (int i = f.done; i < f.gates.length; i++) {
+                    v.visit( f, f.gates[i], f.pins[i], f.value );
+                }
+            } else {
+                Errors.fatal( "Can't checkpoint the event " + e.getClass().getName() );
+            }
+        }
+    }
+
+    // true if gates use inertial delay, see LogicGate
+    private static boolean inertial = false;
+
+    /** Choose how gates delay changes; only legal before the simulation starts
+     * @param on true for inertial delay, false for transport delay
+     */
+    public static void useInertialDelay( boolean on ) {
+        inertial = on;
+    }
+
+    /** @return true if gates use inertial delay
+     */
+    public static boolean inertialDelay() {
+        return inertial;
+    }
+
+    // true if gates are evaluated once per time slice, see runSlices
+    private static boolean timeSlices = false;
+
+    // the gates whose inputs changed in this slice, in order of the first
+    // change, each marked dirty until evaluated
+    private static Gate[] dirty = new Gate[64];
+    private static int dirtyCount = 0;
+
+    /** Choose how often gates are evaluated; only legal before the
+     *  simulation starts
+     * @param on true to evaluate each gate once per time slice, after all
+     *  the changes of its inputs at that time, false to evaluate it at
+     *  each change
+     */
+    public static void useTimeSlices( boolean on ) {
+        timeSlices = on;
+    }
+
+    /** @return true if gates are evaluated once per time slice
+     */
+    public static boolean timeSlices() {
+        return timeSlices;
+    }
+
+    /** Evaluate a gate at the end of this time slice, once however many
+     *  of its inputs change; only used with time slices
+     * @param g the gate, whose inputs have been set
+     * @see Gate#evaluate(long)
+     */
+    public static void evaluateLater( Gate g ) {
+        if (g.dirty) return;
+        g.dirty = true;
+        if (dirtyCount == dirty.length) dirty = Arrays.copyOf( dirty, 2 * dirtyCount );
+        dirty[dirtyCount++] = g;
+    }
+
+    /** Limits on one run of the simulation, the run stops at the first
+     *  limit it reaches.  By default there are no limits.
+     */
+    public static final class Limits {
+        public double endTime = Double.POSITIVE_INFINITY; // simulated seconds
+        public long maxEvents = Long.MAX_VALUE;         // events triggered
+        public double wallTime = Double.POSITIVE_INFINITY; // real seconds
+        private volatile boolean cancelled = false;
+
+        /** ask the run to stop soon; any thread may call this
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /** @return true if the run has been asked to stop
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** start timing a run against the real time limit
+         * @return what to pass to expired() during the run
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /** checks the clock, so runs call this only now and then
+         * @param started what start() returned when the run started
+         * @return true if the run has used up its real time
+         */
+        public boolean expired( long started ) {
+            // so large a limit is no limit, and must not overflow
+            boolean timed = wallTime < Long.MAX_VALUE / 1e9;
+            return timed && (System.nanoTime() - started > (long)(wallTime * 1e9));
+        }
+    }
+
+    /** The reasons a run can stop
+     */
+    public static enum Stop {
+        EMPTY( "no more events" ),
+        END_TIME( "end time" ),
+        EVENT_LIMIT( "event limit" ),
+        WALL_TIME( "time limit" ),
+        CANCELLED( "cancellation" );
+
+        private final String text;
+
+        Stop( String text ) {
+            this.text = text;
+        }
+
+        public String toString() {
+            return text;
+        }
+    }
+
+    /** What a run of the simulation did
+     */
+    public static final class Summary {
+        public final long events; // the number of events triggered
+        public final long time;   // the time of the last event, in ticks
+        public final Stop reason; // why the run stopped
+
+        Summary( long events, long time, Stop reason ) {
+            this.events = events;
+            this.time = time;
+            this.reason = reason;
+        }
+
+        public String toString() {
+            return "run stopped by " + reason + " at " + format( time )
+                 + " after " + events + " events";
+        }
+    }
+
+    // how many events to trigger between checks of the clock and cancel flag
+    private static final int CHECK_INTERVAL = 1024;
+
+    /** Call run() after scheduling some initial events
+     *  to run the simulation.
+     */
+    public static void run() {
+        run( new Limits() );
+    }
+
+    /** Run the simulation until a limit is reached or no events remain.
+     *  Events after the end time stay pending, so another run may continue.
+     * @param limits the limits on this run
+     * @return a summary of the run
+     */
+    public static Summary run( Limits limits ) {
+        Metrics.Run m = Metrics.run( "objects", rate );
+        return m.end( timeSlices ? runSlices( limits ) : runEvents( limits ) );
+    }
+
+    // counts events per unit of simulated time, if metrics are enabled
+    private static final Metrics.Rate rate = Metrics.ENABLED ? new Metrics.Rate() : null;
+
+    /** run the simulation, for run(Limits)
+     * @param limits the limits on this run
+     * @return a summary of the run
+     */
+    private static Summary runEvents( Limits limits ) {
+        long events = 0;
+        long checked = 0; // the events when the clock was last checked
+        long time = 0;
+        long endTime = ticks( limits.endTime );
+        long started = limits.start();
+
+        for (;;) {
+            if (events >= limits.maxEvents) {
+                return new Summary( events, time, Stop.EVENT_LIMIT );
+            }
+            if (events - checked >= CHECK_INTERVAL) {
+                checked = events;
+                if (limits.cancelled) {
+                    return new Summary( events, time, Stop.CANCELLED );
+                }
+                if (limits.expired( started )) {
+                    return new Summary( events, time, Stop.WALL_TIME );
+                }
+            }
+            Event e = (Event)eventSet.first();
+            if (e == null) {
+                return new Summary( events, time, Stop.EMPTY );
+            }
+            if (e.time > endTime) {
+                return new Summary( events, time, Stop.END_TIME );
+            }
+            time = e.time;
+            int n = e.count();
+            if (n > limits.maxEvents - events) {
+                // stop within a fanout event, at the wire the engines
+                // with an event per wire stop at
+                n = (int)(limits.maxEvents - events);
+                if (Metrics.ENABLED) rate.fired( time, n );
+                e.triggerFirst( n );
+                events = events + n;
+                continue;
+            }
+            eventSet.removeFirst();
+            if (Metrics.ENABLED) rate.fired( time, n );
+            e.trigger();
+            e.recycle();
+            events = events + n;
+        }
+    }
+
+    /** run the simulation a delta cycle at a time, for run(Limits) with
+     *  time slices.  Each cycle triggers every event pending at the time
+     *  of the first, so input events only set the inputs of their gates,
+     *  then evaluates each gate whose inputs changed once.  A gate whose
+     *  inputs change and change back never schedules an output change,
+     *  and one whose inputs all change at once schedules one, not one per
+     *  input.  Gates with no delay schedule changes at the same time,
+     *  which make the next cycle.  The limits are checked between cycles,
+     *  so a run may go past the event limit, but never stops with a gate
+     *  left unevaluated, and a run continued later does as one never
+     *  stopped would.
+     * @param limits the limits on this run
+     * @return a summary of the run
+     */
+    private static Summary runSlices( Limits limits ) {
+        long events = 0;
+        long checked = 0; // the events when the clock was last checked
+        long time = 0;
+        long endTime = ticks( limits.endTime );
+        long started = limits.start();
+
+        for (;;) {
+            if (events >= limits.maxEvents) {
+                return new Summary( events, time, Stop.EVENT_LIMIT );
+            }
+            if (events - checked >= CHECK_INTERVAL) {
+                checked = events;
+                if (limits.cancelled) {
+                    return new Summary( events, time, Stop.CANCELLED );
+                }
+                if (limits.expired( started )) {
+                    return new Summary( events, time, Stop.WALL_TIME );
+                }
+            }
+            Event e = (Event)eventSet.first();
+            if (e == null) {
+                return new Summary( events, time, Stop.EMPTY );
+            }
+            if (e.time > endTime) {
+                return new Summary( events, time, Stop.END_TIME );
+            }
+            time = e.time;
+            do {
+                eventSet.removeFirst();
+                int n = e.count();
+                if (Metrics.ENABLED) rate.fired( time, n );
+                e.trigger();
+                e.recycle();
+                events = events + n;
+                e = (Event)eventSet.first();
+            } while ((e != null) && (e.time == time));
+            for (int i = 0; i < dirtyCount; i++) {
+                Gate g = dirty[i];
+                dirty[i] = null;
+                g.dirty = false;
+                g.evaluate( time );
+            }
+            dirtyCount = 0;
+        }
+    }
+}
+
+/** Metrics.java
+ * Counters, histograms and flight recorder events about the simulators
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Instrumentation of the simulators, off unless the system property
+ *  logic.metrics is true when this class is first used, as the -metrics
+ *  option of Logic arranges.  ENABLED is a static final constant, so the
+ *  JIT drops the code in each "if (Metrics.ENABLED)" of the inner loops
+ *  entirely when it is off.
+ *
+ *  When on, it counts the events scheduled, fired and allocated, since
+ *  pooled events are only allocated when the pool is empty; tracks the
+ *  high-water mark of the pending events; keeps histograms of the fanout
+ *  of each output change and of the events fired in each unit of
+ *  simulated time that has any; and totals the time spent reading,
+ *  checking, lowering and running circuits.  These are attributes of the
+ *  MBean logic:type=Metrics, and are also recorded every second as the
+ *  flight recorder event logic.Counters.
+ *
+ *  Whether or not it is on, each phase and each run is recorded as a
+ *  flight recorder event, logic.Phase and logic.Run, once the flight
+ *  recorder has been started; until then, not even the event classes
+ *  are loaded, since loading them starts much of the recorder.
+ */
+final class Metrics {
+    static final boolean ENABLED = Boolean.getBoolean( "logic.metrics" );
+
+    /** The parts of the work of simulating a circuit that are timed
+     */
+    static enum Phase {
+        PARSE,  // reading a circuit file
+        CHECK,  // Logic.sanityCheck
+        LOWER,  // converting between Gate and Wire objects and a Netlist
+        RUN     // simulating
+    }
+
+    /** A histogram with a bucket for each power of two: bucket 0 counts
+     *  the zeros and bucket i the values from 2 to the i - 1 up to 2 to
+     *  the i.  Any thread may record values.
+     */
+    static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray( 65 );
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        /** @param v a value, not negative
+         */
+        void record( long v ) {
+            buckets.incrementAndGet( 64 - Long.numberOfLeadingZeros( v ) );
+            count.increment();
+            sum.add( v );
+            if (v > max.get()) max.accumulateAndGet( v, Math::max );
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        double mean() {
+            long n = count.sum();
+            return (n == 0) ? 0.0 : (double)sum.sum() / n;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        /** @return the counts of the buckets, up to the last that isn't 0
+         */
+        long[] buckets() {
+            int n = buckets.length();
+            while ((n > 0) && (buckets.get( n - 1 ) == 0)) n--;
+            long[] b = new long[n];
+            for (int i = 0; i < n; i++) b[i] = buckets.get( i );
+            return b;
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) buckets.set( i, 0 );
+            count.reset();
+            sum.reset();
+            max.set( 0 );
+        }
+
+        public String toString() {
+            return String.format( "count %d, mean %.2f, max %d", count(), mean(), max() );
+        }
+    }
+
+    private static final LongAdder scheduled = new LongAdder();
+    private static final LongAdder fired = new LongAdder();
+    private static final LongAdder allocated = new LongAdder();
+    private static final AtomicLong highWater = new AtomicLong();
+    private static final Histogram fanout = new Histogram();
+    private static final Histogram perTimeUnit = new Histogram();
+    private static final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+
+    static {
+        for (int i = 0; i < phaseNanos.length; i++) phaseNanos[i] = new LongAdder();
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new Bean(), new ObjectName( "logic:type=Metrics" )
+                );
+            } catch (JMException e) {
+                Errors.warn( "Can't register the metrics MBean: " + e.getMessage() );
+            }
+            FlightRecorder.addPeriodicEvent( CountersEvent.class, Metrics::recordCounters );
+        }
+    }
+
+    private Metrics() {}
+
+    /** count an event scheduled; call only if ENABLED
+     *  @param pending the number of events pending, including it
+     */
+    static void scheduled( int pending ) {
+        scheduled.increment();
+        if (pending > highWater.get()) highWater.accumulateAndGet( pending, Math::max );
+    }
+
+    /** count an event record allocated; call only if ENABLED
+     */
+    static void allocated() {
+        allocated.increment();
+    }
+
+    /** count events fired, where their times aren't known in order; call
+     *  only if ENABLED
+     *  @param n the number of events
+     */
+    static void fired( long n ) {
+        fired.add( n );
+    }
+
+    /** record the fanout of an output change; call only if ENABLED
+     *  @param n the number of input changes it schedules
+     */
+    static void fanout( int n ) {
+        fanout.record( n );
+    }
+
+    /** Counts the events one simulator fires in each unit of simulated
+     *  time, for the events per time unit histogram.  Events must be fired
+     *  in order of time, and only one thread may use a Rate.
+     */
+    static final class Rate {
+        private long unit = Long.MIN_VALUE;  // the current unit of time
+        private long count = 0;              // events fired in it so far
+
+        /** count an event fired; call only if ENABLED
+         *  @param t its time, in ticks
+         */
+        void fired( long t ) {
+            fired( t, 1 );
+        }
+
+        /** count events fired at one time; call only if ENABLED
+         *  @param t their time, in ticks
+         *  @param n how many
+         */
+        void fired( long t, int n ) {
+            long u = t / Simulator.ticksPerSecond();
+            if (u != unit) {
+                flush();
+                unit = u;
+            }
+            count = count + n;
+        }
+
+        /** add the events fired so far to the totals; call only if ENABLED
+         */
+        void flush() {
+            if (count == 0) return;
+            fired.add( count );
+            perTimeUnit.record( count );
+            count = 0;
+        }
+    }
+
+    /** A phase in progress
+     */
+    static final class Timer {
+        private final Phase phase;
+        private final long start = System.nanoTime();
+        private final PhaseEvent event;
+
+        private Timer( Phase phase ) {
+            this.phase = phase;
+            event = FlightRecorder.isInitialized() ? new PhaseEvent() : null;
+            if (event != null) event.begin();
+        }
+
+        /** the phase is over
+         */
+        void end() {
+            if (ENABLED) phaseNanos[phase.ordinal()].add( System.nanoTime() - start );
+            if (event == null) return;
+            event.phase = phase.name().toLowerCase();
+            event.commit();
+        }
+    }
+
+    /** @param phase the phase that starts now
+     *  @return its timer, to be ended when it is over
+     */
+    static Timer start( Phase phase ) {
+        return new Timer( phase );
+    }
+
+    /** A run in progress
+     */
+    static final class Run {
+        private final Timer timer = new Timer( Phase.RUN );
+        private final RunEvent event;
+        private final Rate rate;
+
+        private Run( String engine, Rate rate ) {
+            this.rate = rate;
+            event = FlightRecorder.isInitialized() ? new RunEvent() : null;
+            if (event == null) return;
+            event.engine = engine;
+            event.begin();
+        }
+
+        /** the run is over
+         *  @param s what it did
+         *  @return s
+         */
+        Simulator.Summary end( Simulator.Summary s ) {
+            if (ENABLED && (rate != null)) rate.flush();
+            timer.end();
+            if (event == null) return s;
+            event.events = s.events;
+            event.time = Simulator.seconds( s.time );
+            event.stop = s.reason.toString();
+            event.commit();
+            return s;
+        }
+    }
+
+    /** @param engine the name of the engine
+     *  @param rate the rate it counts fired events with, or null
+     *  @return the run that starts now, to be ended when it is over
+     */
+    static Run run( String engine, Rate rate ) {
+        return new Run( engine, rate );
+    }
+
+    /** forget everything counted so far
+     */
+    static void reset() {
+        scheduled.reset();
+        fired.reset();
+        allocated.reset();
+        highWater.set( 0 );
+        fanout.reset();
+        perTimeUnit.reset();
+        for (LongAdder a: phaseNanos) a.reset();
+    }
+
+    /** write out everything counted so far
+     *  @param out where it goes
+     */
+    static void report( PrintStream out ) {
+        out.println( "Metrics: events scheduled " + scheduled.sum()
+                   + ", fired " + fired.sum()
+                   + ", allocated " + allocated.sum()
+                   + ", most pending " + highWater.get() );
+        out.println( "Metrics: fanout per output change: " + fanout );
+        out.println( "Metrics: events per unit of simulated time: " + perTimeUnit );
+        StringBuilder b = new StringBuilder( "Metrics: seconds" );
+        for (Phase p: Phase.values()) {
+            b.append( ' ' ).append( p.name().toLowerCase() ).append( ' ' );
+            b.append( String.format( "%.3f", phaseNanos[p.ordinal()].sum() / 1e9 ) );
+        }
+        out.println( b );
+    }
+
+    /** record the counters to the flight recorder
+     */
+    private static void recordCounters() {
+        CountersEvent e = new CountersEvent();
+        e.scheduled = scheduled.sum();
+        e.fired = fired.sum();
+        e.allocated = allocated.sum();
+        e.highWater = highWater.get();
+        e.commit();
+    }
+
+    @Name( "logic.Phase" )
+    @Label( "Simulator Phase" )
+    @Category( "Logic" )
+    static final class PhaseEvent extends jdk.jfr.Event {
+        @Label( "Phase" )
+        String phase;
+    }
+
+    @Name( "logic.Run" )
+    @Label( "Simulation Run" )
+    @Category( "Logic" )
+    static final class RunEvent extends jdk.jfr.Event {
+        @Label( "Engine" )
+        String engine;
+
+        @Label( "Events" )
+        long events;
+
+        @Label( "Simulated Time" )
+        double time;
+
+        @Label( "Stopped By" )
+        String stop;
+    }
+
+    @Name( "logic.Counters" )
+    @Label( "Simulator Counters" )
+    @Category( "Logic" )
+    @Period( "1 s" )
+    static final class CountersEvent extends jdk.jfr.Event {
+        @Label( "Events Scheduled" )
+        long scheduled;
+
+        @Label( "Events Fired" )
+        long fired;
+
+        @Label( "Events Allocated" )
+        long allocated;
+
+        @Label( "Most Events Pending" )
+        long highWater;
+    }
+
+    /** The MBean, a DynamicMBean since the simulator's classes aren't
+     *  public and a standard MBean's interface must be
+     */
+    private static final class Bean implements DynamicMBean {
+        private static final String[] NAMES = {
+            "EventsScheduled", "EventsFired", "EventsAllocated", "QueueHighWater",
+            "FanoutMean", "FanoutMax", "FanoutHistogram",
+            "EventsPerTimeUnitMean", "EventsPerTimeUnitMax", "EventsPerTimeUnitHistogram",
+            "ParseSeconds", "CheckSeconds", "LowerSeconds", "RunSeconds"
+        };
+
+        public Object getAttribute( String name ) throws AttributeNotFoundException {
+            switch (name) {
+            case "EventsScheduled": return scheduled.sum();
+            case "EventsFired": return fired.sum();
+            case "EventsAllocated": return allocated.sum();
+            case "QueueHighWater": return highWater.get();
+            case "FanoutMean": return fanout.mean();
+            case "FanoutMax": return fanout.max();
+            case "FanoutHistogram": return fanout.buckets();
+            case "EventsPerTimeUnitMean": return perTimeUnit.mean();
+            case "EventsPerTimeUnitMax": return perTimeUnit.max();
+            case "EventsPerTimeUnitHistogram": return perTimeUnit.buckets();
+            case "ParseSeconds": return seconds( Phase.PARSE );
+            case "CheckSeconds": return seconds( Phase.CHECK );
+            case "LowerSeconds": return seconds( Phase.LOWER );
+            case "RunSeconds": return seconds( Phase.RUN );
+            default: throw new AttributeNotFoundException( name );
+            }
+        }
+
+        private static double seconds( Phase p ) {
+            return phaseNanos[p.ordinal()].sum() / 1e9;
+        }
+
+        public AttributeList getAttributes( String[] names ) {
+            AttributeList list = new AttributeList();
+            for (String name: names) {
+                try {
+                    list.add( new Attribute( name, getAttribute( name ) ) );
+                } catch (AttributeNotFoundException e) {
+                    // leave it out, as the interface says
+                }
+            }
+            return list;
+        }
+
+        public void setAttribute( Attribute a ) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException( "Metrics are read-only: " + a.getName() );
+        }
+
+        public AttributeList setAttributes( AttributeList list ) {
+            return new AttributeList();
+        }
+
+        public Object invoke( String action, Object[] params, String[] signature )
+                throws ReflectionException {
+            if (!"reset".equals( action ) || (params != null && params.length > 0)) {
+                throw new ReflectionException(
+                        new NoSuchMethodException( action ), "Unknown operation"
+                );
+            }
+            Metrics.reset();
+            return null;
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[NAMES.length];
+            for (int i = 0; i < NAMES.length; i++) {
+                String type;
+                if (NAMES[i].endsWith( "Histogram" )) {
+                    type = long[].class.getName();
+                } else if (NAMES[i].endsWith( "Mean" ) || NAMES[i].endsWith( "Seconds" )) {
+                    type = "double";
+                } else {
+                    type = "long";
+                }
+                attributes[i] = new MBeanAttributeInfo(
+                        NAMES[i], type, NAMES[i], true, false, false
+                );
+            }
+            MBeanOperationInfo[] operations = {
+                new MBeanOperationInfo( "reset", "Forget everything counted so far",
+                        new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION )
+            };
+            return new MBeanInfo( Metrics.class.getName(), "Logic simulator metrics",
+                    attributes, null, operations, null );
+        }
+    }
+} // class Metrics
+
+/** CalendarQueue.java
+ * The default event set for class Simulator
+ * Adapted from R. Brown, Calendar Queues, CACM 31, 10 (Oct. 1988).
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** An event set with amortized O(1) insertion and removal.
+ *  Events are hashed by time into a circular array of buckets, each bucket
+ *  covering width ticks of one "year" of the calendar; each bucket is a
+ *  doubly linked list of distinct times, searched from the end when adding,
+ *  and events with equal times hang off the first of them in a queue, so a
+ *  crowd of simultaneous events costs nothing to pass over when adding an
+ *  event with a nearby time.  Each event in such a queue links back to the
+ *  one before it, so removing any event takes expected O(1) time, as adding
+ *  one does: only when it is the last of its queue is its bucket searched,
+ *  from the end, for the first of the queue.  Finding the first event scans
+ *  forward from the bucket of the most recently removed event.  The calendar
+ *  is resized as the set grows and shrinks, with the width chosen by
+ *  sampling the times of the next events.
+ *  It is also rebuilt when the time spent searching lists and empty buckets
+ *  shows that the width no longer suits the times of the pending events.
+ *  @see Simulator
+ */
+final class CalendarQueue implements Simulator.EventSet {
+    private static final int MIN_BUCKETS = 16;
+    private static final int SAMPLE = 25; // events sampled to choose a width
+
+    private long sequence = 0;      // count of events ever added
+    private int size = 0;           // count of pending events
+
+    private Simulator.Entry[] heads; // the first event in each bucket
+    private Simulator.Entry[] tails; // the last distinct time in each bucket
+    private int mask;               // heads.length - 1, a power of two less 1
+    private long width = Simulator.ticksPerSecond(); // ticks in one bucket
+
+    private int lastBucket = 0;     // the bucket of the last removal
+    private long lastWindow = 0;    // the window number of the last removal
+    private boolean resizing = false; // suppresses resizing while sampling
+    private long work = 0;          // search steps since the last resize
+    private final boolean keyed;    // callers set seq, see below
+
+    public CalendarQueue() {
+        this( false );
+    }
+
+    /** make an empty calendar
+     *  @param keyed if true, the caller sets the seq of each event before
+     *               adding it, and events with equal times come out in
+     *               order of seq instead of the order they were added
+     */
+    public CalendarQueue( boolean keyed ) {
+        this.keyed = keyed;
+        allocate( MIN_BUCKETS );
+    }
+
+    /** allocate an empty calendar
+     *  @param n the number of buckets, a power of two
+     */
+    private void allocate( int n ) {
+        heads = new Simulator.Entry[n];
+        tails = new Simulator.Entry[n];
+        mask = n - 1;
+    }
+
+    /** @param t a time in ticks, never negative
+     *  @return the number of the width-sized window of time holding t
+     */
+    private long window( long t ) {
+        return t / width;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Simulator.Entry removeAll() {
+        Simulator.Entry all = null;
+        for (int b = 0; b <= mask; b++) {
+            Simulator.Entry h = heads[b];
+            while (h != null) {
+                Simulator.Entry next = h.next;
+                for (Simulator.Entry e = h; e != null;) {
+                    Simulator.Entry same = e.same;
+                    e.same = null;
+                    e.last = null;
+                    e.prev = null;
+                    e.unsorted = false;
+                    e.next = all;
+                    all = e;
+                    e = same;
+                }
+                h = next;
+            }
+            heads[b] = null;
+            tails[b] = null;
+        }
+        size = 0;
+        lastBucket = 0;
+        lastWindow = 0;
+        work = 0;
+        return all; // the calendar keeps its size and width for reuse
+    }
+
+    public void add( Simulator.Entry e ) {
+        if (!keyed) e.seq = sequence++;
+        insert( e );
+        size = size + 1;
+        if (resizing) return;
+        if (size > 2 * heads.length) {
+            resize( 2 * heads.length );
+        } else if (work > 8L * (size + heads.length)) {
+            resize( heads.length ); // the width is wrong, choose again
+        }
+    }
+
+    /** find the bucket for an event, noting if it is in the calendar's past
+     *  @param e the event
+     *  @return the bucket number
+     */
+    private int bucket( Simulator.Entry e ) {
+        long w = window( e.time );
+        int b = (int)w & mask;
+        if (w < lastWindow) { // an event in the past of the calendar
+            lastWindow = w;
+            lastBucket = b;
+        }
+        return b;
+    }
+
+    /** put an event into its bucket, keeping the bucket sorted
+     *  @param e the event, its seq set
+     */
+    private void insert( Simulator.Entry e ) {
+        int b = bucket( e );
+
+        // search back from the tail, usually e goes at or near the end
+        Simulator.Entry p = tails[b];
+        while ((p != null) && (e.time < p.time)) {
+            p = p.prev;
+            work = work + 1;
+        }
+
+        e.same = null;
+        if ((p != null) && (p.time == e.time)) { // join the queue of equals
+            if (e.seq < p.last.seq) p.unsorted = true; // only if keyed
+            e.prev = p.last;
+            e.next = null;
+            e.last = null; // only the first of the queue has last
+            p.last.same = e;
+            p.last = e;
+            return;
+        }
+
+        // now e is a new distinct time after p, or first if p is null
+        e.last = e;
+        e.unsorted = false;
+        e.prev = p;
+        if (p == null) {
+            e.next = heads[b];
+            heads[b] = e;
+        } else {
+            e.next = p.next;
+            p.next = e;
+        }
+        if (e.next == null) {
+            tails[b] = e;
+        } else {
+            e.next.prev = e;
+        }
+    }
+
+    /** put an event back at the head of its bucket, where it was taken from
+     *  @param e the event, earlier than any in the calendar
+     */
+    private void restore( Simulator.Entry e ) {
+        int b = bucket( e );
+        Simulator.Entry h = heads[b];
+        if ((h != null) && (h.time == e.time)) { // e leads the queue of equals
+            e.same = h;
+            e.last = h.last;
+            e.next = h.next;
+            h.next = null;
+            h.last = null;
+            h.prev = e;
+        } else {
+            e.same = null;
+            e.last = e;
+            e.next = h;
+        }
+        e.prev = null;
+        heads[b] = e;
+        if (e.next == null) {
+            tails[b] = e;
+        } else {
+            e.next.prev = e;
+        }
+    }
+
+    public Simulator.Entry first() {
+        if (size == 0) return null;
+        return heads[find()];
+    }
+
+    public Simulator.Entry removeFirst() {
+        if (size == 0) return null;
+        return take( find() );
+    }
+
+    /** find the bucket holding the first event, and remember where it is
+     *  @return the bucket number, the set must not be empty
+     */
+    private int find() {
+        int b = search();
+        if (heads[b].unsorted) sort( b );
+        return b;
+    }
+
+    /** put the events with the time of the first in a bucket in order of
+     *  seq; when callers set seq they may be added out of order, and they
+     *  are sorted once, when their time comes
+     *  @param b the bucket
+     */
+    private void sort( int b ) {
+        Simulator.Entry h = heads[b];
+        int n = 0;
+        for (Simulator.Entry e = h; e != null; e = e.same) n++;
+        Simulator.Entry[] equal = new Simulator.Entry[n];
+        n = 0;
+        for (Simulator.Entry e = h; e != null; e = e.same) equal[n++] = e;
+        Arrays.sort( equal, (Simulator.Entry e1, Simulator.Entry e2)
+                            -> e1.before( e2 ) ? -1 : 1 );
+
+        Simulator.Entry first = equal[0];
+        first.next = h.next;
+        first.prev = null;
+        first.last = equal[n - 1];
+        first.unsorted = false;
+        for (int i = 1; i < n; i++) {
+            equal[i].prev = equal[i - 1];
+            equal[i].next = null;
+            equal[i].last = null;
+        }
+        for (int i = 0; i < n; i++) {
+            equal[i].same = (i + 1 < n) ? equal[i + 1] : null;
+            equal[i].unsorted = false;
+        }
+        heads[b] = first;
+        if (first.next == null) {
+            tails[b] = first;
+        } else {
+            first.next.prev = first;
+        }
+    }
+
+    /** find the bucket holding the first time
+     *  @return the bucket number, the set must not be empty
+     */
+    private int search() {
+        // scan one year of the calendar starting where we left off
+        int b = lastBucket;
+        long w = lastWindow;
+        for (int i = 0; i <= mask; i++) {
+            Simulator.Entry e = heads[b];
+            if ((e != null) && (window( e.time ) <= w)) {
+                lastBucket = b;
+                lastWindow = w;
+                return b;
+            }
+            b = (b + 1) & mask;
+            w = w + 1;
+            work = work + 1;
+        }
+
+        // nothing this year, so find the earliest event by direct search
+        Simulator.Entry first = null;
+        for (int i = 0; i <= mask; i++) {
+            Simulator.Entry e = heads[i];
+            if ((e != null) && ((first == null) || e.before( first ))) {
+                first = e;
+                b = i;
+            }
+        }
+        lastBucket = b;
+        lastWindow = window( first.time );
+        return b;
+    }
+
+    public void remove( Simulator.Entry e ) {
+        int b = (int)window( e.time ) & mask;
+        Simulator.Entry h = e.same;
+        if (e.last == null) { // in a queue of equals, after the first
+            Simulator.Entry q = e.prev;
+            q.same = h;
+            if (h != null) {
+                h.prev = q;
+            } else { // e was last, so tell the first of the queue
+                Simulator.Entry p = tails[b];
+                while (p.time != e.time) p = p.prev;
+                p.last = q;
+            }
+        } else if (h != null) { // the next of equal time takes e's place
+            h.last = e.last;
+            h.unsorted = e.unsorted;
+            relink( b, e, h );
+        } else {
+            relink( b, e, null );
+        }
+        e.next = null;
+        e.prev = null;
+        e.same = null;
+        e.last = null;
+        size = size - 1;
+    }
+
+    /** replace an event in the list of distinct times of a bucket
+     *  @param b the bucket
+     *  @param e the event
+     *  @param h its replacement, or null to just unlink e
+     */
+    private void relink( int b, Simulator.Entry e, Simulator.Entry h ) {
+        Simulator.Entry before = e.prev;
+        Simulator.Entry after = e.next;
+        Simulator.Entry first = after; // what follows before
+        Simulator.Entry last = before; // what precedes after
+        if (h != null) {
+            h.prev = before;
+            h.next = after;
+            first = h;
+            last = h;
+        }
+        if (before == null) {
+            heads[b] = first;
+        } else {
+            before.next = first;
+        }
+        if (after == null) {
+            tails[b] = last;
+        } else {
+            after.prev = last;
+        }
+    }
+
+    /** unlink the first event of a bucket
+     *  @param b the bucket, known to be nonempty
+     *  @return the event
+     */
+    private Simulator.Entry take( int b ) {
+        Simulator.Entry e = heads[b];
+        Simulator.Entry h = e.same;
+        if (h == null) { // the last of its time
+            h = e.next;
+        } else { // the next of equal time leads the bucket
+            h.last = e.last;
+            h.next = e.next;
+            h.unsorted = e.unsorted;
+        }
+        heads[b] = h;
+        if (h == null) {
+            tails[b] = null;
+        } else {
+            h.prev = null;
+            if (h.next == null) {
+                tails[b] = h;
+            } else {
+                h.next.prev = h;
+            }
+        }
+        e.next = null;
+        e.same = null;
+        e.last = null;
+        size = size - 1;
+        if ((size < heads.length / 2) && (heads.length > MIN_BUCKETS)
+        &&  !resizing) resize( heads.length / 2 );
+        return e;
+    }
+
+    /** rebuild the calendar with a new number of buckets and a new width
+     *  @param n the new number of buckets
+     */
+    private void resize( int n ) {
+        resizing = true;
+        long newWidth = sampleWidth();
+
+        // gather the events in time order so each insertion appends;
+        // buckets of the old calendar hold several years interleaved
+        Simulator.Entry[] all = new Simulator.Entry[size];
+        int count = 0;
+        for (Simulator.Entry h: heads) {
+            for (; h != null; h = h.next) {
+                for (Simulator.Entry e = h; e != null; e = e.same) {
+                    all[count++] = e;
+                }
+            }
+        }
+        Arrays.sort( all, (Simulator.Entry e1, Simulator.Entry e2)
+                          -> e1.before( e2 ) ? -1 : 1 );
+
+        allocate( n );
+        width = newWidth;
+        lastWindow = (size == 0) ? 0 : window( all[0].time );
+        lastBucket = (int)lastWindow & mask;
+        for (Simulator.Entry e: all) insert( e );
+        work = 0;
+        resizing = false;
+    }
+
+    /** pick a bucket width from the spacing of the next few events
+     *  @return about three times the typical spacing, per Brown, in ticks
+     */
+    private long sampleWidth() {
+        int n = Math.min( size, SAMPLE );
+        if (n < 2) return width;
+
+        // temporarily remove the next n events to find their times
+        Simulator.Entry[] sample = new Simulator.Entry[n];
+        for (int i = 0; i < n; i++) sample[i] = removeFirst();
+        for (int i = n - 1; i >= 0; i--) {
+            restore( sample[i] );
+            size = size + 1;
+        }
+
+        double total = sample[n - 1].time - sample[0].time;
+        double average = total / (n - 1);
+        double sum = 0.0; // recompute ignoring widely spaced outliers
+        int count = 0;
+        for (int i = 1; i < n; i++) {
+            double gap = sample[i].time - sample[i - 1].time;
+            if (gap <= 2.0 * average) {
+                sum = sum + gap;
+                count = count + 1;
+            }
+        }
+        long w = Math.round( 3.0 * sum / count );
+        if (w > 0) return w;
+
+        // the sampled events coincide, so use the average spacing of all
+        long last = sample[0].time;
+        for (Simulator.Entry t: tails) if ((t != null) && (t.time > last)) last = t.time;
+        w = Math.round( 3.0 * (last - sample[0].time) / size );
+        if (w > 0) return w;
+        return width; // all events coincide, keep the old width
+    }
+} // class CalendarQueue
+
+/** EventSetBenchmark.java
+ * Compare the event sets available to class Simulator
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Measures the classic hold model: with n events pending, repeatedly
+ *  remove the first and schedule a replacement a random time later.
+ *  Run with: java EventSetBenchmark [n ...]
+ *  @see Simulator.EventSet
+ */
+class EventSetBenchmark {
+    private static final int HOLDS = 5_000_000;
+
+    /** an entry with nothing to do */
+    private static final class Nothing extends Simulator.Entry {
+        Nothing( long t ) {
+            super( t );
+        }
+    }
+
+    /** time the hold model on one kind of event set
+     *  @param s the empty event set
+     *  @param n the number of pending events
+     *  @return the time per hold operation, in nanoseconds
+     */
+    private static double holds( Simulator.EventSet s, int n ) {
+        Random r = new Random( 29 );
+        for (int i = 0; i < n; i++) s.add( new Nothing( Simulator.ticks( r.nextFloat() ) ) );
+
+        long start = System.nanoTime();
+        for (int i = 0; i < HOLDS; i++) {
+            Simulator.Entry e = s.removeFirst();
+            // exponentially distributed holding times, as in most circuits
+            long t = e.time + Simulator.ticks( -Math.log( 1.0 - r.nextFloat() ) );
+            s.add( new Nothing( t ) );
+        }
+        return (double)(System.nanoTime() - start) / HOLDS;
+    }
+
+    /** Main program
+     * @param args the queue sizes to measure
+     */
+    public static void main( String[] args ) {
+        int[] sizes = { 1_000, 10_000, 100_000, 1_000_000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt( args[i] );
+            }
+        }
+        for (int round = 0; round < 2; round++) { // round 0 warms the JIT
+            for (int n: sizes) {
+                double heap = holds( new Simulator.PriorityEventSet(), n );
+                double calendar = holds( new CalendarQueue(), n );
+                if (round > 0) System.out.printf(
+                        "%9d events: heap %7.1f ns/hold, calendar %7.1f ns/hold%n",
+                        n, heap, calendar
+                );
+            }
+        }
+    }
+} // class EventSetBenchmark
+
+/** Trace.java
+ * Output of the changes of signal values during simulation
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Traces record each change of a traced signal, in one of several formats.
+ *  Output is collected in a direct buffer and written to a channel in
+ *  large blocks, so tracing costs little more than the simulation itself.
+ *  Signals are numbered from zero and must all be declared before
+ *  {@link #begin()}; each gate has one traced signal, numbered by its id.
+ *  @see TextTrace
+ *  @see VcdTrace
+ *  @see BinaryTrace
+ */
+abstract class Trace {
+    // the trace that gates report their output changes to
+    static Trace current = new TextTrace( standardOutput(), false );
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel; // false for standard output
+    protected final ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+
+    /** The constructor used only from subclasses of Trace
+     *  @param channel where the trace goes
+     *  @param closeChannel whether to close the channel when the trace is closed
+     */
+    protected Trace( WritableByteChannel channel, boolean closeChannel ) {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+    }
+
+    /** @return a channel to standard output
+     */
+    static WritableByteChannel standardOutput() {
+        return Channels.newChannel( new FileOutputStream( FileDescriptor.out ) );
+    }
+
+    /** Open a trace in the named format
+     *  @param format one of text, vcd, binary or none
+     *  @param fileName the file to write, or null for standard output
+     *  @return the new trace
+     */
+    public static Trace open( String format, String fileName ) {
+        WritableByteChannel channel = null;
+        if ("none".equals( format )) return new NullTrace();
+        if (fileName == null) {
+            channel = standardOutput();
+        } else try {
+            channel = FileChannel.open( Paths.get( fileName ),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING
+            );
+        } catch (IOException e) {
+            Errors.fatal( "Can't open the trace file: " + fileName );
+        }
+
+        boolean close = fileName != null;
+        if ("text".equals( format )) return new TextTrace( channel, close );
+        if ("vcd".equals( format )) return new VcdTrace( channel, close );
+        if ("binary".equals( format )) return new BinaryTrace( channel, close );
+        Errors.fatal( "Unknown trace format: " + format );
+        return null; // never reached
+    }
+
+    /** declare a signal that may be traced
+     *  @param signal the signal's number
+     *  @param name the name of the signal, a gate name
+     *  @param label the text describing the signal, as in a text trace
+     */
+    public abstract void declare( int signal, String name, String label );
+
+    /** declare a signal that may be traced, which may be a bus
+     *  @param signal the signal's number
+     *  @param name the name of the signal, a gate name
+     *  @param label the text describing the signal, as in a text trace
+     *  @param bits the number of bits of the signal, 1 unless a bus
+     */
+    public void declare( int signal, String name, String label, int bits ) {
+        declare( signal, name, label );
+    }
+
+    /** called once after all declarations and before any changes
+     */
+    public void begin() {}
+
+    /** record a change of a signal's value
+     *  @param time the time of the change, in ticks of the simulator
+     *  @param signal the signal's number
+     *  @param value the new value
+     *  @see Simulator#ticks(double)
+     */
+    public abstract void change( long time, int signal, boolean value );
+
+    /** record a change of the value of a bus; only gate objects are on
+     *  buses, so traces used by the engines of netlists need not override,
+     *  and by default a bus is a fatal error naming the trace
+     *  @param time the time of the change, in ticks
+     *  @param signal the signal's number, declared with its bits
+     *  @param value the new value
+     */
+    public void changeBus( long time, int signal, long value ) {
+        Errors.fatal( "Buses can't be traced by " + getClass().getName()
+                    + ": signal " + signal );
+    }
+
+    /** write out everything buffered and close the trace
+     */
+    public void close() {
+        flush();
+        if (closeChannel) try {
+            channel.close();
+        } catch (IOException e) {
+            Errors.fatal( "Can't close the trace file" );
+        }
+    }
+
+    /** write out everything buffered
+     */
+    protected final void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) channel.write( buffer );
+        } catch (IOException e) {
+            Errors.fatal( "Can't write the trace" );
+        }
+        buffer.clear();
+    }
+
+    /** make sure the buffer has room
+     *  @param n the number of bytes needed, at most the size of the buffer
+     */
+    protected final void room( int n ) {
+        if (buffer.remaining() < n) flush();
+    }
+
+    /** append bytes of any length to the buffer
+     *  @param b the bytes
+     */
+    protected final void put( byte[] b ) {
+        int done = 0;
+        while (b.length - done > buffer.remaining()) {
+            int n = buffer.remaining();
+            buffer.put( b, done, n );
+            done = done + n;
+            flush();
+        }
+        buffer.put( b, done, b.length - done );
+    }
+
+    /** append a number in decimal, the buffer must have room for 20 bytes
+     *  @param n the number, not negative
+     */
+    protected final void putDecimal( long n ) {
+        int start = buffer.position();
+        do {
+            buffer.put( (byte)('0' + (n % 10)) );
+            n = n / 10;
+        } while (n != 0);
+        // the digits went in backwards, so reverse them
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte t = buffer.get( i );
+            buffer.put( i, buffer.get( j ) );
+            buffer.put( j, t );
+        }
+    }
+
+    /** append a number as an unsigned varint, the buffer must have room for
+     *  10 bytes; 7 bits per byte, low bits first, high bit set if more follow
+     *  @param n the number, taken as unsigned
+     */
+    protected final void putVarint( long n ) {
+        while ((n & ~0x7FL) != 0) {
+            buffer.put( (byte)((n & 0x7F) | 0x80) );
+            n = n >>> 7;
+        }
+        buffer.put( (byte)n );
+    }
+
+    /** @param s a string
+     *  @return its bytes
+     */
+    protected static byte[] bytes( String s ) {
+        return s.getBytes( StandardCharsets.UTF_8 );
+    }
+} // abstract class Trace
+
+/** Discards all changes, for runs where only the summary matters.
+ *  @see Trace
+ */
+final class NullTrace extends Trace {
+    NullTrace() {
+        super( null, false );
+    }
+
+    public void declare( int signal, String name, String label ) {}
+
+    public void change( long time, int signal, boolean value ) {}
+
+    public void changeBus( long time, int signal, long value ) {}
+
+    public void close() {}
+}
+
+/** The original human readable trace, one line per change.
+ *  @see Trace
+ */
+final class TextTrace extends Trace {
+    private static final byte[] AT = bytes( "At " );
+    private static final byte[] TRUE = bytes(
+            " changes to true" + System.lineSeparator()
+    );
+    private static final byte[] FALSE = bytes(
+            " changes to false" + System.lineSeparator()
+    );
+
+    private static final byte[] TO = bytes( " changes to 0x" );
+    private static final byte[] HEX = bytes( "0123456789abcdef" );
+    private static final byte[] NEWLINE = bytes( System.lineSeparator() );
+
+    private byte[][] labels = new byte[64][]; // indexed by signal number
+    private int[] digits = new int[64];       // of buses, in hexadecimal
+
+    TextTrace( WritableByteChannel channel, boolean closeChannel ) {
+        super( channel, closeChannel );
+    }
+
+    public void declare( int signal, String name, String label ) {
+        if (signal >= labels.length) {
+            labels = Arrays.copyOf( labels, Math.max( signal + 1, 2 * labels.length ) );
+        }
+        labels[signal] = bytes( label );
+    }
+
+    public void declare( int signal, String name, String label, int bits ) {
+        declare( signal, name, label );
+        if (signal >= digits.length) {
+            digits = Arrays.copyOf( digits, Math.max( signal + 1, 2 * digits.length ) );
+        }
+        digits[signal] = (bits + 3) / 4;
+    }
+
+    public void change( long time, int signal, boolean value ) {
+        at( time, signal );
+        put( value ? TRUE : FALSE );
+    }
+
+    public void changeBus( long time, int signal, long value ) {
+        at( time, signal );
+        room( 64 );
+        buffer.put( TO );
+        for (int d = digits[signal] - 1; d >= 0; d--) {
+            buffer.put( HEX[(int)(value >>> (4 * d)) & 0xF] );
+        }
+        buffer.put( NEWLINE );
+    }
+
+    /** begin the line of a change with its time and the signal's label
+     *  @param time the time of the change, in ticks
+     *  @param signal the signal's number
+     */
+    private void at( long time, int signal ) {
+        room( 64 );
+        buffer.put( AT );
+        putSeconds( time );
+        buffer.put( (byte)' ' );
+        put( labels[signal] );
+    }
+
+    /** append a time in seconds, exactly as Simulator.format gives it,
+     *  without making a string; the buffer must have room for 40 bytes
+     *  @param time the time, in ticks
+     */
+    private void putSeconds( long time ) {
+        long perSecond = Simulator.ticksPerSecond();
+        putDecimal( time / perSecond );
+        buffer.put( (byte)'.' );
+        long fraction = time % perSecond;
+        int digits = Simulator.resolutionDigits();
+        if (fraction == 0) digits = 1; // as in 1.0
+        while ((digits > 1) && ((fraction % 10) == 0)) {
+            fraction = fraction / 10;
+            digits--;
+        }
+        int start = buffer.position();
+        putDecimal( fraction );
+        int length = buffer.position() - start;
+        if (length < digits) { // put back the leading zeros
+            buffer.position( start );
+            for (int i = length; i < digits; i++) buffer.put( (byte)'0' );
+            putDecimal( fraction );
+        }
+    }
+} // class TextTrace
+
+/** Value change dump, IEEE 1364 section 18, for waveform viewers.
+ *  Each signal is a wire named after its gate, one bit wide unless it is
+ *  a bus; all signals start false, as the gates do.  The timescale is the
+ *  length of the simulator's tick, so times are written exactly.
+ *  @see Trace
+ */
+final class VcdTrace extends Trace {
+    private String[] names = new String[64];  // indexed by signal number
+    private byte[][] codes = new byte[64][];  // short identifier codes
+    private int[] widths = new int[64];       // bits of each signal
+    private int count = 0;                    // 1 + the largest signal number
+    private long lastTicks = Long.MIN_VALUE;  // time of the last change
+
+    VcdTrace( WritableByteChannel channel, boolean closeChannel ) {
+        super( channel, closeChannel );
+    }
+
+    /** @param signal a signal number
+     *  @return the identifier code, in base 94 using the printable characters
+     */
+    private static byte[] code( int signal ) {
+        StringBuilder s = new StringBuilder();
+        do {
+            s.append( (char)('!' + (signal % 94)) );
+            signal = signal / 94;
+        } while (signal != 0);
+        return bytes( s.toString() );
+    }
+
+    public void declare( int signal, String name, String label ) {
+        declare( signal, name, label, 1 );
+    }
+
+    public void declare( int signal, String name, String label, int bits ) {
+        if (signal >= names.length) {
+            int n = Math.max( signal + 1, 2 * names.length );
+            names = Arrays.copyOf( names, n );
+            codes = Arrays.copyOf( codes, n );
+            widths = Arrays.copyOf( widths, n );
+        }
+        names[signal] = name;
+        codes[signal] = code( signal );
+        widths[signal] = bits;
+        count = Math.max( count, signal + 1 );
+    }
+
+    public void begin() {
+        StringBuilder h = new StringBuilder();
+        String nl = "\n"; // VCD files use plain newlines
+        h.append( "$version Logic $end" ).append( nl );
+        h.append( "$timescale " ).append( timescale() ).append( " $end" ).append( nl );
+        h.append( "$scope module logic $end" ).append( nl );
+        for (int i = 0; i < count; i++) if (names[i] != null) {
+            h.append( "$var wire " ).append( widths[i] ).append( ' ' )
+             .append( new String( codes[i] ) )
+             .append( ' ' ).append( names[i] ).append( " $end" ).append( nl );
+        }
+        h.append( "$upscope $end" ).append( nl );
+        h.append( "$enddefinitions $end" ).append( nl );
+        h.append( "#0" ).append( nl );
+        h.append( "$dumpvars" ).append( nl );
+        for (int i = 0; i < count; i++) if (names[i] != null) {
+            h.append( (widths[i] == 1) ? "0" : "b0 " )
+             .append( new String( codes[i] ) ).append( nl );
+        }
+        h.append( "$end" ).append( nl );
+        put( bytes( h.toString() ) );
+        lastTicks = 0;
+    }
+
+    /** @return the length of a tick as a VCD timescale, such as 100 ps
+     */
+    private static String timescale() {
+        int digits = Simulator.resolutionDigits();
+        int unit = (digits + 2) / 3; // the unit, from s up to fs
+        String multiple = (3 * unit - digits == 0) ? "1"
+                        : (3 * unit - digits == 1) ? "10" : "100";
+        return multiple + " " + new String[] { "s", "ms", "us", "ns", "ps", "fs" }[unit];
+    }
+
+    public void change( long time, int signal, boolean value ) {
+        time( time );
+        buffer.put( value ? (byte)'1' : (byte)'0' );
+        put( codes[signal] );
+        buffer.put( (byte)'\n' );
+    }
+
+    public void changeBus( long time, int signal, long value ) {
+        time( time );
+        room( 64 + 4 );
+        buffer.put( (byte)'b' );
+        for (int b = Math.max( 0, 63 - Long.numberOfLeadingZeros( value ) ); b >= 0; b--) {
+            buffer.put( (byte)('0' + ((value >>> b) & 1)) );
+        }
+        buffer.put( (byte)' ' );
+        put( codes[signal] );
+        buffer.put( (byte)'\n' );
+    }
+
+    /** start a new time if a change comes after the last
+     *  @param time the time of the change, in ticks
+     */
+    private void time( long time ) {
+        room( 64 );
+        long t = time;
+        if (t != lastTicks) {
+            // Bug: a negative delay can make time run backwards; VCD can't say so
+            lastTicks = t;
+            buffer.put( (byte)'#' );
+            if (t < 0) {
+                buffer.put( (byte)'-' );
+                t = -t;
+            }
+            putDecimal( t );
+            buffer.put( (byte)'\n' );
+        }
+    }
+} // class VcdTrace
+
+/** A compact binary trace.  The file starts with the 4 bytes LGTR, a
+ *  version byte, the number of ticks per second as a varint, the number
+ *  of signals as a varint, and then for each signal the length of its
+ *  name as a varint and the name in UTF-8.  Each change follows as two
+ *  varints, the zigzag encoded difference in ticks from the previous
+ *  change, then the signal number times two plus the new value.  A change
+ *  usually takes 2 or 3 bytes.  A trace with buses has version 4, in which
+ *  each name is followed by the number of bits of the signal as a varint,
+ *  and the change of a bus is followed by a third varint, its new value.
+ *  Versions 1 and 2, without the ticks per second, counted nanoseconds.
+ *  @see Trace
+ */
+final class BinaryTrace extends Trace {
+    public static final byte[] MAGIC = bytes( "LGTR" );
+    public static final int VERSION = 3;
+    public static final int BUS_VERSION = 4;
+
+    private String[] names = new String[64]; // indexed by signal number
+    private int[] widths = new int[64];      // bits of each signal
+    private boolean buses = false;           // true if any width isn't 1
+    private int count = 0;                   // 1 + the largest signal number
+    private long lastTicks = 0;              // time of the last change, in ticks
+
+    BinaryTrace( WritableByteChannel channel, boolean closeChannel ) {
+        super( channel, closeChannel );
+    }
+
+    public void declare( int signal, String name, String label ) {
+        declare( signal, name, label, 1 );
+    }
+
+    public void declare( int signal, String name, String label, int bits ) {
+        if (signal >= names.length) {
+            int n = Math.max( signal + 1, 2 * names.length );
+            names = Arrays.copyOf( names, n );
+            widths = Arrays.copyOf( widths, n );
+        }
+        names[signal] = name;
+        widths[signal] = bits;
+        buses = buses || (bits != 1);
+        count = Math.max( count, signal + 1 );
+    }
+
+    public void begin() {
+        put( MAGIC );
+        room( 16 );
+        buffer.put( (byte)(buses ? BUS_VERSION : VERSION) );
+        putVarint( Simulator.ticksPerSecond() );
+        putVarint( count );
+        for (int i = 0; i < count; i++) {
+            byte[] name = bytes( names[i] == null ? "" : names[i] );
+            room( 16 );
+            putVarint( name.length );
+            put( name );
+            if (buses) {
+                room( 16 );
+                putVarint( Math.max( 1, widths[i] ) );
+            }
+        }
+    }
+
+    public void change( long time, int signal, boolean value ) {
+        room( 20 );
+        long delta = time - lastTicks;
+        lastTicks = time;
+        putVarint( (delta << 1) ^ (delta >> 63) ); // zigzag
+        putVarint( ((long)signal << 1) | (value ? 1 : 0) );
+    }
+
+    public void changeBus( long time, int signal, long value ) {
+        room( 30 );
+        long delta = time - lastTicks;
+        lastTicks = time;
+        putVarint( (delta << 1) ^ (delta >> 63) ); // zigzag
+        putVarint( (long)signal << 1 );
+        putVarint( value );
+    }
+} // class BinaryTrace
+
+/** Wire.java
+ * Class representing wires in description and simulation of a logic circuit.
+ * author Douglas W. Jones
+ * version 2017-11-15 (MP5 solution)
+ * Adapted from Logic.java Version 2017-10-30 (the MP4 solution),
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Wires join Gates
+ *  @see Gate
+ */
+class Wire {
+    // constructors may throw this when an error prevents construction
+    public static class ConstructorFailure extends Exception {}
+
+    // fields of a gate
+    final float delay;                // measured in seconds
+    final long ticks;                 // the delay in ticks of the simulator
+    final Gate source;                // where this wire comes from, never null
+    final int srcPin;                 // what pin number of source
+    final Gate destination;           // where this wire goes, never null
+    final int dstPin;                 // what pin number of destination
+    // note, wires don't understand pin numbers, only gates do.
+    // note, by convention -1 is an illegal pin number.
+
+    /** construct a new wire by scanning its description from the source file
+     *  @param sc the scanner from which the wire description is scanned
+     *  @see ScanSupport for the scanner
+     *  @throws ConstructorFailure when a new wire cannot be constructed
+     */
+    public Wire( ScanSupport sc ) throws ConstructorFailure {
+        // temporaries used during construction
+        final int sourceName;
+        final int srcPinName;
+        final int dstName;
+        final int dstPinName;
+
+        // pick off the text fields of the source line
+        try {
+            sourceName = sc.nextName();
+            srcPinName = sc.nextName();
+            dstName = sc.nextName();
+            dstPinName = sc.nextName();
+        } catch (ScanSupport.NotFound e) {
+            throw new ConstructorFailure();
+        }
+
+        source = Logic.findGate( sourceName );
+        destination = Logic.findGate( dstName );
+        if (source == null) {
+            Errors.warn( "No such source gate: wire "
+                    + sc.name( sourceName ) + " " + sc.name( srcPinName ) + " "
+                    + sc.name( dstName ) + " " + sc.name( dstPinName )
+            );
+            sc.skipLine();
+            throw new ConstructorFailure();
+        }
+        if (destination == null) {
+            Errors.warn( "No such destination gate: wire "
+                    + sc.name( sourceName ) + " " + sc.name( srcPinName ) + " "
+                    + sc.name( dstName ) + " " + sc.name( dstPinName )
+            );
+            sc.skipLine();
+            throw new ConstructorFailure();
+        }
+
+        // take care of source and destination pins
+        // Bug:  This is a start, but in the long run, it might not be right
+        srcPin = source.registerOutput( this, sc.name( srcPinName ) );
+        dstPin = destination.registerInput( this, sc.name( dstPinName ) );
+
+        // pick off the numeric field of the source line
+        try {
+            delay = sc.nextFloat();
+        } catch (ScanSupport.NotFound e) {
+            throw new ConstructorFailure();
+        }
+        if (delay < 0.0F) Errors.warn( "Negative delay: " + this.toString() );
+        ticks = Simulator.delayTicks( delay );
+        if (source.bits() != destination.bits()) Errors.warn(
+                "Bus width mismatch: " + this.toString()
+        );
+
+        sc.lineEnd( this );
+    }
+
+    /** construct a wire from a compiled circuit, already known to be sane
+     *  @param source where the wire comes from
+     *  @param srcPin the pin number of the source
+     *  @param destination where the wire goes
+     *  @param dstPin the pin number of the destination
+     *  @param delay the wire's delay
+     *  @see Netlist
+     */
+    public Wire( Gate source, int srcPin, Gate destination, int dstPin,
+                 float delay ) {
+        this.source = source;
+        this.destination = destination;
+        this.delay = delay;
+        ticks = Simulator.delayTicks( delay );
+        this.srcPin = source.registerOutput( this, source.outPinName( srcPin ) );
+        this.dstPin = destination.registerInput(
+                this, destination.inPinName( dstPin )
+        );
+    }
+
+    /** get textual description of a wire in a form like that used for input
+     * @return the textual form
+     */
+    public String toString() {
+        return  "wire "
+                + source.name + " "
+                + source.outPinName( srcPin ) + " "
+                + destination.name + " "
+                + destination.inPinName( dstPin ) + " "
+                + delay;
+    }
+
+    // Simulation methods
+
+    /** Simulate an input change on this wire
+     *  @param t tells when this wire's input changes
+     *  @param v gives the new value on this wire
+     *  schedules the change of the destination gate's input pin after the
+     *  wire's delay; the wire's output change needs no event of its own.
+     *  @see Gate#inputChangeEvent(long, int, boolean)
+     */
+    public void inputChangeEvent( long t, boolean v ) {
+        Simulator.scheduleInput( t + ticks, destination, dstPin, v );
+    }
+
+    /** Simulate a change of the bus on this wire, as one event
+     *  @param t tells when this wire's input changes
+     *  @param v gives the new value of the bus
+     *  @see Gate#busInputChangeEvent(long, int, long)
+     */
+    public void busChangeEvent( long t, long v ) {
+        Simulator.scheduleBusInput( t + ticks, destination, dstPin, v );
+    }
+
+} // class Wire
+
+/** Fanout.java
+ * The wires out of one output of a gate, grouped by delay
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** The wires driven by one output of a gate.  Once the circuit is built,
+ *  the first change of the output groups them by delay, each group in the
+ *  order of its first wire and the wires of a group in the order they were
+ *  added.  Each change then schedules one event per group, which delivers
+ *  the value to the input of every wire of the group in turn, so a clock
+ *  or reset net that drives thousands of gates through wires of one delay
+ *  costs one operation on the event set instead of thousands.  The events
+ *  of one change are scheduled together, so the inputs change in the same
+ *  order as if each wire had an event of its own, and each wire still
+ *  counts as an event, toward the event limit and in the summary of a
+ *  run, so the engines stop at the same wire and report the same count.
+ *  A wire with a delay of its own schedules an ordinary input event.
+ *  @see Wire
+ *  @see Simulator#scheduleInputs(long, Gate[], int[], boolean)
+ */
+final class Fanout {
+    // the wires, in the order they were added
+    private final ArrayList <Wire> wires = new ArrayList <Wire> ();
+
+    // the groups, made from wires when first needed: the wires of each,
+    // with the destination gates and pins of those of more than one wire
+    private Wire[][] groups = null;
+    private Gate[][] gates;
+    private int[][] pins;
+
+    /** @param w a wire out of the output
+     */
+    void add( Wire w ) {
+        wires.add( w );
+        groups = null;
+    }
+
+    /** @return the number of wires
+     */
+    int size() {
+        return wires.size();
+    }
+
+    /** group the wires by delay
+     */
+    private void group() {
+        LinkedHashMap <Long, ArrayList <Wire>> byDelay = new LinkedHashMap <> ();
+        for (Wire w: wires) {
+            byDelay.computeIfAbsent( w.ticks, (Long t) -> new ArrayList <Wire> () ).add( w );
+        }
+        int n = byDelay.size();
+        Wire[][] g = new Wire[n][];
+        gates = new Gate[n][];
+        pins = new int[n][];
+        int i = 0;
+        for (ArrayList <Wire> same: byDelay.values()) {
+            g[i] = same.toArray( new Wire[same.size()] );
+            if (g[i].length > 1) {
+                gates[i] = new Gate[g[i].length];
+                pins[i] = new int[g[i].length];
+                for (int j = 0; j < g[i].length; j++) {
+                    gates[i][j] = g[i][j].destination;
+                    pins[i][j] = g[i][j].dstPin;
+                }
+            }
+            i++;
+        }
+        groups = g;
+    }
+
+    /** Simulate a change of the output, scheduling its delivery over
+     *  every wire, one event per delay
+     *  @param time when the output changes
+     *  @param v the new value
+     *  @see Wire#inputChangeEvent(long, boolean)
+     */
+    void send( long time, boolean v ) {
+        if (groups == null) group();
+        for (int i = 0; i < groups.length; i++) {
+            if (gates[i] == null) {
+                groups[i][0].inputChangeEvent( time, v );
+            } else {
+                Simulator.scheduleInputs( time + groups[i][0].ticks, gates[i], pins[i], v );
+            }
+        }
+    }
+
+    /** Simulate a change of the output of a gate on a bus, as send does
+     *  @param time when the output changes
+     *  @param v the new value of the bus
+     *  @see Wire#busChangeEvent(long, long)
+     */
+    void sendBus( long time, long v ) {
+        if (groups == null) group();
+        for (int i = 0; i < groups.length; i++) {
+            if (gates[i] == null) {
+                groups[i][0].busChangeEvent( time, v );
+            } else {
+                Simulator.scheduleBusInputs( time + groups[i][0].ticks, gates[i], pins[i], v );
+            }
+        }
+    }
+
+} // class Fanout
+
+/** Netlist.java
+ * Flat, precompiled representation of a circuit
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** A sane circuit flattened into tables: a gate table of kinds, numbers
+ *  of inputs, delays and names indexed by gate id, and a wire table of source and destination
+ *  gate ids, pin numbers and delays.  Netlists are written to and read
+ *  from compiled circuit files, so a circuit that is simulated many times
+ *  is scanned and checked once.  A compiled file begins with LGNL, a
+ *  version number and the CRC-32 checksum of the source file it came from,
+ *  so loading a compiled file whose source has since changed is an error.
+ *  All numbers are little endian.
+ *  @see Logic
+ */
+final class Netlist {
+    public static final byte[] MAGIC = { 'L', 'G', 'N', 'L' };
+    public static final int VERSION = 2;
+
+    // the kinds of gates, indexed by kind code
+    public static final String[] KINDS = {
+        "and", "or", "not", "const", "nand", "nor", "xor", "xnor"
+    };
+    public static final byte AND = 0;
+    public static final byte OR = 1;
+    public static final byte NOT = 2;
+    public static final byte CONST = 3;
+    public static final byte NAND = 4;
+    public static final byte NOR = 5;
+    public static final byte XOR = 6;
+    public static final byte XNOR = 7;
+
+    // the gate table, indexed by gate id; names are null if there are
+    // instances of modules, whose gates are named by top when asked for
+    private final String[] names;
+    private final Module top;
+    private NameTable index = null; // built by find, if names are not null
+    final byte[] kinds;
+    final byte[] inputs;   // the number of input pins
+    final float[] delays;
+
+    // the wire table, in the order the wires were declared
+    final int[] wireSrc;
+    final byte[] wireSrcPin;
+    final int[] wireDst;
+    final byte[] wireDstPin;
+    final float[] wireDelay;
+
+    /** construct an empty netlist of the given size
+     *  @param gates the number of gates
+     *  @param wires the number of wires
+     */
+    private Netlist( int gates, int wires ) {
+        this( gates, wires, null );
+    }
+
+    /** construct an empty netlist of the given size
+     *  @param gates the number of gates
+     *  @param wires the number of wires
+     *  @param top the module that names the gates, or null to keep names
+     */
+    private Netlist( int gates, int wires, Module top ) {
+        this.top = top;
+        names = (top == null) ? new String[gates] : null;
+        kinds = new byte[gates];
+        inputs = new byte[gates];
+        delays = new float[gates];
+        wireSrc = new int[wires];
+        wireSrcPin = new byte[wires];
+        wireDst = new int[wires];
+        wireDstPin = new byte[wires];
+        wireDelay = new float[wires];
+    }
+
+    /** @return the number of gates
+     */
+    public int gates() {
+        return kinds.length;
+    }
+
+    /** @return the number of wires
+     */
+    public int wires() {
+        return wireSrc.length;
+    }
+
+    /** @param g a gate id
+     *  @return the name of the gate, qualified by the names of the
+     *          instances holding it, as in add0.carry
+     */
+    public String name( int g ) {
+        if (top != null) return top.name( g );
+        return names[g];
+    }
+
+    /** @param name a gate name, qualified as name(g) gives it
+     *  @return the gate id, or -1 if there is no such gate
+     */
+    public synchronized int find( String name ) {
+        if (top != null) return top.find( name );
+        if (index == null) {
+            index = new NameTable(); // ids are gate ids
+            for (String s: names) index.intern( s );
+        }
+        return index.find( name );
+    }
+
+    /** Declare every gate's output to a trace, as Logic does for gates
+     *  @param t the trace
+     */
+    public void declareSignals( Trace t ) {
+        for (int i = 0; i < gates(); i++) {
+            String pin = (kinds[i] == CONST) ? "true" : "out";
+            String name = name( i );
+            String width = isMultiInput( kinds[i] ) && (inputs[i] != 2)
+                         ? (" " + inputs[i]) : "";
+            t.declare( i, name, "gate " + name + " " + KINDS[kinds[i]]
+                    + " " + delays[i] + width + " " + pin + " "
+            );
+        }
+        t.begin();
+    }
+
+    /** @param kind a kind code
+     *  @return true if gates of that kind have inputs in1 up to in<i>n</i>
+     */
+    public static boolean isMultiInput( byte kind ) {
+        return (kind != NOT) && (kind != CONST);
+    }
+
+    /** the logic function of each kind of gate, in terms of the count of
+     *  true inputs, so that gates with many inputs take constant time
+     *  @param kind a kind code, not CONST
+     *  @param ones how many inputs are true
+     *  @param inputs how many inputs there are
+     *  @return the value of the gate
+     */
+    public static boolean value( byte kind, int ones, int inputs ) {
+        switch (kind) {
+        case AND:
+            return ones == inputs;
+        case OR:
+            return ones != 0;
+        case NAND:
+            return ones != inputs;
+        case NOR:
+        case NOT:
+            return ones == 0;
+        case XOR:
+            return (ones & 1) != 0;
+        default: // XNOR
+            return (ones & 1) == 0;
+        }
+    }
+
+    /** @param kind the name of a kind of gate
+     *  @return its kind code
+     */
+    public static byte kindCode( String kind ) {
+        for (byte k = 0; k < KINDS.length; k++) if (KINDS[k].equals( kind )) return k;
+        throw new IllegalArgumentException( kind );
+    }
+
+    /** flatten a circuit, replacing each instance of a module with the
+     *  gates and wires of the module
+     *  @param gates the gates and instances, in order of id
+     *  @param wires the wires
+     *  @return the netlist
+     */
+    public static Netlist from( List <Gate> gates, List <Wire> wires ) {
+        Module top = new Module( null, gates, wires,
+                Collections.<Module.Port>emptyList(), Collections.<Module.Port>emptyList()
+        );
+        Netlist n;
+        if (top.hierarchical()) {
+            n = new Netlist( top.size(), top.wires(), top );
+        } else {
+            n = new Netlist( top.size(), top.wires() );
+            for (Gate g: gates) n.names[g.id] = g.name;
+        }
+        top.flatten( n, 0, 0 );
+        return n;
+    }
+
+    /** compute the checksum that identifies a source file
+     *  @param source the file
+     *  @return its CRC-32
+     *  @throws IOException if the file can't be read
+     */
+    public static long checksum( File source ) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel c = FileChannel.open( source.toPath(), StandardOpenOption.READ )) {
+            long size = c.size();
+            for (long at = 0; at < size; at = at + Integer.MAX_VALUE) {
+                crc.update( c.map( FileChannel.MapMode.READ_ONLY, at,
+                        Math.min( Integer.MAX_VALUE, size - at ) ) );
+            }
+        }
+        return crc.getValue();
+    }
+
+    /** write this netlist to a compiled circuit file
+     *  @param f the file to write
+     *  @param source the source file this netlist came from
+     *  @throws IOException if the file can't be written
+     */
+    public void write( File f, File source ) throws IOException {
+        byte[] path = source.getAbsolutePath().getBytes( StandardCharsets.UTF_8 );
+        byte[][] text = new byte[gates()][];
+        long size = 4 + 4 + 8 + 4 + 4 + 4 + path.length
+                  + 6L * gates() + 4L * (gates() + 1) + 14L * wires();
+        for (int i = 0; i < gates(); i++) {
+            text[i] = name( i ).getBytes( StandardCharsets.UTF_8 );
+            size = size + text[i].length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            // Bug: compiled circuits over 2 GB need more than one mapping
+            throw new IOException( "circuit too big to compile" );
+        }
+
+        ByteBuffer b = ByteBuffer.allocate( (int)size ).order( ByteOrder.LITTLE_ENDIAN );
+        b.put( MAGIC ).putInt( VERSION ).putLong( checksum( source ) );
+        b.putInt( gates() ).putInt( wires() );
+        b.putInt( path.length ).put( path );
+
+        b.put( kinds ).put( inputs );
+        b.asFloatBuffer().put( delays );
+        b.position( b.position() + 4 * gates() );
+        int offset = 0;
+        for (int i = 0; i < gates(); i++) {
+            b.putInt( offset );
+            offset = offset + text[i].length;
+        }
+        b.putInt( offset );
+        for (byte[] t: text) b.put( t );
+
+        b.asIntBuffer().put( wireSrc );
+        b.position( b.position() + 4 * wires() );
+        b.asIntBuffer().put( wireDst );
+        b.position( b.position() + 4 * wires() );
+        b.put( wireSrcPin ).put( wireDstPin );
+        b.asFloatBuffer().put( wireDelay );
+        b.position( b.position() + 4 * wires() );
+
+        b.flip();
+        try (FileChannel c = FileChannel.open( f.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING )) {
+            while (b.hasRemaining()) c.write( b );
+        }
+    }
+
+    /** @param f a file
+     *  @return true if it looks like a compiled circuit
+     */
+    public static boolean isCompiled( File f ) {
+        try (FileChannel c = FileChannel.open( f.toPath(), StandardOpenOption.READ )) {
+            ByteBuffer b = ByteBuffer.allocate( MAGIC.length );
+            while (b.hasRemaining() && (c.read( b ) > 0));
+            return Arrays.equals( b.array(), MAGIC );
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** load a compiled circuit, checking that its source has not changed;
+     *  reports errors through {@link Errors#fatal(String)}
+     *  @param f the compiled circuit file
+     *  @return the netlist
+     *  @throws IOException if the file can't be read
+     */
+    public static Netlist load( File f ) throws IOException {
+        ByteBuffer b;
+        try (FileChannel c = FileChannel.open( f.toPath(), StandardOpenOption.READ )) {
+            b = c.map( FileChannel.MapMode.READ_ONLY, 0, c.size() );
+        }
+        b.order( ByteOrder.LITTLE_ENDIAN );
+        try {
+            b.position( MAGIC.length );
+            int version = b.getInt();
+            if (version != VERSION) Errors.fatal(
+                    "Compiled circuit version " + version + " is not " + VERSION
+            );
+            long checksum = b.getLong();
+            int gates = b.getInt();
+            int wires = b.getInt();
+            int length = b.getInt();
+            // each gate takes at least 10 bytes and each wire 14, so no
+            // count is believed that the rest of the file can't hold
+            if ((gates < 0) || (wires < 0) || (length < 0)
+            ||  (length + 10L * gates + 4 + 14L * wires > b.remaining())) {
+                throw new IndexOutOfBoundsException();
+            }
+            byte[] path = new byte[length];
+            b.get( path );
+
+            File source = new File( new String( path, StandardCharsets.UTF_8 ) );
+            if (source.exists() && (checksum( source ) != checksum)) Errors.fatal(
+                    "Compiled circuit is stale, recompile it: " + source
+            );
+
+            Netlist n = new Netlist( gates, wires );
+            b.get( n.kinds ).get( n.inputs );
+            b.asFloatBuffer().get( n.delays );
+            b.position( b.position() + 4 * gates );
+            int[] offsets = new int[gates + 1];
+            b.asIntBuffer().get( offsets );
+            b.position( b.position() + 4 * offsets.length );
+            if (offsets[0] != 0) throw new IndexOutOfBoundsException();
+            for (int i = 0; i < gates; i++) {
+                if (offsets[i] > offsets[i + 1]) throw new IndexOutOfBoundsException();
+            }
+            if (offsets[gates] > b.remaining() - 14L * wires) {
+                throw new IndexOutOfBoundsException();
+            }
+            byte[] text = new byte[offsets[gates]];
+            b.get( text );
+            for (int i = 0; i < n.gates(); i++) {
+                n.names[i] = new String( text, offsets[i],
+                        offsets[i + 1] - offsets[i], StandardCharsets.UTF_8 );
+            }
+
+            b.asIntBuffer().get( n.wireSrc );
+            b.position( b.position() + 4 * n.wires() );
+            b.asIntBuffer().get( n.wireDst );
+            b.position( b.position() + 4 * n.wires() );
+            b.get( n.wireSrcPin ).get( n.wireDstPin );
+            b.asFloatBuffer().get( n.wireDelay );
+
+            for (int i = 0; i < n.wires(); i++) {
+                if ((n.wireSrc[i] < 0) || (n.wireSrc[i] >= n.gates())
+                ||  (n.wireDst[i] < 0) || (n.wireDst[i] >= n.gates())) {
+                    throw new IndexOutOfBoundsException();
+                }
+            }
+            for (int g = 0; g < gates; g++) {
+                byte k = n.kinds[g];
+                int in = n.inputs[g];
+                if ((k < 0) || (k >= KINDS.length)
+                ||  ((k == CONST) && (in != 0)) || ((k == NOT) && (in != 1))
+                ||  ((in < 1) && isMultiInput( k ))
+                ||  (in > MultiInputGate.MAX_INPUTS)) {
+                    throw new IndexOutOfBoundsException();
+                }
+            }
+            for (int i = 0; i < n.wires(); i++) {
+                int pin = n.wireDstPin[i];
+                if (isMultiInput( n.kinds[n.wireDst[i]] )
+                &&  ((pin < 1) || (pin > n.inputs[n.wireDst[i]]))) {
+                    throw new IndexOutOfBoundsException();
+                }
+            }
+            return n;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+               | NegativeArraySizeException e) {
+            Errors.fatal( "Compiled circuit is damaged: " + f );
+            return null; // never reached
+        }
+    }
+} // class Netlist
+
+/** Checkpoint.java
+ * Snapshots of the state of a simulation of gate objects
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Saves the whole state of a simulation run by class Simulator to a file,
+ *  and puts it back so the run can go on from there, giving the same trace
+ *  and summary as a run that was never stopped.  Periodic checkpoints let
+ *  many what-if runs start from the same point, for example with other
+ *  limits or another trace.
+ *
+ *  A checkpoint file begins with LGCK, a version number, a CRC-32 of the
+ *  textual description of every gate and wire, and the numbers of gates
+ *  and wires, so it can only be restored into the circuit it was taken
+ *  from.  Then come the number of ticks in a second, the simulated time
+ *  in ticks, the number of events triggered, the state of the PRNG and a
+ *  byte of bits saying whether gates use inertial delay and whether they
+ *  are evaluated in time slices; one byte of logic values per gate,
+ *  followed for gates with more than two inputs by eight bytes of input
+ *  values; and the pending events in the order they will be triggered,
+ *  each as a time in ticks, a gate id, a pin number and a value, which
+ *  is a byte but eight bytes for the inputs of buses.  An event that
+ *  changes the inputs of several gates at once is a record with the pin
+ *  number -2 and the number of gates in place of the gate id, followed by
+ *  a record for the input of each.  All numbers are little endian.
+ *
+ *  A snapshot is taken into memory between events, then written by a
+ *  thread of its own while the simulation goes on.  It goes to a
+ *  temporary file that is renamed once it is complete, so a crash never
+ *  leaves a partly written checkpoint behind.  Restoring maps the file
+ *  into memory instead of reading it.
+ *  @see Simulator
+ *  @see PRNG
+ */
+final class Checkpoint {
+    public static final byte[] MAGIC = { 'L', 'G', 'C', 'K' };
+    public static final int VERSION = 3;
+
+    // most bytes of one pending event: time, gate, pin and value
+    private static final int EVENT_SIZE = 8 + 4 + 1 + 8;
+
+    // bits of the byte of simulation modes
+    private static final int INERTIAL = 1;
+    private static final int TIME_SLICES = 2;
+
+    // the circuit being simulated
+    private final List <Gate> gates;
+    private final List <Wire> wires;
+    private final long fingerprint;
+
+    // where the simulation is, for the summary of a run that continues
+    private long time = 0;          // in ticks
+    private long events = 0;
+
+    // the thread writing the last checkpoint, if any
+    private Thread writer = null;
+
+    /** @param gates the gates, indexed by id
+     *  @param wires the wires
+     */
+    Checkpoint( List <Gate> gates, List <Wire> wires ) {
+        this.gates = gates;
+        this.wires = wires;
+        CRC32 crc = new CRC32();
+        for (Gate g: gates) crc.update( (g + "\n").getBytes( StandardCharsets.UTF_8 ) );
+        for (Wire w: wires) crc.update( (w + "\n").getBytes( StandardCharsets.UTF_8 ) );
+        fingerprint = crc.getValue();
+    }
+
+    /** take a snapshot of the simulation; only legal between runs
+     *  @return the snapshot, ready to write
+     */
+    ByteBuffer capture() {
+        ByteBuffer[] pending = { ByteBuffer.allocate( 1024 * EVENT_SIZE ) };
+        int[] counter = { 0 };
+        Simulator.forEachPending( (Simulator.Event e, Gate g, int pin, long v) -> {
+            ByteBuffer p = pending[0];
+            if (p.remaining() < EVENT_SIZE) {
+                p.flip();
+                p = ByteBuffer.allocate( 2 * p.capacity() ).put( p );
+                pending[0] = p;
+            }
+            p.order( ByteOrder.LITTLE_ENDIAN );
+            if (pin == Simulator.FANOUT) {
+                // the number of records that follow in place of a gate
+                p.putLong( e.time ).putInt( (int)v ).put( (byte)pin ).put( (byte)0 );
+            } else {
+                p.putLong( e.time ).putInt( g.id ).put( (byte)pin );
+                if ((pin >= 0) && (g.bits() > 1)) {
+                    p.putLong( v );
+                } else {
+                    p.put( (byte)v );
+                }
+            }
+            counter[0]++;
+        } );
+        pending[0].flip();
+        int count = counter[0];
+
+        long size = 4 + 4 + 8 + 4 + 4 + 8 + 8 + 8 + 8 + 1
+                  + 4 + pending[0].remaining();
+        for (Gate g: gates) size = size + g.stateSize();
+        if (size > Integer.MAX_VALUE) {
+            // Bug: checkpoints over 2 GB need more than one buffer
+            Errors.fatal( "Simulation too big to checkpoint" );
+        }
+        ByteBuffer b = ByteBuffer.allocate( (int)size ).order( ByteOrder.LITTLE_ENDIAN );
+        b.put( MAGIC ).putInt( VERSION ).putLong( fingerprint );
+        b.putInt( gates.size() ).putInt( wires.size() );
+        b.putLong( Simulator.ticksPerSecond() );
+        b.putLong( time ).putLong( events ).putLong( PRNG.state() );
+        b.put( (byte)((Simulator.inertialDelay() ? INERTIAL : 0)
+                    | (Simulator.timeSlices() ? TIME_SLICES : 0)) );
+        for (Gate g: gates) g.saveState( b );
+        b.putInt( count ).put( pending[0] );
+        b.flip();
+        return b;
+    }
+
+    /** write a snapshot in the background, after any earlier one is written;
+     *  errors are reported as warnings, since the simulation can go on
+     *  @param snapshot the snapshot, from {@link #capture()}
+     *  @param f the file it goes to
+     */
+    void write( ByteBuffer snapshot, File f ) {
+        finish();
+        writer = new Thread( () -> {
+            File tmp = new File( f.getPath() + ".tmp" );
+            try (FileChannel c = FileChannel.open( tmp.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING )) {
+                while (snapshot.hasRemaining()) c.write( snapshot );
+                c.force( true );
+            } catch (IOException x) {
+                Errors.warn( "Can't write the checkpoint: " + tmp );
+                return;
+            }
+            try {
+                Files.move( tmp.toPath(), f.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+            } catch (IOException x) {
+                Errors.warn( "Can't write the checkpoint: " + f );
+            }
+        }, "checkpoint" );
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+    /** wait until the last checkpoint has been written
+     */
+    void finish() {
+        if (writer == null) return;
+        boolean interrupted = false;
+        for (;;) try {
+            writer.join();
+            break;
+        } catch (InterruptedException x) {
+            interrupted = true;
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        writer = null;
+    }
+
+    /** put back the state saved in a checkpoint file, in place of launching
+     *  the circuit; reports errors through {@link Errors#fatal(String)}
+     *  @param f the checkpoint file
+     *  @throws IOException if the file can't be read
+     */
+    void restore( File f ) throws IOException {
+        ByteBuffer b;
+        try (FileChannel c = FileChannel.open( f.toPath(), StandardOpenOption.READ )) {
+            b = c.map( FileChannel.MapMode.READ_ONLY, 0, c.size() );
+        }
+        b.order( ByteOrder.LITTLE_ENDIAN );
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            b.get( magic );
+            if (!Arrays.equals( magic, MAGIC )) Errors.fatal(
+                    "Not a checkpoint: " + f
+            );
+            int version = b.getInt();
+            if (version != VERSION) Errors.fatal(
+                    "Checkpoint version " + version + " is not " + VERSION
+            );
+            if ((b.getLong() != fingerprint)
+            ||  (b.getInt() != gates.size()) || (b.getInt() != wires.size())) {
+                Errors.fatal( "Checkpoint is of another circuit: " + f );
+            }
+            long perSecond = b.getLong();
+            if (perSecond != Simulator.ticksPerSecond()) Errors.fatal(
+                    "Checkpoint resolution 1/" + perSecond + " s is not 1/"
+                    + Simulator.ticksPerSecond() + " s: " + f
+            );
+            time = b.getLong();
+            events = b.getLong();
+            PRNG.setState( b.getLong() );
+            int modes = b.get();
+            boolean inertial = (modes & INERTIAL) != 0;
+            Simulator.useInertialDelay( inertial );
+            Simulator.useTimeSlices( (modes & TIME_SLICES) != 0 );
+            for (Gate g: gates) g.restoreState( b );
+
+            int count = b.getInt();
+            for (int i = 0; i < count; i++) {
+                long t = b.getLong();
+                int id = b.getInt();
+                int pin = b.get();
+                if (pin == Simulator.FANOUT) {
+                    // one event again for the input changes of the next id records
+                    b.get();
+                    Gate[] to = new Gate[id];
+                    int[] pins = new int[id];
+                    long v = 0;
+                    for (int j = 0; j < id; j++) {
+                        b.getLong();
+                        to[j] = gates.get( b.getInt() );
+                        pins[j] = b.get();
+                        v = (to[j].bits() > 1) ? b.getLong() : b.get();
+                    }
+                    i = i + id;
+                    if (to[0].bits() > 1) {
+                        Simulator.scheduleBusInputs( t, to, pins, v );
+                    } else {
+                        Simulator.scheduleInputs( t, to, pins, v != 0 );
+                    }
+                    continue;
+                }
+                Gate g = gates.get( id );
+                if ((pin >= 0) && (g.bits() > 1)) {
+                    Simulator.scheduleBusInput( t, g, pin, b.getLong() );
+                } else if (pin >= 0) {
+                    Simulator.scheduleInput( t, g, pin, b.get() != 0 );
+                } else {
+                    b.get();
+                    Simulator.Event e = Simulator.scheduleOutput( t, g );
+                    if (inertial) g.restorePending( e );
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+               | NegativeArraySizeException e) {
+            Errors.fatal( "Checkpoint is damaged: " + f );
+        }
+    }
+
+    /** Run the simulation as Simulator.run does, taking a checkpoint each
+     *  time the simulated time passes a multiple of every, into a file
+     *  named for that time, and a last checkpoint when the run stops.
+     *  The limits count from the start of the simulation, not from the
+     *  checkpoint it was restored from, if any.
+     *  @param limits the limits on this run
+     *  @param f the file the last checkpoint goes to, or null for none
+     *  @param every the simulated time between checkpoints, or 0 for none
+     *  @return a summary of the simulation so far
+     */
+    Simulator.Summary run( Simulator.Limits limits, File f, double every ) {
+        double endTime = limits.endTime;
+        long end = Simulator.ticks( endTime );
+        long maxEvents = limits.maxEvents;
+        double wallTime = limits.wallTime;
+        long start = System.nanoTime();
+        long interval = Simulator.ticks( every );
+        long next = Long.MAX_VALUE;
+        if (every > 0.0) {
+            if (interval == 0) Errors.fatal(
+                    "Checkpoint interval shorter than a tick: " + every
+            );
+            next = ((time / interval) + 1) * interval;
+        }
+
+        Simulator.Stop reason;
+        try {
+            for (;;) {
+                // the next checkpoint in seconds, as exact as its ticks
+                limits.endTime = (next < end) ? Simulator.seconds( next ) : endTime;
+                limits.maxEvents = Math.max( 0, maxEvents - events );
+                limits.wallTime = wallTime - (System.nanoTime() - start) / 1e9;
+                Simulator.Summary s = Simulator.run( limits );
+                events = events + s.events;
+                if (s.events > 0) time = s.time;
+                reason = s.reason;
+                if ((reason != Simulator.Stop.END_TIME) || (next >= end)) break;
+                write( capture(), new File( f.getPath() + "." + Simulator.format( next ) ) );
+                next = next + interval;
+            }
+        } finally {
+            limits.endTime = endTime;
+            limits.maxEvents = maxEvents;
+            limits.wallTime = wallTime;
+        }
+        if (f != null) write( capture(), f );
+        finish();
+        return new Simulator.Summary( events, time, reason );
+    }
+} // class Checkpoint
+
+/** Engine.java
+ * Compiled simulation of a Netlist
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Simulates a netlist lowered into flat arrays, instead of a graph of
+ *  Gate and Wire objects.  Gate kinds, delays and packed state bits are
+ *  indexed by gate id, and the fanout of each gate is stored in
+ *  compressed sparse row form: the wires driven by gate g are numbered
+ *  from fanStart[g] up to fanStart[g + 1] in fanDst, fanPin and fanDelay.
+ *  Events are pooled records dispatched by a switch on the gate kind.
+ *  Gates with more than two inputs keep them in a bitset of their own,
+ *  whose count of true inputs gives the value in constant time.
+ *  Given the same seed, the output is identical to simulating the
+ *  Gate and Wire objects with class Simulator.
+ *
+ *  A keyed engine instead gives every event a key made from the gate that
+ *  scheduled it and a count of the events that gate has scheduled, breaks
+ *  ties by key, and takes the jitter of each gate delay from a hash of
+ *  the seed, the gate and that count.  Nothing then depends on the order
+ *  in which gates are simulated, so ParallelEngine can split the gates of
+ *  a keyed engine among threads and still get the same output.
+ *  @see Netlist
+ *  @see Simulator
+ *  @see ParallelEngine
+ */
+final class Engine {
+    // bits of the state of each gate
+    private static final byte IN1 = 1;     // input in1 of gates with up to two
+    private static final byte IN2 = 2;     // input in2 of gates with two
+    private static final byte VALUE = 4;   // value computed from the inputs
+    private static final byte OUT = 8;     // the most recent output value
+
+    private static final int OUTPUT = -1;  // pin number for output changes
+
+    /** Events of the engine, recycled through a pool and dispatched by
+     *  the engine itself
+     */
+    private static final class Event extends Simulator.Entry {
+        int gate;       // the gate this event is delivered to
+        int pin;        // an input pin, or OUTPUT
+        boolean value;  // the new value of an input pin
+
+        Event() {
+            super( 0L );
+        }
+    }
+
+    // the lowered netlist
+    private final byte[] kind;
+    private final byte[] inputs;
+    private final float[] delay;
+    private final long[] launch;    // the time of each launched output, in ticks
+    private final int[] fanStart;
+    private final int[] fanDst;
+    private final byte[] fanPin;
+    private final long[] fanDelay;  // in ticks
+
+    // the state of the simulation, shared by the parts of a parallel engine
+    private final byte[] state;
+    private final long[] wide;      // inputs of gates with more, or null
+    private final int[] made;       // events scheduled by each gate, if keyed
+    private Event[] pending;        // each gate's output event, if inertial
+    private long seed;
+    private final boolean keyed;
+
+    // the state of this engine, or of one part of a parallel engine
+    private final Simulator.EventSet events;
+    private Event pool = null;
+    private final Random random;
+    private final Trace trace;
+    private long key;               // the key of the event being simulated
+    private long last;              // the time of the last event simulated
+    private final Metrics.Rate rate = Metrics.ENABLED ? new Metrics.Rate() : null;
+
+    // for the parts of a parallel engine, the part of each gate and the
+    // events for other parts, indexed by part; null otherwise
+    private final int[] owner;
+    private final int part;
+    private final ArrayList <ArrayList <Event>> outbox;
+
+    /** lower a netlist for simulation
+     *  @param n the netlist, already known to be sane
+     *  @param trace where output changes are reported
+     *  @param seed the seed for gate delay jitter, 29 to match PRNG
+     */
+    public Engine( Netlist n, Trace trace, long seed ) {
+        this( n, trace, seed, false );
+    }
+
+    /** lower a netlist for simulation
+     *  @param n the netlist, already known to be sane
+     *  @param trace where output changes are reported
+     *  @param seed the seed for gate delay jitter
+     *  @param keyed true for a keyed engine, false to match PRNG
+     */
+    public Engine( Netlist n, Trace trace, long seed, boolean keyed ) {
+        this.trace = trace;
+        this.seed = seed;
+        this.keyed = keyed;
+        random = new Random( seed );
+        kind = n.kinds.clone();
+        inputs = n.inputs.clone();
+        delay = n.delays.clone();
+        launch = new long[n.gates()];
+        for (int g = 0; g < n.gates(); g++) launch[g] = Simulator.delayTicks( delay[g] );
+        state = new byte[n.gates()];
+        boolean anyWide = false;
+        for (byte i: inputs) anyWide = anyWide || (i > 2);
+        wide = anyWide ? new long[n.gates()] : null;
+        made = keyed ? new int[n.gates()] : null;
+        events = new CalendarQueue( keyed );
+        owner = null;
+        part = 0;
+        outbox = null;
+
+        // count the wires that carry changes, const false outputs never do
+        fanStart = new int[n.gates() + 1];
+        for (int w = 0; w < n.wires(); w++) {
+            if (fires( n, w )) fanStart[n.wireSrc[w] + 1]++;
+        }
+        for (int g = 0; g < n.gates(); g++) fanStart[g + 1] += fanStart[g];
+
+        // fill in the fanout of each gate, keeping the wires in input order
+        int total = fanStart[n.gates()];
+        fanDst = new int[total];
+        fanPin = new byte[total];
+        fanDelay = new long[total];
+        int[] fill = Arrays.copyOf( fanStart, n.gates() );
+        for (int w = 0; w < n.wires(); w++) {
+            if (fires( n, w )) {
+                int i = fill[n.wireSrc[w]]++;
+                fanDst[i] = n.wireDst[w];
+                fanPin[i] = n.wireDstPin[w];
+                fanDelay[i] = Simulator.delayTicks( n.wireDelay[w] );
+            }
+        }
+    }
+
+    /** make one part of a parallel engine, sharing the netlist and state
+     *  @param whole a keyed engine for the whole netlist, not yet launched
+     *  @param trace where output changes of this part's gates are reported
+     *  @param owner the part of each gate
+     *  @param part the part this engine simulates
+     *  @param parts the number of parts
+     */
+    Engine( Engine whole, Trace trace, int[] owner, int part, int parts ) {
+        this.trace = trace;
+        seed = whole.seed;
+        keyed = true;
+        random = null;
+        kind = whole.kind;
+        inputs = whole.inputs;
+        delay = whole.delay;
+        launch = whole.launch;
+        fanStart = whole.fanStart;
+        fanDst = whole.fanDst;
+        fanPin = whole.fanPin;
+        fanDelay = whole.fanDelay;
+        state = whole.state;
+        wide = whole.wide;
+        made = whole.made;
+        pending = whole.pending;
+        events = new CalendarQueue( true );
+        this.owner = owner;
+        this.part = part;
+        outbox = new ArrayList <ArrayList <Event>> ();
+        for (int i = 0; i < parts; i++) outbox.add( new ArrayList <Event> () );
+    }
+
+    /** Choose how gates delay changes, before launch.  With inertial
+     *  delay each gate keeps its pending output event, and a change of its
+     *  value cancels it, as in LogicGate.
+     *  @param on true for inertial delay, false for transport delay
+     */
+    public void useInertialDelay( boolean on ) {
+        pending = on ? new Event[kind.length] : null;
+    }
+
+    /** @return the number of gates
+     */
+    int gates() {
+        return kind.length;
+    }
+
+    /** @param g a gate
+     *  @return its kind, as in Netlist
+     */
+    byte kind( int g ) {
+        return kind[g];
+    }
+
+    /** @param g a gate
+     *  @return its number of inputs
+     */
+    int inputs( int g ) {
+        return inputs[g];
+    }
+
+    /** @param g a gate
+     *  @return its delay
+     */
+    float delay( int g ) {
+        return delay[g];
+    }
+
+    /** @param g a gate
+     *  @return the time its output changes when launched, in ticks
+     */
+    long launchTime( int g ) {
+        return launch[g];
+    }
+
+    /** @param g a gate
+     *  @return the wires it drives, numbered from here
+     */
+    int fanStart( int g ) {
+        return fanStart[g];
+    }
+
+    /** @param i a wire number, as from fanStart
+     *  @return the gate the wire drives
+     */
+    int fanDst( int i ) {
+        return fanDst[i];
+    }
+
+    /** @param i a wire number, as from fanStart
+     *  @return the delay of the wire, in ticks
+     */
+    long fanDelay( int i ) {
+        return fanDelay[i];
+    }
+
+    /** @param i a wire number, as from fanStart
+     *  @return the input pin the wire drives
+     */
+    int fanPin( int i ) {
+        return fanPin[i];
+    }
+
+    /** @return the key of the event being simulated, if keyed
+     */
+    long key() {
+        return key;
+    }
+
+    /** @return the time of the last event simulated by runWindow
+     */
+    long last() {
+        return last;
+    }
+
+    /** @param n a netlist
+     *  @param w a wire number in that netlist
+     *  @return true if changes are ever sent down that wire
+     */
+    private static boolean fires( Netlist n, int w ) {
+        if (n.kinds[n.wireSrc[w]] == Netlist.CONST) return n.wireSrcPin[w] == 1;
+        return true;
+    }
+
+    /** schedule an event, taking the record from the pool
+     *  @param t the time, in ticks
+     *  @param g the gate
+     *  @param pin an input pin number, or OUTPUT
+     *  @param v the new input value
+     *  @param by the gate scheduling the event
+     *  @return the event
+     */
+    private Event schedule( long t, int g, int pin, boolean v, int by ) {
+        Event e = pool;
+        if (e == null) {
+            e = new Event();
+            if (Metrics.ENABLED) Metrics.allocated();
+        } else {
+            pool = (Event)e.next;
+        }
+        e.time = t;
+        e.gate = g;
+        e.pin = pin;
+        e.value = v;
+        if (keyed) e.seq = ((long)by << 32) | (made[by]++ & 0xFFFFFFFFL);
+        if ((owner != null) && (owner[g] != part)) {
+            outbox.get( owner[g] ).add( e );
+            if (Metrics.ENABLED) Metrics.scheduled( 0 );
+        } else {
+            events.add( e );
+            if (Metrics.ENABLED) Metrics.scheduled( events.size() );
+        }
+        return e;
+    }
+
+    /** schedule the output change that follows a change of a gate's value,
+     *  as LogicGate.valueChanged does
+     *  @param t the time the value changed
+     *  @param g the gate
+     *  @param s the gate's new state
+     */
+    private void valueChanged( long t, int g, int s ) {
+        if (pending == null) { // transport delay
+            schedule( outputTime( g, t ), g, OUTPUT, false, g );
+            return;
+        }
+        Event p = pending[g];
+        if (p != null) {
+            events.remove( p );
+            p.next = pool;
+            pool = p;
+            pending[g] = null;
+        }
+        if (((s & VALUE) != 0) != ((s & OUT) != 0)) {
+            pending[g] = schedule( outputTime( g, t ), g, OUTPUT, false, g );
+        }
+    }
+
+    /** @param g a gate
+     *  @param t the time its inputs change
+     *  @return when its output changes, with the same jitter as the gates
+     */
+    private long outputTime( int g, long t ) {
+        float d = delay[g];
+        float r = keyed ? hashFloat( seed, g, made[g] ) : random.nextFloat();
+        return t + Simulator.ticks( (d * 0.95f) + (r * (d * 0.1f)) );
+    }
+
+    /** a random number that depends only on its parameters
+     *  @param seed the seed
+     *  @param g a gate
+     *  @param n a count of the events the gate has scheduled
+     *  @return a float from 0 up to 1, like Random.nextFloat()
+     */
+    static float hashFloat( long seed, int g, int n ) {
+        // the finalizer of SplitMix64
+        long z = seed + (g * 0x9E3779B97F4A7C15L) + (n * 0xC2B2AE3D27D4EB4FL);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 40) * 0x1.0p-24F;
+    }
+
+    /** return to the state before launch, keeping the event records and the
+     *  calendar for reuse; the cost is proportional to the number of gates
+     *  and pending events
+     *  @param seed the new seed for gate delay jitter
+     */
+    public void reset( long seed ) {
+        if (owner != null) throw new IllegalStateException(
+                "part views of a ParallelEngine can't be reset"
+        );
+        forget( seed );
+        Arrays.fill( state, (byte)0 );
+        if (wide != null) Arrays.fill( wide, 0L );
+        if (keyed) Arrays.fill( made, 0 );
+        if (pending != null) Arrays.fill( pending, null );
+    }
+
+    /** return one part of a parallel engine to the state before launch,
+     *  once the whole engine, which holds the state of the gates, is reset
+     *  @param seed the new seed for gate delay jitter
+     *  @see ParallelEngine#reset(long)
+     */
+    void resetPart( long seed ) {
+        forget( seed );
+    }
+
+    /** recycle the pending events and those waiting for other parts,
+     *  and start counting time again with a new seed
+     *  @param seed the new seed for gate delay jitter
+     */
+    private void forget( long seed ) {
+        Simulator.Entry e = events.removeAll();
+        while (e != null) {
+            Simulator.Entry next = e.next;
+            e.next = pool;
+            pool = (Event)e;
+            e = next;
+        }
+        if (outbox != null) for (ArrayList <Event> box: outbox) {
+            for (Event b: box) {
+                b.next = pool;
+                pool = b;
+            }
+            box.clear();
+        }
+        this.seed = seed;
+        if (random != null) random.setSeed( seed );
+        key = 0;
+        last = 0;
+    }
+
+    /** @param g a gate
+     *  @return the value of its output now
+     */
+    public boolean value( int g ) {
+        return (state[g] & OUT) != 0;
+    }
+
+    /** schedule the initial events, as Gate.launch does; each part of a
+     *  parallel engine schedules those of its own gates
+     */
+    public void launch() {
+        for (int g = 0; g < kind.length; g++) {
+            if ((owner != null) && (owner[g] != part)) continue;
+            if ((kind[g] != Netlist.CONST) && Netlist.value( kind[g], 0, inputs[g] )) {
+                state[g] |= VALUE;
+                Event e = schedule( launch[g], g, OUTPUT, false, g );
+                if (pending != null) pending[g] = e;
+            } else if (kind[g] == Netlist.CONST) {
+                schedule( launch[g], g, OUTPUT, false, g );
+            }
+        }
+    }
+
+    /** simulate one input change
+     *  @param t the time
+     *  @param g the gate
+     *  @param pin the pin number
+     *  @param v the new value
+     */
+    private void inputChange( long t, int g, int pin, boolean v ) {
+        int s = state[g];
+        boolean value;
+        switch (kind[g]) {
+        case Netlist.NOT:
+            s = v ? (s & ~VALUE) : (s | VALUE);
+            valueChanged( t, g, s );
+            break;
+        case Netlist.CONST: // const gates have no inputs
+            Errors.fatal( "Input should never change: gate " + g );
+            break;
+        default:
+            int ones;
+            if (inputs[g] <= 2) {
+                int bit = (pin == 1) ? IN1 : IN2;
+                s = v ? (s | bit) : (s & ~bit);
+                ones = Integer.bitCount( s & (IN1 | IN2) );
+            } else {
+                long bit = 1L << (pin - 1);
+                long in = v ? (wide[g] | bit) : (wide[g] & ~bit);
+                wide[g] = in;
+                ones = Long.bitCount( in );
+            }
+            value = Netlist.value( kind[g], ones, inputs[g] );
+            if (value != ((s & VALUE) != 0)) {
+                s = s ^ VALUE;
+                valueChanged( t, g, s );
+            }
+        }
+        state[g] = (byte)s;
+    }
+
+    /** simulate one output change
+     *  @param t the time
+     *  @param g the gate
+     */
+    private void outputChange( long t, int g ) {
+        if (pending != null) pending[g] = null;
+        int s = state[g];
+        boolean value;
+        if (kind[g] == Netlist.CONST) {
+            value = true;
+            state[g] = OUT;
+        } else {
+            value = (s & VALUE) != 0;
+            if (value == ((s & OUT) != 0)) return; // no actual change
+            state[g] = (byte)(s ^ OUT);
+        }
+        trace.change( t, g, value );
+        if (Metrics.ENABLED) Metrics.fanout( fanStart[g + 1] - fanStart[g] );
+        for (int i = fanStart[g]; i < fanStart[g + 1]; i++) {
+            schedule( t + fanDelay[i], fanDst[i], fanPin[i], value, g );
+        }
+    }
+
+    /** simulate the first pending event
+     *  @return its time
+     */
+    private long step() {
+        Event e = (Event)events.removeFirst();
+        key = e.seq;
+        if (Metrics.ENABLED) rate.fired( e.time );
+        if (e.pin == OUTPUT) {
+            outputChange( e.time, e.gate );
+        } else {
+            inputChange( e.time, e.gate, e.pin, e.value );
+        }
+        e.next = pool;
+        pool = e;
+        return e.time;
+    }
+
+    // how many events to trigger between checks of the clock and cancel flag
+    private static final int CHECK_INTERVAL = 1024;
+
+    /** Run the simulation until a limit is reached or no events remain
+     *  @param limits the limits on this run
+     *  @return a summary of the run
+     *  @see Simulator#run(Simulator.Limits)
+     */
+    public Simulator.Summary run( Simulator.Limits limits ) {
+        Metrics.Run m = Metrics.run( keyed ? "keyed" : "compiled", rate );
+        return m.end( runEvents( limits ) );
+    }
+
+    /** run the simulation, for run(Limits)
+     *  @param limits the limits on this run
+     *  @return a summary of the run
+     */
+    private Simulator.Summary runEvents( Simulator.Limits limits ) {
+        long count = 0;
+        long time = 0;
+        long endTime = Simulator.ticks( limits.endTime );
+        long started = limits.start();
+
+        for (;;) {
+            if (count >= limits.maxEvents) {
+                return new Simulator.Summary( count, time, Simulator.Stop.EVENT_LIMIT );
+            }
+            if ((count % CHECK_INTERVAL) == 0) {
+                if (limits.isCancelled()) {
+                    return new Simulator.Summary( count, time, Simulator.Stop.CANCELLED );
+                }
+                if (limits.expired( started )) {
+                    return new Simulator.Summary( count, time, Simulator.Stop.WALL_TIME );
+                }
+            }
+            Simulator.Entry e = events.first();
+            if (e == null) {
+                return new Simulator.Summary( count, time, Simulator.Stop.EMPTY );
+            }
+            if (e.time > endTime) {
+                return new Simulator.Summary( count, time, Simulator.Stop.END_TIME );
+            }
+            time = step();
+            count = count + 1;
+        }
+    }
+
+    // Methods for the parts of a parallel engine
+
+    /** @return the time of the first pending event, Long.MAX_VALUE if none
+     */
+    long next() {
+        Simulator.Entry e = events.first();
+        return (e == null) ? Long.MAX_VALUE : e.time;
+    }
+
+    /** simulate every pending event before a time, and none after another
+     *  @param before events must come before this time
+     *  @param endTime events must come no later than this time
+     *  @return the number of events simulated
+     */
+    long runWindow( long before, long endTime ) {
+        long count = 0;
+        for (;;) {
+            Simulator.Entry e = events.first();
+            if ((e == null) || (e.time >= before) || (e.time > endTime)) {
+                return count;
+            }
+            last = step();
+            count = count + 1;
+        }
+    }
+
+    /** add the events counted by this part to the metrics; call only if
+     *  Metrics.ENABLED
+     */
+    void flushMetrics() {
+        rate.flush();
+    }
+
+    /** take the events another part scheduled for this one
+     *  @param from the other part
+     */
+    void receive( Engine from ) {
+        ArrayList <Event> box = from.outbox.get( part );
+        for (int i = 0; i < box.size(); i++) events.add( box.get( i ) );
+        box.clear();
+    }
+} // class Engine
+
+/** Levelizer.java
+ * Analysis of the feedback loops and levels of a Netlist
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Finds the feedback loops of a netlist and sorts its gates into levels.
+ *  The loops are the strongly connected components of the graph of wires,
+ *  found with Tarjan's algorithm, so a gate is in a loop if it can reach
+ *  itself.  The other gates make up the acyclic regions of the circuit.
+ *  Each gate is given a level one more than the highest level of the
+ *  gates driving it from outside its loop, so the gates of a circuit
+ *  without feedback can be evaluated level by level, each after all its
+ *  inputs.  Every wire counts, even those from the false pins of const
+ *  gates that never carry a change.
+ *  @see Netlist
+ */
+final class Levelizer {
+    private final int[] order;      // gates with drivers before driven gates
+    private final int[] level;      // the level of each gate
+    private final boolean[] looped; // true for gates in feedback loops
+    private final int loopGates;    // how many gates are in loops
+    private final int levels;
+
+    /** analyse a netlist
+     *  @param n the netlist, already known to be sane
+     */
+    public Levelizer( Netlist n ) {
+        int gates = n.gates();
+
+        // the fanout of each gate over every wire
+        int[] fanStart = new int[gates + 1];
+        looped = new boolean[gates];
+        for (int w = 0; w < n.wires(); w++) {
+            fanStart[n.wireSrc[w] + 1]++;
+            if (n.wireSrc[w] == n.wireDst[w]) looped[n.wireSrc[w]] = true;
+        }
+        for (int g = 0; g < gates; g++) fanStart[g + 1] += fanStart[g];
+        int[] fanDst = new int[n.wires()];
+        int[] fill = Arrays.copyOf( fanStart, gates );
+        for (int w = 0; w < n.wires(); w++) {
+            fanDst[fill[n.wireSrc[w]]++] = n.wireDst[w];
+        }
+
+        // Tarjan's algorithm, with explicit stacks so deep circuits can't
+        // overflow the Java stack; components are finished in reverse
+        // topological order, so they fill order from the end
+        int[] index = new int[gates];   // visit number plus 1, 0 if unvisited
+        int[] low = new int[gates];
+        int[] component = new int[gates];
+        int[] stack = new int[gates];   // gates of unfinished components
+        boolean[] stacked = new boolean[gates];
+        int[] callGate = new int[gates];
+        int[] callWire = new int[gates];
+        order = new int[gates];
+        int visited = 0;
+        int top = 0;
+        int filled = gates;
+        int components = 0;
+        for (int root = 0; root < gates; root++) {
+            if (index[root] != 0) continue;
+            int calls = 0;
+            index[root] = low[root] = ++visited;
+            stack[top++] = root;
+            stacked[root] = true;
+            callGate[calls] = root;
+            callWire[calls++] = fanStart[root];
+            while (calls > 0) {
+                int g = callGate[calls - 1];
+                int i = callWire[calls - 1];
+                if (i < fanStart[g + 1]) {
+                    callWire[calls - 1] = i + 1;
+                    int d = fanDst[i];
+                    if (index[d] == 0) {
+                        index[d] = low[d] = ++visited;
+                        stack[top++] = d;
+                        stacked[d] = true;
+                        callGate[calls] = d;
+                        callWire[calls++] = fanStart[d];
+                    } else if (stacked[d]) {
+                        low[g] = Math.min( low[g], index[d] );
+                    }
+                    continue;
+                }
+                calls--;
+                if (calls > 0) {
+                    int caller = callGate[calls - 1];
+                    low[caller] = Math.min( low[caller], low[g] );
+                }
+                if (low[g] != index[g]) continue;
+
+                // g is the root of a component, the gates above it on the stack
+                int size = 0;
+                int d;
+                do {
+                    d = stack[--top];
+                    stacked[d] = false;
+                    component[d] = components;
+                    order[--filled] = d;
+                    size++;
+                } while (d != g);
+                if (size > 1) {
+                    for (int j = filled; j < filled + size; j++) looped[order[j]] = true;
+                }
+                components++;
+            }
+        }
+
+        int count = 0;
+        for (int g = 0; g < gates; g++) if (looped[g]) count++;
+        loopGates = count;
+
+        // the gates of a loop share a level, above those driving the loop
+        level = new int[gates];
+        int highest = 0;
+        for (int g: order) {
+            for (int i = fanStart[g]; i < fanStart[g + 1]; i++) {
+                int d = fanDst[i];
+                if (component[d] != component[g]) {
+                    level[d] = Math.max( level[d], level[g] + 1 );
+                }
+            }
+            highest = Math.max( highest, level[g] );
+        }
+        levels = highest + 1;
+    }
+
+    /** @return true if the circuit has no feedback
+     */
+    public boolean acyclic() {
+        return loopGates == 0;
+    }
+
+    /** @return the number of gates in feedback loops
+     */
+    public int loopGates() {
+        return loopGates;
+    }
+
+    /** @param g a gate
+     *  @return true if it is in a feedback loop
+     */
+    public boolean inLoop( int g ) {
+        return looped[g];
+    }
+
+    /** @return the first gate in a feedback loop, in declaration order,
+     *  or -1 if there is none
+     */
+    public int firstLoopGate() {
+        for (int g = 0; g < looped.length; g++) if (looped[g]) return g;
+        return -1;
+    }
+
+    /** @return the gates, each after the gates driving it except where
+     *  they are in the same loop; the caller must not change it
+     */
+    int[] order() {
+        return order;
+    }
+
+    /** @param g a gate
+     *  @return its level, 0 for gates that nothing outside its loop drives
+     */
+    public int level( int g ) {
+        return level[g];
+    }
+
+    /** @return the number of levels
+     */
+    public int levels() {
+        return levels;
+    }
+} // class Levelizer
+
+/** BitParallel.java
+ * Zero-delay simulation of many input vectors at once
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Evaluates a circuit without feedback for 64 input vectors at a time.
+ *  Delays and jitter are ignored; the gates are sorted into levels so
+ *  each is evaluated once, after its inputs, and the 64 vectors are the
+ *  64 bits of a long, so one bitwise and, or or not evaluates a gate for
+ *  all of them.  The const gates are the inputs of the circuit: the true
+ *  pin of each carries its bit of the vector and the false pin carries
+ *  the complement.  The outputs are the other gates that drive no wires.
+ *
+ *  A vector file has one vector per line, a 0 or 1 for each const gate
+ *  in the order the gates were declared, with blanks ignored and lines
+ *  starting with -- skipped.  The results are written one line per
+ *  vector in the same form, after a -- line naming the outputs.
+ *
+ *  Unless the circuit is too large, the gates are compiled to a class by
+ *  CircuitCompiler; otherwise they are interpreted.
+ *  @see Netlist
+ *  @see CircuitCompiler
+ */
+final class BitParallel {
+    public static final int LANES = 64; // vectors evaluated at once
+
+    /** Code that evaluates every gate once, as generated by CircuitCompiler
+     */
+    interface Evaluator {
+        /** @param value the values of all gates, updated in place
+         */
+        void evaluate( long[] value );
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // the gates other than const, in level order, as operations on values:
+    // and, or, xor or not, as in Netlist, of one or two signals
+    private final byte[] opKind;
+    private final int[] opA;       // input signals, see signal()
+    private final int[] opB;
+    private final int[] opDst;     // the gate or temporary computed
+
+    private final int[] inputs;    // the const gates, in declaration order
+    private final int[] outputs;   // gates driving no wires, in order
+    private final Netlist netlist; // for the names of the gates
+
+    // the values of all gates for 64 vectors, then of the temporaries of
+    // gates taking more than one operation, then a value that is always 0
+    private final long[] value;
+
+    // the operations compiled to bytecode, or null to interpret them
+    private final Evaluator compiled;
+
+    /** levelize a netlist and compile it if it isn't too large; reports
+     *  feedback through {@link Errors#fatal(String)}
+     *  @param n the netlist, already known to be sane
+     */
+    public BitParallel( Netlist n ) {
+        this( n, true );
+    }
+
+    /** levelize a netlist; reports feedback through {@link Errors#fatal(String)}
+     *  @param n the netlist, already known to be sane
+     *  @param compile true to compile the gates if possible, false to
+     *  interpret them
+     */
+    public BitParallel( Netlist n, boolean compile ) {
+        int gates = n.gates();
+        netlist = n;
+
+        // count the operations; a gate with n inputs takes n - 1, and one
+        // more if its output is inverted, all but the last into temporaries
+        int inputCount = 0;
+        int ops = 0;
+        int[] inStart = new int[gates + 1];
+        for (int g = 0; g < gates; g++) {
+            byte k = n.kinds[g];
+            if (k == Netlist.CONST) {
+                inputCount++;
+            } else if (k == Netlist.NOT) {
+                ops++;
+            } else {
+                int w = n.inputs[g];
+                ops = ops + Math.max( 1, w - 1 );
+                if (inverted( k ) && (w > 1)) ops++;
+            }
+            inStart[g + 1] = inStart[g] + n.inputs[g];
+        }
+        int zero = gates + ops - (gates - inputCount); // for unconnected inputs
+        value = new long[zero + 1];
+
+        // find the signal on each input and the fanout of each gate
+        int[] in = new int[inStart[gates]];
+        Arrays.fill( in, zero << 1 );
+        int[] fanout = new int[gates];
+        for (int w = 0; w < n.wires(); w++) {
+            int src = n.wireSrc[w];
+            int dst = n.wireDst[w];
+            boolean inverted = (n.kinds[src] == Netlist.CONST)
+                            && (n.wireSrcPin[w] == 0);
+            int signal = (src << 1) | (inverted ? 1 : 0);
+            if (n.kinds[dst] == Netlist.NOT) {
+                in[inStart[dst]] = signal;
+            } else {
+                in[inStart[dst] + n.wireDstPin[w] - 1] = signal;
+            }
+            fanout[src]++;
+        }
+
+        // sort the gates so each comes after the gates driving it
+        Levelizer levelizer = new Levelizer( n );
+        if (!levelizer.acyclic()) {
+            Errors.fatal( "Zero delay simulation needs a circuit without feedback: gate "
+                        + n.name( levelizer.firstLoopGate() ) + " is in a loop" );
+        }
+        int[] order = levelizer.order();
+
+        // lower the ordered gates to operations
+        opKind = new byte[ops];
+        opA = new int[ops];
+        opB = new int[ops];
+        opDst = new int[ops];
+        int op = 0;
+        int temp = gates;
+        for (int g: order) {
+            byte k = n.kinds[g];
+            if (k == Netlist.CONST) continue;
+            int first = in[inStart[g]];
+            int w = n.inputs[g];
+            if ((k == Netlist.NOT) || ((w == 1) && inverted( k ))) {
+                op = operation( op, Netlist.NOT, first, zero << 1, g );
+            } else if (w == 1) {
+                op = operation( op, Netlist.AND, first, first, g );
+            } else {
+                byte base = (k == Netlist.NAND) ? Netlist.AND
+                          : (k == Netlist.NOR) ? Netlist.OR
+                          : (k == Netlist.XNOR) ? Netlist.XOR : k;
+                int acc = first;
+                for (int i = 1; i < w; i++) {
+                    int dst = ((i == w - 1) && !inverted( k )) ? g : temp++;
+                    op = operation( op, base, acc, in[inStart[g] + i], dst );
+                    acc = dst << 1;
+                }
+                if (inverted( k )) op = operation( op, Netlist.NOT, acc, zero << 1, g );
+            }
+        }
+
+        inputs = new int[inputCount];
+        int outputCount = 0;
+        for (int g = 0, i = 0; g < gates; g++) {
+            if (n.kinds[g] == Netlist.CONST) {
+                inputs[i++] = g;
+            } else if (fanout[g] == 0) {
+                outputCount++;
+            }
+        }
+        outputs = new int[outputCount];
+        for (int g = 0, i = 0; g < gates; g++) {
+            if ((n.kinds[g] != Netlist.CONST) && (fanout[g] == 0)) {
+                outputs[i++] = g;
+            }
+        }
+
+        compiled = compile
+                 ? CircuitCompiler.compile( opKind, opA, opB, opDst, outputs, zero )
+                 : null;
+    }
+
+    /** @param kind a kind code
+     *  @return true if gates of that kind invert and, or or xor
+     */
+    private static boolean inverted( byte kind ) {
+        return (kind == Netlist.NAND) || (kind == Netlist.NOR) || (kind == Netlist.XNOR);
+    }
+
+    /** fill in an operation, for the constructor
+     *  @param op the operation number
+     *  @param kind and, or, xor or not, as in Netlist
+     *  @param a the first input signal
+     *  @param b the second input signal, unused by not
+     *  @param dst the gate or temporary computed
+     *  @return the number of the next operation
+     */
+    private int operation( int op, byte kind, int a, int b, int dst ) {
+        opKind[op] = kind;
+        opA[op] = a;
+        opB[op] = b;
+        opDst[op] = dst;
+        return op + 1;
+    }
+
+    /** @return the number of bits in each input vector
+     */
+    public int inputs() {
+        return inputs.length;
+    }
+
+    /** @return the number of outputs
+     */
+    public int outputs() {
+        return outputs.length;
+    }
+
+    /** @return true if the gates were compiled to bytecode
+     */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /** @param i an input number
+     *  @param bits its values for 64 vectors
+     */
+    void setInput( int i, long bits ) {
+        value[inputs[i]] = bits;
+    }
+
+    /** @param i an output number
+     *  @return its values for 64 vectors, after evaluate()
+     */
+    long output( int i ) {
+        return value[outputs[i]];
+    }
+
+    /** @param s a signal, a gate number times 2 plus 1 if inverted
+     *  @return the values of the signal
+     */
+    private long signal( int s ) {
+        return value[s >>> 1] ^ -(long)(s & 1);
+    }
+
+    /** evaluate every gate once, given the values of the const gates
+     */
+    void evaluate() {
+        if (compiled != null) {
+            compiled.evaluate( value );
+            return;
+        }
+        for (int i = 0; i < opKind.length; i++) {
+            long v;
+            switch (opKind[i]) {
+            case Netlist.AND:
+                v = signal( opA[i] ) & signal( opB[i] );
+                break;
+            case Netlist.OR:
+                v = signal( opA[i] ) | signal( opB[i] );
+                break;
+            case Netlist.XOR:
+                v = signal( opA[i] ) ^ signal( opB[i] );
+                break;
+            default: // Netlist.NOT
+                v = ~signal( opA[i] );
+            }
+            value[opDst[i]] = v;
+        }
+    }
+
+    /** simulate every vector in a file
+     *  @param in the vector file
+     *  @param out where the results go
+     *  @return the number of vectors simulated
+     *  @throws IOException if the vectors can't be read or the results written
+     */
+    public long run( FileChannel in, WritableByteChannel out ) throws IOException {
+        ByteBuffer inBuffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+        ByteBuffer outBuffer = ByteBuffer.allocateDirect(
+                Math.max( BUFFER_SIZE, outputs.length + 1 )
+        );
+        inBuffer.flip();
+
+        // name the outputs
+        StringBuilder header = new StringBuilder( "--" );
+        for (int g: outputs) header.append( ' ' ).append( netlist.name( g ) );
+        header.append( '\n' );
+        ByteBuffer h = ByteBuffer.wrap(
+                header.toString().getBytes( StandardCharsets.UTF_8 )
+        );
+        while (h.hasRemaining()) out.write( h );
+
+        long count = 0;
+        int lane = 0;      // the bit of the current vector
+        int bits = 0;      // bits of the current vector so far
+        int line = 1;
+        boolean comment = false;
+        boolean blank = true; // nothing yet on this line
+        for (;;) {
+            if (!inBuffer.hasRemaining()) {
+                inBuffer.clear();
+                int got = in.read( inBuffer );
+                inBuffer.flip();
+                if (got < 0) break;
+                continue;
+            }
+            byte c = inBuffer.get();
+            if (c == '\n') {
+                if (!blank && !comment) { // end of a vector
+                    if (bits != inputs.length) badVector( line, bits );
+                    bits = 0;
+                    lane++;
+                    count++;
+                    if (lane == LANES) {
+                        finish( lane, out, outBuffer );
+                        lane = 0;
+                    }
+                }
+                line++;
+                comment = false;
+                blank = true;
+            } else if (comment || (c == ' ') || (c == '\t') || (c == '\r')) {
+                // skip it
+            } else if (blank && (c == '-')) {
+                comment = true;
+            } else if ((c == '0') || (c == '1')) {
+                blank = false;
+                if (bits >= inputs.length) badVector( line, bits + 1 );
+                long bit = 1L << lane;
+                int g = inputs[bits];
+                value[g] = (c == '1') ? (value[g] | bit) : (value[g] & ~bit);
+                bits++;
+            } else {
+                badVector( line, -1 );
+            }
+        }
+        if (!blank && !comment) { // the last line had no newline
+            if (bits != inputs.length) badVector( line, bits );
+            lane++;
+            count++;
+        }
+        if (lane > 0) finish( lane, out, outBuffer );
+        outBuffer.flip();
+        while (outBuffer.hasRemaining()) out.write( outBuffer );
+        return count;
+    }
+
+    /** report a malformed vector through {@link Errors#fatal(String)}
+     *  @param line the line it is on
+     *  @param bits how many bits it has, or -1 if it has something else
+     */
+    private void badVector( int line, int bits ) {
+        Errors.setLine( line );
+        if (bits < 0) {
+            Errors.fatal( "Vectors must be made of 0 and 1" );
+        } else {
+            Errors.fatal( "Vector has " + bits + " bits, expected " + inputs.length );
+        }
+    }
+
+    /** evaluate a block of vectors and write out the results
+     *  @param lanes how many vectors are in the block
+     *  @param out where the results go
+     *  @param buffer the output buffer
+     *  @throws IOException if the results can't be written
+     */
+    private void finish( int lanes, WritableByteChannel out, ByteBuffer buffer )
+            throws IOException {
+        evaluate();
+        for (int l = 0; l < lanes; l++) {
+            drain( out, buffer, outputs.length + 1 );
+            for (int g: outputs) buffer.put( (byte)('0' + ((value[g] >>> l) & 1)) );
+            buffer.put( (byte)'\n' );
+        }
+    }
+
+    /** make room in a buffer, writing out what it holds if need be
+     *  @param out where the buffer is written
+     *  @param buffer the buffer
+     *  @param room how many bytes are wanted
+     *  @throws IOException if the buffer can't be written
+     */
+    private static void drain( WritableByteChannel out, ByteBuffer buffer, int room )
+            throws IOException {
+        if (buffer.remaining() >= room) return;
+        buffer.flip();
+        while (buffer.hasRemaining()) out.write( buffer );
+        buffer.clear();
+    }
+} // class BitParallel
+
+/** CircuitCompiler.java
+ * Compile the levelized gates of a circuit into a hidden class
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Generates a class whose code evaluates the gates of a BitParallel
+ *  circuit directly, with no loop, dispatch on gate kinds or loads of
+ *  the operation arrays.  The class file is written here and defined
+ *  as a hidden class with MethodHandles.Lookup.defineHiddenClass.
+ *
+ *  The operations the gates are lowered to, in level order, are compiled
+ *  into static methods of at most CHUNK operations each, small enough that
+ *  HotSpot compiles and inlines them.  Within a method each value
+ *  computed is kept in a local variable, which
+ *  the JIT can keep in a register; only values used by a later method,
+ *  and the outputs, are stored back into the array of values.  The code
+ *  has no branches, so it needs no stack map frames.
+ *  @see BitParallel
+ */
+final class CircuitCompiler {
+    // operations per generated method, so no method exceeds the 8000 bytes
+    // HotSpot will compile; each takes at most 53 bytes of code
+    private static final int CHUNK = 128;
+
+    // evaluate() calls each method with 4 bytes of code, in at most 64K
+    private static final int MAX_CHUNKS = 16_000;
+
+    // constant pool entries, followed by three for each method
+    private static final int THIS_CLASS = 2;
+    private static final int OBJECT_INIT = 10;
+    private static final int EVALUATE = 11;
+    private static final int LONGS_TO_VOID = 12;
+    private static final int CODE = 13;
+    private static final int MINUS_ONE = 14;
+    private static final int FIRST_CHUNK = 16;
+
+    // the bytecodes used
+    private static final int LCONST_0 = 0x09;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC2_W = 0x14;
+    private static final int LLOAD = 0x16;
+    private static final int LLOAD_0 = 0x1E;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int LALOAD = 0x2F;
+    private static final int LSTORE = 0x37;
+    private static final int LSTORE_0 = 0x3F;
+    private static final int LASTORE = 0x50;
+    private static final int ISHL = 0x78;
+    private static final int LAND = 0x7F;
+    private static final int IOR = 0x80;
+    private static final int LOR = 0x81;
+    private static final int LXOR = 0x83;
+    private static final int RETURN = 0xB1;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKESTATIC = 0xB8;
+    private static final int WIDE = 0xC4;
+
+    /** compile the operations of a BitParallel
+     *  @param kind each operation: and, or, xor or not, as in Netlist
+     *  @param a the first input signal of each, a value times 2 plus 1 if inverted
+     *  @param b the second input signal, unused by not
+     *  @param dst the gate or temporary value each computes
+     *  @param outputs the gates whose values are read after evaluation
+     *  @param zero the gate number standing for unconnected inputs
+     *  @return the evaluator, or null if the circuit is too large to
+     *  compile or the class can't be defined
+     */
+    static BitParallel.Evaluator compile(
+            byte[] kind, int[] a, int[] b, int[] dst, int[] outputs, int zero
+    ) {
+        int ops = kind.length;
+        int chunks = (ops + CHUNK - 1) / CHUNK;
+        if (chunks > MAX_CHUNKS) return null;
+
+        // find the values that must be stored for a later method or the caller
+        int[] chunkOf = new int[zero + 1];
+        Arrays.fill( chunkOf, -1 );
+        for (int i = 0; i < ops; i++) chunkOf[dst[i]] = i / CHUNK;
+        boolean[] stored = new boolean[zero + 1];
+        for (int g: outputs) stored[g] = true;
+        for (int i = 0; i < ops; i++) {
+            int[] in = { a[i] >>> 1, b[i] >>> 1 };
+            for (int g: in) {
+                if ((chunkOf[g] >= 0) && (chunkOf[g] != i / CHUNK)) stored[g] = true;
+            }
+        }
+
+        try {
+            byte[] bytes = classFile( kind, a, b, dst, chunkOf, stored, zero, chunks );
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass( bytes, true );
+            return (BitParallel.Evaluator)lookup.lookupClass()
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /** write the class file
+     *  @return its bytes
+     */
+    private static byte[] classFile(
+            byte[] kind, int[] a, int[] b, int[] dst,
+            int[] chunkOf, boolean[] stored, int zero, int chunks
+    ) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        try {
+            out.writeInt( 0xCAFEBABE );
+            out.writeShort( 0 );
+            out.writeShort( 52 ); // Java 8; code without branches needs no stack maps
+
+            out.writeShort( FIRST_CHUNK + (3 * chunks) );
+            utf8( out, "CompiledCircuit" );                         // 1
+            classRef( out, 1 );                                     // 2
+            utf8( out, "java/lang/Object" );                        // 3
+            classRef( out, 3 );                                     // 4
+            utf8( out, "BitParallel$Evaluator" );                   // 5
+            classRef( out, 5 );                                     // 6
+            utf8( out, "<init>" );                                  // 7
+            utf8( out, "()V" );                                     // 8
+            nameAndType( out, 7, 8 );                               // 9
+            methodRef( out, 4, 9 );                                 // 10
+            utf8( out, "evaluate" );                                // 11
+            utf8( out, "([J)V" );                                   // 12
+            utf8( out, "Code" );                                    // 13
+            out.writeByte( 5 );                                     // 14, 15
+            out.writeLong( -1L );
+            for (int c = 0; c < chunks; c++) {
+                int at = FIRST_CHUNK + (3 * c);
+                utf8( out, "c" + c );
+                nameAndType( out, at, LONGS_TO_VOID );
+                methodRef( out, THIS_CLASS, at + 1 );
+            }
+
+            out.writeShort( 0x0030 ); // final, super
+            out.writeShort( THIS_CLASS );
+            out.writeShort( 4 );
+            out.writeShort( 1 );
+            out.writeShort( 6 );
+            out.writeShort( 0 ); // no fields
+            out.writeShort( 2 + chunks );
+
+            // public CompiledCircuit() { super(); }
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+            code.write( ALOAD_0 );
+            code.write( INVOKESPECIAL );
+            u2( code, OBJECT_INIT );
+            code.write( RETURN );
+            method( out, 0x0001, 7, 8, 1, 1, code );
+
+            // public void evaluate( long[] v ) { c0( v ); c1( v ); ... }
+            code.reset();
+            for (int c = 0; c < chunks; c++) {
+                code.write( ALOAD_1 );
+                code.write( INVOKESTATIC );
+                u2( code, FIRST_CHUNK + (3 * c) + 2 );
+            }
+            code.write( RETURN );
+            method( out, 0x0001, EVALUATE, LONGS_TO_VOID, 1, 2, code );
+
+            // private static void cN( long[] v ), for each chunk of gates
+            int[] local = new int[zero + 1];
+            for (int c = 0; c < chunks; c++) {
+                code.reset();
+                int end = Math.min( kind.length, (c + 1) * CHUNK );
+                int locals = 1;
+                for (int i = c * CHUNK; i < end; i++) {
+                    load( code, a[i], c, chunkOf, local, zero );
+                    if (kind[i] == Netlist.NOT) {
+                        code.write( LDC2_W );
+                        u2( code, MINUS_ONE );
+                        code.write( LXOR );
+                    } else {
+                        load( code, b[i], c, chunkOf, local, zero );
+                        code.write( (kind[i] == Netlist.AND) ? LAND
+                                  : (kind[i] == Netlist.OR) ? LOR : LXOR );
+                    }
+                    int g = dst[i];
+                    local[g] = locals;
+                    locals = locals + 2;
+                    longLocal( code, LSTORE, LSTORE_0, local[g] );
+                    if (stored[g]) {
+                        code.write( ALOAD_0 );
+                        index( code, g );
+                        longLocal( code, LLOAD, LLOAD_0, local[g] );
+                        code.write( LASTORE );
+                    }
+                }
+                code.write( RETURN );
+                method( out, 0x000A, FIRST_CHUNK + (3 * c), LONGS_TO_VOID, 8, locals, code );
+            }
+
+            out.writeShort( 0 ); // no attributes
+        } catch (IOException e) { // not from a ByteArrayOutputStream
+            throw new IllegalStateException( e );
+        }
+        return bytes.toByteArray();
+    }
+
+    /** push the value of a signal
+     *  @param code where the code goes
+     *  @param s the signal, a gate times 2 plus 1 if inverted
+     *  @param chunk the method being written
+     */
+    private static void load(
+            ByteArrayOutputStream code, int s, int chunk,
+            int[] chunkOf, int[] local, int zero
+    ) {
+        int g = s >>> 1;
+        if (g == zero) {
+            code.write( LCONST_0 );
+        } else if (chunkOf[g] == chunk) {
+            longLocal( code, LLOAD, LLOAD_0, local[g] );
+        } else {
+            code.write( ALOAD_0 );
+            index( code, g );
+            code.write( LALOAD );
+        }
+        if ((s & 1) != 0) {
+            code.write( LDC2_W );
+            u2( code, MINUS_ONE );
+            code.write( LXOR );
+        }
+    }
+
+    /** push an array index, without constant pool entries
+     */
+    private static void index( ByteArrayOutputStream code, int i ) {
+        if (i < 0x8000) {
+            code.write( SIPUSH );
+            u2( code, i );
+        } else {
+            code.write( SIPUSH );
+            u2( code, i >>> 15 );
+            code.write( BIPUSH );
+            code.write( 15 );
+            code.write( ISHL );
+            code.write( SIPUSH );
+            u2( code, i & 0x7FFF );
+            code.write( IOR );
+        }
+    }
+
+    /** load or store a long local variable in the shortest form
+     *  @param op the general form, LLOAD or LSTORE
+     *  @param op0 the form for variable 0
+     *  @param n the variable
+     */
+    private static void longLocal( ByteArrayOutputStream code, int op, int op0, int n ) {
+        if (n < 4) {
+            code.write( op0 + n );
+        } else if (n < 256) {
+            code.write( op );
+            code.write( n );
+        } else {
+            code.write( WIDE );
+            code.write( op );
+            u2( code, n );
+        }
+    }
+
+    private static void u2( ByteArrayOutputStream code, int v ) {
+        code.write( v >>> 8 );
+        code.write( v );
+    }
+
+    private static void utf8( DataOutputStream out, String s ) throws IOException {
+        out.writeByte( 1 );
+        out.writeUTF( s );
+    }
+
+    private static void classRef( DataOutputStream out, int name ) throws IOException {
+        out.writeByte( 7 );
+        out.writeShort( name );
+    }
+
+    private static void nameAndType( DataOutputStream out, int name, int type )
+            throws IOException {
+        out.writeByte( 12 );
+        out.writeShort( name );
+        out.writeShort( type );
+    }
+
+    private static void methodRef( DataOutputStream out, int owner, int nameAndType )
+            throws IOException {
+        out.writeByte( 10 );
+        out.writeShort( owner );
+        out.writeShort( nameAndType );
+    }
+
+    /** write a method with a Code attribute
+     *  @param access the access flags
+     *  @param name the constant pool entry of its name
+     *  @param type the constant pool entry of its descriptor
+     *  @param stack the maximum depth of the operand stack
+     *  @param locals the number of local variable slots
+     *  @param code its bytecode
+     */
+    private static void method(
+            DataOutputStream out, int access, int name, int type,
+            int stack, int locals, ByteArrayOutputStream code
+    ) throws IOException {
+        out.writeShort( access );
+        out.writeShort( name );
+        out.writeShort( type );
+        out.writeShort( 1 );
+        out.writeShort( CODE );
+        out.writeInt( 12 + code.size() );
+        out.writeShort( stack );
+        out.writeShort( locals );
+        out.writeInt( code.size() );
+        code.writeTo( out );
+        out.writeShort( 0 ); // no exception table
+        out.writeShort( 0 ); // no attributes
+    }
+} // class CircuitCompiler
+
+/** CircuitBenchmark.java
+ * Compare compiled and interpreted zero-delay evaluation
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Measures how long BitParallel takes to evaluate a circuit without
+ *  feedback for 64 random vectors, with the gates interpreted and with
+ *  them compiled by CircuitCompiler, and checks the two agree.
+ *  Run with: java CircuitBenchmark circuit [evaluations]
+ *  @see CircuitCompiler
+ */
+class CircuitBenchmark {
+    /** time repeated evaluations
+     *  @param b the circuit
+     *  @param n the number of evaluations
+     *  @return the time per evaluation, in nanoseconds
+     */
+    private static double evaluations( BitParallel b, int n ) {
+        Random r = new Random( 29 );
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < b.inputs(); j++) b.setInput( j, r.nextLong() );
+            b.evaluate();
+        }
+        return (double)(System.nanoTime() - start) / n;
+    }
+
+    /** Main program
+     * @param args the circuit file, then the number of evaluations
+     * @throws IOException if the circuit can't be read
+     */
+    public static void main( String[] args ) throws IOException {
+        if (args.length < 1) Errors.fatal( "Missing file name argument" );
+        Netlist n = Logic.read( new File( args[0] ) );
+        if (Errors.count() > 0) System.exit( 1 );
+        int evaluations = (args.length > 1) ? Integer.parseInt( args[1] ) : 1000;
+
+        BitParallel interpreted = new BitParallel( n, false );
+        long start = System.nanoTime();
+        BitParallel compiled = new BitParallel( n, true );
+        double compiling = (System.nanoTime() - start) / 1e6;
+        if (!compiled.isCompiled()) Errors.fatal( "The circuit is too large to compile" );
+
+        for (int round = 0; round < 2; round++) { // round 0 warms the JIT
+            double slow = evaluations( interpreted, evaluations );
+            double fast = evaluations( compiled, evaluations );
+            if (round > 0) System.out.printf(
+                    "%d gates: interpreted %.1f us, compiled %.1f us"
+                  + " per 64 vectors, compiled in %.1f ms%n",
+                    n.gates(), slow / 1e3, fast / 1e3, compiling
+            );
+        }
+        for (int i = 0; i < compiled.outputs(); i++) {
+            if (compiled.output( i ) != interpreted.output( i )) {
+                Errors.fatal( "Compiled and interpreted outputs differ" );
+            }
+        }
+    }
+} // class CircuitBenchmark
+
+/** Ensemble.java
+ * Monte Carlo runs of one circuit with many seeds
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Simulates one netlist many times, each run with its own seed for the
+ *  gate delay jitter, spread over a number of threads, and summarizes
+ *  how the timing of the outputs varies from run to run.  Each run has
+ *  its own Engine, so runs share nothing but the netlist.  Run 0 uses the
+ *  seed of an ordinary run; the seeds of the others are split from it in
+ *  order, so the results do not depend on the number of threads.
+ *
+ *  The signals summarized are the outputs, the gates other than const
+ *  that drive no wires, or every gate if there are none.  For each, the
+ *  settle time is the time of its last change in a run, and a glitch is
+ *  a pair of changes that leaves the value where it was.
+ *  @see Engine
+ */
+final class Ensemble {
+    private final Netlist netlist;
+    private final boolean inertial;
+    private final int[] signals;    // the gates summarized
+    private final long[] seeds;     // indexed by run
+
+    // the results of each run, indexed by run then by signal
+    private final int[][] changes;
+    private final float[][] first;  // time of the first change
+    private final float[][] last;   // time of the last change
+    private final Simulator.Summary[] summaries;
+
+    /** Counts the changes of each signal in one run.  Each thread reuses
+     *  one tally for all of its runs.
+     */
+    private static final class Tally extends Trace {
+        final int[] changes;
+        final float[] first;
+        final float[] last;
+
+        Tally( int gates ) {
+            super( null, false );
+            changes = new int[gates];
+            first = new float[gates];
+            last = new float[gates];
+        }
+
+        void reset() {
+            Arrays.fill( changes, 0 );
+        }
+
+        public void declare( int signal, String name, String label ) {}
+
+        public void change( long time, int signal, boolean value ) {
+            float t = (float)Simulator.seconds( time );
+            if (changes[signal] == 0) first[signal] = t;
+            last[signal] = t;
+            changes[signal]++;
+        }
+
+        public void close() {}
+    }
+
+    /** prepare an ensemble
+     *  @param n the netlist, already known to be sane
+     *  @param runs the number of runs
+     *  @param inertial true for inertial delay, false for transport delay
+     */
+    public Ensemble( Netlist n, int runs, boolean inertial ) {
+        netlist = n;
+        this.inertial = inertial;
+
+        boolean[] drives = new boolean[n.gates()];
+        for (int w = 0; w < n.wires(); w++) drives[n.wireSrc[w]] = true;
+        int count = 0;
+        for (int g = 0; g < n.gates(); g++) {
+            if (!drives[g] && (n.kinds[g] != Netlist.CONST)) count++;
+        }
+        if (count == 0) {
+            signals = new int[n.gates()];
+            for (int g = 0; g < n.gates(); g++) signals[g] = g;
+        } else {
+            signals = new int[count];
+            for (int g = 0, i = 0; g < n.gates(); g++) {
+                if (!drives[g] && (n.kinds[g] != Netlist.CONST)) signals[i++] = g;
+            }
+        }
+
+        seeds = new long[runs];
+        SplittableRandom root = new SplittableRandom( PRNG.SEED );
+        for (int r = 0; r < runs; r++) {
+            seeds[r] = (r == 0) ? PRNG.SEED : root.split().nextLong();
+        }
+
+        changes = new int[runs][];
+        first = new float[runs][];
+        last = new float[runs][];
+        summaries = new Simulator.Summary[runs];
+    }
+
+    /** do all the runs; an interrupt cancels them, and this returns once
+     *  every thread has stopped, with the thread still interrupted
+     *  @param threads the number of threads to use
+     *  @param limits the limits on each run
+     */
+    public void run( int threads, Simulator.Limits limits ) {
+        AtomicInteger next = new AtomicInteger( 0 );
+        Runnable worker = () -> {
+            Tally t = new Tally( netlist.gates() );
+            for (int r = next.getAndIncrement(); r < seeds.length;
+                     r = next.getAndIncrement()) {
+                t.reset();
+                Engine e = new Engine( netlist, t, seeds[r] );
+                e.useInertialDelay( inertial );
+                e.launch();
+                summaries[r] = e.run( limits );
+                record( r, t );
+            }
+        };
+
+        Thread[] pool = new Thread[threads - 1];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new Thread( worker, "ensemble-" + i );
+            pool[i].start();
+        }
+        worker.run(); // this thread works too
+        // an interrupt cancels the runs left, but each still has a summary
+        ParallelEngine.joinAll( pool, limits );
+    }
+
+    /** keep the results of one run
+     *  @param r the run number
+     *  @param t the tally of the run
+     */
+    private void record( int r, Tally t ) {
+        int[] c = new int[signals.length];
+        float[] f = new float[signals.length];
+        float[] l = new float[signals.length];
+        for (int i = 0; i < signals.length; i++) {
+            c[i] = t.changes[signals[i]];
+            f[i] = t.first[signals[i]];
+            l[i] = t.last[signals[i]];
+        }
+        changes[r] = c;
+        first[r] = f;
+        last[r] = l;
+    }
+
+    /** @return how many runs stopped at a limit instead of running out of events
+     */
+    public int limited() {
+        int count = 0;
+        for (Simulator.Summary s: summaries) {
+            if ((s != null) && (s.reason != Simulator.Stop.EMPTY)) count++;
+        }
+        return count;
+    }
+
+    /** print one line per signal summarizing all the runs, in run order so
+     *  the sums come out the same every time
+     *  @param out where the summary goes
+     */
+    public void report( PrintStream out ) {
+        out.println( "-- " + seeds.length + " runs, "
+                   + limited() + " stopped by limits" );
+        out.println( "-- gate changed first(min mean max) settle(min mean max sd)"
+                   + " glitches(mean max)" );
+        for (int i = 0; i < signals.length; i++) {
+            int done = 0; // runs that finished
+            int runs = 0;  // runs in which the signal changed
+            float firstMin = Float.POSITIVE_INFINITY;
+            float firstMax = Float.NEGATIVE_INFINITY;
+            float settleMin = Float.POSITIVE_INFINITY;
+            float settleMax = Float.NEGATIVE_INFINITY;
+            double firstSum = 0.0;
+            double settleSum = 0.0;
+            double settleSquares = 0.0;
+            long glitchSum = 0;
+            int glitchMax = 0;
+            for (int r = 0; r < seeds.length; r++) {
+                if (changes[r] == null) continue; // cancelled before it ran
+                done++;
+                int c = changes[r][i];
+                int glitches = c / 2; // each pair of changes returns the value
+                glitchSum = glitchSum + glitches;
+                glitchMax = Math.max( glitchMax, glitches );
+                if (c == 0) continue;
+                runs++;
+                float f = first[r][i];
+                float l = last[r][i];
+                firstMin = Math.min( firstMin, f );
+                firstMax = Math.max( firstMax, f );
+                firstSum = firstSum + f;
+                settleMin = Math.min( settleMin, l );
+                settleMax = Math.max( settleMax, l );
+                settleSum = settleSum + l;
+                settleSquares = settleSquares + (double)l * l;
+            }
+
+            StringBuilder s = new StringBuilder( netlist.name( signals[i] ) );
+            s.append( ' ' ).append( runs );
+            if (runs > 0) {
+                double settleMean = settleSum / runs;
+                double variance = (settleSquares / runs) - (settleMean * settleMean);
+                s.append( ' ' ).append( firstMin )
+                 .append( ' ' ).append( (float)(firstSum / runs) )
+                 .append( ' ' ).append( firstMax )
+                 .append( ' ' ).append( settleMin )
+                 .append( ' ' ).append( (float)settleMean )
+                 .append( ' ' ).append( settleMax )
+                 .append( ' ' ).append( (float)Math.sqrt( Math.max( variance, 0.0 ) ) );
+            } else {
+                s.append( " - - - - - - -" );
+            }
+            s.append( ' ' ).append( (float)glitchSum / Math.max( done, 1 ) )
+             .append( ' ' ).append( glitchMax );
+            out.println( s );
+        }
+    }
+} // class Ensemble
+
+/** Simulation.java
+ * A circuit simulation for programs that embed the simulator
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** One circuit, built once and simulated as many times as wanted.
+ *  Unlike class Logic, nothing here is static, so a program may hold
+ *  any number of simulations, each used by one thread at a time.
+ *  Nothing here exits the program: a circuit with errors can't be
+ *  loaded, and the errors come back in a {@link Failure}.
+ *  <pre>
+ *  Simulation s = Simulation.load( new File( "adder.txt" ) );
+ *  s.run( limits );
+ *  boolean sum = s.value( s.find( "sum" ) );
+ *  s.reset( seed );  // then run again
+ *  </pre>
+ *  @see Engine
+ */
+final class Simulation {
+    private final Netlist netlist;
+    private final Engine engine;
+    private boolean launched = false;
+
+    /** Thrown when a circuit can't be loaded
+     */
+    public static class Failure extends Exception {
+        private final List <String> messages;
+
+        Failure( List <String> messages ) {
+            super( String.join( System.lineSeparator(), messages ) );
+            this.messages = messages;
+        }
+
+        /** @return the error messages, one per problem found
+         */
+        public List <String> messages() {
+            return messages;
+        }
+    }
+
+    /** build a simulation of a netlist
+     *  @param n the netlist, already known to be sane
+     *  @param trace where output changes are reported
+     */
+    public Simulation( Netlist n, Trace trace ) {
+        netlist = n;
+        n.declareSignals( trace );
+        engine = new Engine( n, trace, PRNG.SEED );
+    }
+
+    /** read and check a circuit, text or compiled, and build a simulation
+     *  that reports no changes
+     *  @param f the circuit file
+     *  @return the simulation
+     *  @throws Failure if the circuit has errors or can't be read
+     */
+    public static Simulation load( File f ) throws Failure {
+        return load( f, new NullTrace() );
+    }
+
+    /** read and check a circuit, text or compiled, and build a simulation
+     *  @param f the circuit file
+     *  @param trace where output changes are reported
+     *  @return the simulation
+     *  @throws Failure if the circuit has errors or can't be read
+     */
+    public static Simulation load( File f, Trace trace ) throws Failure {
+        List <String> messages = new ArrayList <String> ();
+        Netlist n = null;
+        Errors.capture( messages );
+        try {
+            n = Logic.read( f );
+        } catch (IOException e) {
+            messages.add( "Can't read the file: " + f );
+        } catch (Errors.Fatal e) {
+            // the message is already in the list
+        } finally {
+            Errors.capture( null );
+        }
+        if (!messages.isEmpty()) throw new Failure( messages );
+        return new Simulation( n, trace );
+    }
+
+    /** choose how gates delay changes, before the first run or after reset
+     *  @param on true for inertial delay, false for transport delay
+     *  @see Engine#useInertialDelay(boolean)
+     */
+    public void useInertialDelay( boolean on ) {
+        if (launched) throw new IllegalStateException( "already running" );
+        engine.useInertialDelay( on );
+    }
+
+    /** @return the number of gates, which are numbered from 0
+     */
+    public int gates() {
+        return netlist.gates();
+    }
+
+    /** @param name the name of a gate
+     *  @return its number, or -1 if there is no such gate
+     */
+    public int find( String name ) {
+        return netlist.find( name );
+    }
+
+    /** @param g a gate number
+     *  @return the gate's name
+     */
+    public String name( int g ) {
+        return netlist.name( g );
+    }
+
+    /** @param g a gate number
+     *  @return the value of the gate's output when the last run stopped
+     */
+    public boolean value( int g ) {
+        return engine.value( g );
+    }
+
+    /** run the simulation, launching it first if this is the first run
+     *  since it was built or reset; otherwise it continues where the last
+     *  run stopped
+     *  @param limits the limits on this run
+     *  @return a summary of the run
+     *  @throws Errors.Fatal if the simulation goes wrong
+     */
+    public Simulator.Summary run( Simulator.Limits limits ) {
+        Errors.capture( new ArrayList <String> () );
+        try {
+            if (!launched) engine.launch();
+            launched = true;
+            return engine.run( limits );
+        } finally {
+            Errors.capture( null );
+        }
+    }
+
+    /** put every gate and wire back to false and forget all pending events,
+     *  without allocating anything, so the next run starts over
+     *  @param seed the seed for gate delay jitter, PRNG.SEED to repeat a
+     *              run of class Logic
+     */
+    public void reset( long seed ) {
+        engine.reset( seed );
+        launched = false;
+    }
+} // class Simulation
+
+/** ParallelEngine.java
+ * Conservative parallel simulation of a Netlist
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Simulates a netlist with several threads, each simulating the gates of
+ *  one part of the circuit with its own keyed Engine.  An event for a gate
+ *  in another part can only come through a wire between parts, so it is at
+ *  least the lookahead, the shortest delay of those wires, after the event
+ *  that caused it.  Time is therefore simulated in windows: all parts wait
+ *  at a barrier, the window runs from the time of the first pending event
+ *  for the lookahead, and each part simulates its events in the window
+ *  independently before the next barrier, where the events sent between
+ *  parts are delivered and the output changes are merged in order of time
+ *  and key for the trace.  The result is the same as a keyed Engine's,
+ *  whatever the number of threads.
+ *
+ *  The circuit is split by numbering the gates in breadth-first order and
+ *  cutting the numbering into equal parts, which keeps most wires within
+ *  a part.  If the lookahead is 0, the circuit is simulated by one thread.
+ *  @see Engine
+ */
+final class ParallelEngine {
+    private final Engine whole;     // the keyed engine the parts share
+    private final Engine[] parts;   // null when simulated by one thread
+    private final Log[] logs;       // the changes from each part, per window
+    private final Trace trace;
+    private final long lookahead;   // in ticks
+
+    // decided between windows by the last thread to reach the barrier
+    private long windowLimit;       // the end of the window, exclusive
+    private Simulator.Summary result;
+    private long count;
+    private long time;
+    private Throwable failure;      // the first thrown by a thread in a run
+
+    /** The output changes of one part during one window.
+     */
+    private static final class Log extends Trace {
+        private Engine engine;      // the part, whose key orders the changes
+        private long[] times = new long[1024];
+        private int[] signals = new int[1024];
+        private boolean[] values = new boolean[1024];
+        private long[] keys = new long[1024];
+        private int size = 0;
+
+        Log() {
+            super( null, false );
+        }
+
+        public void declare( int signal, String name, String label ) {}
+
+        public void change( long time, int signal, boolean value ) {
+            if (size == times.length) {
+                times = Arrays.copyOf( times, 2 * size );
+                signals = Arrays.copyOf( signals, 2 * size );
+                values = Arrays.copyOf( values, 2 * size );
+                keys = Arrays.copyOf( keys, 2 * size );
+            }
+            times[size] = time;
+            signals[size] = signal;
+            values[size] = value;
+            keys[size] = engine.key();
+            size++;
+        }
+
+        public void close() {}
+    }
+
+    /** split a netlist for simulation
+     *  @param n the netlist, already known to be sane
+     *  @param trace where output changes are reported
+     *  @param seed the seed for gate delay jitter
+     *  @param threads the number of threads to use
+     *  @param inertial true for inertial delay, false for transport delay
+     */
+    public ParallelEngine( Netlist n, Trace trace, long seed, int threads,
+                           boolean inertial ) {
+        this.trace = trace;
+        whole = new Engine( n, trace, seed, true );
+        whole.useInertialDelay( inertial );
+        int[] owner = split( whole, threads );
+
+        long shortest = Long.MAX_VALUE;
+        for (int g = 0; g < whole.gates(); g++) {
+            for (int i = whole.fanStart( g ); i < whole.fanStart( g + 1 ); i++) {
+                if (owner[whole.fanDst( i )] != owner[g]) {
+                    shortest = Math.min( shortest, whole.fanDelay( i ) );
+                }
+            }
+        }
+        lookahead = shortest;
+
+        if ((threads == 1) || (lookahead == 0)) {
+            parts = null;
+            logs = null;
+        } else {
+            parts = new Engine[threads];
+            logs = new Log[threads];
+            for (int i = 0; i < threads; i++) {
+                logs[i] = new Log();
+                parts[i] = new Engine( whole, logs[i], owner, i, threads );
+                logs[i].engine = parts[i];
+            }
+        }
+    }
+
+    /** split the gates into parts of equal size, keeping neighbors together
+     *  @param e the engine holding the gates and wires
+     *  @param parts the number of parts
+     *  @return the part of each gate
+     */
+    private static int[] split( Engine e, int parts ) {
+        int gates = e.gates();
+
+        // the wires into each gate, so the search can go both ways
+        int[] inStart = new int[gates + 1];
+        for (int i = 0; i < e.fanStart( gates ); i++) inStart[e.fanDst( i ) + 1]++;
+        for (int g = 0; g < gates; g++) inStart[g + 1] += inStart[g];
+        int[] inSrc = new int[e.fanStart( gates )];
+        int[] fill = Arrays.copyOf( inStart, gates );
+        for (int g = 0; g < gates; g++) {
+            for (int i = e.fanStart( g ); i < e.fanStart( g + 1 ); i++) {
+                inSrc[fill[e.fanDst( i )]++] = g;
+            }
+        }
+
+        // number the gates in breadth-first order, each part a range of it
+        int[] owner = new int[gates];
+        Arrays.fill( owner, -1 );
+        int[] order = new int[gates];
+        int numbered = 0;
+        for (int root = 0; root < gates; root++) {
+            if (owner[root] >= 0) continue;
+            int head = numbered;
+            owner[root] = 0;
+            order[numbered++] = root;
+            while (head < numbered) {
+                int g = order[head++];
+                for (int i = e.fanStart( g ); i < e.fanStart( g + 1 ); i++) {
+                    int d = e.fanDst( i );
+                    if (owner[d] < 0) {
+                        owner[d] = 0;
+                        order[numbered++] = d;
+                    }
+                }
+                for (int i = inStart[g]; i < inStart[g + 1]; i++) {
+                    int s = inSrc[i];
+                    if (owner[s] < 0) {
+                        owner[s] = 0;
+                        order[numbered++] = s;
+                    }
+                }
+            }
+        }
+        for (int k = 0; k < gates; k++) {
+            owner[order[k]] = (int)((long)k * parts / gates);
+        }
+        return owner;
+    }
+
+    /** @return the lookahead, the shortest delay of a wire between parts,
+     *  in ticks
+     */
+    public long lookahead() {
+        return lookahead;
+    }
+
+    /** return to the state before launch, as Engine.reset does, so the
+     *  engine can be launched and run again without allocating
+     *  @param seed the new seed for gate delay jitter
+     */
+    public void reset( long seed ) {
+        whole.reset( seed );
+        if (parts != null) {
+            for (Engine p: parts) p.resetPart( seed );
+            for (Log l: logs) l.size = 0;
+        }
+        result = null;
+        count = 0;
+        time = 0;
+    }
+
+    /** schedule the initial events
+     */
+    public void launch() {
+        if (parts == null) {
+            whole.launch();
+        } else {
+            for (Engine p: parts) p.launch();
+        }
+    }
+
+    /** Run the simulation until a limit is reached or no events remain.
+     *  The limits on events and real time are checked between windows, so
+     *  a run may go a little past them.
+     *  Anything one of the threads throws stops them all, and this throws
+     *  it once they have; reset the engine before running it again.
+     *  @param limits the limits on this run
+     *  @return a summary of the run
+     *  @see Engine#run(Simulator.Limits)
+     */
+    public Simulator.Summary run( Simulator.Limits limits ) {
+        if (parts == null) return whole.run( limits );
+        Metrics.Run m = Metrics.run( "parallel", null );
+        Simulator.Summary s = runWindows( limits );
+        if (Metrics.ENABLED) for (Engine p: parts) p.flushMetrics();
+        return m.end( s );
+    }
+
+    /** run the parts, for run(Limits)
+     *  @param limits the limits on this run
+     *  @return a summary of the run
+     */
+    private Simulator.Summary runWindows( Simulator.Limits limits ) {
+        count = 0;
+        result = null;
+        long started = limits.start();
+        long[] counts = new long[parts.length];
+
+        CyclicBarrier windowStart = new CyclicBarrier( parts.length, () -> {
+            long total = 0;
+            for (long c: counts) total = total + c;
+            count = total;
+            startWindow( limits, started );
+        } );
+        CyclicBarrier windowEnd = new CyclicBarrier( parts.length, () -> {
+            mergeChanges();
+        } );
+
+        Thread[] pool = new Thread[parts.length - 1];
+        for (int i = 0; i < pool.length; i++) {
+            int part = i + 1;
+            pool[i] = new Thread(
+                    () -> work( part, limits, counts, windowStart, windowEnd ),
+                    "part-" + part
+            );
+            pool[i].start();
+        }
+        work( 0, limits, counts, windowStart, windowEnd );
+        joinAll( pool, limits );
+
+        Throwable t = failure;
+        failure = null;
+        if (t instanceof RuntimeException) throw (RuntimeException)t;
+        if (t instanceof Error) throw (Error)t;
+        if (t != null) throw new IllegalStateException( t );
+        if (result == null) { // interrupted
+            result = new Simulator.Summary( count, time, Simulator.Stop.CANCELLED );
+        }
+        return result;
+    }
+
+    /** wait for every thread of a pool to finish, even if interrupted;
+     *  an interrupt cancels the run and is kept for the caller to see
+     *  @param pool the threads
+     *  @param limits the limits on the run the threads are doing
+     */
+    static void joinAll( Thread[] pool, Simulator.Limits limits ) {
+        boolean interrupted = false;
+        for (Thread p: pool) {
+            for (;;) {
+                try {
+                    p.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    limits.cancel();
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** the work of one thread, simulating one part
+     *  @param i the part
+     *  @param limits the limits on the run
+     *  @param counts the number of events simulated by each part
+     *  @param windowStart where the threads wait to start a window
+     *  @param windowEnd where the threads wait at the end of a window
+     */
+    private void work( int i, Simulator.Limits limits, long[] counts,
+                       CyclicBarrier windowStart, CyclicBarrier windowEnd ) {
+        Engine part = parts[i];
+        long endTime = Simulator.ticks( limits.endTime );
+        try {
+            for (;;) {
+                windowStart.await();
+                if (result != null) return;
+                counts[i] += part.runWindow( windowLimit, endTime );
+                windowEnd.await();
+                for (Engine from: parts) if (from != part) part.receive( from );
+            }
+        } catch (Throwable t) {
+            // whatever stops one thread must stop them all, not leave them
+            // waiting at a barrier; the calling thread throws it again
+            if (t instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            } else if (!(t instanceof BrokenBarrierException)) {
+                synchronized (this) {
+                    if (failure == null) failure = t;
+                }
+            }
+            limits.cancel();
+            windowStart.reset();
+            windowEnd.reset();
+        }
+    }
+
+    /** decide the next window, or that the run is over
+     *  @param limits the limits on the run
+     *  @param started what limits.start() returned when the run started
+     */
+    private void startWindow( Simulator.Limits limits, long started ) {
+        long first = Long.MAX_VALUE;
+        for (Engine p: parts) first = Math.min( first, p.next() );
+
+        if (count >= limits.maxEvents) {
+            result = new Simulator.Summary( count, time, Simulator.Stop.EVENT_LIMIT );
+        } else if (limits.isCancelled()) {
+            result = new Simulator.Summary( count, time, Simulator.Stop.CANCELLED );
+        } else if (limits.expired( started )) {
+            result = new Simulator.Summary( count, time, Simulator.Stop.WALL_TIME );
+        } else if (first == Long.MAX_VALUE) {
+            result = new Simulator.Summary( count, time, Simulator.Stop.EMPTY );
+        } else if (first > Simulator.ticks( limits.endTime )) {
+            result = new Simulator.Summary( count, time, Simulator.Stop.END_TIME );
+        } else {
+            // no wire between parts means no end to the window
+            windowLimit = (lookahead > Long.MAX_VALUE - first) ? Long.MAX_VALUE
+                        : first + lookahead;
+        }
+    }
+
+    /** report the changes of one window to the trace in order
+     */
+    private void mergeChanges() {
+        int[] at = new int[logs.length];
+        for (;;) {
+            int best = -1;
+            for (int i = 0; i < logs.length; i++) {
+                Log l = logs[i];
+                if (at[i] == l.size) continue;
+                if ((best < 0) || before( l, at[i], logs[best], at[best] )) best = i;
+            }
+            if (best < 0) break;
+            Log l = logs[best];
+            int k = at[best]++;
+            trace.change( l.times[k], l.signals[k], l.values[k] );
+        }
+        for (int i = 0; i < parts.length; i++) {
+            logs[i].size = 0;
+            if (parts[i].last() > time) time = parts[i].last();
+        }
+    }
+
+    /** @return true if change i of log a comes before change j of log b
+     */
+    private static boolean before( Log a, int i, Log b, int j ) {
+        if (a.times[i] != b.times[j]) return a.times[i] < b.times[j];
+        return a.keys[i] < b.keys[j];
+    }
+} // class ParallelEngine
+
+/** LevelizedEngine.java
+ * Levelized simulation of a Netlist without feedback
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+/** Simulates a netlist without feedback one gate at a time, instead of
+ *  one event at a time.  The gates are taken once each in the order found
+ *  by Levelizer, so every gate comes after the gates driving it and the
+ *  complete list of output changes of each of those is already known.  A
+ *  gate is simulated by merging the changes arriving on its input wires,
+ *  delayed by the wires, with its own output events, which takes one or
+ *  two events to compare instead of a queue of every event in the circuit.
+ *  The changes of all the gates are merged in order of time at the end
+ *  for the trace.
+ *
+ *  The events of each gate are ordered and its delays chosen as in a
+ *  keyed Engine, which depend only on the events that gate has seen, so
+ *  the trace and the summary are the same as those of a keyed Engine or a
+ *  ParallelEngine.  Limits on the number of events and on real time are
+ *  checked between gates, so they stop a run after the gate that reaches
+ *  them, with only the changes of the gates simulated so far in the trace.
+ *
+ *  For the same reason, the changes of a gate depend only on the gate,
+ *  its input wires and the changes of the gates driving them.  So after
+ *  a small edit to a circuit, a run can be given the Waveforms of a run
+ *  of the circuit before the edit, and only the gates that differ and
+ *  those they drive, directly or indirectly, are simulated again.  The
+ *  changes of every other gate are copied from the earlier run, and the
+ *  trace and summary are those of simulating the edited circuit afresh.
+ *  @see Levelizer
+ *  @see Engine
+ */
+final class LevelizedEngine {
+    // bits of the state of the gate being simulated, as in Engine, whose
+    // inputs are kept apart
+    private static final int VALUE = 4;
+    private static final int OUT = 8;
+
+    private final Engine lowered;  // the netlist as a keyed engine has it
+    private final int[] order;     // the gates, each after its drivers
+    private final Trace trace;
+    private final long seed;
+    private boolean inertial = false;
+
+    // the wires driving gate g are numbered from inStart[g] to inStart[g + 1]
+    private final int[] inStart;
+    private final int[] inSrc;     // the gate driving the wire
+    private final int[] inWire;    // its number in the lowered fanout
+    private final int[] at;        // the next change each wire delivers
+
+    // the output changes of gate g, numbered from changeStart[g] to changeEnd[g]
+    private final int[] changeStart;
+    private final int[] changeEnd;
+    private long[] changeTime;     // in ticks
+    private boolean[] changeValue;
+    private long[] changeKey;      // the key of the output event
+    private int[] changeMade;      // events the gate made before its fanout
+    private int changes = 0;
+
+    // the pending output events of the gate being simulated
+    private long[] ownTime = new long[4];
+    private long[] ownKey = new long[4];
+    private int owned = 0;
+
+    // a hash of everything the changes of each gate depend on but its inputs
+    private final long[] signature;
+
+    // what the last run found for each gate
+    private final long[] events;   // the number of events simulated
+    private final long[] last;     // the time of the last of them
+    private final boolean[] late;  // true if an event came after the end time
+
+    // what the last run found
+    private long time;             // the time of the last event simulated
+    private boolean beyond;        // true if an event came after the end time
+    private long endTime;          // the end time it was given, in ticks
+    private boolean complete;      // false if a limit stopped it early
+    private int resimulated;       // the number of gates simulated
+
+    /** levelize a netlist; reports feedback through {@link Errors#fatal(String)}
+     *  @param n the netlist, already known to be sane
+     *  @param trace where output changes are reported
+     *  @param seed the seed for gate delay jitter
+     */
+    public LevelizedEngine( Netlist n, Trace trace, long seed ) {
+        Levelizer levelizer = new Levelizer( n );
+        if (!levelizer.acyclic()) {
+            Errors.fatal( "Levelized simulation needs a circuit without feedback: gate "
+                        + n.name( levelizer.firstLoopGate() ) + " is one of "
+                        + levelizer.loopGates() + " gates in loops" );
+        }
+        this.trace = trace;
+        this.seed = seed;
+        order = levelizer.order();
+        lowered = new Engine( n, trace, seed, true );
+
+        // invert the lowered fanout
+        int gates = n.gates();
+        int wires = lowered.fanStart( gates );
+        inStart = new int[gates + 1];
+        for (int i = 0; i < wires; i++) inStart[lowered.fanDst( i ) + 1]++;
+        for (int g = 0; g < gates; g++) inStart[g + 1] += inStart[g];
+        inSrc = new int[wires];
+        inWire = new int[wires];
+        at = new int[wires];
+        int[] fill = Arrays.copyOf( inStart, gates );
+        for (int g = 0; g < gates; g++) {
+            for (int i = lowered.fanStart( g ); i < lowered.fanStart( g + 1 ); i++) {
+                int j = fill[lowered.fanDst( i )]++;
+                inSrc[j] = g;
+                inWire[j] = i;
+            }
+        }
+
+        signature = new long[gates];
+        for (int g = 0; g < gates; g++) {
+            long h = mix( mix( mix( seed, n.name( g ).hashCode() ), lowered.kind( g ) ),
+                          Float.floatToIntBits( lowered.delay( g ) ) );
+            h = mix( h, lowered.fanStart( g + 1 ) - lowered.fanStart( g ) );
+            for (int j = inStart[g]; j < inStart[g + 1]; j++) {
+                int i = inWire[j];
+                h = mix( mix( h, inSrc[j] ), i - lowered.fanStart( inSrc[j] ) );
+                h = mix( mix( h, lowered.fanPin( i ) ), lowered.fanDelay( i ) );
+            }
+            signature[g] = h;
+        }
+        events = new long[gates];
+        last = new long[gates];
+        late = new boolean[gates];
+
+        changeStart = new int[gates];
+        changeEnd = new int[gates];
+        int capacity = Math.max( 16, gates * 2 );
+        changeTime = new long[capacity];
+        changeValue = new boolean[capacity];
+        changeKey = new long[capacity];
+        changeMade = new int[capacity];
+    }
+
+    /** Choose how gates delay changes, as in Engine
+     *  @param on true for inertial delay, false for transport delay
+     */
+    public void useInertialDelay( boolean on ) {
+        inertial = on;
+    }
+
+    /** @param g a gate
+     *  @return the value of its output after the last run
+     */
+    public boolean value( int g ) {
+        int end = changeEnd[g];
+        return (end > changeStart[g]) && changeValue[end - 1];
+    }
+
+    /** Simulate the circuit from the start until a limit is reached or no
+     *  events remain, then trace the output changes
+     *  @param limits the limits on this run
+     *  @return a summary of the run
+     *  @see Simulator#run(Simulator.Limits)
+     */
+    public Simulator.Summary run( Simulator.Limits limits ) {
+        return run( limits, null );
+    }
+
+    /** Simulate the circuit as run(limits) does, copying the changes of
+     *  the gates that are the same as in an earlier run instead of
+     *  simulating them again
+     *  @param limits the limits on this run
+     *  @param previous the waveforms of the earlier run, or null for none;
+     *                  they are of no use unless the seed, the delay and
+     *                  the end time are the same, and that run was complete
+     *  @return a summary of the run
+     *  @see #waveforms()
+     */
+    public Simulator.Summary run( Simulator.Limits limits, Waveforms previous ) {
+        Metrics.Run m = Metrics.run( "levelized", null );
+        long count = 0;
+        long started = limits.start();
+        endTime = Simulator.ticks( limits.endTime );
+        boolean[] changed = changed( previous, endTime );
+        changes = 0;
+        Arrays.fill( changeStart, 0 );
+        Arrays.fill( changeEnd, 0 );
+        time = 0;
+        beyond = false;
+        resimulated = 0;
+
+        Simulator.Stop stop = null;
+        for (int g: order) {
+            if (count >= limits.maxEvents) {
+                stop = Simulator.Stop.EVENT_LIMIT;
+            } else if (limits.isCancelled()) {
+                stop = Simulator.Stop.CANCELLED;
+            } else if (limits.expired( started )) {
+                stop = Simulator.Stop.WALL_TIME;
+            }
+            if (stop != null) break;
+            if ((changed == null) || changed[g]) {
+                events[g] = simulate( g, endTime );
+                if (Metrics.ENABLED) Metrics.fired( events[g] );
+                resimulated++;
+            } else {
+                copy( g, previous );
+            }
+            count = count + events[g];
+            if (last[g] > time) time = last[g];
+            beyond = beyond | late[g];
+        }
+        complete = stop == null;
+        if (stop == null) {
+            stop = beyond ? Simulator.Stop.END_TIME : Simulator.Stop.EMPTY;
+        }
+        traceChanges();
+        return m.end( new Simulator.Summary( count, time, stop ) );
+    }
+
+    /** @return the number of gates the last run simulated, instead of
+     *          copying their changes from an earlier run
+     */
+    public int resimulated() {
+        return resimulated;
+    }
+
+    /** find the gates whose changes may differ from those of an earlier run
+     *  @param p the waveforms of that run, or null
+     *  @param endTime the end time of this run, in ticks
+     *  @return true for each gate that differs or is driven by one that
+     *          does, or null if every gate must be simulated
+     */
+    private boolean[] changed( Waveforms p, long endTime ) {
+        if ((p == null) || !p.complete || (p.inertial != inertial)) return null;
+        if (p.ticksPerSecond != Simulator.ticksPerSecond()) return null;
+        if (p.endTime != endTime) {
+            // a different end time cuts off no changes if none came after either
+            for (boolean l: p.late) if (l) return null;
+            for (long t: p.last) if (t > endTime) return null;
+        }
+        boolean[] changed = new boolean[signature.length];
+        for (int g: order) {
+            boolean c = (g >= p.signature.length) || (p.signature[g] != signature[g]);
+            for (int j = inStart[g]; !c && (j < inStart[g + 1]); j++) {
+                c = changed[inSrc[j]];
+            }
+            changed[g] = c;
+        }
+        return changed;
+    }
+
+    /** take the changes of one gate from an earlier run
+     *  @param g the gate, known to be the same in both runs
+     *  @param p the waveforms of that run
+     */
+    private void copy( int g, Waveforms p ) {
+        int from = p.changeStart[g];
+        int n = p.changeEnd[g] - from;
+        while (changes + n > changeTime.length) grow();
+        System.arraycopy( p.changeTime, from, changeTime, changes, n );
+        System.arraycopy( p.changeValue, from, changeValue, changes, n );
+        System.arraycopy( p.changeKey, from, changeKey, changes, n );
+        System.arraycopy( p.changeMade, from, changeMade, changes, n );
+        changeStart[g] = changes;
+        changes = changes + n;
+        changeEnd[g] = changes;
+        events[g] = p.events[g];
+        last[g] = p.last[g];
+        late[g] = p.late[g];
+    }
+
+    /** @return a copy of the changes of every gate found by the last run,
+     *          for a later run of the circuit after an edit
+     */
+    public Waveforms waveforms() {
+        int gates = signature.length;
+        Waveforms w = new Waveforms( gates, changes );
+        w.inertial = inertial;
+        w.ticksPerSecond = Simulator.ticksPerSecond();
+        w.endTime = endTime;
+        w.complete = complete;
+        System.arraycopy( signature, 0, w.signature, 0, gates );
+        System.arraycopy( events, 0, w.events, 0, gates );
+        System.arraycopy( last, 0, w.last, 0, gates );
+        System.arraycopy( late, 0, w.late, 0, gates );
+        System.arraycopy( changeStart, 0, w.changeStart, 0, gates );
+        System.arraycopy( changeEnd, 0, w.changeEnd, 0, gates );
+        System.arraycopy( changeTime, 0, w.changeTime, 0, changes );
+        System.arraycopy( changeValue, 0, w.changeValue, 0, changes );
+        System.arraycopy( changeKey, 0, w.changeKey, 0, changes );
+        System.arraycopy( changeMade, 0, w.changeMade, 0, changes );
+        return w;
+    }
+
+    /** simulate every event of one gate, all of its drivers being done,
+     *  noting the time of the last and whether any came after the end time
+     *  @param g the gate
+     *  @param endTime events must come no later than this time, in ticks
+     *  @return the number of events simulated
+     */
+    private long simulate( int g, long endTime ) {
+        byte kind = lowered.kind( g );
+        int inputs = lowered.inputs( g );
+        int fanout = lowered.fanStart( g + 1 ) - lowered.fanStart( g );
+        int made = 0;      // events made by this gate, as counted by Engine
+        int s = 0;
+        long in = 0;       // the inputs, bit pin - 1 for pin in<i>pin</i>
+        long count = 0;
+        owned = 0;
+        last[g] = 0;
+        late[g] = false;
+        changeStart[g] = changeEnd[g] = changes;
+        if ((kind != Netlist.CONST) && Netlist.value( kind, 0, inputs )) s = VALUE;
+        if ((s != 0) || (kind == Netlist.CONST)) {
+            own( lowered.launchTime( g ), key( g, made++ ) );
+        }
+        for (int j = inStart[g]; j < inStart[g + 1]; j++) at[j] = changeStart[inSrc[j]];
+
+        for (;;) {
+            // the first input change still to come
+            int input = -1;
+            long t = Long.MAX_VALUE;
+            long k = Long.MAX_VALUE;
+            for (int j = inStart[g]; j < inStart[g + 1]; j++) {
+                int src = inSrc[j];
+                int c = at[j];
+                if (c == changeEnd[src]) continue;
+                int i = inWire[j];
+                long ct = changeTime[c] + lowered.fanDelay( i );
+                long ck = key( src, changeMade[c] + (i - lowered.fanStart( src )) );
+                if ((ct < t) || ((ct == t) && (ck < k))) {
+                    input = j;
+                    t = ct;
+                    k = ck;
+                }
+            }
+
+            // or the first output event, if that comes sooner
+            int output = -1;
+            for (int o = 0; o < owned; o++) {
+                if ((ownTime[o] < t) || ((ownTime[o] == t) && (ownKey[o] < k))) {
+                    output = o;
+                    t = ownTime[o];
+                    k = ownKey[o];
+                }
+            }
+
+            if ((input < 0) && (output < 0)) return count;
+            if (t > endTime) {
+                late[g] = true;
+                return count;
+            }
+            count = count + 1;
+            if (t > last[g]) last[g] = t;
+
+            if (output >= 0) {
+                owned--;
+                ownTime[output] = ownTime[owned];
+                ownKey[output] = ownKey[owned];
+                boolean value;
+                if (kind == Netlist.CONST) {
+                    value = true;
+                    s = OUT;
+                } else {
+                    value = (s & VALUE) != 0;
+                    if (value == ((s & OUT) != 0)) continue; // no actual change
+                    s = s ^ OUT;
+                }
+                record( g, t, value, k, made );
+                if (Metrics.ENABLED) Metrics.fanout( fanout );
+                made = made + fanout;
+                continue;
+            }
+
+            int c = at[input]++;
+            boolean v = changeValue[c];
+            boolean value;
+            if (kind == Netlist.NOT) {
+                s = v ? (s & ~VALUE) : (s | VALUE);
+            } else {
+                long bit = 1L << (lowered.fanPin( inWire[input] ) - 1);
+                in = v ? (in | bit) : (in & ~bit);
+                value = Netlist.value( kind, Long.bitCount( in ), inputs );
+                if (value == ((s & VALUE) != 0)) continue;
+                s = s ^ VALUE;
+            }
+
+            // the value changed, so schedule an output change as Engine does
+            if (inertial) {
+                owned = 0;
+                if (((s & VALUE) != 0) == ((s & OUT) != 0)) continue;
+            }
+            float d = lowered.delay( g );
+            float r = Engine.hashFloat( seed, g, made );
+            own( t + Simulator.ticks( (d * 0.95f) + (r * (d * 0.1f)) ), key( g, made++ ) );
+        }
+    }
+
+    /** @param g a gate
+     *  @param n a count of the events it has made
+     *  @return the key Engine gives the event
+     */
+    private static long key( int g, int n ) {
+        return ((long)g << 32) | (n & 0xFFFFFFFFL);
+    }
+
+    /** schedule an output event of the gate being simulated
+     *  @param t the time, in ticks
+     *  @param k the key
+     */
+    private void own( long t, long k ) {
+        if (owned == ownTime.length) {
+            ownTime = Arrays.copyOf( ownTime, owned * 2 );
+            ownKey = Arrays.copyOf( ownKey, owned * 2 );
+        }
+        ownTime[owned] = t;
+        ownKey[owned] = k;
+        owned++;
+    }
+
+    /** add an output change to the changes of a gate
+     *  @param g the gate
+     *  @param t the time, in ticks
+     *  @param value the new value
+     *  @param k the key of the output event
+     *  @param made the events the gate made before
+     */
+    private void record( int g, long t, boolean value, long k, int made ) {
+        if (changes == changeTime.length) grow();
+        changeTime[changes] = t;
+        changeValue[changes] = value;
+        changeKey[changes] = k;
+        changeMade[changes] = made;
+        changes++;
+        changeEnd[g] = changes;
+    }
+
+    /** double the space for output changes
+     */
+    private void grow() {
+        int capacity = changeTime.length * 2;
+        changeTime = Arrays.copyOf( changeTime, capacity );
+        changeValue = Arrays.copyOf( changeValue, capacity );
+        changeKey = Arrays.copyOf( changeKey, capacity );
+        changeMade = Arrays.copyOf( changeMade, capacity );
+    }
+
+    /** @param h a hash
+     *  @param x a value to add to it
+     *  @return the new hash
+     */
+    private static long mix( long h, long x ) {
+        h = (h ^ x) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /** report the output changes of every gate to the trace, merged in
+     *  order of time and key with a heap of the gates that have changes left
+     */
+    private void traceChanges() {
+        if (trace instanceof NullTrace) return;
+        int gates = changeStart.length;
+        int[] next = Arrays.copyOf( changeStart, gates );
+        int[] heap = new int[gates];
+        int size = 0;
+        for (int g = 0; g < gates; g++) {
+            if (next[g] < changeEnd[g]) heap[size++] = g;
+        }
+        for (int i = (size / 2) - 1; i >= 0; i--) siftDown( heap, size, i, next );
+        while (size > 0) {
+            int g = heap[0];
+            int c = next[g]++;
+            trace.change( changeTime[c], g, changeValue[c] );
+            if (next[g] == changeEnd[g]) heap[0] = heap[--size];
+            siftDown( heap, size, 0, next );
+        }
+    }
+
+    /** restore the heap order below one entry
+     *  @param heap gates ordered by their next change
+     *  @param size the number of gates in the heap
+     *  @param i the entry that may be out of order
+     *  @param next the next change of each gate
+     */
+    private void siftDown( int[] heap, int size, int i, int[] next ) {
+        int g = heap[i];
+        for (;;) {
+            int child = (2 * i) + 1;
+            if (child >= size) break;
+            if ((child + 1 < size) && before( next[heap[child + 1]], next[heap[child]] )) {
+                child++;
+            }
+            if (!before( next[heap[child]], next[g] )) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = g;
+    }
+
+    /** @return true if change a comes before change b
+     */
+    private boolean before( int a, int b ) {
+        if (changeTime[a] != changeTime[b]) return changeTime[a] < changeTime[b];
+        return changeKey[a] < changeKey[b];
+    }
+
+    /** The output changes of every gate found by a run of a LevelizedEngine,
+     *  with what is needed to tell which of them a run of an edited circuit
+     *  can use.  A waveform file begins with LGWV and a version number,
+     *  then the numbers of gates and changes, whether gates used inertial
+     *  delay, the number of ticks in a second, the end time in ticks and
+     *  whether the run was complete.  Then come,
+     *  for each gate, the signature of the gate and its inputs, its number
+     *  of events, the time of the last, whether any came after the end time
+     *  and where its changes start and end; then the time, value, key and
+     *  fanout count of every change.  All numbers are little endian.
+     */
+    public static final class Waveforms {
+        public static final byte[] MAGIC = { 'L', 'G', 'W', 'V' };
+        public static final int VERSION = 2;
+
+        boolean inertial;
+        long ticksPerSecond;
+        long endTime;
+        boolean complete;
+
+        // indexed by gate
+        final long[] signature;
+        final long[] events;
+        final long[] last;
+        final boolean[] late;
+        final int[] changeStart;
+        final int[] changeEnd;
+
+        // indexed by change
+        final long[] changeTime;
+        final boolean[] changeValue;
+        final long[] changeKey;
+        final int[] changeMade;
+
+        /** @param gates the number of gates
+         *  @param changes the number of changes
+         */
+        private Waveforms( int gates, int changes ) {
+            signature = new long[gates];
+            events = new long[gates];
+            last = new long[gates];
+            late = new boolean[gates];
+            changeStart = new int[gates];
+            changeEnd = new int[gates];
+            changeTime = new long[changes];
+            changeValue = new boolean[changes];
+            changeKey = new long[changes];
+            changeMade = new int[changes];
+        }
+
+        /** write these waveforms to a file, through a temporary file that
+         *  is renamed when complete
+         *  @param f the file
+         *  @throws IOException if the file can't be written
+         */
+        public void write( File f ) throws IOException {
+            int gates = signature.length;
+            int changes = changeTime.length;
+            long size = 4 + 4 + 4 + 4 + 1 + 8 + 8 + 1
+                      + (8L + 8 + 8 + 1 + 4 + 4) * gates
+                      + (8L + 1 + 8 + 4) * changes;
+            if (size > Integer.MAX_VALUE) {
+                // Bug: waveforms over 2 GB need more than one buffer
+                throw new IOException( "waveforms too big to save" );
+            }
+            ByteBuffer b = ByteBuffer.allocate( (int)size ).order( ByteOrder.LITTLE_ENDIAN );
+            b.put( MAGIC ).putInt( VERSION ).putInt( gates ).putInt( changes );
+            b.put( (byte)(inertial ? 1 : 0) ).putLong( ticksPerSecond ).putLong( endTime );
+            b.put( (byte)(complete ? 1 : 0) );
+            b.asLongBuffer().put( signature );
+            b.position( b.position() + 8 * gates );
+            b.asLongBuffer().put( events );
+            b.position( b.position() + 8 * gates );
+            b.asLongBuffer().put( last );
+            b.position( b.position() + 8 * gates );
+            for (boolean l: late) b.put( (byte)(l ? 1 : 0) );
+            b.asIntBuffer().put( changeStart );
+            b.position( b.position() + 4 * gates );
+            b.asIntBuffer().put( changeEnd );
+            b.position( b.position() + 4 * gates );
+            b.asLongBuffer().put( changeTime );
+            b.position( b.position() + 8 * changes );
+            for (boolean v: changeValue) b.put( (byte)(v ? 1 : 0) );
+            b.asLongBuffer().put( changeKey );
+            b.position( b.position() + 8 * changes );
+            b.asIntBuffer().put( changeMade );
+            b.position( b.position() + 4 * changes );
+
+            b.flip();
+            File tmp = new File( f.getPath() + ".tmp" );
+            try (FileChannel c = FileChannel.open( tmp.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING )) {
+                while (b.hasRemaining()) c.write( b );
+            }
+            Files.move( tmp.toPath(), f.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+        }
+
+        /** read waveforms written by {@link #write(File)};
+         *  reports errors through {@link Errors#fatal(String)}
+         *  @param f the file
+         *  @return the waveforms
+         *  @throws IOException if the file can't be read
+         */
+        public static Waveforms load( File f ) throws IOException {
+            ByteBuffer b;
+            try (FileChannel c = FileChannel.open( f.toPath(), StandardOpenOption.READ )) {
+                b = c.map( FileChannel.MapMode.READ_ONLY, 0, c.size() );
+            }
+            b.order( ByteOrder.LITTLE_ENDIAN );
+            try {
+                byte[] magic = new byte[MAGIC.length];
+                b.get( magic );
+                if (!Arrays.equals( magic, MAGIC )) Errors.fatal(
+                        "Not a waveform file: " + f
+                );
+                int version = b.getInt();
+                if (version != VERSION) Errors.fatal(
+                        "Waveform file version " + version + " is not " + VERSION
+                );
+                int gates = b.getInt();
+                int changes = b.getInt();
+                Waveforms w = new Waveforms( gates, changes );
+                w.inertial = b.get() != 0;
+                w.ticksPerSecond = b.getLong();
+                w.endTime = b.getLong();
+                w.complete = b.get() != 0;
+                b.asLongBuffer().get( w.signature );
+                b.position( b.position() + 8 * gates );
+                b.asLongBuffer().get( w.events );
+                b.position( b.position() + 8 * gates );
+                b.asLongBuffer().get( w.last );
+                b.position( b.position() + 8 * gates );
+                for (int g = 0; g < gates; g++) w.late[g] = b.get() != 0;
+                b.asIntBuffer().get( w.changeStart );
+                b.position( b.position() + 4 * gates );
+                b.asIntBuffer().get( w.changeEnd );
+                b.position( b.position() + 4 * gates );
+                b.asLongBuffer().get( w.changeTime );
+                b.position( b.position() + 8 * changes );
+                for (int c = 0; c < changes; c++) w.changeValue[c] = b.get() != 0;
+                b.asLongBuffer().get( w.changeKey );
+                b.position( b.position() + 8 * changes );
+                b.asIntBuffer().get( w.changeMade );
+
+                for (int g = 0; g < gates; g++) {
+                    if ((w.changeStart[g] < 0) || (w.changeStart[g] > w.changeEnd[g])
+                    ||  (w.changeEnd[g] > changes)) {
+                        throw new IndexOutOfBoundsException();
+                    }
+                }
+                return w;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException
+                   | NegativeArraySizeException e) {
+                Errors.fatal( "Waveform file is damaged: " + f );
+                return null; // never reached
+            }
+        }
+    }
+} // class LevelizedEngine
@@ -0,0 +1,272 @@
+/** Bridge.java
+ * Reflective access to the simulator from a named package
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+package bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/** The simulator's classes are package-private classes of the unnamed
+ *  package, which no other package can name, and JMH does not allow
+ *  benchmarks in the unnamed package.  Both are on the class path, in the
+ *  unnamed module, so the benchmarks reach the simulator through method
+ *  handles found by reflection.  The handles are looked up once, and the
+ *  calls they make are long, so they add nothing measurable.
+ */
+final class Bridge {
+    private static final MethodHandle READ;           // Logic.read( File )
+    private static final MethodHandle CLEAR;          // Logic.clear()
+    private static final MethodHandle BUILD;          // Logic.buildCircuit( Netlist )
+    private static final MethodHandle LAUNCH;         // Logic.launch()
+    private static final MethodHandle ERRORS;         // Errors.count()
+    private static final MethodHandle GATES;          // Netlist.gates()
+    private static final MethodHandle USE_EVENT_SET;  // Simulator.useEventSet( EventSet )
+    private static final MethodHandle CALENDAR;       // new CalendarQueue()
+    private static final MethodHandle RUN_OBJECTS;    // Simulator.run( Limits )
+    private static final MethodHandle SIMULATION;     // new Simulation( Netlist, Trace )
+    private static final MethodHandle NULL_TRACE;     // new NullTrace()
+    private static final MethodHandle SET_TRACE;      // Trace.current =
+    private static final MethodHandle RUN;            // Simulation.run( Limits )
+    private static final MethodHandle RESET;          // Simulation.reset( long )
+    private static final MethodHandle PARALLEL;       // new ParallelEngine( Netlist, Trace, long, int, boolean )
+    private static final MethodHandle PARALLEL_RESET; // ParallelEngine.reset( long )
+    private static final MethodHandle PARALLEL_LAUNCH; // ParallelEngine.launch()
+    private static final MethodHandle PARALLEL_RUN;   // ParallelEngine.run( Limits )
+    private static final MethodHandle LIMITS;         // new Simulator.Limits()
+    private static final MethodHandle MAX_EVENTS;     // Limits.maxEvents =
+    private static final MethodHandle EVENTS;         // Summary.events
+
+    static {
+        try {
+            Class <?> logic = Class.forName( "Logic" );
+            Class <?> netlist = Class.forName( "Netlist" );
+            Class <?> simulator = Class.forName( "Simulator" );
+            Class <?> eventSet = Class.forName( "Simulator$EventSet" );
+            Class <?> limits = Class.forName( "Simulator$Limits" );
+            Class <?> summary = Class.forName( "Simulator$Summary" );
+            Class <?> simulation = Class.forName( "Simulation" );
+            Class <?> trace = Class.forName( "Trace" );
+            READ = method( logic, "read", File.class );
+            CLEAR = method( logic, "clear" );
+            BUILD = method( logic, "buildCircuit", netlist );
+            LAUNCH = method( logic, "launch" );
+            ERRORS = method( Class.forName( "Errors" ), "count" );
+            GATES = method( netlist, "gates" );
+            USE_EVENT_SET = method( simulator, "useEventSet", eventSet );
+            CALENDAR = constructor( Class.forName( "CalendarQueue" ) );
+            RUN_OBJECTS = method( simulator, "run", limits );
+            SIMULATION = constructor( simulation, netlist, trace );
+            NULL_TRACE = constructor( Class.forName( "NullTrace" ) );
+            SET_TRACE = setter( trace, "current" );
+            RUN = method( simulation, "run", limits );
+            RESET = method( simulation, "reset", long.class );
+            Class <?> parallel = Class.forName( "ParallelEngine" );
+            PARALLEL = constructor( parallel, netlist, trace, long.class, int.class,
+                                    boolean.class );
+            PARALLEL_RESET = method( parallel, "reset", long.class );
+            PARALLEL_LAUNCH = method( parallel, "launch" );
+            PARALLEL_RUN = method( parallel, "run", limits );
+            LIMITS = constructor( limits );
+            MAX_EVENTS = setter( limits, "maxEvents" );
+            EVENTS = getter( summary, "events" );
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError( e );
+        }
+    }
+
+    private Bridge() {}
+
+    private static MethodHandle method( Class <?> c, String name, Class <?> ... params )
+            throws ReflectiveOperationException {
+        Method m = c.getDeclaredMethod( name, params );
+        m.setAccessible( true );
+        return MethodHandles.lookup().unreflect( m );
+    }
+
+    private static MethodHandle constructor( Class <?> c, Class <?> ... params )
+            throws ReflectiveOperationException {
+        Constructor <?> k = c.getDeclaredConstructor( params );
+        k.setAccessible( true );
+        return MethodHandles.lookup().unreflectConstructor( k );
+    }
+
+    private static MethodHandle setter( Class <?> c, String name )
+            throws ReflectiveOperationException {
+        Field f = c.getDeclaredField( name );
+        f.setAccessible( true );
+        return MethodHandles.lookup().unreflectSetter( f );
+    }
+
+    private static MethodHandle getter( Class <?> c, String name )
+            throws ReflectiveOperationException {
+        Field f = c.getDeclaredField( name );
+        f.setAccessible( true );
+        return MethodHandles.lookup().unreflectGetter( f );
+    }
+
+    /** wrap whatever a handle threw, since the simulator throws no checked
+     *  exceptions other than IOException
+     */
+    private static RuntimeException rethrow( Throwable t ) {
+        if (t instanceof RuntimeException) return (RuntimeException)t;
+        if (t instanceof Error) throw (Error)t;
+        return new IllegalStateException( t );
+    }
+
+    /** read and check a circuit, as Logic does
+     *  @param f the circuit file
+     *  @return the netlist
+     */
+    static Object read( File f ) {
+        try {
+            Object n = READ.invoke( f );
+            if ((int)ERRORS.invoke() > 0) {
+                throw new IllegalStateException( "Errors in circuit " + f );
+            }
+            return n;
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    /** @param netlist a netlist
+     *  @return the number of gates in it
+     */
+    static int gates( Object netlist ) {
+        try {
+            return (int)GATES.invoke( netlist );
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    /** build and launch the Gate and Wire objects of a netlist in Logic,
+     *  replacing any circuit and events left from before, with a trace
+     *  that reports nothing
+     *  @param netlist the netlist
+     */
+    static void buildObjects( Object netlist ) {
+        try {
+            SET_TRACE.invoke( NULL_TRACE.invoke() );
+            CLEAR.invoke();
+            USE_EVENT_SET.invoke( CALENDAR.invoke() );
+            BUILD.invoke( netlist );
+            LAUNCH.invoke();
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    /** forget the Gate and Wire objects in Logic
+     */
+    static void clearObjects() {
+        try {
+            CLEAR.invoke();
+            USE_EVENT_SET.invoke( CALENDAR.invoke() );
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    /** run the Gate and Wire objects with class Simulator
+     *  @param maxEvents the most events to simulate
+     *  @return the number of events simulated
+     */
+    static long runObjects( long maxEvents ) {
+        try {
+            return (long)EVENTS.invoke( RUN_OBJECTS.invoke( limits( maxEvents ) ) );
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    /** build a Simulation of a netlist that traces nothing
+     *  @param netlist the netlist
+     *  @return the simulation
+     */
+    static Object simulation( Object netlist ) {
+        try {
+            return SIMULATION.invoke( netlist, NULL_TRACE.invoke() );
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    /** put a Simulation back to its starting state
+     *  @param simulation the simulation
+     *  @param seed the seed for gate delay jitter
+     */
+    static void reset( Object simulation, long seed ) {
+        try {
+            RESET.invoke( simulation, seed );
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    /** run a Simulation
+     *  @param simulation the simulation
+     *  @param maxEvents the most events to simulate
+     *  @return the number of events simulated
+     */
+    static long run( Object simulation, long maxEvents ) {
+        try {
+            return (long)EVENTS.invoke( RUN.invoke( simulation, limits( maxEvents ) ) );
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    /** build a ParallelEngine of a netlist that traces nothing, with
+     *  transport delay
+     *  @param netlist the netlist
+     *  @param seed the seed for gate delay jitter
+     *  @param threads the number of threads it uses
+     *  @return the engine
+     */
+    static Object parallel( Object netlist, long seed, int threads ) {
+        try {
+            return PARALLEL.invoke( netlist, NULL_TRACE.invoke(), seed, threads, false );
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    /** put a ParallelEngine back to its starting state and launch it
+     *  @param engine the engine
+     *  @param seed the seed for gate delay jitter
+     */
+    static void relaunch( Object engine, long seed ) {
+        try {
+            PARALLEL_RESET.invoke( engine, seed );
+            PARALLEL_LAUNCH.invoke( engine );
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    /** run a ParallelEngine
+     *  @param engine the engine
+     *  @param maxEvents the most events to simulate, checked between windows
+     *  @return the number of events simulated
+     */
+    static long runParallel( Object engine, long maxEvents ) {
+        try {
+            return (long)EVENTS.invoke( PARALLEL_RUN.invoke( engine, limits( maxEvents ) ) );
+        } catch (Throwable t) {
+            throw rethrow( t );
+        }
+    }
+
+    private static Object limits( long maxEvents ) throws Throwable {
+        Object l = LIMITS.invoke();
+        MAX_EVENTS.invoke( l, maxEvents );
+        return l;
+    }
+}
@@ -0,0 +1,94 @@
+/** EventBenchmark.java
+ * Measure the events simulated per second
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures a run of up to EVENTS events from the start of a circuit,
+ *  with the Gate and Wire objects and class Simulator or with the Engine
+ *  of a Simulation.  The events counter gives the events per second; the
+ *  run count alone means little, since circuits without feedback may
+ *  run out of events sooner.
+ *  @see Workloads
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class EventBenchmark {
+    private static final long EVENTS = 1_000_000;
+    private static final long SEED = 29; // PRNG.SEED
+
+    @Param( { "adder", "rings", "dag", "fanout" } )
+    public String shape;
+
+    @Param( { "1000", "100000", "1000000" } )
+    public int gates;
+
+    @Param( { "objects", "compiled" } )
+    public String engine;
+
+    private Object netlist;
+    private Object simulation; // for the compiled engine
+
+    /** The count of events, reported per second
+     */
+    @AuxCounters( AuxCounters.Type.OPERATIONS )
+    @State( Scope.Thread )
+    public static class Events {
+        public long events;
+
+        @Setup( Level.Iteration )
+        public void clear() {
+            events = 0;
+        }
+    }
+
+    @Setup( Level.Trial )
+    public void read() {
+        netlist = Bridge.read( Workloads.circuit( shape, gates ) );
+        if ("compiled".equals( engine )) simulation = Bridge.simulation( netlist );
+    }
+
+    @Setup( Level.Invocation )
+    public void start() {
+        if (simulation != null) {
+            Bridge.reset( simulation, SEED );
+        } else {
+            Bridge.buildObjects( netlist );
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void forget() {
+        Bridge.clearObjects();
+    }
+
+    @Benchmark
+    public void run( Events counter ) {
+        if (simulation != null) {
+            counter.events += Bridge.run( simulation, EVENTS );
+        } else {
+            counter.events += Bridge.runObjects( EVENTS );
+        }
+    }
+}
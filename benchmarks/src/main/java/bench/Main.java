@@ -0,0 +1,30 @@
+/** Main.java
+ * Run the benchmarks with JSON results
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+package bench;
+
+import java.util.Arrays;
+
+/** Runs JMH as its own Main does, but writes the results as JSON to
+ *  jmh-result.json unless the -rf option says otherwise, so
+ *  results can be kept and compared from run to run.
+ *  Run with: java -jar benchmarks/target/benchmarks.jar [JMH options]
+ */
+public final class Main {
+    private Main() {}
+
+    /** Main program
+     * @param args JMH command line options
+     * @throws Exception if JMH fails
+     */
+    public static void main( String[] args ) throws Exception {
+        if (!Arrays.asList( args ).contains( "-rf" )) {
+            String[] json = Arrays.copyOf( new String[] { "-rf", "json" }, args.length + 2 );
+            System.arraycopy( args, 0, json, 2, args.length );
+            args = json;
+        }
+        org.openjdk.jmh.Main.main( args );
+    }
+}
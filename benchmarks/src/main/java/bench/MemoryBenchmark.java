@@ -0,0 +1,81 @@
+/** MemoryBenchmark.java
+ * Measure the memory each engine needs per gate
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+package bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the heap an engine keeps for a circuit, beyond its Netlist,
+ *  divided by the number of gates: the Gate and Wire objects and the
+ *  initial events for the objects engine, and the lowered arrays of an
+ *  Engine for the compiled one.  The heap is measured after collecting
+ *  garbage, so the bytesPerGate counter is only as exact as
+ *  Runtime.totalMemory() - freeMemory(); its time means nothing.
+ *  @see Workloads
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.SingleShotTime )
+@Warmup( iterations = 1 )
+@Measurement( iterations = 3 )
+@Fork( 1 )
+public class MemoryBenchmark {
+    @Param( { "adder", "rings", "dag", "fanout" } )
+    public String shape;
+
+    @Param( { "1000", "100000", "1000000" } )
+    public int gates;
+
+    @Param( { "objects", "compiled" } )
+    public String engine;
+
+    private Object netlist;
+
+    /** The bytes per gate of the one build in each iteration
+     */
+    @AuxCounters( AuxCounters.Type.EVENTS )
+    @State( Scope.Thread )
+    public static class Footprint {
+        public double bytesPerGate;
+    }
+
+    @Setup( Level.Trial )
+    public void read() {
+        netlist = Bridge.read( Workloads.circuit( shape, gates ) );
+    }
+
+    @Benchmark
+    public Object build( Footprint footprint ) {
+        long before = used();
+        Object built = null;
+        if ("compiled".equals( engine )) {
+            built = Bridge.simulation( netlist );
+        } else {
+            Bridge.buildObjects( netlist );
+        }
+        long after = used();
+        footprint.bytesPerGate = (double)(after - before) / Bridge.gates( netlist );
+        Bridge.clearObjects();
+        return built;
+    }
+
+    /** @return the bytes of heap in use, after collecting garbage
+     */
+    private static long used() {
+        Runtime r = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return r.totalMemory() - r.freeMemory();
+    }
+}
@@ -0,0 +1,82 @@
+/** ParallelBenchmark.java
+ * Measure how the parallel engine scales with threads
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures a run of a ParallelEngine of up to EVENTS events from the
+ *  start of a circuit, with each number of threads, so the events per
+ *  second of one thread, where the engine is a keyed Engine, can be
+ *  compared with those of more.  Give -p threads=... to measure up to the
+ *  number of cores of the machine; threads beyond it only add waiting at
+ *  the barriers.  The limit on events is checked between windows, so a
+ *  run may go a little past it, which the events counter includes.
+ *  @see EventBenchmark
+ *  @see Workloads
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class ParallelBenchmark {
+    private static final long EVENTS = 1_000_000;
+    private static final long SEED = 29; // PRNG.SEED
+
+    @Param( { "rings", "dag" } )
+    public String shape;
+
+    @Param( { "100000", "1000000" } )
+    public int gates;
+
+    @Param( { "1", "2", "4", "8" } )
+    public int threads;
+
+    private Object engine;
+
+    /** The count of events, reported per second
+     */
+    @AuxCounters( AuxCounters.Type.OPERATIONS )
+    @State( Scope.Thread )
+    public static class Events {
+        public long events;
+
+        @Setup( Level.Iteration )
+        public void clear() {
+            events = 0;
+        }
+    }
+
+    @Setup( Level.Trial )
+    public void read() {
+        Object netlist = Bridge.read( Workloads.circuit( shape, gates ) );
+        engine = Bridge.parallel( netlist, SEED, threads );
+    }
+
+    @Setup( Level.Invocation )
+    public void start() {
+        Bridge.relaunch( engine, SEED );
+    }
+
+    @Benchmark
+    public void run( Events counter ) {
+        counter.events += Bridge.runParallel( engine, EVENTS );
+    }
+}
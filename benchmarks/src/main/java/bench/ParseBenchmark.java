@@ -0,0 +1,51 @@
+/** ParseBenchmark.java
+ * Time reading and checking circuit files
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+package bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures Logic.read, which scans a text circuit, builds its gates and
+ *  wires, finding the gate each wire names with Logic.findGate, checks
+ *  it and lowers it to a Netlist.
+ *  @see Workloads
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class ParseBenchmark {
+    @Param( { "adder", "rings", "dag", "fanout" } )
+    public String shape;
+
+    @Param( { "1000", "100000", "1000000" } )
+    public int gates;
+
+    private File file;
+
+    @Setup
+    public void write() {
+        file = Workloads.circuit( shape, gates );
+    }
+
+    @Benchmark
+    public Object read() {
+        return Bridge.read( file );
+    }
+}
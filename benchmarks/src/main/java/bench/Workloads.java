@@ -0,0 +1,178 @@
+/** Workloads.java
+ * Synthetic circuits for the benchmarks
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+
+/** Writes circuit files of about a given number of gates in one of four
+ *  shapes, each with a fixed seed so every run measures the same circuit:
+ *  <ul>
+ *  <li> adder, a ripple-carry adder of and, or and not gates, 9 per bit,
+ *       adding two random numbers given by the pins of one const gate
+ *  <li> rings, ring oscillators of 7 not gates each, which never stop
+ *  <li> dag, random and, or and not gates, each driven by gates among
+ *       the 1000 declared before it
+ *  <li> fanout, a tree of not gates below one const gate, where every
+ *       gate drives 16 others
+ *  </ul>
+ *  Files are kept in logic-circuits under the temporary directory and
+ *  written only if they are missing, since large ones take a while.
+ */
+final class Workloads {
+    private static final long SEED = 29;
+    private static final int RING = 7;       // gates per ring oscillator
+    private static final int WINDOW = 1000;  // how far back dag gates look
+    private static final int FANOUT = 16;    // gates driven by each in fanout
+
+    private final BufferedWriter out;
+    private final Random random = new Random( SEED );
+
+    private Workloads( BufferedWriter out ) {
+        this.out = out;
+    }
+
+    /** find or write a circuit file
+     *  @param shape adder, rings, dag or fanout
+     *  @param gates about how many gates it should have
+     *  @return the file
+     */
+    static File circuit( String shape, int gates ) {
+        File dir = new File( System.getProperty( "java.io.tmpdir" ), "logic-circuits" );
+        File f = new File( dir, shape + "-" + gates + ".txt" );
+        if (f.exists()) return f;
+        File part = new File( dir, shape + "-" + gates + ".part" );
+        try {
+            Files.createDirectories( dir.toPath() );
+            try (BufferedWriter w = Files.newBufferedWriter(
+                    part.toPath(), StandardCharsets.US_ASCII
+            )) {
+                Workloads g = new Workloads( w );
+                switch (shape) {
+                case "adder":  g.adder( gates ); break;
+                case "rings":  g.rings( gates ); break;
+                case "dag":    g.dag( gates ); break;
+                case "fanout": g.fanout( gates ); break;
+                default: throw new IllegalArgumentException( "Unknown shape: " + shape );
+                }
+            }
+            Files.move( part.toPath(), f.toPath() );
+        } catch (IOException e) {
+            throw new UncheckedIOException( e );
+        }
+        return f;
+    }
+
+    private void gate( String name, String kind ) throws IOException {
+        out.write( String.format( Locale.ROOT, "gate %s %s %.2f%n",
+                name, kind, 0.5 + (2.5 * random.nextDouble())
+        ) );
+    }
+
+    private void wire( String src, String pin, String dst, String dstPin )
+            throws IOException {
+        out.write( String.format( Locale.ROOT, "wire %s %s %s %s %.2f%n",
+                src, pin, dst, dstPin, 0.1 + (1.9 * random.nextDouble())
+        ) );
+    }
+
+    /** a ripple-carry adder; each bit computes x = a xor b, s = x xor c
+     *  and the carry out a and b or x and c, xor being (p or q) and not
+     *  (p and q)
+     */
+    private void adder( int gates ) throws IOException {
+        gate( "k", "const" );
+        int bits = Math.max( 1, (gates - 1) / 9 );
+        String carry = "k";
+        String carryPin = "false";
+        for (int i = 0; i < bits; i++) {
+            String a = random.nextBoolean() ? "true" : "false";
+            String b = random.nextBoolean() ? "true" : "false";
+            gate( "o" + i, "or" );
+            gate( "a" + i, "and" );
+            gate( "n" + i, "not" );
+            gate( "x" + i, "and" );
+            gate( "p" + i, "or" );
+            gate( "q" + i, "and" );
+            gate( "m" + i, "not" );
+            gate( "s" + i, "and" );
+            gate( "r" + i, "or" );
+            wire( "k", a, "o" + i, "in1" );
+            wire( "k", b, "o" + i, "in2" );
+            wire( "k", a, "a" + i, "in1" );
+            wire( "k", b, "a" + i, "in2" );
+            wire( "a" + i, "out", "n" + i, "in" );
+            wire( "o" + i, "out", "x" + i, "in1" );
+            wire( "n" + i, "out", "x" + i, "in2" );
+            wire( "x" + i, "out", "p" + i, "in1" );
+            wire( carry, carryPin, "p" + i, "in2" );
+            wire( "x" + i, "out", "q" + i, "in1" );
+            wire( carry, carryPin, "q" + i, "in2" );
+            wire( "q" + i, "out", "m" + i, "in" );
+            wire( "p" + i, "out", "s" + i, "in1" );
+            wire( "m" + i, "out", "s" + i, "in2" );
+            wire( "a" + i, "out", "r" + i, "in1" );
+            wire( "q" + i, "out", "r" + i, "in2" );
+            carry = "r" + i;
+            carryPin = "out";
+        }
+    }
+
+    /** ring oscillators of not gates
+     */
+    private void rings( int gates ) throws IOException {
+        int rings = Math.max( 1, gates / RING );
+        for (int r = 0; r < rings; r++) {
+            for (int i = 0; i < RING; i++) gate( "r" + r + "_" + i, "not" );
+            for (int i = 0; i < RING; i++) {
+                wire( "r" + r + "_" + i, "out", "r" + r + "_" + ((i + 1) % RING), "in" );
+            }
+        }
+    }
+
+    /** a random circuit without feedback, driven by one const gate
+     */
+    private void dag( int gates ) throws IOException {
+        gate( "g0", "const" );
+        for (int i = 1; i < gates; i++) {
+            String name = "g" + i;
+            int kind = random.nextInt( 3 );
+            gate( name, (kind == 0) ? "and" : (kind == 1) ? "or" : "not" );
+            if (kind == 2) {
+                source( i, name, "in" );
+            } else {
+                source( i, name, "in1" );
+                source( i, name, "in2" );
+            }
+        }
+    }
+
+    /** wire a random earlier gate of a dag to an input pin
+     */
+    private void source( int i, String dst, String pin ) throws IOException {
+        int src = Math.max( 0, i - 1 - random.nextInt( Math.min( i, WINDOW ) ) );
+        String srcPin = "out";
+        if (src == 0) srcPin = random.nextBoolean() ? "true" : "false";
+        wire( "g" + src, srcPin, dst, pin );
+    }
+
+    /** a tree of not gates below a const gate
+     */
+    private void fanout( int gates ) throws IOException {
+        gate( "t0", "const" );
+        for (int i = 1; i < gates; i++) {
+            int parent = (i - 1) / FANOUT;
+            gate( "t" + i, "not" );
+            wire( "t" + parent, (parent == 0) ? "true" : "out", "t" + i, "in" );
+        }
+    }
+}
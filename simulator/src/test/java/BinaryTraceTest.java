@@ -0,0 +1,103 @@
+/** BinaryTraceTest.java
+ * Checks that binary traces keep the times of changes exactly
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** A binary trace must hold the same changes, at the same ticks, as a
+ *  text trace of the same run, whatever the resolution.
+ */
+class BinaryTraceTest {
+    @TempDir
+    Path dir;
+
+    /** @param b a buffer positioned at a varint
+     *  @return its value
+     */
+    static long varint( ByteBuffer b ) {
+        long n = 0;
+        for (int shift = 0;; shift = shift + 7) {
+            byte x = b.get();
+            n = n | ((long)(x & 0x7F) << shift);
+            if (x >= 0) return n;
+        }
+    }
+
+    /** @param f a binary trace without buses
+     *  @param ticksPerSecond the ticks per second it must give
+     *  @return its changes, each as the time in ticks, the gate and the value
+     */
+    private static List <String> binary( File f, long ticksPerSecond ) throws Exception {
+        ByteBuffer b = ByteBuffer.wrap( Files.readAllBytes( f.toPath() ) );
+        byte[] magic = new byte[4];
+        b.get( magic );
+        assertEquals( "LGTR", new String( magic, StandardCharsets.US_ASCII ) );
+        assertEquals( BinaryTrace.VERSION, b.get() );
+        assertEquals( ticksPerSecond, varint( b ) );
+        String[] names = new String[(int)varint( b )];
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = new byte[(int)varint( b )];
+            b.get( name );
+            names[i] = new String( name, StandardCharsets.UTF_8 );
+        }
+        List <String> changes = new ArrayList <String> ();
+        long time = 0;
+        while (b.hasRemaining()) {
+            long zigzag = varint( b );
+            time = time + ((zigzag >>> 1) ^ -(zigzag & 1));
+            long change = varint( b );
+            changes.add( time + " " + names[(int)(change >>> 1)] + " "
+                       + ((change & 1) != 0) );
+        }
+        return changes;
+    }
+
+    /** @param trace a text trace
+     *  @param ticksPerSecond the ticks per second of its run
+     *  @return its changes, as for binary()
+     */
+    private static List <String> text( String trace, long ticksPerSecond ) {
+        List <String> changes = new ArrayList <String> ();
+        for (String line: trace.split( "\n" )) {
+            String[] w = line.split( " +" );
+            long time = new BigDecimal( w[1] )
+                    .multiply( BigDecimal.valueOf( ticksPerSecond ) )
+                    .longValueExact();
+            changes.add( time + " " + w[3] + " " + w[w.length - 1] );
+        }
+        return changes;
+    }
+
+    @Test
+    void finerThanNanosecondsKeepsEveryTick() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 200, 51, true );
+        for (String resolution: new String[] { "1e-9", "1e-12", "1e-15" }) {
+            long ticksPerSecond = BigDecimal.ONE
+                    .divide( new BigDecimal( resolution ) ).longValueExact();
+            File binary = dir.resolve( "trace" + resolution ).toFile();
+            Circuits.ok( "-resolution", resolution, "-until", "20", "-trace", "binary",
+                         "-o", binary.getPath(), f.getPath() );
+            Circuits.Run text = Circuits.ok(
+                    "-resolution", resolution, "-until", "20", f.getPath()
+            );
+            List <String> expected = text( text.out, ticksPerSecond );
+            assertTrue( expected.size() > 100 );
+            assertEquals( expected, binary( binary, ticksPerSecond ), resolution );
+        }
+    }
+}
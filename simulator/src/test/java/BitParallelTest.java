@@ -0,0 +1,210 @@
+/** BitParallelTest.java
+ * Checks zero delay evaluation of input vectors
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** The settled outputs computed 64 vectors at a time must be those found
+ *  by evaluating each gate of the circuit description directly, whether
+ *  the gates are interpreted or compiled to bytecode.
+ */
+class BitParallelTest {
+    @TempDir
+    Path dir;
+
+    /** A circuit without feedback, read from its description and
+     *  evaluated one vector at a time, gates in the order declared
+     */
+    static final class Direct {
+        final List <String> names = new ArrayList <String> ();
+        final List <String> kinds = new ArrayList <String> ();
+        final List <int[]> inputs = new ArrayList <int[]> ();   // signal per pin
+        final List <Integer> consts = new ArrayList <Integer> ();
+        final List <Integer> outputs = new ArrayList <Integer> ();
+
+        /** @param f a circuit in which wires only come from earlier gates
+         */
+        Direct( File f ) throws Exception {
+            Map <String, Integer> ids = new HashMap <String, Integer> ();
+            List <String> lines = Files.readAllLines( f.toPath(),
+                                                      StandardCharsets.US_ASCII );
+            for (String line: lines) {
+                String[] w = line.split( " " );
+                if (w[0].equals( "gate" )) {
+                    ids.put( w[1], names.size() );
+                    names.add( w[1] );
+                    kinds.add( w[2] );
+                    int n = w[2].equals( "not" ) ? 1 : w[2].equals( "const" ) ? 0
+                          : (w.length > 4) ? Integer.parseInt( w[4] ) : 2;
+                    inputs.add( new int[n] );
+                    if (w[2].equals( "const" )) consts.add( names.size() - 1 );
+                }
+            }
+            boolean[] drives = new boolean[names.size()];
+            for (String line: lines) {
+                String[] w = line.split( " " );
+                if (w[0].equals( "wire" )) {
+                    // a signal is a gate times 2, plus 1 for the false pin of a const
+                    int src = ids.get( w[1] );
+                    int signal = 2 * src + (w[2].equals( "false" ) ? 1 : 0);
+                    int pin = w[4].equals( "in" ) ? 0
+                            : Integer.parseInt( w[4].substring( 2 ) ) - 1;
+                    inputs.get( ids.get( w[3] ) )[pin] = signal;
+                    drives[src] = true;
+                }
+            }
+            for (int g = 0; g < names.size(); g++) {
+                if (!drives[g] && !kinds.get( g ).equals( "const" )) outputs.add( g );
+            }
+        }
+
+        /** @param vector the value of each const gate
+         *  @return the value of each output
+         */
+        boolean[] evaluate( boolean[] vector ) {
+            boolean[] value = new boolean[names.size()];
+            for (int i = 0; i < consts.size(); i++) value[consts.get( i )] = vector[i];
+            for (int g = 0; g < names.size(); g++) {
+                String kind = kinds.get( g );
+                if (kind.equals( "const" )) continue;
+                int[] in = inputs.get( g );
+                boolean[] v = new boolean[in.length];
+                for (int i = 0; i < in.length; i++) {
+                    v[i] = value[in[i] >> 1] ^ ((in[i] & 1) != 0);
+                }
+                value[g] = evaluate( kind, v );
+            }
+            boolean[] out = new boolean[outputs.size()];
+            for (int o = 0; o < out.length; o++) out[o] = value[outputs.get( o )];
+            return out;
+        }
+
+        /** @param kind the kind of a gate
+         *  @param v the values of its inputs
+         *  @return its output
+         */
+        static boolean evaluate( String kind, boolean[] v ) {
+            boolean and = true;
+            boolean or = false;
+            boolean xor = false;
+            for (boolean b: v) {
+                and = and && b;
+                or = or || b;
+                xor = xor ^ b;
+            }
+            switch (kind) {
+                case "and":  return and;
+                case "or":   return or;
+                case "nand": return !and;
+                case "nor":  return !or;
+                case "xor":  return xor;
+                case "xnor": return !xor;
+                case "not":  return !v[0];
+                default:     throw new IllegalArgumentException( kind );
+            }
+        }
+    }
+
+    /** @param bits values
+     *  @return them as 0 and 1
+     */
+    private static String text( boolean[] bits ) {
+        StringBuilder s = new StringBuilder();
+        for (boolean b: bits) s.append( b ? '1' : '0' );
+        return s.toString();
+    }
+
+    @Test
+    void vectorsGiveTheOutputsOfEachGateEvaluated() throws Exception {
+        File f = Circuits.random( dir, "acyclic.txt", 500, 91, false );
+        Direct d = new Direct( f );
+        Random r = new Random( 92 );
+        StringBuilder in = new StringBuilder();
+        StringBuilder expected = new StringBuilder( "--" );
+        for (int o: d.outputs) expected.append( ' ' ).append( d.names.get( o ) );
+        expected.append( '\n' );
+        for (int v = 0; v < 3 * BitParallel.LANES + 5; v++) { // a partial last block
+            boolean[] vector = new boolean[d.consts.size()];
+            for (int i = 0; i < vector.length; i++) vector[i] = r.nextBoolean();
+            in.append( text( vector ) ).append( '\n' );
+            expected.append( text( d.evaluate( vector ) ) ).append( '\n' );
+        }
+        File vectors = dir.resolve( "vectors.txt" ).toFile();
+        Files.write( vectors.toPath(), in.toString().getBytes( StandardCharsets.US_ASCII ) );
+
+        Circuits.Run run = Circuits.ok( "-vectors", vectors.getPath(), f.getPath() );
+        assertTrue( d.outputs.size() > 10 );
+        assertEquals( expected.toString(), run.out );
+    }
+
+    @Test
+    void allOnesGivesTheSettledEventSimulation() throws Exception {
+        File f = Circuits.random( dir, "acyclic.txt", 300, 93, false );
+        Direct d = new Direct( f );
+        boolean[] ones = new boolean[d.consts.size()];
+        Arrays.fill( ones, true );
+        File vectors = dir.resolve( "ones.txt" ).toFile();
+        Files.write( vectors.toPath(),
+                     (text( ones ) + "\n").getBytes( StandardCharsets.US_ASCII ) );
+        String[] results = Circuits.ok( "-vectors", vectors.getPath(), f.getPath() )
+                           .out.split( "\n" );
+
+        // every gate starts false, and the trace gives each change after
+        Map <String, Boolean> settled = new HashMap <String, Boolean> ();
+        String trace = Circuits.ok( "-engine", "compiled", f.getPath() ).out;
+        for (String line: trace.split( "\n" )) {
+            String[] w = line.split( " +" );
+            settled.put( w[3], Boolean.valueOf( w[w.length - 1] ) );
+        }
+        boolean[] out = new boolean[d.outputs.size()];
+        for (int o = 0; o < out.length; o++) {
+            out[o] = settled.getOrDefault( d.names.get( d.outputs.get( o ) ), false );
+        }
+        assertEquals( text( out ), results[1] );
+    }
+
+    @Test
+    void compiledOutputsMatchInterpreted() throws Exception {
+        Netlist n = Logic.read( Circuits.random( dir, "acyclic.txt", 500, 41, false ) );
+        BitParallel interpreted = new BitParallel( n, false );
+        BitParallel compiled = new BitParallel( n, true );
+        assertFalse( interpreted.isCompiled() );
+        assertTrue( compiled.isCompiled() );
+        assertEquals( interpreted.inputs(), compiled.inputs() );
+        assertEquals( interpreted.outputs(), compiled.outputs() );
+        assertTrue( compiled.outputs() > 0 );
+
+        Random r = new Random( 42 );
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < compiled.inputs(); i++) {
+                long bits = r.nextLong();
+                interpreted.setInput( i, bits );
+                compiled.setInput( i, bits );
+            }
+            interpreted.evaluate();
+            compiled.evaluate();
+            for (int o = 0; o < compiled.outputs(); o++) {
+                assertEquals( interpreted.output( o ), compiled.output( o ),
+                              "output " + o + " of round " + round );
+            }
+        }
+    }
+}
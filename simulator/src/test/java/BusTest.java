@@ -0,0 +1,140 @@
+/** BusTest.java
+ * Checks gates that carry a bus of signals
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** A circuit of buses must change when the same circuit of single signals
+ *  does, each change carrying all of the bits, and each trace format must
+ *  give the width and value of a bus.
+ */
+class BusTest {
+    @TempDir
+    Path dir;
+
+    /** a ring oscillator gating a few gates of several kinds */
+    private static final String RING = String.join( "\n",
+            "gate c const 1.0",
+            "gate n1 not 1.0",
+            "gate n2 not 1.0",
+            "gate n3 not 1.0",
+            "gate a and 1.0",
+            "gate x xor 1.5",
+            "gate o or 2.0 3",
+            "wire c true a in1 1.0",
+            "wire n3 out n1 in 0.5",
+            "wire n1 out n2 in 0.5",
+            "wire n2 out n3 in 0.5",
+            "wire n1 out a in2 0.5",
+            "wire a out x in1 0.5",
+            "wire n2 out x in2 0.5",
+            "wire x out o in1 0.5",
+            "wire n3 out o in2 0.5",
+            "wire a out o in3 0.5",
+            "" );
+
+    /** @param name a file name
+     *  @param text the circuit
+     *  @return the file holding it
+     */
+    private File write( String name, String text ) throws Exception {
+        File f = dir.resolve( name ).toFile();
+        Files.write( f.toPath(), text.getBytes( StandardCharsets.US_ASCII ) );
+        return f;
+    }
+
+    /** @param bits the width of every gate
+     *  @return RING with buses of that width
+     */
+    private File ring( int bits ) throws Exception {
+        return write( "ring" + bits + ".txt",
+                      RING.replaceAll( "(?m)^(gate .*)$", "$1 bus " + bits ) );
+    }
+
+    @Test
+    void busChangesAsItsBitsDo() throws Exception {
+        Circuits.Run one = Circuits.ok( "-until", "12", write( "ring.txt", RING ).getPath() );
+        for (int bits: new int[] { 8, 64 }) {
+            Circuits.Run bus = Circuits.ok( "-until", "12", ring( bits ).getPath() );
+            String ones = "0x" + "ffffffffffffffff".substring( 0, (bits + 3) / 4 );
+            String zeros = "0x" + "0000000000000000".substring( 0, (bits + 3) / 4 );
+            assertTrue( bus.out.contains( "changes to " + ones + "\n" ), bus.out );
+            assertEquals( one.out,
+                          bus.out.replace( " bus " + bits, "" )
+                                 .replace( "changes to " + ones + "\n", "changes to true\n" )
+                                 .replace( "changes to " + zeros + "\n", "changes to false\n" ),
+                          bits + " bits" );
+            assertEquals( one.err, bus.err );
+        }
+    }
+
+    @Test
+    void tracesGiveWidthsAndValues() throws Exception {
+        File f = ring( 8 );
+        String vcd = Circuits.ok( "-until", "12", "-trace", "vcd", f.getPath() ).out;
+        assertTrue( vcd.contains( "$var wire 8 \" n1 $end" ), vcd );
+        assertTrue( vcd.contains( "\nb11111111 \"\n" ), vcd );
+        assertTrue( vcd.contains( "\nb0 \"\n" ), vcd );
+
+        File trace = dir.resolve( "ring.lgtr" ).toFile();
+        Circuits.ok( "-until", "12", "-trace", "binary", "-o", trace.getPath(), f.getPath() );
+        ByteBuffer b = ByteBuffer.wrap( Files.readAllBytes( trace.toPath() ) );
+        assertEquals( 'L', b.get( 0 ) );
+        assertEquals( BinaryTrace.BUS_VERSION, b.get( 4 ) );
+        b.position( 5 );
+        assertEquals( Simulator.ticksPerSecond(), BinaryTraceTest.varint( b ) );
+        assertEquals( 7, BinaryTraceTest.varint( b ) );     // signals
+        assertEquals( 1, BinaryTraceTest.varint( b ) );     // the length of the name c
+        assertEquals( 'c', b.get() );
+        assertEquals( 8, BinaryTraceTest.varint( b ) );     // its width
+
+        Circuits.ok( "-until", "12", "-trace", "binary", "-o", trace.getPath(),
+                     write( "ring.txt", RING ).getPath() );
+        assertEquals( BinaryTrace.VERSION, Files.readAllBytes( trace.toPath() )[4] );
+    }
+
+    @Test
+    void mismatchedWidthsAndOtherEnginesAreRefused() throws Exception {
+        File mixed = write( "mixed.txt",
+                            RING.replaceAll( "(?m)^(gate .*)$", "$1 bus 8" )
+                                .replace( "gate n1 not 1.0 bus 8", "gate n1 not 1.0 bus 4" ) );
+        Circuits.Run r = Circuits.logic( mixed.getPath() );
+        assertEquals( "", r.out );
+        assertTrue( r.err.contains( "Bus width mismatch: wire n3 out n1 in 0.5" ), r.err );
+        assertTrue( r.err.contains( "Bus width mismatch: wire n1 out n2 in 0.5" ), r.err );
+
+        r = Circuits.logic( "-engine", "compiled", ring( 8 ).getPath() );
+        assertEquals( 1, r.status );
+        assertTrue( r.err.contains( "Buses work only in flat circuits simulated as objects" ),
+                    r.err );
+    }
+
+    @Test
+    void tracesWithoutBusesReportThem() {
+        List <String> messages = new ArrayList <String> ();
+        Errors.capture( messages );
+        try {
+            Trace t = new SimulationTest.Recorder();
+            assertThrows( Errors.Fatal.class, () -> t.changeBus( 5, 3, 0xff ) );
+            assertEquals( List.of( "Buses can't be traced by SimulationTest$Recorder: signal 3" ),
+                          messages );
+        } finally {
+            Errors.capture( null );
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/** CalendarQueueTest.java
+ * Checks the calendar queue against a binary heap
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/** Random mixes of adding, removing first, removing any pending event and
+ *  removing every event at once must leave the calendar queue giving the
+ *  events in the same order as a binary heap, crowds of equal times,
+ *  distant times and times in the calendar's past included.
+ */
+class CalendarQueueTest {
+    private static final int STEPS = 200000;
+
+    /** An event with nothing to do, and its copy in the heap
+     */
+    static final class Item extends Simulator.Entry {
+        final int id;
+        Item twin;
+
+        Item( long t, int id ) {
+            super( t );
+            this.id = id;
+        }
+    }
+
+    /** @param now the time of the last event removed
+     *  @param r the source of randomness
+     *  @return the time of a new event, often equal to that of others
+     */
+    private static long time( long now, Random r ) {
+        long tick = Simulator.ticksPerSecond() / 4;
+        switch (r.nextInt( 10 )) {
+            case 0:  return now;                                // now
+            case 1:  return now + r.nextInt( 1000 ) * tick * 16; // far away
+            case 2:  return now + r.nextInt( 1 << 20 );           // anywhere
+            default: return now + r.nextInt( 20 ) * tick;         // crowds
+        }
+    }
+
+    @Test
+    void agreesWithPriorityEventSet() {
+        Random r = new Random( 1 );
+        CalendarQueue calendar = new CalendarQueue();
+        Simulator.PriorityEventSet heap = new Simulator.PriorityEventSet();
+        ArrayList <Item> pending = new ArrayList <Item> ();
+        long now = 0;
+        int ids = 0;
+        for (int step = 0; step < STEPS; step++) {
+            int op = r.nextInt( 1000 );
+            if (op < 500) {
+                long t = time( now, r );
+                Item e = new Item( t, ids );
+                e.twin = new Item( t, ids++ );
+                e.twin.twin = e;
+                calendar.add( e );
+                heap.add( e.twin );
+                pending.add( e );
+            } else if (op < 800) {
+                Item e = (Item)calendar.removeFirst();
+                Item h = (Item)heap.removeFirst();
+                if (h == null) {
+                    assertNull( e );
+                    continue;
+                }
+                assertSame( h.twin, e, "step " + step );
+                pending.remove( e );
+                now = e.time;
+            } else if (op < 850) {
+                Item e = (Item)calendar.first();
+                Item h = (Item)heap.first();
+                assertSame( (h == null) ? null : h.twin, e, "step " + step );
+            } else if (op < 999) {
+                if (pending.isEmpty()) continue;
+                int i = r.nextInt( pending.size() );
+                Item e = pending.get( i );
+                pending.set( i, pending.get( pending.size() - 1 ) );
+                pending.remove( pending.size() - 1 );
+                calendar.remove( e );
+                heap.remove( e.twin );
+            } else {
+                assertEquals( ids( pending ), ids( calendar.removeAll() ) );
+                heap.removeAll();
+                pending.clear();
+                now = 0; // as when an engine is reset
+            }
+            assertEquals( heap.size(), calendar.size() );
+            assertEquals( pending.size(), calendar.size() );
+        }
+    }
+
+    @Test
+    void keyedAgreesWithHeap() {
+        Random r = new Random( 2 );
+        CalendarQueue calendar = new CalendarQueue( true );
+        PriorityQueue <Item> heap = new PriorityQueue <Item> (
+                (Item e1, Item e2) -> e1.before( e2 ) ? -1 : 1
+        );
+        ArrayList <Item> pending = new ArrayList <Item> ();
+        Set <Long> keys = new HashSet <Long> ();
+        long now = 0;
+        int ids = 0;
+        for (int step = 0; step < STEPS; step++) {
+            int op = r.nextInt( 1000 );
+            if (op < 500) {
+                Item e = new Item( time( now, r ), ids++ );
+                do { // keys come in any order, but never twice
+                    e.seq = r.nextInt( 1 << 24 );
+                } while (!keys.add( e.seq ));
+                calendar.add( e );
+                heap.add( e );
+                pending.add( e );
+            } else if (op < 800) {
+                Item e = (Item)calendar.removeFirst();
+                Item h = heap.poll();
+                assertSame( h, e, "step " + step );
+                if (h == null) continue;
+                pending.remove( e );
+                now = e.time;
+            } else if (op < 850) {
+                assertSame( heap.peek(), calendar.first(), "step " + step );
+            } else if (op < 999) {
+                if (pending.isEmpty()) continue;
+                int i = r.nextInt( pending.size() );
+                Item e = pending.get( i );
+                pending.set( i, pending.get( pending.size() - 1 ) );
+                pending.remove( pending.size() - 1 );
+                calendar.remove( e );
+                heap.remove( e );
+            } else {
+                assertEquals( ids( pending ), ids( calendar.removeAll() ) );
+                heap.clear();
+                pending.clear();
+                keys.clear();
+                now = 0;
+            }
+            assertEquals( heap.size(), calendar.size() );
+        }
+    }
+
+    /** @param items some events
+     *  @return their ids
+     */
+    private static Set <Integer> ids( ArrayList <Item> items ) {
+        Set <Integer> s = new HashSet <Integer> ();
+        for (Item e: items) s.add( e.id );
+        return s;
+    }
+
+    /** @param all events linked through next, as removeAll gives them
+     *  @return their ids
+     */
+    private static Set <Integer> ids( Simulator.Entry all ) {
+        Set <Integer> s = new HashSet <Integer> ();
+        for (Simulator.Entry e = all; e != null; e = e.next) {
+            assertEquals( true, s.add( ((Item)e).id ) );
+        }
+        return s;
+    }
+}
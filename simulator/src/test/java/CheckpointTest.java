@@ -0,0 +1,90 @@
+/** CheckpointTest.java
+ * Checks that a run restored from a checkpoint goes on as if never stopped
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** A run split at a checkpoint must trace the same changes, and end the
+ *  same way, as one run of the whole time, and a checkpoint must only be
+ *  restored into the circuit it was taken from.
+ */
+class CheckpointTest {
+    @TempDir
+    Path dir;
+
+    /** @param err what Logic printed to standard error
+     *  @return the summary of the run
+     */
+    private static String summary( String err ) {
+        int at = err.lastIndexOf( "run stopped by" );
+        assertTrue( at >= 0, err );
+        return err.substring( at ).trim();
+    }
+
+    /** run the circuit in one go and split at a checkpoint
+     *  @param f the circuit
+     *  @param first the limit on the run before the checkpoint
+     *  @param options more options for both runs
+     */
+    private void roundTrip( File f, String[] first, String... options ) throws Exception {
+        String saved = dir.resolve( "saved.ckpt" ).toString();
+        Circuits.Run whole = Circuits.ok( with( options, "-until", "40", f.getPath() ) );
+        Circuits.Run before = Circuits.ok(
+                with( options, with( first, "-checkpoint", saved, f.getPath() ) )
+        );
+        Circuits.Run after = Circuits.ok(
+                with( options, "-restore", saved, "-until", "40", f.getPath() )
+        );
+        assertTrue( whole.out.length() > 0 );
+        assertEquals( whole.out, before.out + after.out, String.join( " ", options ) );
+        assertEquals( summary( whole.err ), summary( after.err ) );
+    }
+
+    /** @return a followed by b
+     */
+    private static String[] with( String[] a, String... b ) {
+        String[] r = new String[a.length + b.length];
+        System.arraycopy( a, 0, r, 0, a.length );
+        System.arraycopy( b, 0, r, a.length, b.length );
+        return r;
+    }
+
+    @Test
+    void restoredRunGoesOnFromEndTime() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 200, 21, true );
+        String[] first = { "-until", "15" };
+        roundTrip( f, first );
+        roundTrip( f, first, "-delay", "inertial" );
+        roundTrip( f, first, "-timeslice" );
+    }
+
+    @Test
+    void restoredRunGoesOnFromEventLimit() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 200, 22, true );
+        String[] first = { "-events", "777" };
+        roundTrip( f, first );
+        roundTrip( f, first, "-delay", "inertial" );
+        roundTrip( f, first, "-timeslice" );
+    }
+
+    @Test
+    void checkpointOfAnotherCircuitIsRefused() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 200, 23, true );
+        File other = Circuits.random( dir, "other.txt", 200, 24, true );
+        String saved = dir.resolve( "saved.ckpt" ).toString();
+        Circuits.ok( "-until", "10", "-checkpoint", saved, f.getPath() );
+        Circuits.Run r = Circuits.logic( "-restore", saved, "-until", "20", other.getPath() );
+        assertEquals( 1, r.status );
+        assertEquals( "", r.out );
+        assertTrue( r.err.contains( "Checkpoint is of another circuit" ), r.err );
+    }
+}
@@ -0,0 +1,147 @@
+/** Circuits.java
+ * Random circuits and runs of the Logic program, shared by the tests
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/** Writes random circuits and runs Logic on them.  Logic keeps the circuit
+ *  it reads in static fields and exits on fatal errors, so each run gets a
+ *  JVM of its own, with the classpath of the tests.
+ */
+final class Circuits {
+    private static final String[] KINDS = {
+        "and", "or", "nand", "nor", "xor", "xnor", "not"
+    };
+
+    private Circuits() {}
+
+    /** write a random circuit of logic gates driven by const gates, one
+     *  for every 20 logic gates
+     *  @param dir where the file goes
+     *  @param name the file name
+     *  @param gates the number of logic gates
+     *  @param seed chooses the circuit
+     *  @param loops if true, a ring of not gates feeds back into the
+     *         circuit, so it never runs out of events
+     *  @return the file
+     *  @throws IOException if the file can't be written
+     */
+    static File random( Path dir, String name, int gates, long seed, boolean loops )
+            throws IOException {
+        Random r = new Random( seed );
+        StringBuilder s = new StringBuilder();
+        List <String> outputs = new ArrayList <String> ();
+        for (int k = 0; k < 1 + gates / 20; k++) {
+            s.append( "gate k" ).append( k ).append( " const " )
+             .append( delay( r, 0.5, 1.5 ) ).append( '\n' );
+            outputs.add( "k" + k + " true" );
+        }
+        if (loops) {
+            for (int i = 0; i < 3; i++) {
+                s.append( "gate r" ).append( i ).append( " not " )
+                 .append( delay( r, 0.5, 1.5 ) ).append( '\n' );
+            }
+            for (int i = 0; i < 3; i++) {
+                s.append( "wire r" ).append( i ).append( " out r" )
+                 .append( (i + 1) % 3 ).append( " in " )
+                 .append( delay( r, 0.1, 0.5 ) ).append( '\n' );
+            }
+            outputs.add( "r0 out" );
+        }
+        StringBuilder w = new StringBuilder();
+        for (int g = 0; g < gates; g++) {
+            String kind = KINDS[r.nextInt( KINDS.length )];
+            int inputs = kind.equals( "not" ) ? 1 : (r.nextInt( 4 ) == 0) ? 3 : 2;
+            s.append( "gate g" ).append( g ).append( ' ' ).append( kind ).append( ' ' )
+             .append( delay( r, 0.5, 2.5 ) );
+            if (inputs != 2 && inputs != 1) s.append( ' ' ).append( inputs );
+            s.append( '\n' );
+            for (int pin = 1; pin <= inputs; pin++) {
+                // mostly recent gates, so changes run through long paths
+                int from = Math.max( 0, outputs.size() - 1 - r.nextInt( 12 ) );
+                if (r.nextInt( 4 ) == 0) from = r.nextInt( outputs.size() );
+                w.append( "wire " ).append( outputs.get( from ) ).append( " g" ).append( g )
+                 .append( inputs == 1 ? " in " : " in" + pin + " " )
+                 .append( delay( r, 0.1, 1.0 ) ).append( '\n' );
+            }
+            outputs.add( "g" + g + " out" );
+        }
+        File f = dir.resolve( name ).toFile();
+        Files.write( f.toPath(), (s.toString() + w).getBytes( StandardCharsets.US_ASCII ) );
+        return f;
+    }
+
+    /** @return a random delay with two digits after the point
+     */
+    private static String delay( Random r, double low, double high ) {
+        return String.format( Locale.ROOT, "%.2f", low + (high - low) * r.nextDouble() );
+    }
+
+    /** What a run of Logic printed
+     */
+    static final class Run {
+        final String out;      // standard output, the trace
+        final String err;      // standard error, the summary and messages
+        final int status;      // the exit status
+
+        Run( String out, String err, int status ) {
+            this.out = out;
+            this.err = err;
+            this.status = status;
+        }
+    }
+
+    /** run Logic in a JVM of its own
+     *  @param args its arguments
+     *  @return what it printed
+     *  @throws IOException if it can't be started
+     *  @throws InterruptedException if interrupted while waiting for it
+     */
+    static Run logic( String... args ) throws IOException, InterruptedException {
+        List <String> command = new ArrayList <String> ();
+        command.add( new File( System.getProperty( "java.home" ), "bin/java" ).getPath() );
+        command.add( "-cp" );
+        command.add( System.getProperty( "java.class.path" ) );
+        command.add( "Logic" );
+        for (String a: args) command.add( a );
+        File out = File.createTempFile( "logic", ".out" );
+        File err = File.createTempFile( "logic", ".err" );
+        try {
+            Process p = new ProcessBuilder( command )
+                    .redirectOutput( out ).redirectError( err ).start();
+            int status = p.waitFor();
+            return new Run(
+                    new String( Files.readAllBytes( out.toPath() ), StandardCharsets.UTF_8 ),
+                    new String( Files.readAllBytes( err.toPath() ), StandardCharsets.UTF_8 ),
+                    status
+            );
+        } finally {
+            out.delete();
+            err.delete();
+        }
+    }
+
+    /** run Logic and insist that it succeeds
+     *  @param args its arguments
+     *  @return what it printed
+     *  @throws IOException if it can't be started
+     *  @throws InterruptedException if interrupted while waiting for it
+     */
+    static Run ok( String... args ) throws IOException, InterruptedException {
+        Run r = logic( args );
+        if (r.status != 0) throw new AssertionError(
+                "Logic " + String.join( " ", args ) + " failed: " + r.err
+        );
+        return r;
+    }
+}
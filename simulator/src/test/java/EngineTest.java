@@ -0,0 +1,186 @@
+/** EngineTest.java
+ * Checks that the simulation engines agree with each other
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** The engines must trace the same changes as the objects engine, the
+ *  one that follows the circuit description most directly, and the
+ *  parallel engine must trace the same for any number of threads and
+ *  the same as the levelized engine.
+ */
+class EngineTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void compiledTracesTheSameAsObjects() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 300, 11, true );
+        Circuits.Run objects = Circuits.ok(
+                "-engine", "objects", "-until", "40", f.getPath()
+        );
+        Circuits.Run compiled = Circuits.ok(
+                "-engine", "compiled", "-until", "40", f.getPath()
+        );
+        assertTrue( objects.out.length() > 0 );
+        assertEquals( objects.out, compiled.out );
+        assertEquals( objects.err, compiled.err );
+    }
+
+    @Test
+    void parallelTracesTheSameForAnyThreads() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 400, 12, true );
+        Circuits.Run one = Circuits.ok(
+                "-engine", "parallel", "-threads", "1", "-until", "40", f.getPath()
+        );
+        assertTrue( one.out.length() > 0 );
+        for (String threads: new String[] { "2", "4" }) {
+            Circuits.Run many = Circuits.ok(
+                    "-engine", "parallel", "-threads", threads, "-until", "40", f.getPath()
+            );
+            assertEquals( one.out, many.out, threads + " threads" );
+            assertEquals( one.err, many.err, threads + " threads" );
+        }
+    }
+
+    @Test
+    void inertialDelayTracesTheSameInEachEngine() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 400, 13, true );
+        Circuits.Run objects = Circuits.ok(
+                "-engine", "objects", "-delay", "inertial", "-until", "40", f.getPath()
+        );
+        Circuits.Run compiled = Circuits.ok(
+                "-engine", "compiled", "-delay", "inertial", "-until", "40", f.getPath()
+        );
+        Circuits.Run transport = Circuits.ok(
+                "-engine", "compiled", "-until", "40", f.getPath()
+        );
+        assertTrue( objects.out.length() > 0 );
+        assertEquals( objects.out, compiled.out );
+        assertEquals( objects.err, compiled.err );
+        assertNotEquals( transport.out, compiled.out );
+
+        Circuits.Run one = Circuits.ok( "-engine", "parallel", "-threads", "1",
+                                        "-delay", "inertial", "-until", "40", f.getPath() );
+        Circuits.Run four = Circuits.ok( "-engine", "parallel", "-threads", "4",
+                                         "-delay", "inertial", "-until", "40", f.getPath() );
+        assertEquals( one.out, four.out );
+        assertEquals( one.err, four.err );
+    }
+
+    @Test
+    void levelizedTracesTheSameAsParallel() throws Exception {
+        File f = Circuits.random( dir, "acyclic.txt", 500, 14, false );
+        for (String delay: new String[] { "transport", "inertial" }) {
+            for (String until: new String[] { "15", "1000" }) {
+                Circuits.Run parallel = Circuits.ok( "-engine", "parallel", "-delay", delay,
+                                                     "-until", until, f.getPath() );
+                Circuits.Run levelized = Circuits.ok( "-engine", "levelized", "-delay", delay,
+                                                      "-until", until, f.getPath() );
+                assertTrue( parallel.out.length() > 0 );
+                assertEquals( parallel.out, levelized.out, delay + " until " + until );
+                assertEquals( parallel.err, levelized.err, delay + " until " + until );
+            }
+        }
+
+        Circuits.Run loops = Circuits.logic( "-engine", "levelized",
+                Circuits.random( dir, "loops.txt", 100, 15, true ).getPath() );
+        assertEquals( 1, loops.status );
+        assertEquals( "", loops.out );
+        assertTrue( loops.err.contains( "needs a circuit without feedback" ), loops.err );
+    }
+
+    @Test
+    void parallelEngineRunsAgainAfterReset() throws Exception {
+        Netlist n = Logic.read( Circuits.random( dir, "loops.txt", 200, 14, true ) );
+        Simulator.Limits limits = new Simulator.Limits();
+        limits.endTime = 30;
+        for (int threads: new int[] { 1, 3 }) {
+            SimulationTest.Recorder r = new SimulationTest.Recorder();
+            ParallelEngine e = new ParallelEngine( n, r, 29, threads, false );
+            e.launch();
+            String first = e.run( limits ).toString();
+            String firstChanges = r.changes.toString();
+
+            r.changes.setLength( 0 );
+            e.reset( 29 );
+            e.launch();
+            assertEquals( first, e.run( limits ).toString() );
+            assertEquals( firstChanges, r.changes.toString() );
+
+            // a new seed gives the run of a new engine with that seed
+            r.changes.setLength( 0 );
+            e.reset( 7 );
+            e.launch();
+            e.run( limits );
+            SimulationTest.Recorder fresh = new SimulationTest.Recorder();
+            ParallelEngine g = new ParallelEngine( n, fresh, 7, threads, false );
+            g.launch();
+            g.run( limits );
+            assertEquals( fresh.changes.toString(), r.changes.toString() );
+            assertNotEquals( firstChanges, r.changes.toString() );
+        }
+    }
+
+    /** A trace that fails after some changes, until told not to
+     */
+    private static final class Failing extends Trace {
+        final SimulationTest.Recorder recorder = new SimulationTest.Recorder();
+        int left = 50;
+
+        Failing() {
+            super( null, false );
+        }
+
+        public void declare( int signal, String name, String label ) {}
+
+        public void change( long time, int signal, boolean value ) {
+            if ((left >= 0) && (left-- == 0)) throw new IllegalStateException( "full" );
+            recorder.change( time, signal, value );
+        }
+
+        public void close() {}
+    }
+
+    @Test
+    void parallelEngineThrowsWhatAThreadThrows() throws Exception {
+        Netlist n = Logic.read( Circuits.random( dir, "loops.txt", 200, 16, true ) );
+        Simulator.Limits limits = new Simulator.Limits();
+        limits.endTime = 30;
+        SimulationTest.Recorder expected = new SimulationTest.Recorder();
+        ParallelEngine g = new ParallelEngine( n, expected, 31, 3, false );
+        g.launch();
+        g.run( limits );
+
+        Failing r = new Failing();
+        ParallelEngine e = new ParallelEngine( n, r, 31, 3, false );
+        e.launch();
+        IllegalStateException thrown = assertTimeoutPreemptively(
+                Duration.ofSeconds( 60 ),
+                () -> assertThrows( IllegalStateException.class, () -> e.run( limits ) )
+        );
+        assertEquals( "full", thrown.getMessage() );
+
+        // the threads stopped cleanly, so the engine runs again after reset
+        Simulator.Limits again = new Simulator.Limits();
+        again.endTime = 30;
+        r.recorder.changes.setLength( 0 );
+        e.reset( 31 );
+        e.launch();
+        e.run( again );
+        assertEquals( expected.changes.toString(), r.recorder.changes.toString() );
+    }
+}
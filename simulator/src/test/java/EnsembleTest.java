@@ -0,0 +1,117 @@
+/** EnsembleTest.java
+ * Checks that ensembles of seeded runs are reproducible
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** The report of an ensemble must not depend on the number of threads,
+ *  its run 0 must be the ordinary run, and the other runs must each have
+ *  a seed of their own.
+ */
+class EnsembleTest {
+    @TempDir
+    Path dir;
+
+    /** @param f a circuit
+     *  @return its netlist, compiled by Logic and loaded here
+     */
+    private Netlist netlist( File f ) throws Exception {
+        File compiled = dir.resolve( f.getName() + ".lgnl" ).toFile();
+        Circuits.ok( "-compile", compiled.getPath(), f.getPath() );
+        return Netlist.load( compiled );
+    }
+
+    /** @param n a netlist
+     *  @param runs the number of runs
+     *  @param threads the number of threads
+     *  @param until the end time of each run
+     *  @return the report of the ensemble
+     */
+    private static String report( Netlist n, int runs, int threads, double until ) {
+        Simulator.Limits limits = new Simulator.Limits();
+        limits.endTime = until;
+        Ensemble e = new Ensemble( n, runs, false );
+        e.run( threads, limits );
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        e.report( new PrintStream( b, true ) );
+        return new String( b.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    @Test
+    void reportIsTheSameForAnyThreads() throws Exception {
+        Netlist n = netlist( Circuits.random( dir, "loops.txt", 200, 101, true ) );
+        String one = report( n, 40, 1, 20 );
+        assertTrue( one.startsWith( "-- 40 runs, 40 stopped by limits" ), one );
+        assertEquals( one, report( n, 40, 3, 20 ) );
+        assertEquals( one, report( n, 40, 7, 20 ) );
+    }
+
+    @Test
+    void interruptWaitsForEveryRun() throws Exception {
+        Netlist n = netlist( Circuits.random( dir, "loops.txt", 300, 104, true ) );
+        Simulator.Limits limits = new Simulator.Limits();
+        limits.endTime = 200;
+        Ensemble e = new Ensemble( n, 40, false );
+        Thread.currentThread().interrupt();
+        try {
+            e.run( 4, limits );
+        } finally {
+            assertTrue( Thread.interrupted() );
+        }
+        // whether runs were cancelled depends on whether any were left
+        assertEquals( 40, e.limited() );
+    }
+
+    @Test
+    void runZeroIsTheOrdinaryRun() throws Exception {
+        File f = Circuits.random( dir, "acyclic.txt", 200, 102, false );
+        String[] report = report( netlist( f ), 1, 1, Double.POSITIVE_INFINITY )
+                          .split( "\n" );
+
+        // the first and last change of each gate in an ordinary run
+        Map <String, String> first = new HashMap <String, String> ();
+        Map <String, String> last = new HashMap <String, String> ();
+        String trace = Circuits.ok( "-engine", "compiled", f.getPath() ).out;
+        for (String line: trace.split( "\n" )) {
+            String[] w = line.split( " +" );
+            first.putIfAbsent( w[3], w[1] );
+            last.put( w[3], w[1] );
+        }
+        for (int i = 2; i < report.length; i++) {
+            String[] w = report[i].split( " " );
+            if (w[1].equals( "0" )) continue; // never changed
+            // the report keeps times as floats, the trace exactly
+            assertEquals( Float.parseFloat( first.get( w[0] ) ), Float.parseFloat( w[2] ),
+                          report[i] );
+            assertEquals( Float.parseFloat( last.get( w[0] ) ), Float.parseFloat( w[5] ),
+                          report[i] );
+        }
+    }
+
+    @Test
+    void runsHaveSeedsOfTheirOwn() throws Exception {
+        Netlist n = netlist( Circuits.random( dir, "acyclic.txt", 200, 103, false ) );
+        String[] report = report( n, 20, 2, Double.POSITIVE_INFINITY ).split( "\n" );
+        int varied = 0;
+        for (int i = 2; i < report.length; i++) {
+            String[] w = report[i].split( " " );
+            if (!w[1].equals( "0" ) && !w[2].equals( w[4] )) varied++;
+        }
+        assertNotEquals( 0, varied );
+    }
+}
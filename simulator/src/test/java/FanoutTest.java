@@ -0,0 +1,110 @@
+/** FanoutTest.java
+ * Checks that a group of wires with equal delays is delivered as one event
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Delivering the fanout of a change by groups of equal delays must trace
+ *  and count what delivering it wire by wire does, an event limit must
+ *  stop it at the same wire, and a checkpoint taken while groups are
+ *  pending, or partly delivered, must restore them.
+ */
+class FanoutTest {
+    @TempDir
+    Path dir;
+
+    /** @return a ring oscillator whose gates each drive 16 gates through
+     *          wires of two delays, which drive a tree of xor gates
+     */
+    private File fanout() throws Exception {
+        StringBuilder s = new StringBuilder();
+        for (int r = 0; r < 3; r++) s.append( "gate r" ).append( r ).append( " not 1.0\n" );
+        for (int r = 0; r < 3; r++) {
+            s.append( "wire r" ).append( r ).append( " out r" ).append( (r + 1) % 3 )
+             .append( " in 0.5\n" );
+        }
+        for (int r = 0; r < 3; r++) {
+            for (int i = 0; i < 16; i++) {
+                String sink = "s" + r + "x" + i;
+                s.append( "gate " ).append( sink ).append( " not 0.75\n" );
+                s.append( "wire r" ).append( r ).append( " out " ).append( sink )
+                 .append( (i < 12) ? " in 0.25\n" : " in 1.25\n" );
+            }
+            for (int i = 0; i < 16; i += 2) {
+                String x = "x" + r + "x" + i;
+                s.append( "gate " ).append( x ).append( " xor 0.5\n" );
+                s.append( "wire s" ).append( r ).append( 'x' ).append( i ).append( " out " )
+                 .append( x ).append( " in1 0.25\n" );
+                s.append( "wire s" ).append( r ).append( 'x' ).append( i + 1 ).append( " out " )
+                 .append( x ).append( " in2 0.25\n" );
+            }
+        }
+        File f = dir.resolve( "fanout.txt" ).toFile();
+        Files.write( f.toPath(), s.toString().getBytes( StandardCharsets.US_ASCII ) );
+        return f;
+    }
+
+    @Test
+    void groupsTraceAsSingleWires() throws Exception {
+        File f = fanout();
+        for (String delay: new String[] { "transport", "inertial" }) {
+            Circuits.Run objects = Circuits.ok( "-delay", delay, "-until", "40", f.getPath() );
+            Circuits.Run compiled = Circuits.ok( "-engine", "compiled", "-delay", delay,
+                                                 "-until", "40", f.getPath() );
+            assertTrue( objects.out.length() > 0 );
+            assertEquals( compiled.out, objects.out, delay );
+            assertEquals( compiled.err, objects.err, delay );
+        }
+    }
+
+    @Test
+    void eventLimitsStopAtTheSameWire() throws Exception {
+        File f = fanout();
+        // enough to stop within a group at some of these
+        for (int events = 40; events < 60; events++) {
+            String limit = Integer.toString( events );
+            Circuits.Run objects = Circuits.ok( "-events", limit, f.getPath() );
+            Circuits.Run compiled = Circuits.ok( "-engine", "compiled", "-events", limit,
+                                                 f.getPath() );
+            assertEquals( compiled.out, objects.out, limit );
+            assertEquals( compiled.err, objects.err, limit );
+        }
+    }
+
+    @Test
+    void pendingGroupsAreRestored() throws Exception {
+        File f = fanout();
+        String saved = dir.resolve( "saved.ckpt" ).toString();
+        Circuits.Run whole = Circuits.ok( "-until", "40", f.getPath() );
+        // each ring gate changes about every 1.5, so groups are pending at any time
+        for (String until: new String[] { "10.3", "17.77" }) {
+            Circuits.Run before = Circuits.ok( "-until", until, "-checkpoint", saved,
+                                               f.getPath() );
+            Circuits.Run after = Circuits.ok( "-restore", saved, "-until", "40", f.getPath() );
+            assertEquals( whole.out, before.out + after.out, until );
+            assertEquals( whole.err.substring( whole.err.indexOf( "run stopped" ) ),
+                          after.err.substring( after.err.indexOf( "run stopped" ) ), until );
+        }
+
+        // stopped within a group, the rest of it is pending
+        for (String events: new String[] { "45", "53" }) {
+            Circuits.Run before = Circuits.ok( "-events", events, "-checkpoint", saved,
+                                               f.getPath() );
+            Circuits.Run after = Circuits.ok( "-restore", saved, "-until", "40", f.getPath() );
+            assertEquals( whole.out, before.out + after.out, events );
+            assertEquals( whole.err.substring( whole.err.indexOf( "run stopped" ) ),
+                          after.err.substring( after.err.indexOf( "run stopped" ) ), events );
+        }
+    }
+}
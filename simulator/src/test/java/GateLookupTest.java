@@ -0,0 +1,98 @@
+/** GateLookupTest.java
+ * Checks that wires find the gates they name
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Gates are looked up by name in a hash table as wires are read, so
+ *  names that differ only a little must still find their own gates, and
+ *  loading a large circuit must take time in proportion to its size.
+ */
+class GateLookupTest {
+    @TempDir
+    Path dir;
+
+    /** @param name the file name
+     *  @param text the circuit
+     *  @return the file
+     */
+    private File circuit( String name, String text ) throws Exception {
+        File f = dir.resolve( name ).toFile();
+        Files.write( f.toPath(), text.getBytes( StandardCharsets.US_ASCII ) );
+        return f;
+    }
+
+    /** @param trace a text trace
+     *  @return the last value traced for each gate
+     */
+    private static Map <String, String> last( String trace ) {
+        Map <String, String> values = new HashMap <String, String> ();
+        for (String line: trace.split( "\n" )) {
+            String[] w = line.split( " +" );
+            values.put( w[3], w[w.length - 1] );
+        }
+        return values;
+    }
+
+    @Test
+    void similarNamesFindTheirOwnGates() throws Exception {
+        File f = circuit( "names.txt",
+                "gate a const 1.0\n"
+              + "gate a1 not 1.0\n"
+              + "gate a10 not 1.0\n"
+              + "gate A1 not 2.0\n"
+              + "wire a true a1 in 0.5\n"
+              + "wire a1 out a10 in 0.5\n"
+              + "wire a10 out A1 in 0.5\n" );
+        Map <String, String> values = last( Circuits.ok( f.getPath() ).out );
+        assertEquals( "true", values.get( "a" ) );
+        assertEquals( "false", values.get( "a1" ) );
+        assertEquals( "true", values.get( "a10" ) );
+        assertEquals( "false", values.get( "A1" ) );
+    }
+
+    @Test
+    void redefinitionsAndUnknownGatesAreReported() throws Exception {
+        File f = circuit( "bad.txt",
+                "gate a const 1.0\n"
+              + "gate a not 1.0\n"
+              + "wire b out a in 1.0\n" );
+        Circuits.Run r = Circuits.logic( f.getPath() );
+        assertTrue( r.err.contains( "Redefinition: gate a not" ), r.err );
+        assertTrue( r.err.contains( "No such source gate: wire b out a in" ), r.err );
+        assertEquals( "", r.out );
+    }
+
+    @Test
+    void largeCircuitLoadsInLinearTime() throws Exception {
+        int n = 100000;
+        StringBuilder s = new StringBuilder( "gate k const 1.0\n" );
+        for (int i = 0; i < n; i++) s.append( "gate g" ).append( i ).append( " not 1.0\n" );
+        s.append( "wire k true g0 in 1.0\n" );
+        for (int i = 1; i < n; i++) {
+            s.append( "wire g" ).append( i - 1 ).append( " out g" ).append( i )
+             .append( " in 1.0\n" );
+        }
+        File f = circuit( "chain.txt", s.toString() );
+
+        // a linear search for each wire took minutes on this circuit
+        Circuits.Run r = assertTimeoutPreemptively( Duration.ofSeconds( 60 ),
+                () -> Circuits.ok( "-trace", "none", "-until", "0", f.getPath() ) );
+        assertTrue( r.err.contains( "after 0 events" ), r.err );
+    }
+}
@@ -0,0 +1,106 @@
+/** IncrementalTest.java
+ * Checks that -incremental traces what a fresh run would
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** After an edit, a run reusing the changes saved by the last one must
+ *  trace the same as a run from scratch, while simulating fewer gates,
+ *  and without an edit it must simulate none.
+ */
+class IncrementalTest {
+    @TempDir
+    Path dir;
+
+    private static final Pattern SIMULATED =
+            Pattern.compile( "simulated (\\d+) of (\\d+) gates" );
+
+    /** @param err what Logic printed to standard error
+     *  @return the number of gates simulated, then the number of gates
+     */
+    private static int[] simulated( String err ) {
+        Matcher m = SIMULATED.matcher( err );
+        assertTrue( m.find(), err );
+        return new int[] {
+            Integer.parseInt( m.group( 1 ) ), Integer.parseInt( m.group( 2 ) )
+        };
+    }
+
+    /** @param err what Logic printed to standard error
+     *  @return the summary of the run
+     */
+    private static String summary( String err ) {
+        int at = err.lastIndexOf( "run stopped by" );
+        assertTrue( at >= 0, err );
+        return err.substring( at ).trim();
+    }
+
+    /** change the delay of one gate
+     *  @param f the circuit
+     *  @param gate the name of the gate
+     *  @param delay its new delay
+     */
+    private static void edit( File f, String gate, String delay ) throws Exception {
+        List <String> lines = Files.readAllLines( f.toPath(), StandardCharsets.US_ASCII );
+        for (int i = 0; i < lines.size(); i++) {
+            String[] w = lines.get( i ).split( " " );
+            if (w[0].equals( "gate" ) && w[1].equals( gate )) {
+                w[3] = delay;
+                lines.set( i, String.join( " ", w ) );
+                Files.write( f.toPath(), lines, StandardCharsets.US_ASCII );
+                return;
+            }
+        }
+        throw new AssertionError( "no gate " + gate );
+    }
+
+    @Test
+    void editedRunTracesTheSameAsFreshRun() throws Exception {
+        File f = Circuits.random( dir, "acyclic.txt", 300, 31, false );
+        String saved = dir.resolve( "waves" ).toString();
+
+        Circuits.Run first = Circuits.ok(
+                "-engine", "levelized", "-incremental", saved, f.getPath()
+        );
+        int[] all = simulated( first.err );
+        assertEquals( all[1], all[0] );
+        assertEquals( Circuits.ok( "-engine", "levelized", f.getPath() ).out, first.out );
+
+        edit( f, "g290", "3.33" );
+        Circuits.Run again = Circuits.ok(
+                "-engine", "levelized", "-incremental", saved, f.getPath()
+        );
+        Circuits.Run fresh = Circuits.ok( "-engine", "levelized", f.getPath() );
+        assertTrue( fresh.out.length() > 0 );
+        assertEquals( fresh.out, again.out );
+        int[] some = simulated( again.err );
+        assertTrue( some[0] < some[1], again.err );
+    }
+
+    @Test
+    void unchangedRunSimulatesNothing() throws Exception {
+        File f = Circuits.random( dir, "acyclic.txt", 300, 32, false );
+        String saved = dir.resolve( "waves" ).toString();
+        Circuits.Run first = Circuits.ok( "-engine", "levelized", "-incremental", saved,
+                                          "-until", "20", f.getPath() );
+        Circuits.Run again = Circuits.ok( "-engine", "levelized", "-incremental", saved,
+                                          "-until", "20", f.getPath() );
+        assertEquals( first.out, again.out );
+        assertEquals( 0, simulated( again.err )[0], again.err );
+        assertEquals( summary( first.err ), summary( again.err ) );
+    }
+}
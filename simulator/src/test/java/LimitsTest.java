@@ -0,0 +1,57 @@
+/** LimitsTest.java
+ * Checks the real time limit on runs
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** A run with no real time limit, or one too large to count in
+ *  nanoseconds, must never stop for time, whatever System.nanoTime()
+ *  returns, and a run with a limit must stop once it is used up.
+ */
+class LimitsTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void noLimitNeverExpires() {
+        Simulator.Limits limits = new Simulator.Limits();
+        for (long started: new long[] { Long.MIN_VALUE, -1, 0, Long.MAX_VALUE }) {
+            assertFalse( limits.expired( started ), "started at " + started );
+        }
+        limits.wallTime = 1e300;
+        assertFalse( limits.expired( Long.MAX_VALUE ) );
+        assertFalse( limits.expired( limits.start() ) );
+    }
+
+    @Test
+    void usedUpLimitExpires() throws Exception {
+        Simulator.Limits limits = new Simulator.Limits();
+        limits.wallTime = 0.001;
+        long started = limits.start();
+        assertFalse( limits.expired( started + 1000000000L ) );
+        Thread.sleep( 10 );
+        assertTrue( limits.expired( started ) );
+    }
+
+    @Test
+    void hugeLimitsLetEveryEngineFinish() throws Exception {
+        File f = Circuits.random( dir, "acyclic.txt", 200, 31, false );
+        for (String engine: new String[] { "objects", "compiled", "parallel", "levelized" }) {
+            for (String seconds: new String[] { "1e9", "1e12", "1e300" }) {
+                Circuits.Run r = Circuits.ok( "-engine", engine, "-threads", "2",
+                                              "-seconds", seconds, f.getPath() );
+                assertTrue( r.err.contains( "run stopped by no more events" ),
+                            engine + " with -seconds " + seconds + ": " + r.err );
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/** MetricsTest.java
+ * Checks the counts reported by -metrics
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Each engine must count the events the run summary gives, and an output
+ *  change for each line of the trace.  Metrics are fixed when the class
+ *  is loaded, so each run is a Logic of its own.
+ */
+class MetricsTest {
+    @TempDir
+    Path dir;
+
+    /** @param text the output of Logic
+     *  @param regex a pattern with one group, a number
+     *  @return that number
+     */
+    private static long number( String text, String regex ) {
+        Matcher m = Pattern.compile( regex ).matcher( text );
+        assertTrue( m.find(), regex + " in " + text );
+        return Long.parseLong( m.group( 1 ) );
+    }
+
+    /** check the report of one run
+     *  @param f a circuit
+     *  @param engine the engine to run it with
+     *  @param queued true if the engine schedules events in a queue
+     */
+    private static void check( File f, String engine, boolean queued ) throws Exception {
+        Circuits.Run r = Circuits.ok( "-engine", engine, "-metrics", "-until", "20",
+                                      f.getPath() );
+        long events = number( r.err, "after (\\d+) events" );
+        long scheduled = number( r.err, "events scheduled (\\d+)" );
+        long fired = number( r.err, "fired (\\d+)" );
+        long changes = number( r.err, "output change: count (\\d+)" );
+        assertTrue( events > 0, engine );
+        assertEquals( events, fired, engine );
+        if (queued) {
+            assertTrue( scheduled >= fired, engine );
+        } else { // levelized works out the changes of each gate in turn
+            assertEquals( 0, scheduled, engine );
+        }
+        assertEquals( r.out.split( "\n" ).length, changes, engine );
+        assertTrue( r.err.contains( "Metrics: seconds parse" ), r.err );
+    }
+
+    @Test
+    void countsAgreeWithTheRunInEachEngine() throws Exception {
+        File loops = Circuits.random( dir, "loops.txt", 300, 171, true );
+        for (String engine: new String[] { "objects", "compiled", "parallel" }) {
+            check( loops, engine, true );
+        }
+        check( Circuits.random( dir, "acyclic.txt", 300, 172, false ), "levelized", false );
+    }
+
+    @Test
+    void optionsBeforeMetricsDoNotTurnThemOff() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 100, 174, true );
+        Circuits.Run r = Circuits.ok( "-resolution", "1e-9", "-events", "2000", "-metrics",
+                                      f.getPath() );
+        assertEquals( 2000, number( r.err, "fired (\\d+)" ), r.err );
+    }
+
+    @Test
+    void nothingIsReportedWithoutMetrics() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 100, 173, true );
+        Circuits.Run r = Circuits.ok( "-until", "20", f.getPath() );
+        assertFalse( r.err.contains( "Metrics:" ), r.err );
+    }
+}
@@ -0,0 +1,136 @@
+/** ModuleTest.java
+ * Checks modules and their instances
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** A circuit built of instances must simulate as the same circuit written
+ *  out flat, with its gates named by the instances that hold them.
+ */
+class ModuleTest {
+    @TempDir
+    Path dir;
+
+    /** two instances of a module that itself has two instances */
+    private static final String NESTED = String.join( "\n",
+            "module inv2",
+            "gate p not 1.0",
+            "gate q not 1.5",
+            "wire p out q in 0.5",
+            "input i p in",
+            "output o q out",
+            "end",
+            "module pair",
+            "instance u inv2",
+            "instance v inv2",
+            "gate n and 2.0",
+            "wire u o v i 0.25",
+            "wire v o n in1 0.25",
+            "wire u o n in2 0.25",
+            "input in u i",
+            "output out n out",
+            "end",
+            "gate c const 1.0",
+            "instance a pair",
+            "instance b pair",
+            "gate z or 1.0",
+            "wire c true a in 1.0",
+            "wire a out b in 1.0",
+            "wire a out z in1 1.0",
+            "wire b out z in2 1.0",
+            "" );
+
+    /** the same circuit by hand, with _ where the names have dots */
+    private static final String FLAT = String.join( "\n",
+            "gate c const 1.0",
+            "gate a_u_p not 1.0",
+            "gate a_u_q not 1.5",
+            "gate a_v_p not 1.0",
+            "gate a_v_q not 1.5",
+            "gate a_n and 2.0",
+            "gate b_u_p not 1.0",
+            "gate b_u_q not 1.5",
+            "gate b_v_p not 1.0",
+            "gate b_v_q not 1.5",
+            "gate b_n and 2.0",
+            "gate z or 1.0",
+            "wire a_u_p out a_u_q in 0.5",
+            "wire a_v_p out a_v_q in 0.5",
+            "wire a_u_q out a_v_p in 0.25",
+            "wire a_v_q out a_n in1 0.25",
+            "wire a_u_q out a_n in2 0.25",
+            "wire b_u_p out b_u_q in 0.5",
+            "wire b_v_p out b_v_q in 0.5",
+            "wire b_u_q out b_v_p in 0.25",
+            "wire b_v_q out b_n in1 0.25",
+            "wire b_u_q out b_n in2 0.25",
+            "wire c true a_u_p in 1.0",
+            "wire a_n out b_u_p in 1.0",
+            "wire a_n out z in1 1.0",
+            "wire b_n out z in2 1.0",
+            "" );
+
+    /** @param name a file name
+     *  @param text the circuit
+     *  @return the file holding it
+     */
+    private File write( String name, String text ) throws Exception {
+        File f = dir.resolve( name ).toFile();
+        Files.write( f.toPath(), text.getBytes( StandardCharsets.US_ASCII ) );
+        return f;
+    }
+
+    @Test
+    void instancesTraceAsTheFlatCircuit() throws Exception {
+        File nested = write( "nested.txt", NESTED );
+        File flat = write( "flat.txt", FLAT );
+        for (String engine: new String[] { "objects", "compiled" }) {
+            Circuits.Run n = Circuits.ok( "-engine", engine, "-until", "30", nested.getPath() );
+            Circuits.Run f = Circuits.ok( "-engine", engine, "-until", "30", flat.getPath() );
+            assertTrue( n.out.contains( "gate b.u.q not" ), n.out );
+            assertEquals( f.out.replace( '_', '.' ), n.out, engine );
+            assertEquals( f.err, n.err, engine );
+        }
+    }
+
+    @Test
+    void gatesAreNamedByTheirInstances() throws Exception {
+        Simulation s = Simulation.load( write( "nested.txt", NESTED ) );
+        assertEquals( 12, s.gates() );
+        assertEquals( 2, s.find( "a.u.q" ) );
+        assertEquals( "a.u.q", s.name( 2 ) );
+        assertEquals( 10, s.find( "b.n" ) );
+        assertEquals( "z", s.name( 11 ) );
+        assertEquals( -1, s.find( "a.u" ) );
+        assertEquals( -1, s.find( "a.w.p" ) );
+    }
+
+    @Test
+    void badInstancesAreReported() throws Exception {
+        String modules = NESTED.substring( 0, NESTED.indexOf( "gate c" ) );
+        File bad = write( "bad.txt", modules + String.join( "\n",
+                "instance a pair",
+                "instance b nosuch",
+                "gate z or 1.0",
+                "wire a out z in1 1.0",
+                "wire a out z in2 1.0",
+                "" ) );
+        Simulation.Failure x = assertThrows( Simulation.Failure.class,
+                                             () -> Simulation.load( bad ) );
+        assertEquals( 2, x.messages().size(), x.messages().toString() );
+        assertTrue( x.messages().get( 0 ).contains( "Unknown module: instance b nosuch" ) );
+        assertTrue( x.messages().get( 1 ).contains( "Unused input pin: a in" ) );
+    }
+}
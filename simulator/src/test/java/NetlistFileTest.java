@@ -0,0 +1,116 @@
+/** NetlistFileTest.java
+ * Checks compiled circuit files
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** A compiled circuit must simulate as its source does, and a compiled
+ *  file that is damaged or older than its source must be refused.
+ */
+class NetlistFileTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void compiledCircuitTracesTheSameAsItsSource() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 300, 71, true );
+        String compiled = dir.resolve( "loops.lgnl" ).toString();
+        Circuits.Run c = Circuits.ok( "-compile", compiled, f.getPath() );
+        assertEquals( "", c.out );
+        assertTrue( Netlist.isCompiled( new File( compiled ) ) );
+        assertFalse( Netlist.isCompiled( f ) );
+
+        Circuits.Run source = Circuits.ok( "-until", "30", f.getPath() );
+        Circuits.Run loaded = Circuits.ok( "-until", "30", compiled );
+        assertTrue( source.out.length() > 0 );
+        assertEquals( source.out, loaded.out );
+    }
+
+    @Test
+    void damagedFilesAreRefused() throws Exception {
+        File f = Circuits.random( dir, "acyclic.txt", 100, 72, false );
+        File compiled = dir.resolve( "acyclic.lgnl" ).toFile();
+        Circuits.ok( "-compile", compiled.getPath(), f.getPath() );
+        byte[] whole = Files.readAllBytes( compiled.toPath() );
+
+        File cut = dir.resolve( "cut.lgnl" ).toFile();
+        for (int length: new int[] { 8, 20, whole.length / 2, whole.length - 1 }) {
+            Files.write( cut.toPath(), Arrays.copyOf( whole, length ) );
+            Circuits.Run r = Circuits.logic( cut.getPath() );
+            assertEquals( 1, r.status, "cut to " + length );
+            assertTrue( r.err.contains( "Compiled circuit is damaged" ), r.err );
+        }
+
+        byte[] wrong = whole.clone();
+        wrong[4] = 99; // the version
+        Files.write( cut.toPath(), wrong );
+        Circuits.Run r = Circuits.logic( cut.getPath() );
+        assertEquals( 1, r.status );
+        assertTrue( r.err.contains( "version 99" ), r.err );
+    }
+
+    @Test
+    void impossibleCountsAreRefused() throws Exception {
+        File f = Circuits.random( dir, "acyclic.txt", 100, 74, false );
+        File compiled = dir.resolve( "acyclic.lgnl" ).toFile();
+        Circuits.ok( "-compile", compiled.getPath(), f.getPath() );
+        byte[] whole = Files.readAllBytes( compiled.toPath() );
+        ByteBuffer b = ByteBuffer.wrap( whole ).order( ByteOrder.LITTLE_ENDIAN );
+        int gates = b.getInt( 16 );
+        int kinds = 28 + b.getInt( 24 );
+
+        // the gate, wire and path counts, then the last name offset
+        int[][] changes = {
+            { 16, -5 }, { 16, 2000000000 }, { 20, -1 }, { 20, Integer.MAX_VALUE },
+            { 24, -3 }, { 24, 1 << 30 }, { kinds + 10 * gates, 1 << 30 }
+        };
+        File bad = dir.resolve( "bad.lgnl" ).toFile();
+        for (int[] change: changes) {
+            ByteBuffer wrong = ByteBuffer.wrap( whole.clone() ).order( ByteOrder.LITTLE_ENDIAN );
+            wrong.putInt( change[0], change[1] );
+            Files.write( bad.toPath(), wrong.array() );
+            Circuits.Run r = Circuits.logic( bad.getPath() );
+            assertEquals( 1, r.status, "int at " + change[0] + " set to " + change[1] );
+            assertTrue( r.err.contains( "Compiled circuit is damaged" ), r.err );
+        }
+
+        int and = 0;
+        while (whole[kinds + and] != Netlist.AND) and++;
+        for (byte inputs: new byte[] { 0, -1, MultiInputGate.MAX_INPUTS + 1 }) {
+            byte[] wrong = whole.clone();
+            wrong[kinds + gates + and] = inputs;
+            Files.write( bad.toPath(), wrong );
+            Circuits.Run r = Circuits.logic( bad.getPath() );
+            assertEquals( 1, r.status, "inputs set to " + inputs );
+            assertTrue( r.err.contains( "Compiled circuit is damaged" ), r.err );
+        }
+    }
+
+    @Test
+    void staleFilesAreRefused() throws Exception {
+        File f = Circuits.random( dir, "acyclic.txt", 100, 73, false );
+        String compiled = dir.resolve( "acyclic.lgnl" ).toString();
+        Circuits.ok( "-compile", compiled, f.getPath() );
+        Files.write( f.toPath(), "-- edited\n".getBytes( StandardCharsets.US_ASCII ),
+                     StandardOpenOption.APPEND );
+        Circuits.Run r = Circuits.logic( compiled );
+        assertEquals( 1, r.status );
+        assertTrue( r.err.contains( "Compiled circuit is stale" ), r.err );
+    }
+}
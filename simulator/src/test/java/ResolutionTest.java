@@ -0,0 +1,82 @@
+/** ResolutionTest.java
+ * Checks that simulated time is kept in exact ticks
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Delays far smaller than the time already simulated must still be kept
+ *  to the tick, times must be printed exactly, and the engines must agree
+ *  at any resolution.
+ */
+class ResolutionTest {
+    @TempDir
+    Path dir;
+
+    /** a microsecond delay a million seconds in */
+    private static final String LATE = String.join( "\n",
+            "gate c const 1000000.0",
+            "gate n not 0.000001",
+            "gate m not 1.16",
+            "wire c true n in 0.000002",
+            "wire n out m in 0.000003",
+            "" );
+
+    /** @return the file holding LATE
+     */
+    private File late() throws Exception {
+        File f = dir.resolve( "late.txt" ).toFile();
+        Files.write( f.toPath(), LATE.getBytes( StandardCharsets.US_ASCII ) );
+        return f;
+    }
+
+    /** @param out a text trace
+     *  @return the time of each change, one per line
+     */
+    private static String times( String out ) {
+        StringBuilder b = new StringBuilder();
+        for (String line: out.split( "\n" )) b.append( line.split( " " )[1] ).append( '\n' );
+        return b.toString();
+    }
+
+    @Test
+    void lateChangesKeepEveryTick() throws Exception {
+        String ns = Circuits.ok( late().getPath() ).out;
+        assertEquals( "0.000001\n1000000.0\n1000000.000002952\n1000001.186906687\n",
+                      times( ns ) );
+        String ms = Circuits.ok( "-resolution", "1e-3", late().getPath() ).out;
+        assertEquals( "0.0\n1000000.0\n1000000.0\n1000001.187\n", times( ms ) );
+    }
+
+    @Test
+    void enginesAgreeAtAnyResolution() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 300, 231, true );
+        for (String resolution: new String[] { "1e-6", "1e-12" }) {
+            Circuits.Run objects = Circuits.ok( "-resolution", resolution,
+                                                "-until", "30", f.getPath() );
+            Circuits.Run compiled = Circuits.ok( "-resolution", resolution, "-engine", "compiled",
+                                                 "-until", "30", f.getPath() );
+            assertTrue( objects.out.length() > 0 );
+            assertEquals( objects.out, compiled.out, resolution );
+            assertEquals( objects.err, compiled.err, resolution );
+        }
+    }
+
+    @Test
+    void resolutionMustBeAPowerOfTen() throws Exception {
+        Circuits.Run r = Circuits.logic( "-resolution", "3e-9", late().getPath() );
+        assertEquals( 1, r.status );
+        assertEquals( "", r.out );
+        assertTrue( r.err.contains( "Resolution must be a power of ten" ), r.err );
+    }
+}
@@ -0,0 +1,136 @@
+/** ScanSupportTest.java
+ * Checks the byte by byte scanner and the name table
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** The scanner must split circuit descriptions as java.util.Scanner did,
+ *  convert numbers as Float.parseFloat does, and intern each name once.
+ */
+class ScanSupportTest {
+    @TempDir
+    Path dir;
+
+    /** @param text the contents of a file
+     *  @param names where the scanner interns names
+     *  @return a scanner of that file
+     */
+    private ScanSupport scanner( String text, NameTable names ) throws Exception {
+        File f = dir.resolve( "scan.txt" ).toFile();
+        Files.write( f.toPath(), text.getBytes( StandardCharsets.US_ASCII ) );
+        return new ScanSupport( f, names );
+    }
+
+    @Test
+    void scansTokensNamesAndNumbers() throws Exception {
+        NameTable names = new NameTable();
+        ScanSupport sc = scanner(
+                "gate  g_1\tand 1.25\n"
+              + "\n"
+              + "-- a comment\n"
+              + "wire x -3 .5 12. 007\n"
+              + "gate last const 2", names );
+        assertTrue( sc.hasNext() );
+        assertEquals( "gate", sc.name( sc.next() ) );
+        assertEquals( "g_1", sc.name( sc.nextName() ) );
+        assertEquals( "and", sc.name( sc.nextName() ) );
+        assertEquals( 1.25F, sc.nextFloat() );
+        sc.lineEnd( "gate" );
+        assertEquals( 2, sc.line() );
+
+        assertTrue( sc.hasNext() );
+        assertEquals( "--", sc.name( sc.next() ) );
+        sc.skipLine();
+        assertEquals( "wire", sc.name( sc.next() ) );
+        assertEquals( 4, sc.line() );
+        assertEquals( "x", sc.name( sc.nextName() ) );
+        assertEquals( -3, sc.nextInt() );
+        assertEquals( 0.5F, sc.nextFloat() );
+        assertEquals( 12.0F, sc.nextFloat() );
+        assertEquals( 7, sc.nextInt() );
+        sc.lineEnd( "wire" );
+
+        // the last line has no newline
+        assertEquals( "gate", sc.name( sc.next() ) );
+        assertEquals( "last", sc.name( sc.nextName() ) );
+        assertEquals( "const", sc.name( sc.nextName() ) );
+        assertEquals( 2.0F, sc.nextFloat() );
+        sc.lineEnd( "gate" );
+        assertFalse( sc.hasNext() );
+        sc.close();
+
+        // the same name scanned twice is interned once
+        assertEquals( names.find( "gate" ), names.intern( "gate" ) );
+    }
+
+    @Test
+    void reportsMissingFields() throws Exception {
+        ScanSupport sc = scanner( "gate + x\nwire\n", new NameTable() );
+        assertEquals( "gate", sc.name( sc.next() ) );
+        int errors = Errors.count();
+        assertThrows( ScanSupport.NotFound.class, () -> sc.nextName() );
+        assertEquals( errors + 1, Errors.count() );
+
+        // the rest of the line was skipped
+        assertEquals( "wire", sc.name( sc.next() ) );
+        assertThrows( ScanSupport.NotFound.class, () -> sc.nextFloat() );
+        assertFalse( sc.hasNext() );
+        sc.close();
+    }
+
+    @Test
+    void floatsAreConvertedAsParseFloatDoes() throws Exception {
+        Random r = new Random( 6 );
+        StringBuilder s = new StringBuilder();
+        String[] numbers = new String[2000];
+        for (int i = 0; i < numbers.length; i++) {
+            double x = r.nextDouble();
+            switch (i % 4) {
+                case 0:  numbers[i] = Integer.toString( r.nextInt( 100000 ) ); break;
+                case 1:  numbers[i] = String.format( Locale.ROOT, "%.2f", 1000 * x ); break;
+                case 2:  numbers[i] = String.format( Locale.ROOT, "%.9f", x ); break;
+                default: numbers[i] = String.format( Locale.ROOT, "-%.17f", x );
+            }
+            s.append( numbers[i] ).append( '\n' );
+        }
+        ScanSupport sc = scanner( s.toString(), new NameTable() );
+        for (String n: numbers) {
+            assertTrue( sc.hasNext() );
+            assertEquals( Float.parseFloat( n ), sc.nextFloat(), n );
+            sc.lineEnd( n );
+        }
+        sc.close();
+    }
+
+    @Test
+    void namesGetIdsInOrder() {
+        NameTable names = new NameTable();
+        int n = 100000; // enough to grow the table many times
+        for (int i = 0; i < n; i++) assertEquals( i, names.intern( "n" + i ) );
+        assertEquals( n, names.size() );
+        for (int i = 0; i < n; i++) {
+            String name = "n" + i;
+            byte[] b = name.getBytes( StandardCharsets.US_ASCII );
+            assertEquals( i, names.find( name ) );
+            assertEquals( i, names.intern( b, b.length ) );
+            assertEquals( name, names.name( i ) );
+        }
+        assertEquals( -1, names.find( "n" + n ) );
+        assertEquals( n, names.size() );
+    }
+}
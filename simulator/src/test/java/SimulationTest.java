@@ -0,0 +1,132 @@
+/** SimulationTest.java
+ * Checks the embeddable simulation
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** A simulation reset with the same seed must run again exactly as it
+ *  first ran, and as the command line runs, and a circuit with errors
+ *  must give its messages back instead of ending the program.
+ */
+class SimulationTest {
+    @TempDir
+    Path dir;
+
+    /** Records every change traced, one per line
+     */
+    static final class Recorder extends Trace {
+        final StringBuilder changes = new StringBuilder();
+
+        Recorder() {
+            super( null, false );
+        }
+
+        public void declare( int signal, String name, String label ) {}
+
+        public void change( long time, int signal, boolean value ) {
+            changes.append( time ).append( ' ' ).append( signal ).append( ' ' )
+                   .append( value ).append( '\n' );
+        }
+
+        public void close() {}
+    }
+
+    /** @param s a simulation
+     *  @return the values of all its gates
+     */
+    private static String values( Simulation s ) {
+        StringBuilder b = new StringBuilder();
+        for (int g = 0; g < s.gates(); g++) b.append( s.value( g ) ? '1' : '0' );
+        return b.toString();
+    }
+
+    @Test
+    void resetRunsAgainAsTheFirstRunAndTheCommandLine() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 300, 111, true );
+        Recorder r = new Recorder();
+        Simulation s = Simulation.load( f, r );
+        Simulator.Limits limits = new Simulator.Limits();
+        limits.endTime = 20;
+
+        String summary = s.run( limits ).toString();
+        String changes = r.changes.toString();
+        String values = values( s );
+        assertTrue( changes.length() > 0 );
+        Circuits.Run cli = Circuits.ok( "-engine", "compiled", "-until", "20", f.getPath() );
+        assertEquals( "Logic: " + summary, cli.err.trim() );
+
+        for (int again = 0; again < 3; again++) {
+            r.changes.setLength( 0 );
+            s.reset( PRNG.SEED );
+            assertEquals( summary, s.run( limits ).toString() );
+            assertEquals( changes, r.changes.toString() );
+            assertEquals( values, values( s ) );
+        }
+
+        // another seed gives other delays, and the first seed comes back
+        r.changes.setLength( 0 );
+        s.reset( PRNG.SEED + 1 );
+        s.run( limits );
+        assertNotEquals( changes, r.changes.toString() );
+        r.changes.setLength( 0 );
+        s.reset( PRNG.SEED );
+        s.run( limits );
+        assertEquals( changes, r.changes.toString() );
+    }
+
+    @Test
+    void runsContinueWhereTheLastStopped() throws Exception {
+        File f = Circuits.random( dir, "loops.txt", 200, 112, true );
+        Recorder whole = new Recorder();
+        Simulator.Limits limits = new Simulator.Limits();
+        limits.endTime = 20;
+        String summary = Simulation.load( f, whole ).run( limits ).toString();
+
+        Recorder parts = new Recorder();
+        Simulation s = Simulation.load( f, parts );
+        limits.endTime = 7;
+        s.run( limits );
+        limits.endTime = 20;
+        assertEquals( summary.replaceAll( " after .*", "" ),
+                      s.run( limits ).toString().replaceAll( " after .*", "" ) );
+        assertEquals( whole.changes.toString(), parts.changes.toString() );
+    }
+
+    @Test
+    void errorsComeBackAsMessages() throws Exception {
+        File bad = dir.resolve( "bad.txt" ).toFile();
+        Files.write( bad.toPath(), ( "gate a const 1.0\n"
+                                   + "gate a not 1.0\n"
+                                   + "wire b out a in 1.0\n" )
+                                   .getBytes( StandardCharsets.US_ASCII ) );
+        Simulation.Failure x = assertThrows( Simulation.Failure.class,
+                                             () -> Simulation.load( bad ) );
+        assertEquals( 2, x.messages().size(), x.messages().toString() );
+        assertTrue( x.messages().get( 0 ).contains( "Redefinition: gate a not" ) );
+        assertTrue( x.messages().get( 1 ).contains( "No such source gate" ) );
+
+        x = assertThrows( Simulation.Failure.class,
+                          () -> Simulation.load( dir.resolve( "none.txt" ).toFile() ) );
+        assertEquals( 1, x.messages().size() );
+
+        // nothing of the bad circuit is left behind
+        Simulation s = Simulation.load( Circuits.random( dir, "good.txt", 50, 113, false ) );
+        assertEquals( 53, s.gates() );
+        assertEquals( 3, s.find( "g0" ) );
+        assertEquals( "g0", s.name( 3 ) );
+        assertEquals( -1, s.find( "a" ) );
+    }
+}
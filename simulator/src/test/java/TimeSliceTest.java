@@ -0,0 +1,75 @@
+/** TimeSliceTest.java
+ * Checks that -timeslice evaluates each gate once per instant
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Inputs that change at the same time must make one evaluation of their
+ *  gate, and gates without delay must change in a later pass at the same
+ *  time.
+ */
+class TimeSliceTest {
+    @TempDir
+    Path dir;
+
+    /** an xor and an and each driven twice by one gate through equal
+     *  wires, and a not without delay after the and
+     */
+    private static final String TWICE = String.join( "\n",
+            "gate c const 1.0",
+            "gate x xor 1.0",
+            "gate a and 0.0",
+            "gate z not 0.0",
+            "wire c true x in1 1.0",
+            "wire c true x in2 1.0",
+            "wire c true a in1 1.0",
+            "wire c true a in2 1.0",
+            "wire a out z in 0.0",
+            "" );
+
+    /** @return the file holding TWICE
+     */
+    private File twice() throws Exception {
+        File f = dir.resolve( "twice.txt" ).toFile();
+        Files.write( f.toPath(), TWICE.getBytes( StandardCharsets.US_ASCII ) );
+        return f;
+    }
+
+    @Test
+    void simultaneousInputsMakeOneEvaluation() throws Exception {
+        Circuits.Run sliced = Circuits.ok( "-timeslice", "-until", "10", twice().getPath() );
+        assertEquals( String.join( "\n",
+                "At 0.0 gate z not 0.0 out  changes to true",
+                "At 1.0 gate c const 1.0 true  changes to true",
+                "At 2.0 gate a and 0.0 out  changes to true",
+                "At 2.0 gate z not 0.0 out  changes to false",
+                "" ), sliced.out );
+        assertTrue( sliced.err.contains( "no more events at 2.0 after 9 events" ), sliced.err );
+
+        // one change at a time, the xor schedules a change and its undoing
+        Circuits.Run each = Circuits.ok( "-until", "10", twice().getPath() );
+        assertEquals( sliced.out, each.out );
+        assertTrue( each.err.contains( "after 11 events" ), each.err );
+    }
+
+    @Test
+    void otherEnginesAreRefused() throws Exception {
+        Circuits.Run r = Circuits.logic( "-timeslice", "-engine", "compiled",
+                                         twice().getPath() );
+        assertEquals( 1, r.status );
+        assertFalse( r.out.contains( "changes" ), r.out );
+        assertTrue( r.err.contains( "-timeslice works only with the objects engine" ), r.err );
+    }
+}
@@ -0,0 +1,116 @@
+/** WideGateTest.java
+ * Checks the truth tables of the gate kinds, for any number of inputs
+ *
+ * Bug notices in the code indicate unsolved problems
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Every kind of gate, with from 1 to 64 inputs held at constant values,
+ *  must settle at the value its truth table gives, in each engine.
+ */
+class WideGateTest {
+    @TempDir
+    Path dir;
+
+    private static final String[] KINDS = { "and", "or", "nand", "nor", "xor", "xnor" };
+    private static final int[] WIDTHS = { 1, 2, 3, 5, 63, 64 };
+
+    /** A circuit of gates fed by a const gate, with the value each must reach
+     */
+    private final List <String> names = new ArrayList <String> ();
+    private final List <Boolean> expected = new ArrayList <Boolean> ();
+
+    /** @return the circuit, with every kind and width and a few patterns
+     *          of inputs for each, all false and all true included
+     */
+    private File circuit() throws Exception {
+        Random r = new Random( 211 );
+        StringBuilder gates = new StringBuilder( "gate c const 1.0\n" );
+        StringBuilder wires = new StringBuilder();
+        for (String kind: KINDS) {
+            for (int n: WIDTHS) {
+                for (int p = 0; p < 6; p++) {
+                    String name = kind + n + "x" + p;
+                    gates.append( "gate " ).append( name ).append( ' ' ).append( kind )
+                         .append( " 1.0" );
+                    if (n != 2) gates.append( ' ' ).append( n );
+                    gates.append( '\n' );
+                    boolean[] v = new boolean[n];
+                    for (int i = 0; i < n; i++) {
+                        v[i] = (p == 0) ? false : (p == 1) ? true : r.nextBoolean();
+                        wires.append( "wire c " ).append( v[i] ).append( ' ' )
+                             .append( name ).append( " in" ).append( i + 1 )
+                             .append( " 1.0\n" );
+                    }
+                    names.add( name );
+                    expected.add( BitParallelTest.Direct.evaluate( kind, v ) );
+                }
+            }
+        }
+        File f = dir.resolve( "wide.txt" ).toFile();
+        Files.write( f.toPath(),
+                     (gates.toString() + wires).getBytes( StandardCharsets.US_ASCII ) );
+        return f;
+    }
+
+    @Test
+    void gatesSettleAtTheirTruthTables() throws Exception {
+        File f = circuit();
+
+        Simulation s = Simulation.load( f );
+        s.run( new Simulator.Limits() );
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals( expected.get( i ), s.value( s.find( names.get( i ) ) ),
+                          names.get( i ) );
+        }
+
+        // every gate starts false, and the trace gives each change after
+        for (String engine: new String[] { "objects", "levelized" }) {
+            Map <String, Boolean> settled = new HashMap <String, Boolean> ();
+            for (String line: Circuits.ok( "-engine", engine, f.getPath() ).out.split( "\n" )) {
+                String[] w = line.split( " +" );
+                settled.put( w[3], Boolean.valueOf( w[w.length - 1] ) );
+            }
+            for (int i = 0; i < names.size(); i++) {
+                assertEquals( expected.get( i ), settled.getOrDefault( names.get( i ), false ),
+                              engine + " " + names.get( i ) );
+            }
+        }
+    }
+
+    @Test
+    void widthsOutOfRangeAreReported() throws Exception {
+        File f = dir.resolve( "bad.txt" ).toFile();
+        Files.write( f.toPath(), String.join( "\n",
+                "gate c const 1.0",
+                "gate x and 1.0 65",
+                "gate y or 1.0 0",
+                "gate z xor 1.0",
+                "wire c true z in3 1.0",
+                "wire c true z in1 1.0",
+                "wire c true z in2 1.0",
+                "" ).getBytes( StandardCharsets.US_ASCII ) );
+        Simulation.Failure x = assertThrows( Simulation.Failure.class,
+                                             () -> Simulation.load( f ) );
+        assertEquals( 3, x.messages().size(), x.messages().toString() );
+        assertTrue( x.messages().get( 0 ).contains( "Inputs out of range: gate x and 1.0 65" ) );
+        assertTrue( x.messages().get( 1 ).contains( "Inputs out of range: gate y or 1.0 0" ) );
+        assertTrue( x.messages().get( 2 ).contains( "Illegal input pin: z in3" ) );
+    }
+}